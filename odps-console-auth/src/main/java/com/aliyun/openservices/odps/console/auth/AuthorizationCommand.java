@@ -40,6 +40,9 @@ import com.aliyun.openservices.odps.console.output.DefaultOutputWriter;
 import org.jline.reader.UserInterruptException;
 
 public class AuthorizationCommand extends AbstractCommand {
+  public static final String[] PARSE_KEYWORDS = new String[]{
+      "grant", "revoke", "show", "clear", "list", "create", "drop", "add", "remove", "alter",
+      "describe", "desc", "delete", "allow", "disallow", "install", "uninstall", "set", "unset"};
 
   private static final Pattern[] PATTERNS = {
       Pattern.compile("\\s*GRANT.*"),
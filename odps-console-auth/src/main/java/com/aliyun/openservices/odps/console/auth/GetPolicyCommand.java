@@ -34,6 +34,7 @@ public class GetPolicyCommand extends AbstractCommand {
   private String roleName = null;
 
   public static final String[] HELP_TAGS = new String[]{"get", "policy"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"get"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: get policy");
@@ -13,6 +13,7 @@ public class GetSecurityPolicyCommand extends AbstractCommand {
   private static final String REGEX = "GET\\s+SECURITY\\s+POLICY";
 
   public static final String[] HELP_TAGS = {"GET", "SECURITY", "POLICY"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"get"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: GET SECURITY POLICY");
@@ -35,6 +35,7 @@ public class PutPolicyCommand extends AbstractCommand {
   private String roleName = null;
 
   public static final String[] HELP_TAGS = new String[]{"put", "policy"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"put"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: put policy <policyFile>");
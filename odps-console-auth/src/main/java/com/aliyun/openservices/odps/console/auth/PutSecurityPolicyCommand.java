@@ -13,6 +13,7 @@ public class PutSecurityPolicyCommand extends AbstractCommand {
   private static final String REGEX = "PUT\\s+SECURITY\\s+POLICY\\s+.+";
 
   public static final String[] HELP_TAGS = {"PUT", "SECURITY", "POLICY"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"put"};
 
   private String policyPath;
 
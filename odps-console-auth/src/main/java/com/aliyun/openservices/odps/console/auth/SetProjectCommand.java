@@ -35,6 +35,7 @@ public class SetProjectCommand extends AbstractCommand {
   private String commandText;
 
   public static final String[] HELP_TAGS = new String[]{"setproject", "set", "project"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"setproject"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: setproject <key>=<value> [<key>=<value>]");
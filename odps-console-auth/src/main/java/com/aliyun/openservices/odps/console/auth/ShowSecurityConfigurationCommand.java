@@ -34,6 +34,7 @@ import com.aliyun.openservices.odps.console.output.DefaultOutputWriter;
 public class ShowSecurityConfigurationCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"show", "security", "configuration", "auth"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"show"};
 
   public static void printUsage(PrintStream out) {
     out.println("Usage: show securityconfiguration");
@@ -183,10 +183,6 @@ public class ExecutionContext implements Cloneable {
 
   private Map<String, String> predefinedSetCommands = new HashMap<String, String>();
 
-  private static InstanceRunner instanceRunner;
-  // session query executor
-  private static SQLExecutor executor;
-
   public boolean isHttpsCheck() {
     return httpsCheck;
   }
@@ -598,11 +594,11 @@ public class ExecutionContext implements Cloneable {
   }
 
   public static void setInstanceRunner(InstanceRunner runner) {
-    instanceRunner = runner;
+    RequestScope.current().setInstanceRunner(runner);
   }
 
   public static InstanceRunner getInstanceRunner() {
-    return instanceRunner;
+    return RequestScope.current().getInstanceRunner();
   }
 
   public String getOdpsCupidProxyEndpoint(){ return this.odpsCupidProxyEndpoint; }
@@ -1068,12 +1064,13 @@ public class ExecutionContext implements Cloneable {
     return localCache;
   }
 
+  // session query executor, of the request being run, see RequestScope
   public static SQLExecutor getExecutor() {
-    return executor;
+    return RequestScope.current().getExecutor();
   }
 
   public static void setExecutor(SQLExecutor executor) {
-    ExecutionContext.executor = executor;
+    RequestScope.current().setExecutor(executor);
   }
 
   public boolean setLocalCache(LocalCacheUtils.CacheItem localCache) {
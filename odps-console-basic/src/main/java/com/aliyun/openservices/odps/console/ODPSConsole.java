@@ -36,10 +36,24 @@ import com.aliyun.openservices.odps.console.utils.CommandParserUtils;
 public class ODPSConsole {
   public static void main(String[] args) throws ODPSConsoleException {
     String [] commandArgs = CommandParserUtils.getCommandArgs(args);
+    System.exit(run(commandArgs));
+  }
 
+  /**
+   * Run a command line, in the console process or in the daemon for a client.
+   *
+   * @return the exit code of the console
+   */
+  public static int run(String[] commandArgs) throws ODPSConsoleException {
     List<String> options = new ArrayList<String>();
     // 取得用户设置的config文件，没有设置返回null
-    String config = prepareOptions(commandArgs, options);
+    String config;
+    try {
+      config = prepareOptions(commandArgs, options);
+    } catch (ODPSConsoleException e) {
+      System.err.println(ODPSConsoleConstants.FAILED_MESSAGE + e.getMessage());
+      return 1;
+    }
 
     // 创建session context
     ExecutionContext sessionContext = ExecutionContext.load(config);
@@ -69,7 +83,7 @@ public class ODPSConsole {
       // 在debug模式，把出错信息的stack，输出出来
       writer.writeDebug(e);
 
-      System.exit(1);
+      return 1;
     } catch (ODPSConsoleException e) {
       writer.writeError(ODPSConsoleConstants.FAILED_MESSAGE + e.getMessage());
       if (StringUtils.isNullOrEmpty(e.getMessage())) {
@@ -78,17 +92,17 @@ public class ODPSConsole {
 
       writer.writeDebug(e);
 
-      System.exit(e.getExitCode());
+      return e.getExitCode();
     } catch (Exception e) {
       // 如果是未知的异常,
       e.printStackTrace();
 
-      System.exit(1);
+      return 1;
     }
 
     sessionContext.getOutputWriter().writeDebug("ODPSConsole End");
     // 正常退出
-    System.exit(0);
+    return 0;
   }
 
   private static void checkSDKEnviron() {
@@ -105,7 +119,8 @@ public class ODPSConsole {
     }
   }
 
-  protected static String prepareOptions(String[] args, List<String> options) {
+  protected static String prepareOptions(String[] args, List<String> options)
+      throws ODPSConsoleException {
 
     String config = null;
     for (String option : args) {
@@ -114,8 +129,7 @@ public class ODPSConsole {
         if (configOptions.length == 2) {
           config = configOptions[1];
         } else {
-          System.err.println(ODPSConsoleConstants.FAILED_MESSAGE + "pls set config correctly.");
-          System.exit(1);
+          throw new ODPSConsoleException("pls set config correctly.");
         }
       } else {
         options.add(option);
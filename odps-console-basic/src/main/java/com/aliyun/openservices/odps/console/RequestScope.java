@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.openservices.odps.console;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import com.aliyun.odps.sqa.SQLExecutor;
+import com.aliyun.openservices.odps.console.output.InstanceRunner;
+import com.aliyun.openservices.odps.console.utils.LocalCacheUtils;
+
+/**
+ * State of the console kept in static fields, such as the flags of SET, the session query
+ * executor and the session cache, for one request.
+ *
+ * A console process runs one request in the global scope. The daemon runs the requests of its
+ * clients at the same time, each one in its own scope with its own stdin, stdout and stderr. The
+ * scope is inherited by the threads started by the request.
+ */
+public class RequestScope {
+
+  private static final RequestScope GLOBAL = new RequestScope(null, null, null);
+  private static final InheritableThreadLocal<RequestScope> CURRENT =
+      new InheritableThreadLocal<RequestScope>();
+
+  private final Map<String, String> setMap = new HashMap<String, String>();
+  private final Map<String, String> aliasMap = new HashMap<String, String>();
+  private volatile InstanceRunner instanceRunner;
+  private volatile SQLExecutor executor;
+  private final LocalCacheUtils.CacheState cacheState = new LocalCacheUtils.CacheState();
+
+  private final InputStream in;
+  private final OutputStream out;
+  private final OutputStream err;
+
+  /**
+   * @param in
+   *     stdin of the request, or null for the stdin of the process, so are out and err
+   */
+  public RequestScope(InputStream in, OutputStream out, OutputStream err) {
+    this.in = in;
+    this.out = out;
+    this.err = err;
+  }
+
+  /**
+   * @return the scope of the request run by the current thread, or the global scope
+   */
+  public static RequestScope current() {
+    RequestScope scope = CURRENT.get();
+    return scope == null ? GLOBAL : scope;
+  }
+
+  /**
+   * Run a request in this scope on the current thread.
+   */
+  public <T> T call(Callable<T> request) throws Exception {
+    RequestScope previous = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      return request.call();
+    } finally {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Release what the request keeps until it ends, such as the lock of its session cache.
+   */
+  public void close() {
+    cacheState.unlock();
+  }
+
+  public Map<String, String> getSetMap() {
+    return setMap;
+  }
+
+  public Map<String, String> getAliasMap() {
+    return aliasMap;
+  }
+
+  public InstanceRunner getInstanceRunner() {
+    return instanceRunner;
+  }
+
+  public void setInstanceRunner(InstanceRunner instanceRunner) {
+    this.instanceRunner = instanceRunner;
+  }
+
+  public SQLExecutor getExecutor() {
+    return executor;
+  }
+
+  public void setExecutor(SQLExecutor executor) {
+    this.executor = executor;
+  }
+
+  public LocalCacheUtils.CacheState getCacheState() {
+    return cacheState;
+  }
+
+  public InputStream getIn() {
+    return in;
+  }
+
+  public OutputStream getOut() {
+    return out;
+  }
+
+  public OutputStream getErr() {
+    return err;
+  }
+
+  /**
+   * @return a map which reads and writes the flags of SET of the current scope
+   */
+  public static Map<String, String> setMapView() {
+    return new ScopedMap() {
+      @Override
+      protected Map<String, String> target() {
+        return current().setMap;
+      }
+    };
+  }
+
+  /**
+   * @return a map which reads and writes the aliases of the current scope
+   */
+  public static Map<String, String> aliasMapView() {
+    return new ScopedMap() {
+      @Override
+      protected Map<String, String> target() {
+        return current().aliasMap;
+      }
+    };
+  }
+
+  /**
+   * A map kept in a static field, which is the map of the current scope when it is used.
+   */
+  private abstract static class ScopedMap extends AbstractMap<String, String> {
+
+    protected abstract Map<String, String> target();
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+      return target().entrySet();
+    }
+
+    @Override
+    public int size() {
+      return target().size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return target().containsKey(key);
+    }
+
+    @Override
+    public String get(Object key) {
+      return target().get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+      return target().put(key, value);
+    }
+
+    @Override
+    public String remove(Object key) {
+      return target().remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> m) {
+      target().putAll(m);
+    }
+
+    @Override
+    public void clear() {
+      target().clear();
+    }
+  }
+}
@@ -110,13 +110,14 @@ public class ArchiveCommand extends MultiClusterCommandBase {
         super(commandText, context);
     }
 
+    private static final Pattern PATTERN =
+            Pattern.compile("\\s*ALTER\\s+TABLE\\s+(.*)\\s+(ARCHIVE\\s*)$",
+                            Pattern.CASE_INSENSITIVE);
+
     public static ArchiveCommand parse(String commandString,
                                      ExecutionContext sessionContext) {
         String content = commandString;
-        String regstr = "\\s*ALTER\\s+TABLE\\s+(.*)\\s+(ARCHIVE\\s*)$";
-
-        Pattern p = Pattern.compile(regstr, Pattern.CASE_INSENSITIVE);
-        Matcher m = p.matcher(content);
+        Matcher m = PATTERN.matcher(content);
 
         if (m.find()) {
             // extract the table/partition info
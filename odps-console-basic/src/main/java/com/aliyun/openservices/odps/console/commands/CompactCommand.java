@@ -177,12 +177,13 @@ public class CompactCommand extends MultiClusterCommandBase {
     return null;
   }
 
+  private static final Pattern PATTERN =
+      Pattern.compile("(?s)\\s*ALTER\\s+TABLE\\s+(.*)\\s+COMPACT\\s+(.*)",
+                      Pattern.CASE_INSENSITIVE);
+
   public static CompactCommand parse(String commandString, ExecutionContext sessionContext)
       throws ODPSConsoleException {
-    String regstr = "(?s)\\s*ALTER\\s+TABLE\\s+(.*)\\s+COMPACT\\s+(.*)";
-
-    Pattern p = Pattern.compile(regstr, Pattern.CASE_INSENSITIVE);
-    Matcher m = p.matcher(commandString);
+    Matcher m = PATTERN.matcher(commandString);
 
     if (m.find()) {
       String tablePart = m.group(1).trim();
@@ -71,6 +71,7 @@ public class ExternalProjectCommand extends AbstractCommand {
   }
 
   public static final String[] HELP_TAGS = new String[]{"create", "externalproject", "external", "project"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"create", "update", "drop", "delete"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: create externalproject -name <project name> -ref <referred managed project>  [-comment <comment>]");
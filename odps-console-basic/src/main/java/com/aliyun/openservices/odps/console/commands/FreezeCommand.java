@@ -92,12 +92,13 @@ public class FreezeCommand extends MultiClusterCommandBase {
     }
   }
 
+  private static final Pattern PATTERN =
+      Pattern.compile("\\s*ALTER\\s+TABLE\\s+(.*)\\s+(FREEZE\\s*)$",
+                      Pattern.CASE_INSENSITIVE);
+
   public static FreezeCommand parse(String commandString,
                                      ExecutionContext sessionContext) {
-    String regex = "\\s*ALTER\\s+TABLE\\s+(.*)\\s+(FREEZE\\s*)$";
-
-    Pattern p = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-    Matcher m = p.matcher(commandString);
+    Matcher m = PATTERN.matcher(commandString);
 
     if (m.find()) {
       // extract the table/partition info
@@ -37,6 +37,7 @@ import com.aliyun.openservices.odps.console.utils.antlr.AntlrObject;
 public class HelpCommand extends DirectCommand {
 
   public static final String[] HELP_TAGS = new String[]{"help"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"help", "h"};
 
   private static final String ERR_READ_FILE = "Can not find help file.";
 
@@ -19,6 +19,7 @@ public class HistoryCommand extends AbstractCommand {
   private String filter;
 
   public static final String[] HELP_TAGS = new String[]{"history"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"history"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: history [*grep <string>]");
@@ -109,11 +109,12 @@ public class MergeCommand extends MultiClusterCommandBase {
     super(commandText, context);
   }
 
-  public static MergeCommand parse(String commandString, ExecutionContext sessionContext) {
-    String regex = "\\s*ALTER\\s+TABLE\\s+(.*)\\s+(MERGE\\s+SMALLFILES\\s*)$";
+  private static final Pattern PATTERN =
+      Pattern.compile("\\s*ALTER\\s+TABLE\\s+(.*)\\s+(MERGE\\s+SMALLFILES\\s*)$",
+                      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
-    Pattern p = Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-    Matcher m = p.matcher(commandString);
+  public static MergeCommand parse(String commandString, ExecutionContext sessionContext) {
+    Matcher m = PATTERN.matcher(commandString);
 
     if (m.find()) {
       // extract the table/partition info
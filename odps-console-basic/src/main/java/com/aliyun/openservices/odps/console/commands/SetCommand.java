@@ -42,7 +42,6 @@ import static com.aliyun.openservices.odps.console.constants.ODPSConsoleConstant
 
 import java.io.PrintStream;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -52,6 +51,7 @@ import com.aliyun.odps.security.SecurityConfiguration;
 import com.aliyun.odps.security.SecurityManager;
 import com.aliyun.openservices.odps.console.ExecutionContext;
 import com.aliyun.openservices.odps.console.ODPSConsoleException;
+import com.aliyun.openservices.odps.console.RequestScope;
 import com.aliyun.openservices.odps.console.constants.ODPSConsoleConstants;
 import com.aliyun.openservices.odps.console.utils.FileUtil;
 import com.aliyun.openservices.odps.console.utils.LogUtil;
@@ -63,15 +63,16 @@ import com.google.gson.GsonBuilder;
  * @author shuman.gansm
  */
 public class SetCommand extends AbstractCommand {
+  public static final String[] PARSE_KEYWORDS = new String[]{"set", "alias"};
 
   protected static final String[] HELP_TAGS = new String[]{"set", "alias"};
 
   private static final String SET_REGEX = "^SET\\s+\\S+\\s*=\\s*\\S+.*";
   private static final String ALIAS_REGEX = "^ALIAS\\s+\\S+\\s*=\\s*\\S+.*";
 
-  // session map
-  public static Map<String, String> setMap = new HashMap<>();
-  public static Map<String, String> aliasMap = new HashMap<>();
+  // session map, of the request being run, see RequestScope
+  public static Map<String, String> setMap = RequestScope.setMapView();
+  public static Map<String, String> aliasMap = RequestScope.aliasMapView();
 
   private static final List<String>
       ACL_LIST =
@@ -15,6 +15,7 @@ import com.aliyun.openservices.odps.console.constants.ODPSConsoleConstants;
 public class SetenvCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"setenv"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"setenv"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: setenv <key>=<value>");
@@ -35,6 +35,7 @@ import com.aliyun.openservices.odps.console.utils.FileUtil;
 public class ShowVersionCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"show", "version"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"show"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: show version");
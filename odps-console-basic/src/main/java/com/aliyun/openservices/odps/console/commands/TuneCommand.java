@@ -57,7 +57,7 @@ public class TuneCommand extends MultiClusterCommandBase {
   public static final String[]
       HELP_TAGS =
       new String[]{"tune", "tuning"};
-
+  public static final String[] PARSE_KEYWORDS = new String[]{"tune"};
 
   public static void printUsage(PrintStream stream) {
     stream.println(
@@ -274,12 +274,12 @@ public class TuneCommand extends MultiClusterCommandBase {
     }
   }
 
+  private static final Pattern PATTERN =
+      Pattern.compile("^\\s*(TUNE)(\\s+)([\\s\\S]*)", Pattern.CASE_INSENSITIVE);
+
   public static TuneCommand parse(String commandString, ExecutionContext sessionContext)
       throws ODPSConsoleException {
-    String regStr = "^\\s*(TUNE)(\\s+)([\\s\\S]*)";
-
-    Pattern p = Pattern.compile(regStr, Pattern.CASE_INSENSITIVE);
-    Matcher m = p.matcher(commandString);
+    Matcher m = PATTERN.matcher(commandString);
 
     if (m.find()) {
       String sqlPart = m.group(3).trim();
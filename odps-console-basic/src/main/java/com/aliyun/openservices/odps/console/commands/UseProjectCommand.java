@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -45,6 +46,7 @@ import com.aliyun.openservices.odps.console.utils.OdpsConnectionFactory;
 import com.aliyun.openservices.odps.console.utils.SessionUtils;
 
 public class UseProjectCommand extends DirectCommand {
+  public static final String[] PARSE_KEYWORDS = new String[]{"use"};
 
   private static final String OPTION_PROJECT_NAME = "--project";
 
@@ -57,6 +59,35 @@ public class UseProjectCommand extends DirectCommand {
       "\\s*USE\\s+(\\w+)\\s*(with-settings)?\\s*",
       Pattern.CASE_INSENSITIVE);
 
+  // metadata of the projects read by USE, kept by the daemon for the next requests of its clients,
+  // null when the console runs one request
+  private static volatile Map<String, ProjectMeta> projectCache = null;
+  private static final long PROJECT_CACHE_MILLIS = 5 * 60 * 1000L;
+
+  /**
+   * Metadata of a project which USE reads from the server.
+   */
+  private static class ProjectMeta {
+
+    final long loadTime = System.currentTimeMillis();
+    final boolean ignoreCerts;
+    // null when they can not be read
+    Map<String, String> properties;
+    Boolean namespaceSchema;
+
+    ProjectMeta(boolean ignoreCerts) {
+      this.ignoreCerts = ignoreCerts;
+    }
+  }
+
+  /**
+   * Keep the metadata of the projects for a few minutes, so the requests run by the daemon do not
+   * reload the project every time.
+   */
+  public static void enableProjectCache() {
+    projectCache = new ConcurrentHashMap<String, ProjectMeta>();
+  }
+
   private final String projectName;
   private final boolean withSettings;
   private final boolean initialize;
@@ -104,32 +135,15 @@ public class UseProjectCommand extends DirectCommand {
       odps.getRestClient().setConnectTimeout(30);
     }
 
-    Project project = odps.projects().get(projectName);
-
-    odps.getRestClient().setIgnoreCerts(false);
-    try {
-      project.reload();
-    } catch (RuntimeException e) {
-      if (e.getCause() instanceof SSLHandshakeException) {
-        if (getContext().isHttpsCheck()) {
-          throw e;
-        } else {
-          String
-              msg =
-              "WARNING: untrusted https connection:'" + getContext().getEndpoint()
-              + "', add https_check=true in config file to avoid this warning.";
-          getContext().getOutputWriter().writeError(msg);
-          odps.getRestClient().setIgnoreCerts(true);
-          project = odps.projects().get(projectName);
-          project.reload();
-        }
-      } else {
-        throw e;
-      }
+    ProjectMeta meta = getCachedProjectMeta();
+    if (meta != null) {
+      odps.getRestClient().setIgnoreCerts(meta.ignoreCerts);
+    } else {
+      meta = loadProjectMeta(odps);
     }
 
     clearSession();
-    initSession(odps, project);
+    initSession(odps, meta);
     getContext().setInitialized(true);
 
     if (getContext().isInteractiveMode()) {
@@ -178,25 +192,85 @@ public class UseProjectCommand extends DirectCommand {
 
   }
 
-  private void initSession(Odps odps, Project project) throws OdpsException, ODPSConsoleException {
-    // User agent
-    SetCommand.setMap.put("odps.idata.useragent", ODPSConsoleUtils.getUserAgent());
-    // Timezone and schemaFlag
+  /**
+   * Reload the project and read its properties.
+   */
+  private ProjectMeta loadProjectMeta(Odps odps) throws OdpsException {
+    Project project = odps.projects().get(projectName);
+
+    odps.getRestClient().setIgnoreCerts(false);
     try {
-      Map<String, String> projectProps = project.getAllProperties();
-      if (projectProps != null) {
-        String tz = projectProps.get(ODPS_SQL_TIMEZONE);
-        getContext().setDefaultSqlTimezone(tz);
-        if (!withSettings || !getContext().isUserSetSqlTimezone()) {
-          getContext().setSqlTimezone(tz);
+      project.reload();
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof SSLHandshakeException) {
+        if (getContext().isHttpsCheck()) {
+          throw e;
+        } else {
+          String
+              msg =
+              "WARNING: untrusted https connection:'" + getContext().getEndpoint()
+              + "', add https_check=true in config file to avoid this warning.";
+          getContext().getOutputWriter().writeError(msg);
+          odps.getRestClient().setIgnoreCerts(true);
+          project = odps.projects().get(projectName);
+          project.reload();
         }
-        getContext().setSchemaName(null);
-        boolean parseFlag = Boolean.parseBoolean(odps.tenant().getProperty(ODPSConsoleConstants.ODPS_NAMESPACE_SCHEMA));
-        getContext().setOdpsNamespaceSchema(parseFlag);
+      } else {
+        throw e;
+      }
+    }
+
+    ProjectMeta meta = new ProjectMeta(odps.getRestClient().isIgnoreCerts());
+    try {
+      meta.properties = project.getAllProperties();
+      if (meta.properties != null) {
+        meta.namespaceSchema = Boolean.parseBoolean(
+            odps.tenant().getProperty(ODPSConsoleConstants.ODPS_NAMESPACE_SCHEMA));
       }
     } catch (Exception | NoSuchMethodError e) {
       getContext().getOutputWriter().writeDebug(e);
     }
+    if (projectCache != null) {
+      projectCache.put(getProjectCacheKey(), meta);
+    }
+    return meta;
+  }
+
+  /**
+   * @return the metadata of the project kept by the daemon, or null
+   */
+  private ProjectMeta getCachedProjectMeta() {
+    if (projectCache == null) {
+      return null;
+    }
+    ProjectMeta meta = projectCache.get(getProjectCacheKey());
+    if (meta == null || System.currentTimeMillis() - meta.loadTime > PROJECT_CACHE_MILLIS) {
+      return null;
+    }
+    return meta;
+  }
+
+  private String getProjectCacheKey() {
+    return getContext().getEndpoint() + "_" + projectName + "_" + getContext().getAccessId() + "_"
+           + getContext().isHttpsCheck();
+  }
+
+  private void initSession(Odps odps, ProjectMeta meta)
+      throws OdpsException, ODPSConsoleException {
+    // User agent
+    SetCommand.setMap.put("odps.idata.useragent", ODPSConsoleUtils.getUserAgent());
+    // Timezone and schemaFlag
+    if (meta.properties != null) {
+      String tz = meta.properties.get(ODPS_SQL_TIMEZONE);
+      getContext().setDefaultSqlTimezone(tz);
+      if (!withSettings || !getContext().isUserSetSqlTimezone()) {
+        getContext().setSqlTimezone(tz);
+      }
+      getContext().setSchemaName(null);
+      if (meta.namespaceSchema != null) {
+        getContext().setOdpsNamespaceSchema(meta.namespaceSchema);
+      }
+    }
     // Predefined settings
     Map<String, String> predefinedSetCommands = getContext().getPredefinedSetCommands();
     if (!predefinedSetCommands.isEmpty()) {
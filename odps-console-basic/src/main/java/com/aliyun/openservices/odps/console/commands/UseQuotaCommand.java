@@ -29,6 +29,7 @@ public class UseQuotaCommand extends AbstractCommand {
   private static final String OPTION_DEFAULT_QUOTA_FLAG = "default";
 
   public static final String[] HELP_TAGS = new String[]{"use", "quota"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"use"};
   private static final Pattern PATTERN = Pattern.compile(
       "USE\\s+QUOTA\\s+([\\u4E00-\\u9FA5A-Za-z0-9_\\-]+)(\\s+IN\\sREGION\\s(.+))?",
       Pattern.CASE_INSENSITIVE);
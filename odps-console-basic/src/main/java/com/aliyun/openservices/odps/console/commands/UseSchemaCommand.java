@@ -36,6 +36,7 @@ public class UseSchemaCommand extends DirectCommand {
   }
 
   public static final String[] HELP_TAGS = new String[]{"use", "schema", "schemas"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"use"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: use schema <schema name>;");
@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.openservices.odps.console.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aliyun.openservices.odps.console.ODPSConsole;
+import com.aliyun.openservices.odps.console.RequestScope;
+import com.aliyun.openservices.odps.console.commands.UseProjectCommand;
+
+/**
+ * A long-lived console which runs the command lines of its clients, so a short command does not
+ * pay for starting a JVM and loading the plugins of the console every time.
+ *
+ * The daemon listens on a loopback port, and the clients prove that they are run by the same user
+ * with the token in the state file of the daemon, which only the user can read. Each request runs
+ * in its own {@link RequestScope}, so the flags of SET and the sessions of a client are not seen by
+ * the others, and stdin, stdout and stderr of the process are routed to the client of the request.
+ *
+ * Relative paths are resolved against the working directory of the daemon, so a client in another
+ * directory runs its command in its own process.
+ *
+ * Besides the JVM and the plugins, the daemon keeps the metadata of the projects read by USE for a
+ * few minutes, see {@link UseProjectCommand#enableProjectCache()}. The other state of a request,
+ * such as its Odps object, is created again for each request.
+ */
+public class ConsoleDaemon implements Closeable {
+
+  /**
+   * Runs a command line and returns the exit code, such as {@link ODPSConsole#run(String[])}.
+   */
+  public interface Console {
+
+    int run(String[] args) throws Exception;
+  }
+
+  private static boolean streamsInstalled = false;
+
+  private final ServerSocket server;
+  private final String token;
+  private final String dir;
+  private final Console console;
+  private final ExecutorService executor;
+
+  /**
+   * @param port
+   *     loopback port to listen on, 0 for any free port
+   */
+  public ConsoleDaemon(int port, String token, Console console) throws IOException {
+    this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    this.token = token;
+    this.dir = System.getProperty("user.dir");
+    this.console = console;
+    final AtomicInteger threads = new AtomicInteger();
+    this.executor = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "odpscmd-daemon-" + threads.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    installStreams();
+  }
+
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * Accept the clients until the daemon is closed.
+   */
+  public void serve() {
+    while (!server.isClosed()) {
+      final Socket socket;
+      try {
+        socket = server.accept();
+      } catch (IOException e) {
+        if (!server.isClosed()) {
+          System.err.println("odpscmd daemon: " + e.getMessage());
+        }
+        continue;
+      }
+      executor.execute(() -> {
+        try {
+          handle(socket);
+        } catch (IOException e) {
+          // the client is gone
+        } finally {
+          try {
+            socket.close();
+          } catch (IOException ignore) {
+          }
+        }
+      });
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.close();
+    executor.shutdownNow();
+  }
+
+  private void handle(Socket socket) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    final DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+    String clientToken = DaemonProtocol.readString(in);
+    if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                               clientToken.getBytes(StandardCharsets.UTF_8))) {
+      return;
+    }
+    String clientDir = DaemonProtocol.readString(in);
+    final String[] args = new String[in.readInt()];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = DaemonProtocol.readString(in);
+    }
+    if (!dir.equals(clientDir)) {
+      DaemonProtocol.writeFrame(out, DaemonProtocol.REFUSED, "the daemon runs in " + dir);
+      return;
+    }
+    DaemonProtocol.writeFrame(out, DaemonProtocol.ACCEPTED, new byte[0], 0, 0);
+
+    PipedInputStream stdin = new PipedInputStream(64 * 1024);
+    Thread reader = startStdinReader(in, new PipedOutputStream(stdin));
+    OutputStream stdout = new BufferedOutputStream(
+        new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.STDOUT));
+    OutputStream stderr = new BufferedOutputStream(
+        new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.STDERR));
+    RequestScope scope = new RequestScope(stdin, stdout, stderr);
+    int code;
+    try {
+      code = scope.call(() -> console.run(args));
+    } catch (Throwable e) {
+      PrintStream err = new PrintStream(stderr, true);
+      e.printStackTrace(err);
+      err.flush();
+      code = 1;
+    } finally {
+      scope.close();
+      stdin.close();
+      reader.interrupt();
+    }
+    stdout.flush();
+    stderr.flush();
+    byte[] exit = ByteBuffer.allocate(4).putInt(code).array();
+    DaemonProtocol.writeFrame(out, DaemonProtocol.EXIT, exit, 0, exit.length);
+  }
+
+  /**
+   * Copy the stdin frames of the client into the pipe read by the request.
+   */
+  private Thread startStdinReader(final DataInputStream in, final PipedOutputStream pipe) {
+    Thread reader = new Thread(() -> {
+      byte[] type = new byte[1];
+      try {
+        while (true) {
+          byte[] bytes = DaemonProtocol.readFrame(in, type);
+          if (type[0] != DaemonProtocol.STDIN || bytes.length == 0) {
+            break;
+          }
+          pipe.write(bytes);
+          pipe.flush();
+        }
+      } catch (IOException e) {
+        // the client is gone, or the request is done and the pipe is closed
+      } finally {
+        try {
+          pipe.close();
+        } catch (IOException ignore) {
+        }
+      }
+    }, Thread.currentThread().getName() + "-stdin");
+    reader.setDaemon(true);
+    reader.start();
+    return reader;
+  }
+
+  /**
+   * Route stdin, stdout and stderr of the process to the request being run by the thread, the
+   * threads which do not run a request keep the streams of the process.
+   */
+  private static synchronized void installStreams() {
+    if (streamsInstalled) {
+      return;
+    }
+    final InputStream processIn = System.in;
+    final PrintStream processOut = System.out;
+    final PrintStream processErr = System.err;
+    System.setIn(new InputStream() {
+      private InputStream target() {
+        InputStream in = RequestScope.current().getIn();
+        return in == null ? processIn : in;
+      }
+
+      @Override
+      public int read() throws IOException {
+        return target().read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return target().read(b, off, len);
+      }
+
+      @Override
+      public int available() throws IOException {
+        return target().available();
+      }
+    });
+    System.setOut(new PrintStream(new ScopedOutputStream(processOut) {
+      @Override
+      OutputStream target() {
+        return RequestScope.current().getOut();
+      }
+    }, true));
+    System.setErr(new PrintStream(new ScopedOutputStream(processErr) {
+      @Override
+      OutputStream target() {
+        return RequestScope.current().getErr();
+      }
+    }, true));
+    streamsInstalled = true;
+  }
+
+  private abstract static class ScopedOutputStream extends OutputStream {
+
+    private final OutputStream process;
+
+    ScopedOutputStream(OutputStream process) {
+      this.process = process;
+    }
+
+    /**
+     * @return the stream of the request, or null
+     */
+    abstract OutputStream target();
+
+    private OutputStream current() {
+      OutputStream out = target();
+      return out == null ? process : out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      current().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      current().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      current().flush();
+    }
+  }
+
+  /**
+   * Start the daemon, with an optional --port=N, and keep its port and token in the state file.
+   */
+  public static void main(String[] args) throws Exception {
+    int port = 0;
+    for (String arg : args) {
+      if (arg.startsWith("--port=")) {
+        port = Integer.parseInt(arg.substring("--port=".length()));
+      }
+    }
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    StringBuilder token = new StringBuilder();
+    for (byte b : secret) {
+      token.append(String.format("%02x", b));
+    }
+
+    UseProjectCommand.enableProjectCache();
+    ConsoleDaemon daemon = new ConsoleDaemon(port, token.toString(), ODPSConsole::run);
+    final File state = DaemonProtocol.getStateFile();
+    writeState(state, daemon.getPort(), token.toString());
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> state.delete()));
+    System.err.println("odpscmd daemon is listening on "
+                       + InetAddress.getLoopbackAddress().getHostAddress() + ":" + daemon.getPort());
+    daemon.serve();
+  }
+
+  private static void writeState(File state, int port, String token) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty(DaemonProtocol.PORT, String.valueOf(port));
+    properties.setProperty(DaemonProtocol.TOKEN, token);
+    properties.setProperty(DaemonProtocol.DIR, System.getProperty("user.dir"));
+    File tmp = new File(state.getPath() + ".tmp");
+    tmp.delete();
+    try {
+      // the token is written after only the user can read the file
+      Files.createFile(tmp.toPath(), PosixFilePermissions.asFileAttribute(
+          PosixFilePermissions.fromString("rw-------")));
+    } catch (UnsupportedOperationException e) {
+      Files.createFile(tmp.toPath());
+    }
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      properties.store(out, "odpscmd daemon");
+    }
+    Files.move(tmp.toPath(), state.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+}
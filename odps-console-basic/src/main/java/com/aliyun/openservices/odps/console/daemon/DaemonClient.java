@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.openservices.odps.console.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import com.aliyun.openservices.odps.console.ODPSConsole;
+
+/**
+ * The thin client of {@link ConsoleDaemon}, which forwards the arguments, stdin, stdout, stderr
+ * and the exit code of a command line.
+ *
+ * Only the batch command lines, -e and -f, are sent to the daemon. The others, and all command
+ * lines when the daemon is not running or refuses them, run in this process as usual.
+ */
+public class DaemonClient {
+
+  // the command line is not run by the daemon
+  public static final int RUN_LOCALLY = -1;
+
+  private static final int CONNECT_TIMEOUT = 1000;
+
+  public static void main(String[] args) throws Exception {
+    int code = RUN_LOCALLY;
+    Properties state = loadState();
+    if (isBatch(args) && state != null) {
+      code = call(Integer.parseInt(state.getProperty(DaemonProtocol.PORT)),
+                  state.getProperty(DaemonProtocol.TOKEN), args,
+                  new FileInputStream(FileDescriptor.in),
+                  new FileOutputStream(FileDescriptor.out),
+                  new FileOutputStream(FileDescriptor.err));
+    }
+    if (code == RUN_LOCALLY) {
+      ODPSConsole.main(args);
+    } else {
+      System.exit(code);
+    }
+  }
+
+  /**
+   * Run a command line by the daemon listening on a loopback port.
+   *
+   * @return the exit code of the command, or {@link #RUN_LOCALLY} if the daemon does not run it
+   */
+  public static int call(int port, String token, String[] args, final InputStream stdin,
+                         OutputStream stdout, OutputStream stderr) throws IOException {
+    Socket socket = new Socket();
+    try {
+      final DataOutputStream out;
+      DataInputStream in;
+      byte[] type = new byte[1];
+      try {
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                       CONNECT_TIMEOUT);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DaemonProtocol.writeString(out, token);
+        DaemonProtocol.writeString(out, System.getProperty("user.dir"));
+        out.writeInt(args.length);
+        for (String arg : args) {
+          DaemonProtocol.writeString(out, arg);
+        }
+        out.flush();
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DaemonProtocol.readFrame(in, type);
+      } catch (IOException e) {
+        // not running, or not the daemon of the state file
+        return RUN_LOCALLY;
+      }
+      if (type[0] != DaemonProtocol.ACCEPTED) {
+        return RUN_LOCALLY;
+      }
+
+      startStdinWriter(stdin, out);
+      try {
+        while (true) {
+          byte[] bytes = DaemonProtocol.readFrame(in, type);
+          if (type[0] == DaemonProtocol.STDOUT) {
+            stdout.write(bytes);
+            stdout.flush();
+          } else if (type[0] == DaemonProtocol.STDERR) {
+            stderr.write(bytes);
+            stderr.flush();
+          } else if (type[0] == DaemonProtocol.EXIT) {
+            return ByteBuffer.wrap(bytes).getInt();
+          }
+        }
+      } catch (EOFException e) {
+        stderr.write("FAILED: the connection to the odpscmd daemon is closed\n"
+                         .getBytes(StandardCharsets.UTF_8));
+        stderr.flush();
+        return 1;
+      }
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * @return true for the command lines which run without a terminal
+   */
+  static boolean isBatch(String[] args) {
+    List<String> options = Arrays.asList(args);
+    int e = options.indexOf("-e");
+    int f = options.indexOf("-f");
+    return (e >= 0 && e + 1 < args.length) || (f >= 0 && f + 1 < args.length);
+  }
+
+  private static Properties loadState() {
+    File file = DaemonProtocol.getStateFile();
+    if (!file.isFile()) {
+      return null;
+    }
+    Properties state = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      state.load(in);
+    } catch (IOException e) {
+      return null;
+    }
+    if (state.getProperty(DaemonProtocol.PORT) == null
+        || state.getProperty(DaemonProtocol.TOKEN) == null
+        || !System.getProperty("user.dir").equals(state.getProperty(DaemonProtocol.DIR))) {
+      return null;
+    }
+    return state;
+  }
+
+  /**
+   * Send stdin to the daemon until its end, or until the command is done.
+   */
+  private static void startStdinWriter(final InputStream stdin, final DataOutputStream out) {
+    Thread writer = new Thread(() -> {
+      byte[] buffer = new byte[64 * 1024];
+      try {
+        int n;
+        while ((n = stdin.read(buffer)) > 0) {
+          DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, n);
+        }
+        DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, 0);
+      } catch (IOException e) {
+        // the command is done and the connection is closed
+      }
+    }, "odpscmd-daemon-stdin");
+    writer.setDaemon(true);
+    writer.start();
+  }
+}
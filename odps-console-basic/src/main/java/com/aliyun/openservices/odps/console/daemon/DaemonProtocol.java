@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.openservices.odps.console.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Messages between the daemon and its clients over a loopback connection.
+ *
+ * The client sends the token of the daemon, its working directory and its arguments, then the
+ * daemon accepts or refuses the request. After that the client sends stdin and the daemon sends
+ * stdout and stderr in frames of a type, a length and the bytes, and the exit code at last.
+ */
+final class DaemonProtocol {
+
+  // frames of the client, an empty one is the end of stdin
+  static final byte STDIN = 'I';
+  // frames of the daemon
+  static final byte ACCEPTED = 'A';
+  static final byte REFUSED = 'R';
+  static final byte STDOUT = 'O';
+  static final byte STDERR = 'E';
+  static final byte EXIT = 'X';
+
+  // strings longer than this are not read, such as a request which is not from a client
+  static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+  static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+  // port, token and working directory of the running daemon, readable by its user only
+  static final String STATE_FILE = ".odpscmd_daemon";
+  static final String PORT = "port";
+  static final String TOKEN = "token";
+  static final String DIR = "dir";
+
+  private DaemonProtocol() {
+  }
+
+  static File getStateFile() {
+    return new File(System.getProperty("user.home"), STATE_FILE);
+  }
+
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > MAX_STRING_LENGTH) {
+      throw new IOException("invalid string length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeFrame(DataOutputStream out, byte type, byte[] b, int off, int len)
+      throws IOException {
+    synchronized (out) {
+      out.writeByte(type);
+      out.writeInt(len);
+      out.write(b, off, len);
+      out.flush();
+    }
+  }
+
+  static void writeFrame(DataOutputStream out, byte type, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    writeFrame(out, type, bytes, 0, bytes.length);
+  }
+
+  /**
+   * @return the bytes of the next frame, whose type is read into type[0]
+   */
+  static byte[] readFrame(DataInputStream in, byte[] type) throws IOException {
+    type[0] = in.readByte();
+    int length = in.readInt();
+    if (length < 0 || length > MAX_FRAME_LENGTH) {
+      throw new IOException("invalid frame length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * The bytes written are sent in frames of a type.
+   */
+  static class FrameOutputStream extends OutputStream {
+
+    private final DataOutputStream out;
+    private final byte type;
+
+    FrameOutputStream(DataOutputStream out, byte type) {
+      this.out = out;
+      this.type = type;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int n = Math.min(len, MAX_FRAME_LENGTH);
+        writeFrame(out, type, b, off, n);
+        off += n;
+        len -= n;
+      }
+    }
+  }
+}
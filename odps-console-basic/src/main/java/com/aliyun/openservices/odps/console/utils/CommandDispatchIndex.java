@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.openservices.odps.console.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.aliyun.openservices.odps.console.ExecutionContext;
+import com.aliyun.openservices.odps.console.ODPSConsoleException;
+import com.aliyun.openservices.odps.console.commands.AbstractCommand;
+
+/**
+ * 交互模式命令的分发索引。
+ *
+ * 按优先级排好序的命令只加载一次，并缓存 parse(String, ExecutionContext) 的 MethodHandle。
+ * 命令可以通过 public static String[] PARSE_KEYWORDS 声明其 parse 方法接受的语句首个单词
+ * (大小写无关，按前缀匹配)，首个单词不匹配的语句不会再调用该命令的 parse。
+ * 未声明关键字的命令对所有语句都会尝试，候选命令之间保持原有的优先级顺序，
+ * 所以分发结果与逐个尝试所有命令相同。
+ */
+final class CommandDispatchIndex {
+
+  static final String PARSE_KEYWORDS_FIELD = "PARSE_KEYWORDS";
+
+  // bound of the cached candidate lists, statements with other first words are resolved each time
+  private static final int MAX_CACHED_WORDS = 1024;
+
+  private static final MethodType PARSE_TYPE =
+      MethodType.methodType(Object.class, String.class, ExecutionContext.class);
+
+  /**
+   * A command which has a parse(String, ExecutionContext) method.
+   */
+  static final class Entry {
+
+    private final String commandName;
+    private final Class<?> commandClass;
+    private final MethodHandle parse;
+    // failure of loading the command, thrown each time the command is tried as before
+    private final AssertionError error;
+    private final String[] keywords;
+
+    private Entry(String commandName, Class<?> commandClass, MethodHandle parse,
+                  AssertionError error, String[] keywords) {
+      this.commandName = commandName;
+      this.commandClass = commandClass;
+      this.parse = parse;
+      this.error = error;
+      this.keywords = keywords;
+    }
+
+    String getCommandName() {
+      return commandName;
+    }
+
+    AbstractCommand parse(String commandText, ExecutionContext sessionContext)
+        throws ODPSConsoleException {
+      if (error != null) {
+        throw error;
+      }
+
+      Object commandObject;
+      try {
+        commandObject = parse.invokeExact(commandText, sessionContext);
+      } catch (Throwable e) {
+        throw CommandParserUtils.toParseException(commandClass, e, sessionContext);
+      }
+      return (AbstractCommand) commandObject;
+    }
+
+    private boolean accepts(String word) {
+      if (keywords == null) {
+        return true;
+      }
+      for (String keyword : keywords) {
+        if (word.startsWith(keyword)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private final List<Entry> entries;
+  private final ConcurrentHashMap<String, List<Entry>> candidates =
+      new ConcurrentHashMap<String, List<Entry>>();
+
+  private CommandDispatchIndex(List<Entry> entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * @param commands
+   *     命令列表，已按优先级排序
+   */
+  static CommandDispatchIndex build(List<PluginPriorityCommand> commands) {
+    List<Entry> entries = new ArrayList<Entry>();
+    for (PluginPriorityCommand command : commands) {
+      String commandName = command.getCommandName();
+      if (commandName == null || "".equals(commandName.trim())) {
+        continue;
+      }
+
+      Class<?> commandClass;
+      try {
+        commandClass = CommandParserUtils.getClassFromPlugin(commandName);
+      } catch (AssertionError e) {
+        entries.add(new Entry(commandName, null, null, e, null));
+        continue;
+      }
+
+      Method parseMethod;
+      try {
+        parseMethod =
+            commandClass.getDeclaredMethod("parse", String.class, ExecutionContext.class);
+      } catch (NoSuchMethodException e) {
+        // 没有交互模式的 parse 方法, 不会匹配任何语句
+        continue;
+      } catch (SecurityException e) {
+        entries.add(new Entry(commandName, commandClass, null, new AssertionError(
+            "Cannot find the parse method on the command: " + commandName), null));
+        continue;
+      }
+
+      MethodHandle parse = null;
+      AssertionError error = null;
+      try {
+        if (!Modifier.isStatic(parseMethod.getModifiers())) {
+          throw new IllegalAccessException();
+        }
+        parse = MethodHandles.publicLookup().unreflect(parseMethod).asType(PARSE_TYPE);
+      } catch (IllegalAccessException e) {
+        error = new AssertionError("Failed to invoke the parse method on the command:"
+                                   + commandName);
+      }
+      entries.add(new Entry(commandName, commandClass, parse, error, getKeywords(commandClass)));
+    }
+    return new CommandDispatchIndex(Collections.unmodifiableList(entries));
+  }
+
+  private static String[] getKeywords(Class<?> commandClass) {
+    try {
+      Field field = commandClass.getField(PARSE_KEYWORDS_FIELD);
+      if (!Modifier.isStatic(field.getModifiers())) {
+        return null;
+      }
+      String[] keywords = ((String[]) field.get(null)).clone();
+      for (int i = 0; i < keywords.length; i++) {
+        keywords[i] = normalize(keywords[i]);
+      }
+      return keywords;
+    } catch (NoSuchFieldException | IllegalAccessException | ClassCastException e) {
+      return null;
+    }
+  }
+
+  /**
+   * 取得可能解析该语句的命令，按优先级排序
+   */
+  List<Entry> getCandidates(String commandText) {
+    String word = normalize(firstWord(commandText));
+    List<Entry> result = candidates.get(word);
+    if (result == null) {
+      List<Entry> selected = new ArrayList<Entry>();
+      for (Entry entry : entries) {
+        if (entry.accepts(word)) {
+          selected.add(entry);
+        }
+      }
+      result = Collections.unmodifiableList(selected);
+      if (candidates.size() < MAX_CACHED_WORDS) {
+        candidates.putIfAbsent(word, result);
+      }
+    }
+    return result;
+  }
+
+  List<Entry> getEntries() {
+    return entries;
+  }
+
+  private static String firstWord(String commandText) {
+    int start = 0;
+    int length = commandText.length();
+    while (start < length && Character.isWhitespace(commandText.charAt(start))) {
+      start++;
+    }
+    int end = start;
+    while (end < length && !Character.isWhitespace(commandText.charAt(end))) {
+      end++;
+    }
+    return commandText.substring(start, end);
+  }
+
+  // case folding at least as loose as toUpperCase, equalsIgnoreCase and ASCII case-insensitive
+  // patterns which the commands use to match their keywords
+  private static String normalize(String word) {
+    return word.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+  }
+}
@@ -40,6 +40,7 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import org.apache.commons.cli.CommandLine;
@@ -529,40 +530,56 @@ public class CommandParserUtils {
                                               int queryNumber)
       throws ODPSConsoleException {
 
-    List<PluginPriorityCommand> ecList = getExtendedCommandList();
     // 加载用户定义的类，用户定义的类如果没有找到，console不会失败直接退出
+    CommandDispatchIndex index = getCommandDispatchIndex(sessionContext.getUserCommands());
 
-    String userCommands = sessionContext.getUserCommands();
+    for (CommandDispatchIndex.Entry command : index.getCandidates(commandText)) {
+      AbstractCommand cmd = null;
+      try {
+        cmd = command.parse(commandText, sessionContext);
+      } catch (AssertionError e) {
+        // 如果用户类加载不了,console不直接退出，只输出相应信息
+        sessionContext.getOutputWriter().writeDebug(e.getMessage());
+        System.err.println("fail to load user command, pls check:" + command.getCommandName());
+      }
 
-    if (userCommands != null) {
-      // 为了保证用户定义命令的优先使用，将其命令优先级权重设为最高。
-      for (String commandString : Arrays.asList(userCommands.split(","))) {
-        ecList.add(new PluginPriorityCommand(commandString, PluginPriorityCommand.MAX_PRIORITY));
+      if (cmd != null) {
+        cmd.setCommandStep(queryNumber);
+        addCommand(commandList, cmd, sessionContext);
+        return;
       }
     }
+  }
 
-    Collections.sort(ecList);
+  private static volatile CommandDispatchIndex dispatchIndex;
+  private static volatile String dispatchIndexUserCommands;
 
-    for (PluginPriorityCommand command : ecList) {
-      String commandName = command.getCommandName();
-      if (commandName != null && !"".equals(commandName.trim())) {
-        AbstractCommand cmd = null;
-        try {
-          cmd = reflectCommandObject(commandName, new Class<?>[]{String.class,
-                                                                 ExecutionContext.class},
-                                     commandText, sessionContext);
-        } catch (AssertionError e) {
-          // 如果用户类加载不了,console不直接退出，只输出相应信息
-          sessionContext.getOutputWriter().writeDebug(e.getMessage());
-          System.err.println("fail to load user command, pls check:" + commandName);
+  /**
+   * 交互模式的命令分发索引，在用户定义的命令变化时重建
+   */
+  static CommandDispatchIndex getCommandDispatchIndex(String userCommands) {
+    CommandDispatchIndex index = dispatchIndex;
+    if (index != null && Objects.equals(userCommands, dispatchIndexUserCommands)) {
+      return index;
+    }
+
+    synchronized (CommandParserUtils.class) {
+      if (dispatchIndex == null || !Objects.equals(userCommands, dispatchIndexUserCommands)) {
+        List<PluginPriorityCommand> commands =
+            new ArrayList<PluginPriorityCommand>(getExtendedCommandList());
+        if (userCommands != null) {
+          // 为了保证用户定义命令的优先使用，将其命令优先级权重设为最高。
+          for (String commandString : userCommands.split(",")) {
+            commands.add(
+                new PluginPriorityCommand(commandString, PluginPriorityCommand.MAX_PRIORITY));
+          }
         }
+        Collections.sort(commands);
 
-        if (cmd != null) {
-          cmd.setCommandStep(queryNumber);
-          addCommand(commandList, cmd, sessionContext);
-          return;
-        }
+        dispatchIndex = CommandDispatchIndex.build(commands);
+        dispatchIndexUserCommands = userCommands;
       }
+      return dispatchIndex;
     }
   }
 
@@ -618,20 +635,27 @@ public class CommandParserUtils {
     } catch (IllegalAccessException e) {
       throw new AssertionError("Failed to invoke the parse method on the command:" + commandName);
     } catch (InvocationTargetException e) {
-      if (e.getCause() instanceof ODPSConsoleException) {
-        String msg = e.getCause().getMessage();
-        if (!StringUtils.isNullOrEmpty(msg) && msg.contains(ODPSConsoleConstants.BAD_COMMAND)
-            && commandClass != null) {
-          String output = getCommandUsageString(commandClass,
-                                                (ExecutionContext) args[args.length - 1]);
-          if (output != null) {
-            throw new ODPSConsoleException(e.getCause().getMessage() + "\n" + output);
-          }
+      throw toParseException(commandClass, e.getCause(), (ExecutionContext) args[args.length - 1]);
+    }
+  }
+
+  /**
+   * 把 parse 方法抛出的异常转换为 ODPSConsoleException，BAD_COMMAND 时附上命令的用法
+   */
+  static ODPSConsoleException toParseException(Class<?> commandClass, Throwable cause,
+                                               ExecutionContext ctx) {
+    if (cause instanceof ODPSConsoleException) {
+      String msg = cause.getMessage();
+      if (!StringUtils.isNullOrEmpty(msg) && msg.contains(ODPSConsoleConstants.BAD_COMMAND)
+          && commandClass != null) {
+        String output = getCommandUsageString(commandClass, ctx);
+        if (output != null) {
+          return new ODPSConsoleException(cause.getMessage() + "\n" + output);
         }
-        throw (ODPSConsoleException) e.getCause();
-      } else {
-        throw new ODPSConsoleException(e.getCause());
       }
+      return (ODPSConsoleException) cause;
+    } else {
+      return new ODPSConsoleException(cause);
     }
   }
 
@@ -11,6 +11,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
@@ -18,6 +19,7 @@ import org.apache.commons.codec.digest.DigestUtils;
 
 import com.aliyun.odps.utils.StringUtils;
 import com.aliyun.openservices.odps.console.ExecutionContext;
+import com.aliyun.openservices.odps.console.RequestScope;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
@@ -47,25 +49,51 @@ public class LocalCacheUtils {
     }
   }
 
-  private static boolean multiAttachSessionMode = false;
-  private static int MAX_CACHE_COUNT = 5;
+  /**
+   * The session cache used by a request, see {@link RequestScope#getCacheState()}, so the requests
+   * run by the daemon at the same time do not share it.
+   */
+  public static class CacheState {
+
+    private boolean multiAttachSessionMode = false;
+    private int maxCacheCount = 5;
+    private FileLock lock = null;
+    private String cacheDir;
+    private String configDir;
+
+    /**
+     * Release the lock of the cache, so another request can use it.
+     */
+    public synchronized void unlock() {
+      if (lock != null) {
+        try {
+          lock.channel().close();
+        } catch (IOException e) {
+          // ignore
+        }
+        lock = null;
+      }
+    }
+  }
+
   private static final String cacheDirPrefix = ".session/";
   private static final String cacheFileName = ".odpscmd_interactive_cache";
   // lock this file after started, so nobody else can start in interactive mode
   private static final String cacheLockFileName = ".odpscmd_interactive_cache_lock";
   private static Gson gson = new GsonBuilder().disableHtmlEscaping().create();
-  private static FileLock gLock = null;
-  private static String cacheDir;
-  private static String configDir;
+
+  private static CacheState state() {
+    return RequestScope.current().getCacheState();
+  }
 
   public static void setCacheDir(String config, String sessionHash) {
-    configDir = config;
-    cacheDir = configDir + cacheDirPrefix + sessionHash + "/";
+    state().configDir = config;
+    state().cacheDir = state().configDir + cacheDirPrefix + sessionHash + "/";
   }
 
   public static void enableMultiAttachSessionMode(Long maxAttachCount) {
-    multiAttachSessionMode = true;
-    MAX_CACHE_COUNT = maxAttachCount.intValue();
+    state().multiAttachSessionMode = true;
+    state().maxCacheCount = maxAttachCount.intValue();
   }
 
   public static String getSpecificCacheFile(ExecutionContext sessionContext, String category, String key)
@@ -88,15 +116,15 @@ public class LocalCacheUtils {
   }
 
   public static void setCacheDir(String configFile, String endpoint, String projectName, String accessId) throws IOException {
-    if (!multiAttachSessionMode) {
+    if (!state().multiAttachSessionMode) {
       String configKey = endpoint + "_" + projectName + "_" + accessId;
       String sessionHash = DigestUtils.md5Hex(configKey).toUpperCase();
       setCacheDir(new File(configFile).getAbsoluteFile().getParent() + "/", sessionHash);
     } else {
-      configDir = new File(configFile).getAbsoluteFile().getParent() + "/";
+      state().configDir = new File(configFile).getAbsoluteFile().getParent() + "/";
       File[] allCache = listAllCacheDir();
       // should create a new cache dir
-      if (allCache.length < MAX_CACHE_COUNT) {
+      if (allCache.length < state().maxCacheCount) {
         Double random = Math.random();
         String configKey = endpoint + "_" + projectName + "_" + accessId + "_" + System.currentTimeMillis() + random.toString();
         String sessionHash = DigestUtils.md5Hex(configKey).toUpperCase();
@@ -110,14 +138,14 @@ public class LocalCacheUtils {
             File lockFile = new File(lockPath);
             if (lockFile.exists()) {
               FileChannel fileChannel = new FileOutputStream(lockPath).getChannel();
-              FileLock lock = fileChannel.tryLock();
+              FileLock lock = tryLock(fileChannel);
               if (lock == null) {
                 // this cache is in using
                 System.out.println("AttachSession is already in using:" + lockPath);
               } else {
                 // this cache is idle, can reuse
                 System.out.println("AttachSession is reusing:" + lockPath);
-                cacheDir = tmpCacheDir.getAbsolutePath() + "/";
+                state().cacheDir = tmpCacheDir.getAbsolutePath() + "/";
                 lock.release();
                 fileChannel.close();
                 found = true;
@@ -127,22 +155,22 @@ public class LocalCacheUtils {
           }
         }
         if (!found) {
-          throw new IOException("Attach session has reaches max count:" + MAX_CACHE_COUNT);
+          throw new IOException("Attach session has reaches max count:" + state().maxCacheCount);
         }
       }
     }
   }
 
   public static String getCacheFile() {
-    return cacheDir + cacheFileName;
+    return state().cacheDir + cacheFileName;
   }
 
   public static String getCacheLockFile() {
-    return cacheDir + cacheLockFileName;
+    return state().cacheDir + cacheLockFileName;
   }
 
   public static FileLock lockCache(String path) throws IOException {
-    File sessionDir = new File(cacheDir);
+    File sessionDir = new File(state().cacheDir);
     if (!sessionDir.exists()) {
       sessionDir.mkdirs();
     }
@@ -152,12 +180,27 @@ public class LocalCacheUtils {
     }
 
     FileChannel fileChannel = new FileOutputStream(path).getChannel();
-    FileLock lock = fileChannel.tryLock();
+    FileLock lock = tryLock(fileChannel);
+    if (lock == null) {
+      fileChannel.close();
+    }
     return lock;
   }
 
+  /**
+   * @return the lock, or null if the file is locked by another process or another request of the
+   * daemon
+   */
+  private static FileLock tryLock(FileChannel fileChannel) throws IOException {
+    try {
+      return fileChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      return null;
+    }
+  }
+
   public static File[] listAllCacheDir() {
-    String cacheBasePath = configDir + cacheDirPrefix;
+    String cacheBasePath = state().configDir + cacheDirPrefix;
     File cacheBaseDir = new File(cacheBasePath);
     if (!cacheBaseDir.exists()) {
       cacheBaseDir.mkdirs();
@@ -168,13 +211,13 @@ public class LocalCacheUtils {
 
   public static void checkAndClearAllUselessCache() throws IOException {
     File[] allCache = listAllCacheDir();
-    if (allCache.length < MAX_CACHE_COUNT) {
+    if (allCache.length < state().maxCacheCount) {
       return;
     }
     for (File tmpCacheDir : allCache) {
       if (tmpCacheDir.isDirectory()) {
         String dir = tmpCacheDir.getAbsolutePath() + "/";
-        if (cacheDir.equals(dir)) {
+        if (state().cacheDir.equals(dir)) {
           continue;
         }
         boolean needClean = true;
@@ -182,7 +225,7 @@ public class LocalCacheUtils {
         File lockFile = new File(lockPath);
         if (lockFile.exists()) {
           FileChannel fileChannel = new FileOutputStream(lockPath).getChannel();
-          FileLock lock = fileChannel.tryLock();
+          FileLock lock = tryLock(fileChannel);
           if (lock == null) {
             // this cache is in using
             needClean = false;
@@ -201,20 +244,20 @@ public class LocalCacheUtils {
     try {
       new File(getCacheFile()).delete();
       new File(getCacheLockFile()).delete();
-      new File(cacheDir).delete();
+      new File(state().cacheDir).delete();
     } catch (Exception e) {
       //ignore exception
     }
   }
 
   public static void checkLock() throws IOException {
-    if (gLock == null) {
-      gLock = lockCache(getCacheLockFile());
+    if (state().lock == null) {
+      state().lock = lockCache(getCacheLockFile());
     }
-    if (gLock == null) {
+    if (state().lock == null) {
       throw new IOException("Odpscmd has beed locked by another interactive mode progress.");
     }
-    if (!multiAttachSessionMode) {
+    if (!state().multiAttachSessionMode) {
       try {
         checkAndClearAllUselessCache();
       } catch (IOException e) {
@@ -225,7 +268,7 @@ public class LocalCacheUtils {
 
   public static void writeCache(CacheItem cache) throws IOException {
     try {
-      File sessionDir = new File(cacheDir);
+      File sessionDir = new File(state().cacheDir);
       if (!sessionDir.exists()) {
         sessionDir.mkdirs();
       }
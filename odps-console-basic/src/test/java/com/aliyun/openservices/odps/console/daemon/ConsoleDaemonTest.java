@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.openservices.odps.console.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.aliyun.odps.sqa.SQLExecutor;
+import com.aliyun.openservices.odps.console.ExecutionContext;
+import com.aliyun.openservices.odps.console.RequestScope;
+import com.aliyun.openservices.odps.console.commands.SetCommand;
+import com.aliyun.openservices.odps.console.utils.LocalCacheUtils;
+
+/**
+ * 测试 daemon 为每个客户端隔离请求的状态, 并转发参数, 输入输出和退出码
+ */
+public class ConsoleDaemonTest {
+
+  private static final String TOKEN = "test-token";
+  private static final int CLIENTS = 4;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final CyclicBarrier barrier = new CyclicBarrier(CLIENTS);
+  private final AtomicInteger runs = new AtomicInteger();
+  private ConsoleDaemon daemon;
+
+  @Before
+  public void setUp() throws Exception {
+    daemon = new ConsoleDaemon(0, TOKEN, new ConsoleDaemon.Console() {
+      @Override
+      public int run(String[] args) throws Exception {
+        return runFlags(args);
+      }
+    });
+    Thread serve = new Thread(daemon::serve);
+    serve.setDaemon(true);
+    serve.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    daemon.close();
+  }
+
+  /**
+   * 测试并发的客户端各自 SET 同一个 flag, 只看到自己的值, 请求启动的线程继承请求的状态
+   */
+  @Test
+  public void testConcurrentClientsAreIsolated() throws Exception {
+    ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+    try {
+      List<Future<String[]>> results = new ArrayList<Future<String[]>>();
+      for (int i = 0; i < CLIENTS; i++) {
+        final String value = "v" + i;
+        results.add(clients.submit(new Callable<String[]>() {
+          @Override
+          public String[] call() throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int code = DaemonClient.call(daemon.getPort(), TOKEN, new String[]{"-e", value},
+                                         stdin("stdin of " + value + "\n"), out, err);
+            return new String[]{String.valueOf(code), out.toString("UTF-8"),
+                                err.toString("UTF-8")};
+          }
+        }));
+      }
+      for (int i = 0; i < CLIENTS; i++) {
+        String[] result = results.get(i).get(30, TimeUnit.SECONDS);
+        String value = "v" + i;
+        assertEquals("not equal", "7", result[0]);
+        assertEquals("not equal", "flag=" + value + ", aliases=1, executor=" + value
+                                  + ", cache=conf_" + value
+                                  + "/.session/hash/.odpscmd_interactive_cache"
+                                  + ", stdin of " + value + "\nchild flag=" + value + "\n",
+                     result[1]);
+        assertEquals("not equal", "OK\nOK\n", result[2]);
+      }
+    } finally {
+      clients.shutdownNow();
+    }
+
+    // the requests do not change the state of the process
+    assertNull("global flag", SetCommand.setMap.get("test.flag"));
+    assertNull("global executor", ExecutionContext.getExecutor());
+  }
+
+  /**
+   * 测试同一个 session cache 同时只能被一个请求锁定, 请求结束时释放锁
+   */
+  @Test
+  public void testCacheLockIsReleasedWithRequest() throws Exception {
+    final File dir = tmp.newFolder("conf");
+    Callable<Void> lock = new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        LocalCacheUtils.setCacheDir(dir.getPath() + "/", "hash");
+        LocalCacheUtils.checkLock();
+        return null;
+      }
+    };
+    RequestScope first = new RequestScope(null, null, null);
+    first.call(lock);
+    try {
+      new RequestScope(null, null, null).call(lock);
+      fail("cache is locked by two requests");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("locked"));
+    }
+    first.close();
+    RequestScope second = new RequestScope(null, null, null);
+    second.call(lock);
+    second.close();
+  }
+
+  /**
+   * 测试 token 不正确时, 命令不在 daemon 中执行
+   */
+  @Test
+  public void testWrongToken() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int code = DaemonClient.call(daemon.getPort(), "wrong", new String[]{"-e", "v"}, stdin(""),
+                                 out, new ByteArrayOutputStream());
+    assertEquals("not equal", DaemonClient.RUN_LOCALLY, code);
+    assertEquals("not equal", 0, runs.get());
+    assertEquals("not equal", 0, out.size());
+  }
+
+  /**
+   * 测试只有 -e 和 -f 的命令行发给 daemon
+   */
+  @Test
+  public void testIsBatch() {
+    assertTrue(DaemonClient.isBatch(new String[]{"--project=p", "-e", "select 1;"}));
+    assertTrue(DaemonClient.isBatch(new String[]{"-f", "a.sql"}));
+    assertFalse(DaemonClient.isBatch(new String[]{"--project=p"}));
+    assertFalse(DaemonClient.isBatch(new String[]{"-e"}));
+  }
+
+  /**
+   * Set a flag, an alias and the executor, wait for the other clients to set theirs, then print
+   * what the request sees.
+   */
+  private int runFlags(String[] args) throws Exception {
+    runs.incrementAndGet();
+    String value = args[1];
+    ExecutionContext context = new ExecutionContext();
+    SetCommand.parse("set test.flag=" + value, context).run();
+    SetCommand.parse("alias test.alias=" + value, context).run();
+    ExecutionContext.setExecutor(executor(value));
+    LocalCacheUtils.setCacheDir("conf_" + value + "/", "hash");
+    barrier.await(10, TimeUnit.SECONDS);
+
+    String line = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+        .readLine();
+    System.out.println("flag=" + SetCommand.setMap.get("test.flag")
+                       + ", aliases=" + SetCommand.aliasMap.size()
+                       + ", executor=" + ExecutionContext.getExecutor()
+                       + ", cache=" + LocalCacheUtils.getCacheFile() + ", " + line);
+    final AtomicReference<String> child = new AtomicReference<String>();
+    Thread thread = new Thread(() -> child.set(SetCommand.setMap.get("test.flag")));
+    thread.start();
+    thread.join();
+    System.out.println("child flag=" + child.get());
+    return 7;
+  }
+
+  private static SQLExecutor executor(final String name) {
+    return (SQLExecutor) Proxy.newProxyInstance(
+        SQLExecutor.class.getClassLoader(), new Class[]{SQLExecutor.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("toString".equals(method.getName())) {
+              return name;
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private static ByteArrayInputStream stdin(String s) {
+    return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.openservices.odps.console.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.aliyun.openservices.odps.console.ExecutionContext;
+import com.aliyun.openservices.odps.console.ODPSConsoleException;
+import com.aliyun.openservices.odps.console.commands.AbstractCommand;
+
+public class CommandDispatchIndexTest {
+
+  private static final String PREFIX_COMMAND = PrefixCommand.class.getName();
+  private static final String ANY_COMMAND = AnyCommand.class.getName();
+
+  private static final String[] COMMANDS = new String[]{
+      "use test_project;",
+      "USE   test_project",
+      "  use\ttest_project",
+      "use quota q1",
+      "use schema s1",
+      "help",
+      "h",
+      "show version",
+      "Show  Version;",
+      "set odps.sql.type.system.odps2=true",
+      "SET\nodps.sql.type.system.odps2=true",
+      "alias x=y",
+      "setenv a=b",
+      "unset odps.sql.type.system.odps2",
+      "unset 'a",
+      "history",
+      "tune select 1",
+      "alter table t archive",
+      "explain alter table t archive",
+      "alter table t partition(ds='1') merge smallfiles",
+      "alter table t compact major",
+      "alter table t freeze",
+      "alter table t restore",
+      "create externalproject -source dlf -name p",
+      "desc project test_project",
+      "create table t (a string)",
+      "select 1",
+      "select ';'",
+      "",
+      "   ",
+      "prefixcmd",
+      "prefixcmdx",
+      "PrefixCmdAll",
+      "anything else",
+  };
+
+  /** 测试关键字索引的分发结果与按优先级逐个尝试所有命令相同 */
+  @Test
+  public void testDispatchSameAsLinearScan() throws ODPSConsoleException {
+    for (String userCommands : new String[]{null, PREFIX_COMMAND + "," + ANY_COMMAND}) {
+      ExecutionContext ctx = ExecutionContext.init();
+      ctx.setUserCommands(userCommands);
+      CommandDispatchIndex index = CommandParserUtils.getCommandDispatchIndex(userCommands);
+
+      for (String command : COMMANDS) {
+        assertEquals(command, linearScan(userCommands, command, ctx), dispatch(index, command, ctx));
+      }
+    }
+  }
+
+  /** 测试用户命令声明的关键字按前缀匹配，并且优先于内置命令 */
+  @Test
+  public void testUserCommandKeywords() throws ODPSConsoleException {
+    String userCommands = PREFIX_COMMAND + "," + ANY_COMMAND;
+    ExecutionContext ctx = ExecutionContext.init();
+    ctx.setUserCommands(userCommands);
+    CommandDispatchIndex index = CommandParserUtils.getCommandDispatchIndex(userCommands);
+
+    assertEquals("not equal", PrefixCommand.class.getName(), dispatch(index, "prefixcmd", ctx));
+    assertEquals("not equal", PrefixCommand.class.getName(),
+                 dispatch(index, "  PREFIXCMDabc x", ctx));
+    assertEquals("not equal", AnyCommand.class.getName(), dispatch(index, "select 1", ctx));
+    assertEquals("not equal", AnyCommand.class.getName(), dispatch(index, "pre", ctx));
+
+    List<CommandDispatchIndex.Entry> candidates = index.getCandidates("select 1");
+    for (CommandDispatchIndex.Entry entry : candidates) {
+      assertEquals("not equal", false, PREFIX_COMMAND.equals(entry.getCommandName()));
+    }
+    assertSame(candidates, index.getCandidates("SELECT 2"));
+  }
+
+  /** 测试设置用户命令后多次解析，不会改变插件命令列表 */
+  @Test
+  public void testUserCommandsNotAddedToExtendedList() throws ODPSConsoleException {
+    int beforeSize = CommandParserUtils.getExtendedCommandList().size();
+    ExecutionContext ctx = ExecutionContext.init();
+    ctx.setUserCommands(PREFIX_COMMAND);
+    for (int i = 0; i < 3; i++) {
+      CommandParserUtils.parseCommand("prefixcmd;", ctx);
+    }
+    ctx.setUserCommands(null);
+    CommandParserUtils.parseCommand("show version;", ctx);
+    assertEquals("not equal", beforeSize, CommandParserUtils.getExtendedCommandList().size());
+  }
+
+  private static String dispatch(CommandDispatchIndex index, String commandText,
+                                 ExecutionContext ctx) {
+    for (CommandDispatchIndex.Entry entry : index.getCandidates(commandText)) {
+      try {
+        AbstractCommand command = entry.parse(commandText, ctx);
+        if (command != null) {
+          return command.getClass().getName();
+        }
+      } catch (AssertionError e) {
+        // 与命令加载失败时一样，继续尝试下一个命令
+      } catch (ODPSConsoleException e) {
+        return "error: " + e.getMessage();
+      }
+    }
+    return null;
+  }
+
+  private static String linearScan(String userCommands, String commandText,
+                                   ExecutionContext ctx) {
+    List<PluginPriorityCommand> commands =
+        new ArrayList<PluginPriorityCommand>(CommandParserUtils.getExtendedCommandList());
+    if (userCommands != null) {
+      for (String commandString : userCommands.split(",")) {
+        commands.add(new PluginPriorityCommand(commandString, PluginPriorityCommand.MAX_PRIORITY));
+      }
+    }
+    Collections.sort(commands);
+
+    for (PluginPriorityCommand command : commands) {
+      try {
+        AbstractCommand cmd = CommandParserUtils.reflectCommandObject(
+            command.getCommandName(), new Class<?>[]{String.class, ExecutionContext.class},
+            commandText, ctx);
+        if (cmd != null) {
+          return cmd.getClass().getName();
+        }
+      } catch (AssertionError e) {
+        // 继续尝试下一个命令
+      } catch (ODPSConsoleException e) {
+        return "error: " + e.getMessage();
+      }
+    }
+    return null;
+  }
+
+  public static class PrefixCommand extends AbstractCommand {
+
+    public static final String[] PARSE_KEYWORDS = new String[]{"PrefixCmd"};
+
+    public PrefixCommand(String commandText, ExecutionContext context) {
+      super(commandText, context);
+    }
+
+    @Override
+    protected void run() {
+    }
+
+    public static PrefixCommand parse(String commandString, ExecutionContext sessionContext) {
+      if (commandString.trim().toLowerCase().startsWith("prefixcmd")) {
+        return new PrefixCommand(commandString, sessionContext);
+      }
+      return null;
+    }
+  }
+
+  public static class AnyCommand extends AbstractCommand {
+
+    public AnyCommand(String commandText, ExecutionContext context) {
+      super(commandText, context);
+    }
+
+    @Override
+    protected void run() {
+    }
+
+    public static AnyCommand parse(String commandString, ExecutionContext sessionContext) {
+      return new AnyCommand(commandString, sessionContext);
+    }
+  }
+}
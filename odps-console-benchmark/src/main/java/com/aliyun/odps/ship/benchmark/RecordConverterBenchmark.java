@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.ship.common.RecordConverter;
+import com.aliyun.odps.type.TypeInfo;
+import com.aliyun.odps.type.TypeInfoFactory;
+
+/**
+ * Parse and format of a record with {@link #COLUMNS} columns of one type, the same converter
+ * settings as a default upload / download.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordConverterBenchmark {
+
+  private static final int COLUMNS = 10;
+
+  @Param({"BIGINT", "INT", "SMALLINT", "TINYINT", "DOUBLE", "FLOAT", "DECIMAL", "BOOLEAN",
+          "STRING", "VARCHAR", "CHAR", "BINARY", "DATE", "DATETIME", "TIMESTAMP",
+          "TIMESTAMP_NTZ", "ARRAY", "MAP", "STRUCT"})
+  public String type;
+
+  private RecordConverter converter;
+  private Record reuse;
+  private Record record;
+  private byte[][] line;
+
+  @Setup
+  public void setup() throws Exception {
+    TypeInfo typeInfo = typeInfo(type);
+    TableSchema schema = new TableSchema();
+    for (int i = 0; i < COLUMNS; i++) {
+      schema.addColumn(new Column("c" + i, typeInfo));
+    }
+    converter = new RecordConverter(schema, "NULL", null, null, "UTF-8", false, true);
+
+    line = new byte[COLUMNS][];
+    Arrays.fill(line, sample(type).getBytes("UTF-8"));
+    record = converter.parse(line);
+    // format the parsed record, so the parse benchmark reads what a download writes
+    line = converter.format(record);
+    reuse = new ArrayRecord(schema.getColumns().toArray(new Column[0]));
+  }
+
+  @Benchmark
+  public Record parse() throws Exception {
+    return converter.parse(line);
+  }
+
+  @Benchmark
+  public Record parseReuse() throws Exception {
+    return converter.parse(reuse, line);
+  }
+
+  @Benchmark
+  public byte[][] format() throws Exception {
+    return converter.format(record);
+  }
+
+  static TypeInfo typeInfo(String type) {
+    switch (type) {
+      case "DECIMAL":
+        return TypeInfoFactory.getDecimalTypeInfo(18, 6);
+      case "VARCHAR":
+        return TypeInfoFactory.getVarcharTypeInfo(64);
+      case "CHAR":
+        return TypeInfoFactory.getCharTypeInfo(16);
+      case "ARRAY":
+        return TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.BIGINT);
+      case "MAP":
+        return TypeInfoFactory.getMapTypeInfo(TypeInfoFactory.STRING, TypeInfoFactory.BIGINT);
+      case "STRUCT":
+        return TypeInfoFactory.getStructTypeInfo(
+            Arrays.asList("name", "age", "score"),
+            Arrays.<TypeInfo>asList(TypeInfoFactory.STRING, TypeInfoFactory.INT,
+                                    TypeInfoFactory.DOUBLE));
+      default:
+        return TypeInfoFactory.getPrimitiveTypeInfo(OdpsType.valueOf(type));
+    }
+  }
+
+  static String sample(String type) {
+    switch (type) {
+      case "BIGINT":
+        return "1234567890123";
+      case "INT":
+        return "1234567";
+      case "SMALLINT":
+        return "12345";
+      case "TINYINT":
+        return "123";
+      case "DOUBLE":
+        return "3.141592653589793";
+      case "FLOAT":
+        return "2.71828";
+      case "DECIMAL":
+        return "123456.789012";
+      case "BOOLEAN":
+        return "true";
+      case "STRING":
+        return "the quick brown fox jumps over the lazy dog";
+      case "VARCHAR":
+        return "varchar value";
+      case "CHAR":
+        return "char value";
+      case "BINARY":
+        return "binary\u0001value";
+      case "DATE":
+        return "2024-01-31";
+      case "DATETIME":
+        return "2024-01-31 12:34:56";
+      case "TIMESTAMP":
+      case "TIMESTAMP_NTZ":
+        return "2024-01-31 12:34:56.123456789";
+      case "ARRAY":
+        return "[1,2,3,4,5,6,7,8]";
+      case "MAP":
+        return "{\"k1\":1,\"k2\":2,\"k3\":3}";
+      case "STRUCT":
+        return "{\"name\":\"alice\",\"age\":30,\"score\":99.5}";
+      default:
+        throw new IllegalArgumentException("Unsupported type: " + type);
+    }
+  }
+}
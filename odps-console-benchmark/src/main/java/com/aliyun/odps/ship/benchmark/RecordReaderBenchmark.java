@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.FieldSlices;
+import com.aliyun.odps.ship.upload.BlockRecordReader;
+import com.aliyun.odps.ship.upload.CsvRecordReader;
+import com.aliyun.odps.ship.upload.RecordReader;
+
+/**
+ * Reads a whole block of synthetic rows with the text and csv readers of upload. The rows are
+ * generated in memory, and written once to a temporary file since the readers read a block of a
+ * file, the file is small enough to stay in the page cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordReaderBenchmark {
+
+  private static final String FD = ",";
+  private static final String RD = "\n";
+
+  @Param({"100000"})
+  public int rows;
+
+  @Param({"8"})
+  public int columns;
+
+  private File textFile;
+  private File csvFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    Random random = new Random(0);
+    StringBuilder text = new StringBuilder();
+    StringBuilder csv = new StringBuilder();
+    for (int i = 0; i < rows; i++) {
+      for (int c = 0; c < columns; c++) {
+        if (c > 0) {
+          text.append(FD);
+          csv.append(',');
+        }
+        String value = field(random, i, c);
+        text.append(value);
+        if (c % 4 == 3) {
+          // quoted field with an escaped quote and a delimiter inside
+          csv.append('"').append(value).append(",\"\"q\"\"").append('"');
+        } else {
+          csv.append(value);
+        }
+      }
+      text.append(RD);
+      csv.append("\r\n");
+    }
+    textFile = File.createTempFile("odps-benchmark-", ".txt");
+    csvFile = File.createTempFile("odps-benchmark-", ".csv");
+    FileUtils.writeStringToFile(textFile, text.toString(), "UTF-8");
+    FileUtils.writeStringToFile(csvFile, csv.toString(), "UTF-8");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    FileUtils.deleteQuietly(textFile);
+    FileUtils.deleteQuietly(csvFile);
+  }
+
+  @Benchmark
+  public void blockReadTextRecord(Blackhole bh) throws IOException {
+    RecordReader reader = new BlockRecordReader(block(textFile), FD, RD, false);
+    try {
+      byte[][] record;
+      while ((record = reader.readTextRecord()) != null) {
+        bh.consume(record);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Benchmark
+  public void blockReadFieldSlices(Blackhole bh) throws IOException {
+    RecordReader reader = new BlockRecordReader(block(textFile), FD, RD, false);
+    try {
+      FieldSlices record;
+      while ((record = reader.readFieldSlices()) != null) {
+        bh.consume(record);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Benchmark
+  public void csvReadTextRecord(Blackhole bh) throws IOException {
+    RecordReader reader = new CsvRecordReader(block(csvFile), "UTF-8", false);
+    try {
+      byte[][] record;
+      while ((record = reader.readTextRecord()) != null) {
+        bh.consume(record);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static BlockInfo block(File file) {
+    return new BlockInfo(0L, file, 0L, file.length());
+  }
+
+  private static String field(Random random, int row, int column) {
+    switch (column % 4) {
+      case 0:
+        return String.valueOf(row);
+      case 1:
+        return String.valueOf(random.nextDouble());
+      case 2:
+        return "2024-01-" + (10 + random.nextInt(18)) + " 12:34:56";
+      default:
+        return "value_" + Long.toHexString(random.nextLong());
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.openservices.odps.console.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aliyun.openservices.odps.console.ODPSConsoleException;
+import com.aliyun.openservices.odps.console.utils.CommandSplitter;
+
+/**
+ * Splits a large script, as passed by -f, into commands. The script mixes comments, quoted
+ * semicolons and multi-line statements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandSplitterBenchmark {
+
+  @Param({"10000"})
+  public int statements;
+
+  private String script;
+
+  @Setup
+  public void setup() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < statements; i++) {
+      switch (i % 4) {
+        case 0:
+          sb.append("-- statement ").append(i).append("; with a comment\n");
+          sb.append("set odps.sql.type.system.odps2=true;\n");
+          break;
+        case 1:
+          sb.append("insert overwrite table t_").append(i).append(" partition (ds='20240131')\n");
+          sb.append("select id, name, 'a;b' as tag, \"c;d\" as other\n");
+          sb.append("from src_").append(i).append(" where id > ").append(i).append(";\n");
+          break;
+        case 2:
+          sb.append("/* block comment */ select count(*) from t_")
+              .append(i).append(";\n");
+          break;
+        default:
+          sb.append("create table if not exists t_").append(i)
+              .append(" (id bigint comment 'id; key', name string);\n");
+          break;
+      }
+    }
+    script = sb.toString();
+  }
+
+  @Benchmark
+  public List<String> getCommands() throws ODPSConsoleException {
+    return new CommandSplitter(script).getCommands();
+  }
+
+  @Benchmark
+  public List<String> getTokens() throws ODPSConsoleException {
+    return new CommandSplitter(script).getTokens();
+  }
+}
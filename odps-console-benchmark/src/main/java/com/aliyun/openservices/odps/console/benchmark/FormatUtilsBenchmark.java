@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.openservices.odps.console.benchmark;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.type.TypeInfoFactory;
+import com.aliyun.openservices.odps.console.utils.FormatUtils;
+
+/**
+ * Formats a result row the way an interactive query prints it, one column of each common type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatUtilsBenchmark {
+
+  private Record record;
+  private Map<String, Integer> width;
+
+  @Setup
+  public void setup() {
+    Column[] columns = new Column[]{
+        new Column("id", TypeInfoFactory.BIGINT),
+        new Column("name", TypeInfoFactory.STRING),
+        new Column("price", TypeInfoFactory.getDecimalTypeInfo(18, 4)),
+        new Column("ratio", TypeInfoFactory.DOUBLE),
+        new Column("valid", TypeInfoFactory.BOOLEAN),
+        new Column("day", TypeInfoFactory.DATE),
+        new Column("created", TypeInfoFactory.DATETIME),
+        new Column("updated", TypeInfoFactory.TIMESTAMP),
+        new Column("tags", TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.STRING)),
+        new Column("attrs",
+                   TypeInfoFactory.getMapTypeInfo(TypeInfoFactory.STRING, TypeInfoFactory.BIGINT))
+    };
+    ArrayRecord r = new ArrayRecord(columns);
+    r.setBigint(0, 1234567890L);
+    r.setString(1, "the quick brown fox");
+    r.setDecimal(2, new BigDecimal("12345.6789"));
+    r.setDouble(3, 0.123456789);
+    r.setBoolean(4, true);
+    r.setDateAsLocalDate(5, LocalDate.of(2024, 1, 31));
+    r.setDatetimeAsZonedDateTime(
+        6, ZonedDateTime.of(2024, 1, 31, 12, 34, 56, 0, ZoneId.systemDefault()));
+    r.setTimestampAsInstant(7, Instant.ofEpochSecond(1706675696L, 123456789));
+    r.setArray(8, Arrays.asList("a", "b", "c"));
+    Map<String, Long> attrs = new LinkedHashMap<String, Long>();
+    attrs.put("k1", 1L);
+    attrs.put("k2", 2L);
+    r.setMap(9, attrs);
+    record = r;
+
+    width = new HashMap<String, Integer>();
+    for (Column column : columns) {
+      width.put(column.getName(), 32);
+    }
+  }
+
+  @Benchmark
+  public String formatRecord() {
+    return FormatUtils.formatRecord(record, width, FormatUtils.DEFAULT_COMPLEX_TYPE_FORMAT_GSON,
+                                    FormatUtils.DATETIME_FORMATTER);
+  }
+}
@@ -46,6 +46,7 @@ public class DescribeCupidInstanceCommand extends AbstractCommand {
   private String instanceID;
 
   public static final String[] HELP_TAGS = new String[]{"cupid", "desc", "describe"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"describe", "desc"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: describe|desc cupid instance -i <instanceID>");
@@ -55,6 +55,7 @@ public class GetJobViewCommand extends AbstractCommand {
   private static final Options options = initOptions();
 
   public static final String[] HELP_TAGS = new String[]{"cupid", "wait", "jobview"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"wait"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: wait jobview -i <instanceID>");
@@ -57,6 +57,7 @@ public class ListCupidInstancesCommand extends AbstractCommand {
   }
 
   public static final String[] HELP_TAGS = new String[]{"cupid", "list", "ls",  "instance", "instances"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"list", "ls"};
 
   private String getAppStateStr(long order) throws ODPSConsoleException {
     AppState[] states = AppState.values();
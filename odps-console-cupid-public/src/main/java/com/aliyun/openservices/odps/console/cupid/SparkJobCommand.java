@@ -49,6 +49,7 @@ import java.util.stream.Collectors;
 public class SparkJobCommand extends AbstractCommand
 {
     public static final String[] HELP_TAGS = new String[]{"spark"};
+    public static final String[] PARSE_KEYWORDS = new String[]{"spark"};
 
     private static final String LIST_CMD = "list";
     private static final String INFO_CMD = "info";
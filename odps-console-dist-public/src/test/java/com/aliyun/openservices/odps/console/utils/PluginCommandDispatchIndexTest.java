@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.openservices.odps.console.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.aliyun.odps.credentials.Credentials;
+import com.aliyun.openservices.odps.console.ExecutionContext;
+import com.aliyun.openservices.odps.console.ODPSConsoleException;
+import com.aliyun.openservices.odps.console.commands.AbstractCommand;
+
+/**
+ * 测试所有模块的命令经关键字索引分发的结果与按优先级逐个尝试相同
+ */
+public class PluginCommandDispatchIndexTest {
+
+  /**
+   * Sample statements of the commands of each module, and the command whose parse accepts each of
+   * them.
+   */
+  private static final String[][] SAMPLES = new String[][]{
+      // basic
+      {"use test_project", "UseProjectCommand"},
+      {"USE   test_project with-settings", "UseProjectCommand"},
+      {"use quota q1", "UseQuotaCommand"},
+      {"use schema s1", "UseSchemaCommand"},
+      {"help", "HelpCommand"},
+      {"h tunnel", "HelpCommand"},
+      {"show version", "ShowVersionCommand"},
+      {"set odps.sql.type.system.odps2=true", "SetCommand"},
+      {"alias x=y", "SetCommand"},
+      {"unset odps.sql.type.system.odps2", "UnSetCommand"},
+      {"unalias x", "UnSetCommand"},
+      {"setenv a=b", "SetenvCommand"},
+      {"history", "HistoryCommand"},
+      {"tune select 1", "TuneCommand"},
+      {"alter table t archive", "ArchiveCommand"},
+      {"alter table t partition(ds='1') merge smallfiles", "MergeCommand"},
+      {"alter table t compact major", "CompactCommand"},
+      {"alter table t freeze", "FreezeCommand"},
+      {"alter table t restore", "RestoreCommand"},
+      {"create externalproject -source dlf -name p -ref ref_p -region cn-shanghai -db default "
+       + "-endpoint dlf.cn-shanghai.aliyuncs.com", "ExternalProjectCommand"},
+      {"drop externalproject -name p", "ExternalProjectCommand"},
+      // auth
+      {"grant select on table t to user u", "AuthorizationCommand"},
+      {"revoke select on table t from user u", "AuthorizationCommand"},
+      {"show grants for u", "AuthorizationCommand"},
+      {"show acl for t", "AuthorizationCommand"},
+      {"show package p", "AuthorizationCommand"},
+      {"show label 1 grants", "AuthorizationCommand"},
+      {"show role grant u", "AuthorizationCommand"},
+      {"show principals r", "AuthorizationCommand"},
+      {"show priv", "AuthorizationCommand"},
+      {"clear expired grants", "AuthorizationCommand"},
+      {"list users", "AuthorizationCommand"},
+      {"list roles", "AuthorizationCommand"},
+      {"list trustedprojects", "AuthorizationCommand"},
+      {"list tenant roles", "AuthorizationCommand"},
+      {"create role r", "AuthorizationCommand"},
+      {"create package p", "AuthorizationCommand"},
+      {"drop role r", "AuthorizationCommand"},
+      {"add user u", "AuthorizationCommand"},
+      {"add table t to package p", "AuthorizationCommand"},
+      {"remove user u", "AuthorizationCommand"},
+      {"remove table t from package p", "AuthorizationCommand"},
+      {"alter user u set default role r", "AuthorizationCommand"},
+      {"desc role r", "AuthorizationCommand"},
+      {"describe package p", "AuthorizationCommand"},
+      {"delete package p", "AuthorizationCommand"},
+      {"allow project p2 to install package p", "AuthorizationCommand"},
+      {"disallow project p2 to install package p", "AuthorizationCommand"},
+      {"install package p.pk", "AuthorizationCommand"},
+      {"uninstall package p.pk", "AuthorizationCommand"},
+      {"set label 2 to user u", "AuthorizationCommand"},
+      {"unset label from user u", "AuthorizationCommand"},
+      {"get policy", "GetPolicyCommand"},
+      {"put policy policy.json", "PutPolicyCommand"},
+      {"show securityconfiguration", "ShowSecurityConfigurationCommand"},
+      {"setproject odps.security.ip.whitelist=", "SetProjectCommand"},
+      {"get security policy", "GetSecurityPolicyCommand"},
+      {"put security policy policy.json", "PutSecurityPolicyCommand"},
+      // public
+      {"http get /projects", "HttpSubmitCommand"},
+      {"read t 10", "ReadTableCommand"},
+      {"show instances", "ShowInstanceCommand"},
+      {"ls instances -limit 10", "ShowInstanceCommand"},
+      {"whoami", "WhoamiCommand"},
+      {"kill 20240101000000000gabcdef", "StopInstanceCommand"},
+      {"status 20240101000000000gabcdef", "StatusOfInstanceCommand"},
+      {"show flags", "ShowFlagsCommand"},
+      {"desc project test_project", "DescribeProjectCommand"},
+      {"desc t", "DescribeTableCommand"},
+      {"describe extended t partition(ds='1')", "DescribeTableCommand"},
+      {"quit", "QuitCommand"},
+      {"q", "QuitCommand"},
+      {"show partitions t", "ShowPartitionsCommand"},
+      {"ls partitions t", "ShowPartitionsCommand"},
+      {"show tables", "ShowTablesCommand"},
+      {"ls tables", "ShowTablesCommand"},
+      {"top instance", "TopInstanceCommand"},
+      {"export table t", "ExportTableCommand"},
+      {"export p local_path", "ExportProjectCommand"},
+      {"list projects", "ListProjectsCommand"},
+      {"show views", "ShowViewsCommand"},
+      {"trigger automvcreation", "TriggerAutoMvCommand"},
+      {"show automvmeta", "ShowAutoMvCommand"},
+      // resource
+      {"create resource file a.txt", "CreateResourceCommand"},
+      {"add file a.txt -f", "AddResourceCommand"},
+      {"add jar a.jar comment 'c'", "AddResourceCommand"},
+      {"create function f as 'com.C' using 'a.jar'", "CreateFunctionCommand"},
+      {"drop function f", "DropFunctionCommand"},
+      {"delete function f", "DropFunctionCommand"},
+      {"drop resource a.txt", "DropResourceCommand"},
+      {"delete resource a.txt", "DropResourceCommand"},
+      {"list functions", "ListFunctionsCommand"},
+      {"show functions", "ListFunctionsCommand"},
+      {"ls resources", "ListResourcesCommand"},
+      {"show resources", "ListResourcesCommand"},
+      {"get resource a.txt /tmp/a.txt", "GetResourceCommand"},
+      {"desc resource a.txt", "DescribeResourceCommand"},
+      {"desc function f", "DescribeFunctionCommand"},
+      {"describe function extended f", "QueryCommand"},
+      // sql
+      {"cost sql select 1", "SQLCostCommand"},
+      {"detach session", "InteractiveQueryCommand"},
+      {"triggerandwait t", "TriggerAndWaitCommand"},
+      {"select 1", "QueryCommand"},
+      {"select ';'", "QueryCommand"},
+      {"insert overwrite table t select 1", "QueryCommand"},
+      {"create table t (a string)", "QueryCommand"},
+      {"drop table t", "QueryCommand"},
+      {"alter table t add columns (b string)", "QueryCommand"},
+      // tunnel
+      {"upload t from pom.xml", "TunnelCommand"},
+      {"download t partition(ds='1') to a.txt", "TunnelCommand"},
+      // dship
+      {"tunnel upload a.txt t", "DShipCommand"},
+      {"tunnel download t a.txt -threads 2", "DShipCommand"},
+      {"tunnel help", "DShipCommand"},
+      // mr
+      {"jar -resources a.jar com.Main in out", "MapReduceCommand"},
+      // volume2
+      {"vfs -usage", "ExternalVolumeCommand"},
+      {"vfs -ls /", "Volume2Command"},
+      // xflow
+      {"show xflows", "ShowXflowsCommand"},
+      {"list xflows", "ShowXflowsCommand"},
+      {"updateabtest onlinemodel m -targetProject p -targetModel m2 -percentage 50",
+       "UpdateOnlineModelAbtestCommand"},
+      {"update onlinemodel m -offlinemodelName om", "UpdateOnlineModelCommand"},
+      {"create onlinemodel m -offlinemodelName om", "CreateOnlineModelCommand"},
+      {"show onlinemodels", "ShowOnlineModelsCommand"},
+      {"desc onlinemodel m", "DescribeOnlineModelCommand"},
+      {"drop onlinemodel m", "DropOnlineModelCommand"},
+      {"show offlinemodels", "ShowOfflineModelsCommand"},
+      {"list offlinemodels", "ShowOfflineModelsCommand"},
+      {"desc offlinemodel m", "DescribeOfflineModelCommand"},
+      {"read offlinemodel m", "ReadOfflineModelCommand"},
+      {"drop offlinemodel if exists m", "DropOfflineModelCommand"},
+      {"create offlinemodel m -modelPath oss://b/m -type tensorflow -version 1.2",
+       "CreateOfflineModelCommand"},
+      {"copy offlinemodel -src_model m -dest_model m2", "CopyOfflineModelCommand"},
+      {"pai -name kmeans -project algo_public", "PAICommand"},
+      // cupid
+      {"desc cupid instance -i 20240101000000000gabcdef", "DescribeCupidInstanceCommand"},
+      {"list cupidinstances", "ListCupidInstancesCommand"},
+      {"spark list", "SparkJobCommand"},
+      // whitespace, case and statements without a command
+      {"  Show  Version", "ShowVersionCommand"},
+      {"SET\nodps.sql.type.system.odps2=true", "SetCommand"},
+      {"\tTUNNEL upload a.txt t", "DShipCommand"},
+      {"", "QueryCommand"},
+      {"   ", "QueryCommand"},
+  };
+
+  /**
+   * Sample statements of the commands which only parse them in a json session.
+   */
+  private static final String[][] JSON_SAMPLES = new String[][]{
+      {"show tables", "ExportMetaCommand"},
+      {"show partitions t", "ExportMetaCommand"},
+      {"desc t", "ExportMetaCommand"},
+  };
+
+  // commands of wait and desc instance statements, WaitXFlowCommand and DescXFlowInstanceCommand
+  // ask the server whether their instance is an xflow instance
+  private static final Set<String> NEED_SERVER = new HashSet<String>(Arrays.asList(
+      "DescXFlowInstanceCommand", "WaitXFlowCommand", "DescribeInstanceCommand", "WaitCommand",
+      "GetJobViewCommand"));
+
+  private static List<PluginPriorityCommand> commands;
+  private static CommandDispatchIndex index;
+  // simple names of the commands which can not be loaded, such as a plugin without its sdk
+  private static Set<String> unloaded = new HashSet<String>();
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    commands = new ArrayList<PluginPriorityCommand>(CommandParserUtils.getExtendedCommandList());
+    // the plugin.ini of the modules, as they are installed in the plugins dir of the console
+    File[] modules = new File("..").listFiles();
+    for (File module : modules) {
+      File pluginIni = new File(module, "plugin.ini");
+      if (!module.getName().startsWith("odps-console-") || !pluginIni.isFile()) {
+        continue;
+      }
+      Properties properties = new Properties();
+      InputStream in = new FileInputStream(pluginIni);
+      try {
+        properties.load(in);
+      } finally {
+        in.close();
+      }
+      PluginUtil.getPriorityCommandFromString(commands, properties.getProperty("command"));
+    }
+    Collections.sort(commands);
+    index = CommandDispatchIndex.build(commands);
+    for (PluginPriorityCommand command : commands) {
+      try {
+        CommandParserUtils.getClassFromPlugin(command.getCommandName());
+      } catch (AssertionError e) {
+        unloaded.add(simpleName(command.getCommandName()));
+      }
+    }
+  }
+
+  /** 测试每个模块的命令语句经索引分发到预期的命令, 结果与按优先级逐个尝试所有命令相同 */
+  @Test
+  public void testSamples() throws ODPSConsoleException {
+    assertSamples(SAMPLES, newContext());
+  }
+
+  /** 测试 json 模式下的命令语句经索引分发到预期的命令 */
+  @Test
+  public void testJsonSamples() throws ODPSConsoleException {
+    ExecutionContext ctx = newContext();
+    ctx.setJson(true);
+    assertSamples(JSON_SAMPLES, ctx);
+  }
+
+  /** 测试样例覆盖了所有可以加载并有 parse 方法的命令 */
+  @Test
+  public void testSamplesCoverAllCommands() {
+    Set<String> sampled = new HashSet<String>();
+    for (String[][] samples : new String[][][]{SAMPLES, JSON_SAMPLES}) {
+      for (String[] sample : samples) {
+        sampled.add(sample[1]);
+      }
+    }
+    for (CommandDispatchIndex.Entry entry : index.getEntries()) {
+      String name = simpleName(entry.getCommandName());
+      if (!unloaded.contains(name) && !NEED_SERVER.contains(name)) {
+        assertTrue(name + " has no sample", sampled.contains(name));
+      }
+    }
+  }
+
+  private static ExecutionContext newContext() throws ODPSConsoleException {
+    ExecutionContext ctx = ExecutionContext.init();
+    // the commands which create an odps client on parse need an account, but do not connect
+    ctx.setCredentials(new Credentials("access_id", "access_key", null));
+    ctx.setEndpoint("http://localhost/api");
+    ctx.setProjectName("test_project");
+    return ctx;
+  }
+
+  private static void assertSamples(String[][] samples, ExecutionContext ctx) {
+    for (String[] sample : samples) {
+      String expected = linearScan(sample[0], ctx);
+      assertEquals(sample[0], expected, dispatch(sample[0], ctx));
+      if (!unloaded.contains(sample[1])) {
+        assertEquals(sample[0], sample[1], simpleName(expected));
+      }
+    }
+  }
+
+  private static String dispatch(String commandText, ExecutionContext ctx) {
+    for (CommandDispatchIndex.Entry entry : index.getCandidates(commandText)) {
+      try {
+        if (entry.parse(commandText, ctx) != null) {
+          return entry.getCommandName();
+        }
+      } catch (AssertionError e) {
+        // 与命令加载失败时一样，继续尝试下一个命令
+      } catch (ODPSConsoleException e) {
+        return "error: " + e.getMessage();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The legacy order of parseInteractiveCommand: try the parse of every command by priority.
+   */
+  private static String linearScan(String commandText, ExecutionContext ctx) {
+    for (PluginPriorityCommand command : commands) {
+      try {
+        AbstractCommand cmd = CommandParserUtils.reflectCommandObject(
+            command.getCommandName(), new Class<?>[]{String.class, ExecutionContext.class},
+            commandText, ctx);
+        if (cmd != null) {
+          return command.getCommandName();
+        }
+      } catch (AssertionError e) {
+        // 继续尝试下一个命令
+      } catch (ODPSConsoleException e) {
+        return "error: " + e.getMessage();
+      }
+    }
+    return null;
+  }
+
+  private static String simpleName(String commandName) {
+    return commandName == null ? null : commandName.substring(commandName.lastIndexOf('.') + 1);
+  }
+}
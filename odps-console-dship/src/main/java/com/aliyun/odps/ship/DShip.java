@@ -34,6 +34,7 @@ import com.aliyun.odps.OdpsException;
 import com.aliyun.odps.ship.common.CommandType;
 import com.aliyun.odps.ship.common.Constants;
 import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
 import com.aliyun.odps.ship.common.OptionsBuilder;
 import com.aliyun.odps.ship.common.Util;
 import com.aliyun.odps.ship.download.DshipDownload;
@@ -68,18 +69,22 @@ public class DShip {
       switch (type) {
         case upload:
           OptionsBuilder.buildUploadOption(args);
-          DshipUpdate uploader = new DshipUpdate(new TunnelUploadSession());
+          DshipJobContext uploadContext = DshipContext.INSTANCE.snapshot();
+          DshipUpdate uploader =
+              new DshipUpdate(uploadContext, new TunnelUploadSession(uploadContext));
           sid = uploader.getTunnelSessionId();
           uploader.upload();
           break;
         case download:
           OptionsBuilder.buildDownloadOption(args);
-          DshipDownload downloader = new DshipDownload();
+          DshipDownload downloader = new DshipDownload(DshipContext.INSTANCE.snapshot());
           downloader.download();
           break;
         case upsert:
           OptionsBuilder.buildUpsertOption(args);
-          DshipUpdate upserter = new DshipUpdate(new TunnelUpsertSession());
+          DshipJobContext upsertContext = DshipContext.INSTANCE.snapshot();
+          DshipUpdate upserter =
+              new DshipUpdate(upsertContext, new TunnelUpsertSession(upsertContext));
           sid = upserter.getTunnelSessionId();
           upserter.upload();
           break;
@@ -130,36 +135,44 @@ public class DShip {
              ODPSConsoleException {
     System.out.println("start resume");
     OptionsBuilder.buildResumeOption(args);
-    String sid = DshipContext.INSTANCE.get(Constants.SESSION_ID);
+    DshipJobContext options = DshipContext.INSTANCE.snapshot();
+    String sid = options.get(Constants.SESSION_ID);
     System.out.println(sid);
     SessionHistory sh = null;
     if (sid == null) {
-      sh = SessionHistoryManager.getLatest();
+      sh = SessionHistoryManager.getLatest(options);
       sid = sh.getSid();
       System.out.println(sid);
     } else {
-      Util.checkSession(sid);
-      sh = SessionHistoryManager.createSessionHistory(sid);
+      Util.checkSession(options, sid);
+      sh = SessionHistoryManager.createSessionHistory(options, sid);
     }
 
-    sh.loadContext();
-    String type = DshipContext.INSTANCE.get(Constants.COMMAND_TYPE);
-    if (type == null || !(type.equals("upload") || type.equals("upsert"))) {
+    DshipJobContext context = sh.loadContext(options);
+    String type = context.get(Constants.COMMAND_TYPE);
+    if (type == null || !(type.equals("upload") || type.equals("upsert")
+                          || type.equals("download"))) {
       throw new InvalidParameterException(
           Constants.ERROR_INDICATOR + "not support resume for '" + type + "'");
     }
 
     sh.log("start resume");
+    if (type.equals("download")) {
+      DshipDownload downloader = new DshipDownload(context, sh);
+      downloader.download();
+      sh.log("resume complete");
+      return;
+    }
     TunnelUpdateSession uploadSession;
     switch (type) {
       case "upsert":
-        uploadSession = new TunnelUpsertSession();
+        uploadSession = new TunnelUpsertSession(context);
         break;
       case "upload":
       default:
-        uploadSession = new TunnelUploadSession();
+        uploadSession = new TunnelUploadSession(context);
     }
-    DshipUpdate uploader = new DshipUpdate(uploadSession);
+    DshipUpdate uploader = new DshipUpdate(context, uploadSession);
     uploader.upload();
     sh.log("resume complete");
   }
@@ -167,30 +180,39 @@ public class DShip {
   private static void show(String[] args) throws ParseException, IOException {
 
     OptionsBuilder.buildShowOption(args);
-    String cmd = DshipContext.INSTANCE.get(Constants.SHOW_COMMAND);
-    String sid = DshipContext.INSTANCE.get(Constants.SESSION_ID);
+    DshipJobContext options = DshipContext.INSTANCE.snapshot();
+    String cmd = options.get(Constants.SHOW_COMMAND);
+    String sid = options.get(Constants.SESSION_ID);
     if ("history".equals(cmd)) {
-      int n = DshipContext.INSTANCE.get("number") == null ? 20 : Integer.valueOf(
-          DshipContext.INSTANCE.get("number"));
-      SessionHistoryManager.showHistory(n);
+      int n = options.get("number") == null ? 20 : Integer.valueOf(options.get("number"));
+      SessionHistoryManager.showHistory(options, n);
     } else if ("log".equals(cmd)) {
-      Util.checkSession(sid);
-      SessionHistory sh = sid == null ? SessionHistoryManager.getLatestSilently() :
-          SessionHistoryManager.createSessionHistory(sid);
+      Util.checkSession(options, sid);
+      SessionHistory sh = sid == null ? SessionHistoryManager.getLatestSilently(options) :
+          SessionHistoryManager.createSessionHistory(options, sid);
       if (sh != null) {
         sh.showLog();
       } else {
         logWarning("previous session not found.");
       }
     } else if ("bad".equals(cmd)) {
-      Util.checkSession(sid);
-      SessionHistory sh = sid == null ? SessionHistoryManager.getLatestSilently() :
-          SessionHistoryManager.createSessionHistory(sid);
+      Util.checkSession(options, sid);
+      SessionHistory sh = sid == null ? SessionHistoryManager.getLatestSilently(options) :
+          SessionHistoryManager.createSessionHistory(options, sid);
       if (sh != null) {
         sh.showBad();
       } else {
         logWarning("previous session not found.");
       }
+    } else if ("metrics".equals(cmd)) {
+      Util.checkSession(options, sid);
+      SessionHistory sh = sid == null ? SessionHistoryManager.getLatestSilently(options) :
+          SessionHistoryManager.createSessionHistory(options, sid);
+      if (sh != null) {
+        sh.showMetrics();
+      } else {
+        logWarning("previous session not found.");
+      }
     } else {
       throw new ParseException("Unknown command: '" + cmd + "'\nType 'tunnel help show' for usage.");
     }
@@ -198,8 +220,9 @@ public class DShip {
 
   private static void purge(String[] args) throws ParseException, IOException {
     OptionsBuilder.buildPurgeOption(args);
-    int n = Integer.valueOf(DshipContext.INSTANCE.get(Constants.PURGE_NUMBER));
-    SessionHistoryManager.purgeHistory(n);
+    DshipJobContext options = DshipContext.INSTANCE.snapshot();
+    int n = Integer.valueOf(options.get(Constants.PURGE_NUMBER));
+    SessionHistoryManager.purgeHistory(options, n);
   }
 
   private static void help(String[] args) throws ParseException, IOException {
@@ -237,7 +260,7 @@ public class DShip {
         break;
       case resume:
         formatter.printHelp("tunnel resume [session_id] [-force]\n"
-                            + "\tresume an upload session",
+                            + "\tresume an upload, upsert or download session",
                             OptionsBuilder.getResumeOptions());
         showHelp("resume.txt");
         break;
@@ -277,8 +300,11 @@ public class DShip {
     }
 
     try {
-      SessionHistory sh = SessionHistoryManager.createSessionHistory(sid);
+      // the options parsed by this thread, so the log is kept under the session dir of the job
+      SessionHistory sh =
+          SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(), sid);
       sh.log(Util.getStack(e));
+      sh.close();
     } catch (Exception e1) {
       // do nothing
     }
@@ -41,6 +41,7 @@ import org.jline.reader.UserInterruptException;
 public class DShipCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"tunnel", "dship"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"tunnel"};
 
   public static void printUsage(PrintStream out) {
     try {
@@ -23,6 +23,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Created by lulu on 15-2-04.
@@ -68,6 +70,10 @@ public class BlockInfo {
     return new FileInputStream(file);
   }
 
+  public FileChannel getFileChannel() throws IOException {
+    return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+  }
+
   public Long getStartPos() {
     return startPos;
   }
@@ -97,6 +103,14 @@ public class BlockInfo {
         && (this.startPos.equals(blockInfo.getStartPos())) && (this.length.equals(blockInfo.getLength()));
   }
 
+  @Override
+  public int hashCode() {
+    int h = blockId.hashCode();
+    h = 31 * h + file.getPath().hashCode();
+    h = 31 * h + startPos.hashCode();
+    return 31 * h + length.hashCode();
+  }
+
   private String getFilePath(String blockInfo) {
     String sep = ":";
     int fromIndex = 0;
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.common;
+
+/**
+ * Searches a fixed byte pattern (a field or record delimiter) in byte arrays.
+ *
+ * Single byte patterns use a plain scan, longer patterns use Boyer-Moore-Horspool so that
+ * multi-byte delimiters such as "||" or "\r\n" skip most of the input instead of comparing
+ * every position.
+ */
+public final class ByteSearcher {
+
+  private final byte[] pattern;
+  private final int[] shift;
+
+  public ByteSearcher(byte[] pattern) {
+    this.pattern = pattern.clone();
+    this.shift = new int[256];
+
+    int m = this.pattern.length;
+    for (int i = 0; i < shift.length; i++) {
+      shift[i] = Math.max(m, 1);
+    }
+    for (int i = 0; i < m - 1; i++) {
+      shift[this.pattern[i] & 0xff] = m - 1 - i;
+    }
+  }
+
+  public int length() {
+    return pattern.length;
+  }
+
+  /**
+   * Find the first occurrence of the pattern which lies entirely in [from, to).
+   *
+   * @return index of the first byte of the match, or -1 if not found
+   */
+  public int indexOf(byte[] src, int from, int to) {
+    int m = pattern.length;
+    if (m == 0) {
+      return from <= to ? from : -1;
+    }
+
+    if (m == 1) {
+      byte b = pattern[0];
+      for (int i = from; i < to; i++) {
+        if (src[i] == b) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    int last = m - 1;
+    byte lastByte = pattern[last];
+    int i = from;
+    int limit = to - m;
+    while (i <= limit) {
+      byte b = src[i + last];
+      if (b == lastByte) {
+        int j = last - 1;
+        while (j >= 0 && src[i + j] == pattern[j]) {
+          j--;
+        }
+        if (j < 0) {
+          return i;
+        }
+      }
+      i += shift[b & 0xff];
+    }
+    return -1;
+  }
+}
@@ -35,6 +35,8 @@ public final class Constants {
   public final static String DATE_FORMAT_PATTERN = "date-format-pattern";
   public final static String NULL_INDICATOR = "null-indicator";
   public final static String SCAN = "scan";
+  // -scan value, validate and upload each block in one pass
+  public final static String INLINE_SCAN = "inline";
   public final static String CONFIG_FILE = "config-file";
   public final static String SCHEMA = "schema";
   public final static String TABLE = "table";
@@ -51,6 +53,8 @@ public final class Constants {
 
   // for resume
   public final static String RESUME_PATH = "resume-path";
+  // download path of stdout
+  public final static String STDOUT_PATH = "-";
   // current block id
   public final static String RESUME_BLOCK_ID = "resume-block-id";
   // current upload id
@@ -63,6 +67,25 @@ public final class Constants {
   public final static String COLUMNS_INDEX = "columns-index";
   public final static String WITH_PT = "with-partition";
 
+  // local file format of upload / download
+  public final static String FORMAT = "format";
+  public final static String TEXT_FORMAT = "text";
+  public final static String PARQUET_FORMAT = "parquet";
+  public final static String ORC_FORMAT = "orc";
+
+  // compression of downloaded files
+  public final static String OUTPUT_COMPRESS = "output-compress";
+  public final static String GZIP_COMPRESS = "gzip";
+  public final static String ZSTD_COMPRESS = "zstd";
+
+  // -threads auto: the number of upload threads follows the throughput, see AdaptiveConcurrency
+  public final static String AUTO_THREADS = "auto";
+
+  // blocks of the index of an upload session, saved with the session, see CompressedBlockUploader
+  public final static String BLOCK_COUNT = "block-count";
+  // the tunnel accepts block ids below it
+  public final static long MAX_BLOCK_ID = 20000;
+
   // value for option default value
   public final static String REMOTE_CHARSET = "utf8";
   public final static String DEFAULT_FIELD_DELIMITER = ",";
@@ -77,6 +100,7 @@ public final class Constants {
   public static final String DEFAULT_STRICT_SCHEMA = "true";
   public static final String DEFAULT_TIME = "false";
   public static final String DEFAULT_OVERWRITE = "false";
+  public static final String DEFAULT_FORMAT = TEXT_FORMAT;
 
   public final static String DEFAULT_PURGE_NUMBER = "3";
   public static final int DEFAULT_THREADS = 1;
@@ -84,6 +108,28 @@ public final class Constants {
   public static int MAX_RECORD_SIZE = 200 * 1024 * 1024;
   public static long DEFAULT_BLOCK_SIZE = 100;
   public static long DEFAULT_BAD_RECORDS = 1000;
+  // bytes of bad records of a block kept in memory before they are saved
+  public static int BAD_RECORD_BUFFER_SIZE = 1024 * 1024;
+  // bounds of the records in one chunk when partitions are downloaded by multiple threads
+  public static long MIN_DOWNLOAD_CHUNK_LINES = 10000;
+  public static long MAX_DOWNLOAD_CHUNK_LINES = 1000000;
+  // bytes of a slice buffered before it is written to stdout, see OrderedOutput
+  public static int STDOUT_SLICE_BUFFER_SIZE = 16 * 1024 * 1024;
+  // download sessions of partitions created at the same time
+  public static int DOWNLOAD_SESSION_CREATORS = 8;
+  // bytes of a row group of a downloaded parquet file, and of a stripe of an orc file
+  public static final long PARQUET_ROW_GROUP_SIZE = 128L * 1024 * 1024;
+  public static final long ORC_STRIPE_SIZE = 64L * 1024 * 1024;
+  // records in a batch handed to a lane of a compressed block, and batches queued for a lane
+  public static int LANE_BATCH_RECORDS = 1024;
+  public static int LANE_BATCHES = 8;
+  // upload threads of -threads auto at the start and at most
+  public static int AUTO_THREADS_INITIAL = 2;
+  public static int AUTO_THREADS_MAX = 32;
+  // millis between the checks of the progress of the blocks being uploaded, see ProgressReporter
+  public static long PROGRESS_TICK = 500;
+  // smallest block size in MiB chosen for -threads auto when -bs is not set
+  public static long AUTO_MIN_BLOCK_SIZE = 16;
 
   public static String DEFAULT_SESSION_DIR = Util.getAbsRootDir();
 
@@ -27,58 +27,89 @@ import com.aliyun.openservices.odps.console.ExecutionContext;
 
 /**
  * Created by lulu on 15-2-9.
+ *
+ * Options of the command being parsed by the current thread, so commands parsed by different
+ * threads, such as the requests of the console daemon, do not see each other's options. Jobs do
+ * not read it, they run with a {@link DshipJobContext} taken by {@link #snapshot()}.
  */
 public enum DshipContext {
   INSTANCE;
-  private Map<String, String> context = new HashMap<String, String>();
+
+  private final ThreadLocal<Options> options = new ThreadLocal<Options>() {
+    @Override
+    protected Options initialValue() {
+      return new Options();
+    }
+  };
 
   public ExecutionContext getExecutionContext() {
-    return executionContext;
+    return options.get().executionContext;
   }
 
   public void setExecutionContext(ExecutionContext executionContext) {
-    this.executionContext = executionContext;
+    options.get().executionContext = executionContext;
   }
 
-  private ExecutionContext executionContext;
-
   public void put(String key, String value) {
-    context.put(key, value);
+    options.get().context.put(key, value);
   }
 
   public String get(String key) {
-    if (context.containsKey(key)) {
-      return context.get(key);
-    }
-    return null;
+    return options.get().context.get(key);
   }
 
   public Set<String> keySet() {
-    return context.keySet();
+    return options.get().context.keySet();
   }
 
   public void clear() {
-    context.clear();
+    options.get().context.clear();
   }
 
   public int size() {
-    return context.size();
+    return options.get().context.size();
   }
 
   public boolean containsKey(String key) {
-    return context.containsKey(key);
+    return options.get().context.containsKey(key);
   }
 
   public void remove(String key) {
-    context.remove(key);
+    options.get().context.remove(key);
   }
 
   public Map<String, String> getAll() {
-    return context;
+    return options.get().context;
   }
 
   public void putAll(Map<String, String> ctx) {
-    context.putAll(ctx);
+    options.get().context.putAll(ctx);
+  }
+
+  /**
+   * @return millis the jobs of the current thread wait before a retry
+   */
+  public long getRetryInterval() {
+    return options.get().retryInterval;
   }
 
+  /**
+   * Set the millis the jobs of the current thread wait before a retry, tests against a local
+   * server shorten it. It is not an option of the command, so it is kept by {@link #clear()}.
+   */
+  public void setRetryInterval(long retryInterval) {
+    options.get().retryInterval = retryInterval;
+  }
+
+  public DshipJobContext snapshot() {
+    Options current = options.get();
+    return new DshipJobContext(current.context, current.executionContext, current.retryInterval);
+  }
+
+  private static class Options {
+
+    private final Map<String, String> context = new HashMap<String, String>();
+    private ExecutionContext executionContext;
+    private long retryInterval = Constants.RETRY_INTERNAL;
+  }
 }
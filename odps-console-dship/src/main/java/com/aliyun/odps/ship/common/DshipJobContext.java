@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.common;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.aliyun.openservices.odps.console.ExecutionContext;
+
+/**
+ * Options of one tunnel job.
+ *
+ * The options are parsed into {@link DshipContext}, and a job takes a snapshot of them when it
+ * starts, so jobs running in the same JVM do not see each other's options. The snapshot is
+ * immutable and may be read by any thread of the job, {@link #with(String, String)} returns a
+ * modified copy.
+ */
+public final class DshipJobContext {
+
+  private final Map<String, String> context;
+  private final ExecutionContext executionContext;
+  private final long retryInterval;
+
+  public DshipJobContext(Map<String, String> context, ExecutionContext executionContext) {
+    this(context, executionContext, Constants.RETRY_INTERNAL);
+  }
+
+  public DshipJobContext(Map<String, String> context, ExecutionContext executionContext,
+                         long retryInterval) {
+    this.context = Collections.unmodifiableMap(new HashMap<String, String>(context));
+    this.executionContext = executionContext;
+    this.retryInterval = retryInterval;
+  }
+
+  public ExecutionContext getExecutionContext() {
+    return executionContext;
+  }
+
+  /**
+   * @return millis to wait before a retry
+   */
+  public long getRetryInterval() {
+    return retryInterval;
+  }
+
+  public String get(String key) {
+    return context.get(key);
+  }
+
+  public boolean containsKey(String key) {
+    return context.containsKey(key);
+  }
+
+  public Map<String, String> getAll() {
+    return context;
+  }
+
+  public DshipJobContext with(String key, String value) {
+    Map<String, String> copy = new HashMap<String, String>(context);
+    copy.put(key, value);
+    return new DshipJobContext(copy, executionContext, retryInterval);
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.common;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Histograms of the blocks of a tunnel job, saved into the session directory when the job ends,
+ * see {@link com.aliyun.odps.ship.history.SessionHistory#saveMetrics(DshipMetrics)}.
+ *
+ * A block is a block of an upload or upsert, or a slice or chunk of a download. For each block the
+ * seconds per MiB, records per second, retries, and the bytes of the text and of the tunnel are
+ * observed. Raw bytes are the text of the records, read by an upload after the file is
+ * decompressed, or written by a download before -oc compression. Tunnel bytes are the bytes of
+ * the record stream of the tunnel as counted by the SDK, which is before the stream is compressed
+ * for the network, they are not observed if the tunnel writer does not count them.
+ */
+public class DshipMetrics {
+
+  public static final String JSON_FILE = "metrics.json";
+  public static final String PROMETHEUS_FILE = "metrics.prom";
+
+  private static final String PREFIX = "tunnel_block_";
+  private static final double MIB = 1024 * 1024;
+  private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+  private final String command;
+  private long blocks;
+  private long records;
+  private final Histogram secondsPerMib =
+      new Histogram("seconds_per_mib", "Seconds to transfer one MiB of raw bytes of a block.",
+                    Unit.SECONDS, 0.01, 0.02, 0.05, 0.1, 0.2, 0.5, 1, 2, 5, 10, 30, 60);
+  private final Histogram recordsPerSecond =
+      new Histogram("records_per_second", "Records transferred per second of a block.",
+                    Unit.RECORDS, 1e3, 5e3, 1e4, 5e4, 1e5, 2e5, 5e5, 1e6, 2e6, 5e6);
+  private final Histogram retries =
+      new Histogram("retries", "Retries of a block.", Unit.COUNT, 0, 1, 2, 3, 4, 5);
+  private final Histogram rawBytes =
+      new Histogram("raw_bytes", "Bytes of the text of a block, before compression.",
+                    Unit.BYTES, bytesBounds());
+  private final Histogram tunnelBytes =
+      new Histogram("tunnel_bytes", "Bytes of the tunnel record stream of a block.",
+                    Unit.BYTES, bytesBounds());
+
+  /**
+   * @param command upload, upsert or download
+   */
+  public DshipMetrics(String command) {
+    this.command = command;
+  }
+
+  /**
+   * Observe a finished block.
+   *
+   * @param rawBytes bytes of the block in the local file
+   * @param tunnelBytes bytes of the block on the tunnel, or -1 if they are not counted
+   * @param millis time of the block, including retries
+   */
+  public synchronized void addBlock(long records, long rawBytes, long tunnelBytes, long millis,
+                                    int retries) {
+    double seconds = Math.max(millis, 1) / 1000.0;
+    blocks++;
+    this.records += records;
+    if (rawBytes > 0) {
+      secondsPerMib.observe(seconds / (rawBytes / MIB));
+    }
+    recordsPerSecond.observe(records / seconds);
+    this.retries.observe(retries);
+    this.rawBytes.observe(rawBytes);
+    if (tunnelBytes >= 0) {
+      this.tunnelBytes.observe(tunnelBytes);
+    }
+  }
+
+  public String getCommand() {
+    return command;
+  }
+
+  public synchronized long getBlocks() {
+    return blocks;
+  }
+
+  public synchronized long getRecords() {
+    return records;
+  }
+
+  public synchronized List<Histogram> getHistograms() {
+    return Arrays.asList(secondsPerMib, recordsPerSecond, retries, rawBytes, tunnelBytes);
+  }
+
+  public synchronized String toJson() {
+    return GSON.toJson(this);
+  }
+
+  public static DshipMetrics fromJson(String json) {
+    return GSON.fromJson(json, DshipMetrics.class);
+  }
+
+  /**
+   * @return the histograms in the Prometheus text format, labeled by the session id and command
+   */
+  public synchronized String toPrometheus(String sessionId) {
+    String labels = "session=\"" + escape(sessionId) + "\",command=\"" + escape(command) + "\"";
+    StringBuilder sb = new StringBuilder();
+    for (Histogram h : getHistograms()) {
+      String name = PREFIX + h.name;
+      sb.append("# HELP ").append(name).append(' ').append(h.help).append('\n');
+      sb.append("# TYPE ").append(name).append(" histogram\n");
+      long cumulative = 0;
+      for (int i = 0; i <= h.bounds.length; i++) {
+        cumulative += h.counts[i];
+        String le = i < h.bounds.length ? format(h.bounds[i]) : "+Inf";
+        sb.append(name).append("_bucket{").append(labels).append(",le=\"").append(le)
+            .append("\"} ").append(cumulative).append('\n');
+      }
+      sb.append(name).append("_sum{").append(labels).append("} ").append(format(h.sum))
+          .append('\n');
+      sb.append(name).append("_count{").append(labels).append("} ").append(h.count)
+          .append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return a summary of the histograms, shown by 'tunnel show metrics'
+   */
+  public synchronized String toSummary() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%s: %s, %s\n", command, Util.pluralize("block", blocks),
+                            Util.pluralize("record", records)));
+    sb.append(String.format("%-20s%10s%14s%14s%14s%14s\n", "", "count", "avg", "p50", "p90",
+                            "p99"));
+    for (Histogram h : getHistograms()) {
+      sb.append(String.format("%-20s%10d%14s%14s%14s%14s\n", h.name, h.count,
+                              h.count == 0 ? "-" : h.unit.format(h.sum / h.count),
+                              h.quantile(0.5), h.quantile(0.9), h.quantile(0.99)));
+    }
+    return sb.toString();
+  }
+
+  private static double[] bytesBounds() {
+    double[] bounds = new double[]{64.0 / 1024, 1, 4, 16, 64, 256, 1024, 4096};
+    for (int i = 0; i < bounds.length; i++) {
+      bounds[i] *= MIB;
+    }
+    return bounds;
+  }
+
+  private static String escape(String value) {
+    return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  static String format(double v) {
+    if (v == Math.rint(v) && Math.abs(v) < 1e15) {
+      return String.valueOf((long) v);
+    }
+    return String.valueOf(v);
+  }
+
+  enum Unit {
+    SECONDS, RECORDS, COUNT, BYTES;
+
+    String format(double v) {
+      switch (this) {
+        case SECONDS:
+          return String.format("%.3f s", v);
+        case RECORDS:
+          return String.format("%.0f/s", v);
+        case BYTES:
+          return Util.toReadableBytes((long) v);
+        default:
+          return DshipMetrics.format(Math.round(v * 10) / 10.0);
+      }
+    }
+  }
+
+  /**
+   * Counts of the observed values in buckets of fixed upper bounds, the last bucket counts the
+   * values above the largest bound.
+   */
+  public static class Histogram {
+
+    private final String name;
+    private final String help;
+    private final Unit unit;
+    private final double[] bounds;
+    private final long[] counts;
+    private long count;
+    private double sum;
+
+    Histogram(String name, String help, Unit unit, double... bounds) {
+      this.name = name;
+      this.help = help;
+      this.unit = unit;
+      this.bounds = bounds;
+      this.counts = new long[bounds.length + 1];
+    }
+
+    void observe(double v) {
+      int i = 0;
+      while (i < bounds.length && v > bounds[i]) {
+        i++;
+      }
+      counts[i]++;
+      count++;
+      sum += v;
+    }
+
+    /**
+     * @return the upper bound of the bucket of the quantile, as the values are only known by
+     * their buckets
+     */
+    String quantile(double q) {
+      if (count == 0) {
+        return "-";
+      }
+      long rank = (long) Math.ceil(q * count);
+      long cumulative = 0;
+      for (int i = 0; i < bounds.length; i++) {
+        cumulative += counts[i];
+        if (cumulative >= rank) {
+          return "<= " + unit.format(bounds[i]);
+        }
+      }
+      return "> " + unit.format(bounds[bounds.length - 1]);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getSum() {
+      return sum;
+    }
+
+    /**
+     * @return the count of each bucket, not cumulative
+     */
+    public long[] getCounts() {
+      return counts.clone();
+    }
+  }
+}
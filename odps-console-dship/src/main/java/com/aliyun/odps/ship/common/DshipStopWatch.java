@@ -5,6 +5,7 @@ import org.apache.commons.lang.time.StopWatch;
 public class DshipStopWatch extends StopWatch {
     private boolean printIOElapsedTime = false;
     private String name;
+    private long addedTime = 0;
 
     public DshipStopWatch(String name, boolean printIOElapsedTime) {
         this.name = name;
@@ -13,9 +14,16 @@ public class DshipStopWatch extends StopWatch {
         this.suspend();
     }
 
-    public String getFormattedSummary() {
+    /**
+     * Add time measured by another stop watch, e.g. of a chunk downloaded by another thread.
+     */
+    public synchronized void addTime(long time) {
+        addedTime += time;
+    }
+
+    public synchronized String getFormattedSummary() {
         if (printIOElapsedTime) {
-            long elapsedTime = this.getTime();
+            long elapsedTime = this.getTime() + addedTime;
             return String.format(", %s: %s", name, Util.toReadableMilliseconds(elapsedTime));
         } else {
             return "";
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.common;
+
+import java.util.Arrays;
+
+/**
+ * Fields of one text record, described as (buffer, offset, length) slices.
+ *
+ * The slices usually point into the read buffer of a record reader, so they are only valid until
+ * the next record is read. Use {@link #toArray()} to get a copy that outlives the reader.
+ */
+public class FieldSlices {
+
+  private byte[][] buffers = new byte[16][];
+  private int[] offsets = new int[16];
+  private int[] lengths = new int[16];
+  private int size = 0;
+
+  public void clear() {
+    size = 0;
+  }
+
+  public void add(byte[] buffer, int offset, int length) {
+    if (size == offsets.length) {
+      int newCapacity = size * 2;
+      buffers = Arrays.copyOf(buffers, newCapacity);
+      offsets = Arrays.copyOf(offsets, newCapacity);
+      lengths = Arrays.copyOf(lengths, newCapacity);
+    }
+    buffers[size] = buffer;
+    offsets[size] = offset;
+    lengths[size] = length;
+    size++;
+  }
+
+  /**
+   * Reset this instance to the given fields without copying them.
+   */
+  public FieldSlices wrap(byte[][] fields) {
+    clear();
+    for (byte[] field : fields) {
+      add(field, 0, field.length);
+    }
+    return this;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public byte[] getBuffer(int i) {
+    return buffers[i];
+  }
+
+  public int getOffset(int i) {
+    return offsets[i];
+  }
+
+  public int getLength(int i) {
+    return lengths[i];
+  }
+
+  public byte[] toBytes(int i) {
+    return Arrays.copyOfRange(buffers[i], offsets[i], offsets[i] + lengths[i]);
+  }
+
+  public byte[][] toArray() {
+    byte[][] fields = new byte[size][];
+    for (int i = 0; i < size; i++) {
+      fields[i] = toBytes(i);
+    }
+    return fields;
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.common;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+
+/**
+ * Hadoop configuration and paths of the local parquet and orc files.
+ */
+public class LocalHadoopFiles {
+
+  private LocalHadoopFiles() {
+  }
+
+  /**
+   * @return a configuration which reads and writes local files without .crc checksum files
+   */
+  public static Configuration newConfiguration() {
+    Configuration conf = new Configuration();
+    // the plugin jars are not on the context class loader, which loads the classes by default
+    conf.setClassLoader(LocalHadoopFiles.class.getClassLoader());
+    conf.set("fs.file.impl", RawLocalFileSystem.class.getName());
+    conf.setBoolean("fs.file.impl.disable.cache", true);
+    return conf;
+  }
+
+  public static Path toPath(File file) {
+    return new Path(file.getAbsoluteFile().toURI());
+  }
+}
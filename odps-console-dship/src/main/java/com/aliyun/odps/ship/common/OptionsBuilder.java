@@ -195,6 +195,8 @@ public class OptionsBuilder {
       return "log";
     } else if (cmd.equals("b")) {
       return "bad";
+    } else if (cmd.equals("m")) {
+      return "metrics";
     }
     return cmd;
   }
@@ -318,21 +320,52 @@ public class OptionsBuilder {
 
     // threads
     int threads;
-    try {
-      threads = Integer.parseInt(DshipContext.INSTANCE.get(Constants.THREADS));
-    } catch (IllegalArgumentException e) {
-      throw new IllegalArgumentException(
-          Constants.THREADS + " " + DshipContext.INSTANCE.get(Constants.THREADS) + " Invalid.");
+    if (Constants.AUTO_THREADS.equals(DshipContext.INSTANCE.get(Constants.THREADS))) {
+      if (!CommandType.upload.name().equals(type)) {
+        throw new IllegalArgumentException(
+            "Invalid parameter : threads 'auto' is only supported by upload\nType 'tunnel help "
+            + type + "' for usage.");
+      }
+      threads = Constants.AUTO_THREADS_MAX;
+    } else {
+      try {
+        threads = Integer.parseInt(DshipContext.INSTANCE.get(Constants.THREADS));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            Constants.THREADS + " " + DshipContext.INSTANCE.get(Constants.THREADS) + " Invalid.");
+      }
     }
     if (threads <= 0) {
       throw new IllegalArgumentException(Constants.THREADS + " argument must > 0.");
     }
-    if (threads > 1 && "true".equalsIgnoreCase(DshipContext.INSTANCE.get(Constants.HEADER))) {
+    // upsert blocks are always read by one thread, threads is the number of streams
+    if (threads > 1 && "true".equalsIgnoreCase(DshipContext.INSTANCE.get(Constants.HEADER))
+        && !CommandType.upsert.name().equals(type)) {
       throw new IllegalArgumentException("Do not support write header in multi-threads.");
     }
 
     String table = DshipContext.INSTANCE.get(Constants.TABLE);
 
+    // local file format
+    String format = DshipContext.INSTANCE.get(Constants.FORMAT);
+    if (format != null && !Constants.TEXT_FORMAT.equals(format)) {
+      if (!Util.isTypedFormat(format)) {
+        throw new IllegalArgumentException(
+            "Unsupported format: '" + format + "', expected (" + Constants.TEXT_FORMAT + "|"
+            + Constants.PARQUET_FORMAT + "|" + Constants.ORC_FORMAT + ")\nType 'tunnel help "
+            + type + "' for usage.");
+      }
+      // values are typed in these files, the options of text files do not apply
+      if ("true".equalsIgnoreCase(DshipContext.INSTANCE.get(Constants.CSV_FORMAT))
+          || "true".equalsIgnoreCase(DshipContext.INSTANCE.get(Constants.HEADER))
+          || "true".equalsIgnoreCase(DshipContext.INSTANCE.get(Constants.WITH_PT))) {
+        throw new IllegalArgumentException(
+            "Can not use -" + Constants.CSV_FORMAT + ", -" + Constants.HEADER + " or -"
+            + Constants.WITH_PT + " with format " + format + ".\nType 'tunnel help " + type
+            + "' for usage.");
+      }
+    }
+
     /*
      Handle download options
      */
@@ -383,6 +416,30 @@ public class OptionsBuilder {
           }
         }
       }
+
+      // stdout
+      if (Constants.STDOUT_PATH.equals(DshipContext.INSTANCE.get(Constants.RESUME_PATH))
+          && Util.isTypedFormat(format)) {
+        throw new IllegalArgumentException(
+            "Can not download format " + format + " to stdout.\nType 'tunnel help " + type
+            + "' for usage.");
+      }
+
+      // output compression
+      String compress = DshipContext.INSTANCE.get(Constants.OUTPUT_COMPRESS);
+      if (compress != null) {
+        if (!Constants.GZIP_COMPRESS.equals(compress) && !Constants.ZSTD_COMPRESS.equals(compress)) {
+          throw new IllegalArgumentException(
+              "Invalid parameter : output compress expected '" + Constants.GZIP_COMPRESS + "' or '"
+              + Constants.ZSTD_COMPRESS + "', found '" + compress + "'\nType 'tunnel help " + type
+              + "' for usage.");
+        }
+        if (Util.isTypedFormat(format)) {
+          throw new IllegalArgumentException(
+              "Can not use -" + Constants.OUTPUT_COMPRESS + " with format " + format
+              + ".\nType 'tunnel help " + type + "' for usage.");
+        }
+      }
     }
 
     /*
@@ -398,9 +455,10 @@ public class OptionsBuilder {
       if("upload".equals(type)) {
         // scan
         String scan = DshipContext.INSTANCE.get(Constants.SCAN);
-        if (scan == null || !(scan.equals("true") || scan.equals("false") || scan.equals("only"))) {
-          throw new IllegalArgumentException("-scan, expected:(true|false|only), actual: '" + scan
-                                             + "'\nType 'tunnel help " + type + "' for usage.");
+        if (scan == null || !(scan.equals("true") || scan.equals("false") || scan.equals("only")
+                              || scan.equals(Constants.INLINE_SCAN))) {
+          throw new IllegalArgumentException("-scan, expected:(true|false|only|inline), actual: '"
+                                             + scan + "'\nType 'tunnel help " + type + "' for usage.");
         }
       }
 
@@ -469,10 +527,11 @@ public class OptionsBuilder {
     String number = DshipContext.INSTANCE.get("number");
     String sid = DshipContext.INSTANCE.get(Constants.SESSION_ID);
 
-    if (!(cmd.equals("log") || cmd.equals("bad") || cmd.equals("history"))) {
+    if (!(cmd.equals("log") || cmd.equals("bad") || cmd.equals("metrics")
+          || cmd.equals("history"))) {
       throw new IllegalArgumentException("Unknown command\nType 'tunnel help show' for usage.");
     }
-    if ((cmd.equals("log") || cmd.equals("bad")) && (number != null)) {
+    if ((cmd.equals("log") || cmd.equals("bad") || cmd.equals("metrics")) && (number != null)) {
       throw new IllegalArgumentException("Unknown command\nType 'tunnel help show' for usage.");
     }
     if (cmd.equals("history") && sid != null) {
@@ -506,6 +565,7 @@ public class OptionsBuilder {
     setContextValue(Constants.CSV_FORMAT, "false");
     setContextValue(Constants.TIME, Constants.DEFAULT_TIME);
     setContextValue(Constants.OVERWRITE, Constants.DEFAULT_OVERWRITE);
+    setContextValue(Constants.FORMAT, Constants.DEFAULT_FORMAT);
   }
 
   private static void processOptions(CommandLine line) {
@@ -761,7 +821,7 @@ public class OptionsBuilder {
 
     opts.addOption(OptionBuilder.withLongOpt(Constants.CSV_FORMAT)
                        .withDescription(
-                           "use csv format (true|false), default false. When uploading in csv format, file splitting not supported.")
+                           "use csv format (true|false), default false")
                        .hasArg().withArgName("ARG").create("cf"));
     opts.addOption(OptionBuilder.withLongOpt(Constants.TIME)
                        .withDescription(
@@ -778,12 +838,18 @@ public class OptionsBuilder {
                                         + Constants.DEFAULT_DISCARD_BAD_RECORDS)
                        .hasArg().withArgName("ARG").create("dbr"));
     opts.addOption(OptionBuilder.withLongOpt(Constants.SCAN)
-                       .withDescription("specify scan file action(true|false|only), default "
-                                        + Constants.DEFAULT_SCAN)
+                       .withDescription("specify scan file action(true|false|only|inline), "
+                                        + "default " + Constants.DEFAULT_SCAN
+                                        + ". inline scans and uploads each block in one pass, "
+                                        + "a block is kept in memory until it is scanned")
                        .hasArg().withArgName("ARG").create("s"));
     opts.addOption(OptionBuilder.withLongOpt(Constants.BLOCK_SIZE)
                        .withDescription("block size in MiB, default "
-                                        + Constants.DEFAULT_BLOCK_SIZE)
+                                        + Constants.DEFAULT_BLOCK_SIZE
+                                        + ". a gzip file which is not bgzf and is larger than "
+                                        + "the block size is decompressed once to find its "
+                                        + "members, a compressed file which can not be split is "
+                                        + "read by one thread and uploaded by the others")
                        .hasArg().withArgName("ARG").create("bs"));
     opts.addOption(OptionBuilder.withLongOpt(Constants.MAX_BAD_RECORDS)
                        .withDescription("max bad records, default " + Constants.DEFAULT_BAD_RECORDS)
@@ -798,12 +864,20 @@ public class OptionsBuilder {
                            + Constants.DEFAULT_STRICT_SCHEMA)
                        .hasArg().withArgName("ARG").create("ss"));
     opts.addOption(OptionBuilder.withLongOpt(Constants.THREADS)
-                       .withDescription("number of threads, default " + Constants.DEFAULT_THREADS)
+                       .withDescription("number of threads, or " + Constants.AUTO_THREADS
+                                        + " to adjust it to the upload throughput, default "
+                                        + Constants.DEFAULT_THREADS)
                        .hasArg().withArgName("ARG").create("t"));
     opts.addOption(
         Option.builder("ow").longOpt(Constants.OVERWRITE).hasArg().argName("true | false")
             .desc("overwrite specified table or partition, default: " + Constants.DEFAULT_OVERWRITE)
             .build());
+    opts.addOption(OptionBuilder.withLongOpt(Constants.FORMAT)
+                       .withDescription(
+                           "local file format (text|parquet|orc), default "
+                           + Constants.DEFAULT_FORMAT + ". parquet files are split into blocks "
+                           + "at row groups and orc files at stripes")
+                       .hasArg().withArgName("ARG").create());
     return opts;
   }
 
@@ -831,6 +905,16 @@ public class OptionsBuilder {
     opts.addOption(OptionBuilder.withLongOpt(Constants.THREADS)
                        .withDescription("number of threads, default " + Constants.DEFAULT_THREADS)
                        .hasArg().withArgName("ARG").create("t"));
+    opts.addOption(OptionBuilder.withLongOpt(Constants.FORMAT)
+                       .withDescription(
+                           "local file format (text|parquet|orc), default "
+                           + Constants.DEFAULT_FORMAT + ". a file is written for each slice")
+                       .hasArg().withArgName("ARG").create());
+    opts.addOption(OptionBuilder.withLongOpt(Constants.OUTPUT_COMPRESS)
+                       .withDescription(
+                           "compress the downloaded files (" + Constants.GZIP_COMPRESS + "|"
+                           + Constants.ZSTD_COMPRESS + "), default not compressed")
+                       .hasArg().withArgName("ARG").create("oc"));
     return opts;
   }
 
@@ -875,6 +959,14 @@ public class OptionsBuilder {
                 "specify strict schema mode. If false, extra data will be abandoned and insufficient field will be filled with null. Default "
                 + Constants.DEFAULT_STRICT_SCHEMA)
             .build());
+    opts.addOption(
+        Option.builder("t")
+            .longOpt(Constants.THREADS)
+            .hasArg()
+            .argName("ARG")
+            .desc("number of upsert streams, records are routed to them by primary key, default "
+                  + Constants.DEFAULT_THREADS)
+            .build());
     return opts;
   }
 
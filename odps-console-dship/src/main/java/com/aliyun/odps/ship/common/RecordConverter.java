@@ -21,18 +21,22 @@ package com.aliyun.odps.ship.common;
 
 import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.format.ResolverStyle;
 import java.time.temporal.ChronoField;
 import java.time.temporal.TemporalAccessor;
+import java.time.zone.ZoneRules;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
@@ -41,6 +45,7 @@ import java.util.Map;
 import java.util.TimeZone;
 
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 
 import com.aliyun.odps.Column;
@@ -66,6 +71,11 @@ import com.google.gson.JsonParser;
 
 public class RecordConverter {
 
+  // 10^n, n <= 22, are exact doubles
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
   private final byte[] nullBytes;
   private final Record r;
   TableSchema schema;
@@ -83,6 +93,24 @@ public class RecordConverter {
   private final Gson gson = new Gson();
   private final JsonParser jsonParser = new JsonParser();
 
+  // parser/formatter of each column, compiled from the schema once
+  private ColumnConverter[] columnConverters;
+  // digits, signs and trimmed whitespace are single ascii bytes, numbers can be parsed from bytes
+  private boolean isAsciiCompatible;
+  private boolean isUtf8;
+  private final FieldSlices wrappedLine = new FieldSlices();
+
+  // cells of the record being formatted, see format(Record, FieldSlices)
+  private byte[] out = new byte[1024];
+  private int outSize = 0;
+  private int[] cellEnds;
+  // datetime and timestamp are formatted with the default pattern
+  private boolean isDefaultDatetimeFormat;
+  // offset of the time zone if it never changes, otherwise null
+  private Integer fixedOffsetSeconds;
+  // doubleFormat with the symbols of an english locale, so it can be done without it
+  private boolean isPlainDoubleFormat;
+
   public RecordConverter(TableSchema schema, String nullTag,
                          String datetimeFormat, String tz,
                          String charset, boolean exponential, boolean isStrictSchema)
@@ -104,7 +132,7 @@ public class RecordConverter {
       }
     } catch (IllegalArgumentException e) {
       throw new IllegalArgumentException("Unsupported date format pattern '"
-                                         + DshipContext.INSTANCE.get(Constants.DATE_FORMAT_PATTERN)
+                                         + datetimeFormat
                                          + "'");
     }
 
@@ -117,6 +145,11 @@ public class RecordConverter {
       }
     }
 
+    isDefaultDatetimeFormat = datetimeFormat == null;
+    ZoneRules rules = this.zoneId.getRules();
+    if (rules.isFixedOffset()) {
+      fixedOffsetSeconds = rules.getOffset(Instant.EPOCH).getTotalSeconds();
+    }
     zonedDatetimeFormatter = zonedDatetimeFormatter.withZone(this.zoneId);
     timestampFormatter = timestampFormatter.withZone(this.zoneId);
     dateFormatter = DateTimeFormatter.ofPattern(Constants.DEFAULT_DATE_FORMAT_PATTERN)
@@ -129,59 +162,103 @@ public class RecordConverter {
       doubleFormat.setMinimumFractionDigits(0);
       // max double fraction dights is 16
       doubleFormat.setMaximumFractionDigits(20);
+      DecimalFormatSymbols symbols = doubleFormat.getDecimalFormatSymbols();
+      isPlainDoubleFormat = symbols.getDecimalSeparator() == '.'
+                            && symbols.getGroupingSeparator() == ','
+                            && "-1,234,567.125".equals(doubleFormat.format(-1234567.125));
     }
 
     setCharset(charset);
     r = new ArrayRecord(schema.getColumns().toArray(new Column[0]));
     nullBytes = nullTag.getBytes(defaultCharset);
+    isAsciiCompatible = Util.isAsciiCompatible(defaultCharset);
+    try {
+      isUtf8 = StandardCharsets.UTF_8.equals(Charset.forName(defaultCharset));
+    } catch (IllegalArgumentException e) {
+      // unsupported charset, will be reported when the data is read
+      isUtf8 = false;
+    }
+    columnConverters = compile(schema);
+    cellEnds = new int[columnConverters.length];
   }
 
-  /**
-   * tunnel record to byte[] array
-   */
-  public byte[][] format(Record r) throws UnsupportedEncodingException {
-
+  private ColumnConverter[] compile(TableSchema schema) throws UnsupportedEncodingException {
     int cols = schema.getColumns().size();
-    byte[][] line = new byte[cols][];
-    Object v = null;
+    ColumnConverter[] converters = new ColumnConverter[cols];
     for (int i = 0; i < cols; i++) {
       TypeInfo typeInfo = schema.getColumn(i).getTypeInfo();
       switch (typeInfo.getOdpsType()) {
-        case STRING:
-        case CHAR:
-        case VARCHAR:
-        case BINARY: {
-          v = r.getBytes(i);
-          line[i] = formatValue(typeInfo, v);
+        case BIGINT:
+          converters[i] = isAsciiCompatible ? new BigintConverter(typeInfo)
+                                            : new ColumnConverter(typeInfo);
           break;
-        }
-        case ARRAY: {
-          v = r.get(i);
-          line[i] = formatValueArray((ArrayTypeInfo) typeInfo, (List) v).getBytes(defaultCharset);
+        case INT:
+          converters[i] = isAsciiCompatible ? new IntConverter(typeInfo)
+                                            : new ColumnConverter(typeInfo);
           break;
-        }
-        case MAP: {
-          v = r.get(i);
-          line[i] = formatValueMap((MapTypeInfo) typeInfo, (Map) v).getBytes(defaultCharset);
+        case DOUBLE:
+          converters[i] = isAsciiCompatible ? new DoubleConverter(typeInfo)
+                                            : new ColumnConverter(typeInfo);
           break;
-        }
-        case STRUCT: {
-          v = r.get(i);
-          line[i] =
-              formatValueStruct((StructTypeInfo) typeInfo, (Struct) v).getBytes(defaultCharset);
+        case BOOLEAN:
+          converters[i] = isAsciiCompatible ? new BooleanConverter(typeInfo)
+                                            : new ColumnConverter(typeInfo);
           break;
-        }
-        default: {
-          v = r.get(i);
-          line[i] = formatValue(typeInfo, v);
+        case STRING:
+          converters[i] = new StringConverter(typeInfo);
+          break;
+        case DATETIME:
+        case TIMESTAMP:
+        case TIMESTAMP_NTZ:
+        case DATE:
+          converters[i] = isAsciiCompatible ? new DateTimeConverter(typeInfo)
+                                            : new ColumnConverter(typeInfo);
+          break;
+        default:
+          converters[i] = new ColumnConverter(typeInfo);
           break;
-        }
       }
+    }
+    return converters;
+  }
+
+  /**
+   * tunnel record to byte[] array
+   */
+  public byte[][] format(Record r) throws UnsupportedEncodingException {
 
+    int cols = columnConverters.length;
+    byte[][] line = new byte[cols][];
+    for (int i = 0; i < cols; i++) {
+      line[i] = columnConverters[i].format(r, i);
     }
     return line;
   }
 
+  /**
+   * Format a tunnel record into one buffer, which is reused by the next record. Common types are
+   * written into the buffer directly, the bytes are the same as {@link #format(Record)}.
+   *
+   * @param reuse
+   *     slices to fill, they are only valid until the next record is formatted
+   */
+  public FieldSlices format(Record r, FieldSlices reuse) throws UnsupportedEncodingException {
+    int cols = columnConverters.length;
+    outSize = 0;
+    for (int i = 0; i < cols; i++) {
+      columnConverters[i].formatTo(r, i);
+      cellEnds[i] = outSize;
+    }
+    // the buffer may grow while the record is formatted, so slices are added at the end
+    reuse.clear();
+    int start = 0;
+    for (int i = 0; i < cols; i++) {
+      reuse.add(out, start, cellEnds[i] - start);
+      start = cellEnds[i];
+    }
+    return reuse;
+  }
+
   private String formatValueArray(ArrayTypeInfo typeInfo, List<Object> list)
       throws UnsupportedEncodingException {
     if (list == null) {
@@ -210,7 +287,6 @@ public class RecordConverter {
     return gson.toJson(ret);
   }
 
-
   private String formatValueMap(MapTypeInfo typeInfo, Map<Object, Object> map)
       throws UnsupportedEncodingException {
     if (map == null) {
@@ -334,9 +410,9 @@ public class RecordConverter {
           return v.toString().getBytes(defaultCharset);
         } else {
           if (doubleFormat != null) {
-            return doubleFormat.format(v).replaceAll(",", "").getBytes(defaultCharset);
+            return StringUtils.remove(doubleFormat.format(v), ',').getBytes(defaultCharset);
           } else {
-            return v.toString().replaceAll(",", "").getBytes(defaultCharset);
+            return StringUtils.remove(v.toString(), ',').getBytes(defaultCharset);
           }
         }
       }
@@ -346,7 +422,7 @@ public class RecordConverter {
           return v.toString().getBytes(defaultCharset);
         } else {
           // FLOAT 不支持 double format
-          return v.toString().replaceAll(",", "").getBytes(defaultCharset);
+          return StringUtils.remove(v.toString(), ',').getBytes(defaultCharset);
         }
       }
       case DATETIME: {
@@ -407,25 +483,36 @@ public class RecordConverter {
     if (line == null) {
       return null;
     }
-    int cols = schema.getColumns().size();
+    return parse(record, wrappedLine.wrap(line));
+  }
+
+  /**
+   * field slices to tunnel record
+   */
+  public Record parse(Record record, FieldSlices line)
+      throws ParseException, UnsupportedEncodingException {
+    if (line == null) {
+      return null;
+    }
+    int cols = columnConverters.length;
 
-    if (isStrictSchema && line.length != cols) {
+    if (isStrictSchema && line.size() != cols) {
       throw new ParseException(Constants.ERROR_INDICATOR + "column mismatch, expected " +
-                               schema.getColumns().size() + " columns, " + line.length +
+                               schema.getColumns().size() + " columns, " + line.size() +
                                " columns found, please check data or delimiter\n");
     }
 
-    int idx = 0;
-    for (byte[] v : line) {
+    for (int idx = 0; idx < line.size(); idx++) {
       if (idx >= cols && !isStrictSchema) {
         break;
       }
 
-      TypeInfo typeInfo = schema.getColumn(idx).getTypeInfo();
-
+      ColumnConverter converter = columnConverters[idx];
       try {
-        record.set(idx, parseValue(typeInfo, v));
+        record.set(idx, converter.parse(line.getBuffer(idx), line.getOffset(idx),
+                                        line.getLength(idx)));
       } catch (Exception e) {
+        byte[] v = line.toBytes(idx);
         String val;
         String vStr;
         if (Util.isIgnoreCharset(charset)) {
@@ -439,11 +526,9 @@ public class RecordConverter {
           val = vStr;
         }
         throw new ParseException(Constants.ERROR_INDICATOR + "format error - " + ":" + (idx + 1) +
-                                 ", " + typeInfo + ":'" + val + "'  " + ExceptionUtils
+                                 ", " + converter.typeInfo + ":'" + val + "'  " + ExceptionUtils
                                      .getFullStackTrace(e));
       }
-
-      idx++;
     }
     return record;
   }
@@ -766,4 +851,618 @@ public class RecordConverter {
     return (new String(v, charset)).trim();
   }
 
+  /**
+   * Parser and formatter of one column. The generic one goes through the type switch of
+   * parseValue / formatValue, the subclasses handle common types directly.
+   */
+  private class ColumnConverter {
+
+    final TypeInfo typeInfo;
+
+    ColumnConverter(TypeInfo typeInfo) {
+      this.typeInfo = typeInfo;
+    }
+
+    Object parse(byte[] buf, int offset, int length) throws Exception {
+      return parseValue(typeInfo, Arrays.copyOfRange(buf, offset, offset + length));
+    }
+
+    byte[] format(Record r, int idx) throws UnsupportedEncodingException {
+      switch (typeInfo.getOdpsType()) {
+        case STRING:
+        case CHAR:
+        case VARCHAR:
+        case BINARY:
+          return formatValue(typeInfo, r.getBytes(idx));
+        case ARRAY:
+          return formatValueArray((ArrayTypeInfo) typeInfo, (List) r.get(idx))
+              .getBytes(defaultCharset);
+        case MAP:
+          return formatValueMap((MapTypeInfo) typeInfo, (Map) r.get(idx)).getBytes(defaultCharset);
+        case STRUCT:
+          return formatValueStruct((StructTypeInfo) typeInfo, (Struct) r.get(idx))
+              .getBytes(defaultCharset);
+        default:
+          return formatValue(typeInfo, r.get(idx));
+      }
+    }
+
+    void formatTo(Record r, int idx) throws UnsupportedEncodingException {
+      append(format(r, idx));
+    }
+
+    boolean isNull(byte[] buf, int offset, int length) {
+      if (length != nullBytes.length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (buf[offset + i] != nullBytes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private class StringConverter extends ColumnConverter {
+
+    StringConverter(TypeInfo typeInfo) {
+      super(typeInfo);
+    }
+
+    @Override
+    Object parse(byte[] buf, int offset, int length) throws Exception {
+      if (isNull(buf, offset, length)) {
+        return null;
+      }
+      try {
+        if (charset == null) {
+          return Arrays.copyOfRange(buf, offset, offset + length);
+        } else {
+          return new String(buf, offset, length, charset).trim();
+        }
+      } catch (IllegalArgumentException e) {
+        // for big than 8M
+        throw new IllegalArgumentException("String value bigger than 8M");
+      }
+    }
+
+    /**
+     * Values which decode and encode to the same bytes are copied as they are.
+     */
+    @Override
+    void formatTo(Record r, int idx) throws UnsupportedEncodingException {
+      byte[] v = r.getBytes(idx);
+      if (v == null) {
+        append(nullBytes);
+      } else if (charset == null || (isUtf8 ? Util.isWellFormedUtf8(v, 0, v.length)
+                                            : isAsciiCompatible && isAscii(v))) {
+        append(v);
+      } else {
+        append(formatValue(typeInfo, v));
+      }
+    }
+  }
+
+  /**
+   * Parse a number from ascii bytes. Anything the fast path does not accept, including invalid
+   * values, goes back to the String based parseValue, so results and error messages stay the same.
+   */
+  private abstract class NumberConverter extends ColumnConverter {
+
+    // trimmed value is buf[start, end)
+    int start;
+    int end;
+
+    NumberConverter(TypeInfo typeInfo) {
+      super(typeInfo);
+    }
+
+    /**
+     * Trim like String.trim, return false if the value contains other control or non-ascii bytes.
+     */
+    boolean trim(byte[] buf, int offset, int length) {
+      start = offset;
+      end = offset + length;
+      while (start < end && isWhitespace(buf[start])) {
+        start++;
+      }
+      while (end > start && isWhitespace(buf[end - 1])) {
+        end--;
+      }
+      for (int i = start; i < end; i++) {
+        if (buf[i] <= ' ') {
+          return false;
+        }
+      }
+      return start < end;
+    }
+
+    private boolean isWhitespace(byte b) {
+      return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+  }
+
+  private class BigintConverter extends NumberConverter {
+
+    BigintConverter(TypeInfo typeInfo) {
+      super(typeInfo);
+    }
+
+    @Override
+    Object parse(byte[] buf, int offset, int length) throws Exception {
+      if (isNull(buf, offset, length)) {
+        return null;
+      }
+      if (trim(buf, offset, length)) {
+        boolean negative = buf[start] == '-';
+        int i = (negative || buf[start] == '+') ? start + 1 : start;
+        // accumulate negatively like Long.parseLong, so Long.MIN_VALUE fits
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long result = 0;
+        boolean valid = i < end && end - i <= 19;
+        for (; valid && i < end; i++) {
+          int digit = buf[i] - '0';
+          if (digit < 0 || digit > 9 || result < multmin) {
+            valid = false;
+          } else {
+            result *= 10;
+            if (result < limit + digit) {
+              valid = false;
+            }
+            result -= digit;
+          }
+        }
+        if (valid) {
+          return negative ? result : -result;
+        }
+      }
+      return super.parse(buf, offset, length);
+    }
+
+    @Override
+    byte[] format(Record r, int idx) throws UnsupportedEncodingException {
+      Object v = r.get(idx);
+      if (v == null) {
+        return nullBytes;
+      }
+      return toAsciiBytes((Long) v);
+    }
+
+    @Override
+    void formatTo(Record r, int idx) {
+      Object v = r.get(idx);
+      if (v == null) {
+        append(nullBytes);
+      } else {
+        appendDigits((Long) v);
+      }
+    }
+  }
+
+  private class IntConverter extends NumberConverter {
+
+    IntConverter(TypeInfo typeInfo) {
+      super(typeInfo);
+    }
+
+    @Override
+    Object parse(byte[] buf, int offset, int length) throws Exception {
+      if (isNull(buf, offset, length)) {
+        return null;
+      }
+      if (trim(buf, offset, length)) {
+        boolean negative = buf[start] == '-';
+        int i = (negative || buf[start] == '+') ? start + 1 : start;
+        long result = 0;
+        boolean valid = i < end && end - i <= 10;
+        for (; valid && i < end; i++) {
+          int digit = buf[i] - '0';
+          if (digit < 0 || digit > 9) {
+            valid = false;
+          } else {
+            result = result * 10 + digit;
+          }
+        }
+        if (negative) {
+          result = -result;
+        }
+        if (valid && result >= Integer.MIN_VALUE && result <= Integer.MAX_VALUE) {
+          return (int) result;
+        }
+      }
+      return super.parse(buf, offset, length);
+    }
+
+    @Override
+    byte[] format(Record r, int idx) throws UnsupportedEncodingException {
+      Object v = r.get(idx);
+      if (v == null) {
+        return nullBytes;
+      }
+      return toAsciiBytes((Integer) v);
+    }
+
+    @Override
+    void formatTo(Record r, int idx) {
+      Object v = r.get(idx);
+      if (v == null) {
+        append(nullBytes);
+      } else {
+        appendDigits((Integer) v);
+      }
+    }
+  }
+
+  private class DoubleConverter extends NumberConverter {
+
+    DoubleConverter(TypeInfo typeInfo) {
+      super(typeInfo);
+    }
+
+    /**
+     * Plain decimals with at most 15 significant digits and 22 fraction digits are parsed as
+     * mantissa / 10^fraction, both operands are exact so the result is correctly rounded like
+     * Double.valueOf. Exponents, NaN, Infinity and longer values use Double.valueOf.
+     */
+    @Override
+    Object parse(byte[] buf, int offset, int length) throws Exception {
+      if (isNull(buf, offset, length)) {
+        return null;
+      }
+      if (trim(buf, offset, length)) {
+        boolean negative = buf[start] == '-';
+        int i = (negative || buf[start] == '+') ? start + 1 : start;
+        long mantissa = 0;
+        int digits = 0;
+        int significantDigits = 0;
+        int fractionDigits = -1;
+        boolean valid = true;
+        for (; valid && i < end; i++) {
+          byte b = buf[i];
+          if (b >= '0' && b <= '9') {
+            digits++;
+            if (mantissa != 0 || b != '0') {
+              significantDigits++;
+            }
+            mantissa = mantissa * 10 + (b - '0');
+            if (fractionDigits >= 0) {
+              fractionDigits++;
+            }
+          } else if (b == '.' && fractionDigits < 0) {
+            fractionDigits = 0;
+          } else {
+            valid = false;
+          }
+        }
+        if (valid && digits > 0 && significantDigits <= 15
+            && fractionDigits < POWERS_OF_TEN.length) {
+          double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits]
+                                            : (double) mantissa;
+          return negative ? -value : value;
+        }
+      }
+      return super.parse(buf, offset, length);
+    }
+
+    /**
+     * Double.toString gives the digits DecimalFormat rounds from, so without an exponent it only
+     * differs in the trailing zeros of the fraction, which DecimalFormat drops. Integers below
+     * 2^53 are written as longs, other values go through formatValue.
+     */
+    @Override
+    void formatTo(Record r, int idx) throws UnsupportedEncodingException {
+      Object o = r.get(idx);
+      if (o == null) {
+        append(nullBytes);
+        return;
+      }
+      double v = (Double) o;
+      if (doubleFormat == null || Double.isInfinite(v)) {
+        appendAscii(Double.toString(v));
+      } else if (!isPlainDoubleFormat || Double.isNaN(v)) {
+        append(formatValue(typeInfo, o));
+      } else if (v == (long) v && Math.abs(v) < (double) (1L << 53)
+                 && !(v == 0 && 1 / v < 0)) {
+        appendDigits((long) v);
+      } else {
+        String str = Double.toString(v);
+        if (str.indexOf('E') >= 0) {
+          append(formatValue(typeInfo, o));
+          return;
+        }
+        int end = str.length();
+        while (str.charAt(end - 1) == '0') {
+          end--;
+        }
+        if (str.charAt(end - 1) == '.') {
+          end--;
+        }
+        appendAscii(str, end);
+      }
+    }
+  }
+
+  private class BooleanConverter extends NumberConverter {
+
+    private final byte[] trueBytes;
+    private final byte[] falseBytes;
+
+    BooleanConverter(TypeInfo typeInfo) throws UnsupportedEncodingException {
+      super(typeInfo);
+      trueBytes = "true".getBytes(defaultCharset);
+      falseBytes = "false".getBytes(defaultCharset);
+    }
+
+    @Override
+    Object parse(byte[] buf, int offset, int length) throws Exception {
+      if (isNull(buf, offset, length)) {
+        return null;
+      }
+      if (trim(buf, offset, length)) {
+        int len = end - start;
+        if (len == 1 && (buf[start] == '0' || buf[start] == '1')) {
+          return buf[start] == '1';
+        } else if (len == 4 && equalsIgnoreCase(buf, start, trueBytes)) {
+          return true;
+        } else if (len == 5 && equalsIgnoreCase(buf, start, falseBytes)) {
+          return false;
+        }
+      }
+      return super.parse(buf, offset, length);
+    }
+
+    private boolean equalsIgnoreCase(byte[] buf, int from, byte[] lowerCase) {
+      for (int i = 0; i < lowerCase.length; i++) {
+        byte b = buf[from + i];
+        if (b >= 'A' && b <= 'Z') {
+          b += 'a' - 'A';
+        }
+        if (b != lowerCase[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    byte[] format(Record r, int idx) throws UnsupportedEncodingException {
+      Object v = r.get(idx);
+      if (v == null) {
+        return nullBytes;
+      }
+      return ((Boolean) v) ? trueBytes.clone() : falseBytes.clone();
+    }
+
+    @Override
+    void formatTo(Record r, int idx) {
+      Object v = r.get(idx);
+      if (v == null) {
+        append(nullBytes);
+      } else {
+        append(((Boolean) v) ? trueBytes : falseBytes);
+      }
+    }
+  }
+
+  /**
+   * Format datetime, timestamp and date values of the default patterns digit by digit, other
+   * patterns and years out of [1, 9999] go through the formatters.
+   */
+  private class DateTimeConverter extends ColumnConverter {
+
+    DateTimeConverter(TypeInfo typeInfo) {
+      super(typeInfo);
+    }
+
+    @Override
+    void formatTo(Record r, int idx) throws UnsupportedEncodingException {
+      Object v = r.get(idx);
+      if (v == null) {
+        append(nullBytes);
+        return;
+      }
+      switch (typeInfo.getOdpsType()) {
+        case DATETIME: {
+          ZonedDateTime dt = (ZonedDateTime) v;
+          if (isDefaultDatetimeFormat) {
+            if (zoneId.equals(dt.getZone())) {
+              if (appendDateTime(dt.getYear(), dt.getMonthValue(), dt.getDayOfMonth(),
+                                 dt.toLocalTime().toSecondOfDay(), -1)) {
+                return;
+              }
+            } else if (appendDateTime(dt.toEpochSecond() + getOffsetSeconds(dt.toInstant()), -1)) {
+              return;
+            }
+          }
+          break;
+        }
+        case TIMESTAMP: {
+          Instant ts = (Instant) v;
+          if (isDefaultDatetimeFormat
+              && appendDateTime(ts.getEpochSecond() + getOffsetSeconds(ts), ts.getNano())) {
+            return;
+          }
+          break;
+        }
+        case TIMESTAMP_NTZ: {
+          LocalDateTime ts = (LocalDateTime) v;
+          if (isDefaultDatetimeFormat
+              && appendDateTime(ts.getYear(), ts.getMonthValue(), ts.getDayOfMonth(),
+                                ts.toLocalTime().toSecondOfDay(), ts.getNano())) {
+            return;
+          }
+          break;
+        }
+        case DATE: {
+          LocalDate date = (LocalDate) v;
+          // LocalDate.toString pads years in [0, 9999] to 4 digits
+          if (date.getYear() >= 0 && date.getYear() <= 9999) {
+            appendDate(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+            return;
+          }
+          break;
+        }
+        default:
+          break;
+      }
+      append(formatValue(typeInfo, v));
+    }
+
+    private int getOffsetSeconds(Instant instant) {
+      if (fixedOffsetSeconds != null) {
+        return fixedOffsetSeconds;
+      }
+      return zoneId.getRules().getOffset(instant).getTotalSeconds();
+    }
+
+    /**
+     * @param nanos
+     *     -1 for datetime, which has no fraction
+     */
+    private boolean appendDateTime(long localSeconds, int nanos) {
+      long days = Math.floorDiv(localSeconds, 86400L);
+      int secondOfDay = (int) Math.floorMod(localSeconds, 86400L);
+      // civil date of the days from 1970-01-01, see LocalDate.ofEpochDay
+      long z = days + 719468;
+      long era = Math.floorDiv(z, 146097L);
+      long doe = z - era * 146097;
+      long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+      long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+      long mp = (5 * doy + 2) / 153;
+      int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+      int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+      long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+      if (year < 1 || year > 9999) {
+        return false;
+      }
+      return appendDateTime((int) year, month, day, secondOfDay, nanos);
+    }
+
+    private boolean appendDateTime(int year, int month, int day, int secondOfDay, int nanos) {
+      // yyyy is the year of era, it is not padded the same way out of [1, 9999]
+      if (year < 1 || year > 9999) {
+        return false;
+      }
+      appendDate(year, month, day);
+      ensure(1 + 8 + 10);
+      out[outSize++] = ' ';
+      appendPadded(secondOfDay / 3600, 2);
+      out[outSize++] = ':';
+      appendPadded(secondOfDay / 60 % 60, 2);
+      out[outSize++] = ':';
+      appendPadded(secondOfDay % 60, 2);
+      if (nanos > 0) {
+        // fraction of 0 to 9 digits, without trailing zeros
+        int digits = 9;
+        while (nanos % 10 == 0) {
+          nanos /= 10;
+          digits--;
+        }
+        out[outSize++] = '.';
+        appendPadded(nanos, digits);
+      }
+      return true;
+    }
+
+    private void appendDate(int year, int month, int day) {
+      ensure(10);
+      appendPadded(year, 4);
+      out[outSize++] = '-';
+      appendPadded(month, 2);
+      out[outSize++] = '-';
+      appendPadded(day, 2);
+    }
+  }
+
+  private void ensure(int n) {
+    if (outSize + n > out.length) {
+      out = Arrays.copyOf(out, Math.max(out.length * 2, outSize + n));
+    }
+  }
+
+  private void append(byte[] b) {
+    ensure(b.length);
+    System.arraycopy(b, 0, out, outSize, b.length);
+    outSize += b.length;
+  }
+
+  private void appendAscii(String str) {
+    appendAscii(str, str.length());
+  }
+
+  private void appendAscii(String str, int end) {
+    ensure(end);
+    for (int i = 0; i < end; i++) {
+      out[outSize++] = (byte) str.charAt(i);
+    }
+  }
+
+  /**
+   * Same bytes as String.valueOf(v) for ascii compatible charsets.
+   */
+  private void appendDigits(long v) {
+    if (v == Long.MIN_VALUE) {
+      appendAscii(String.valueOf(v));
+      return;
+    }
+    int len = v < 0 ? 2 : 1;
+    for (long n = Math.abs(v); n >= 10; n /= 10) {
+      len++;
+    }
+    ensure(len);
+    long n = Math.abs(v);
+    for (int i = outSize + len - 1; i >= outSize; i--) {
+      out[i] = (byte) ('0' + n % 10);
+      n /= 10;
+    }
+    if (v < 0) {
+      out[outSize] = '-';
+    }
+    outSize += len;
+  }
+
+  /**
+   * Write a non-negative value with leading zeros, the buffer must have room for it.
+   */
+  private void appendPadded(int v, int width) {
+    for (int i = outSize + width - 1; i >= outSize; i--) {
+      out[i] = (byte) ('0' + v % 10);
+      v /= 10;
+    }
+    outSize += width;
+  }
+
+  private static boolean isAscii(byte[] v) {
+    for (byte b : v) {
+      if (b < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Same bytes as String.valueOf(v).getBytes(defaultCharset) for ascii compatible charsets.
+   */
+  private static byte[] toAsciiBytes(long v) {
+    if (v == Long.MIN_VALUE) {
+      return String.valueOf(v).getBytes(StandardCharsets.US_ASCII);
+    }
+    int len = v < 0 ? 2 : 1;
+    for (long n = Math.abs(v); n >= 10; n /= 10) {
+      len++;
+    }
+    byte[] bytes = new byte[len];
+    long n = Math.abs(v);
+    for (int i = len - 1; i >= 0; i--) {
+      bytes[i] = (byte) ('0' + n % 10);
+      n /= 10;
+    }
+    if (v < 0) {
+      bytes[0] = '-';
+    }
+    return bytes;
+  }
 }
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.common;
+
+/**
+ * One output file of a download: the records [start, end) of a tunnel download session, which are
+ * written to path. Saved in the session history so that an interrupted download can be resumed.
+ *
+ * Fields are separated by tab, since partition specs and paths may contain ':'.
+ */
+public class SliceInfo {
+
+  private static final String SEP = "\t";
+
+  private Long sliceId;
+  private String sessionId;
+  private Long start;
+  private Long end;
+  private String partitionSpec;
+  private String path;
+
+  public SliceInfo() {
+  }
+
+  public SliceInfo(Long sliceId, String sessionId, Long start, Long end, String partitionSpec,
+                   String path) {
+    this.sliceId = sliceId;
+    this.sessionId = sessionId;
+    this.start = start;
+    this.end = end;
+    this.partitionSpec = partitionSpec;
+    this.path = path;
+  }
+
+  public void parse(String sliceInfo) {
+    String[] splits = sliceInfo.split(SEP, 6);
+    if (splits.length < 6) {
+      throw new IllegalArgumentException(
+          "SliceInfo's format should be <sliceId>\\t<sessionId>\\t<start>\\t<end>\\t"
+          + "<partitionSpec>\\t<path>. now is " + sliceInfo);
+    }
+    sliceId = Long.valueOf(splits[0]);
+    sessionId = splits[1];
+    start = Long.valueOf(splits[2]);
+    end = Long.valueOf(splits[3]);
+    partitionSpec = splits[4].isEmpty() ? null : splits[4];
+    path = splits[5];
+  }
+
+  public Long getSliceId() {
+    return sliceId;
+  }
+
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  public Long getStart() {
+    return start;
+  }
+
+  public Long getEnd() {
+    return end;
+  }
+
+  public String getPartitionSpec() {
+    return partitionSpec;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  @Override
+  public String toString() {
+    return "" + sliceId + SEP + sessionId + SEP + start + SEP + end + SEP
+           + (partitionSpec == null ? "" : partitionSpec) + SEP + path;
+  }
+}
@@ -26,11 +26,14 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -75,13 +78,17 @@ public class Util {
     }
   }
 
-  public static String getSessionBaseDir() throws IllegalArgumentException {
+  /**
+   * @return the session dir of a job, set by -sd, or the default one
+   */
+  public static String getSessionBaseDir(DshipJobContext context)
+      throws IllegalArgumentException {
 
     String basePath = getAbsRootDir();
 
-    if (DshipContext.INSTANCE.get(Constants.SESSION_DIR) != null) {
+    if (context.get(Constants.SESSION_DIR) != null) {
       try {
-        basePath = URLDecoder.decode(DshipContext.INSTANCE.get(Constants.SESSION_DIR), "UTF-8");
+        basePath = URLDecoder.decode(context.get(Constants.SESSION_DIR), "UTF-8");
       } catch (UnsupportedEncodingException e) {
       }
     }
@@ -98,7 +105,8 @@ public class Util {
   //if sid is from tunnel, its format like 2014112910082427d0610a001da849, the first 8 chars is the date sid created.
   //we cut the first 8 char as subdir, so session's dir is <root_dir>/sessions/<date>/<session_id>
   // in other case, create session dir like <root_dir>/sessions/<session_id>/<session_id>. PS, this case is for ut
-  public static String getSessionDir(String sid) throws IllegalArgumentException {
+  public static String getSessionDir(DshipJobContext context, String sid)
+      throws IllegalArgumentException {
     String subdir;
     if (sid == null) {
       subdir = null;
@@ -113,7 +121,7 @@ public class Util {
     } else {
       subdir = sid;
     }
-    return getSessionBaseDir() + "/sessions/" + subdir + "/" + sid;
+    return getSessionBaseDir(context) + "/sessions/" + subdir + "/" + sid;
   }
 
   public static String getStack(Exception e) {
@@ -142,12 +150,13 @@ public class Util {
     return files.toArray(new File[files.size()]);
   }
 
-  public static void checkSession(String sid) throws FileNotFoundException {
+  public static void checkSession(DshipJobContext context, String sid)
+      throws FileNotFoundException {
 
     if (sid == null) {
       return;
     }
-    File f = new File(getSessionDir(sid));
+    File f = new File(getSessionDir(context, sid));
     if (!f.exists()) {
       throw new FileNotFoundException(Constants.ERROR_INDICATOR + "session '" + sid
                                       + "' not found");
@@ -174,6 +183,170 @@ public class Util {
     return charset == null || charset.toLowerCase().equals(Constants.IGNORE_CHARSET);
   }
 
+  /**
+   * Whether the local files of the format keep typed values, i.e. parquet and orc. They are not
+   * split by lines, and the options of text files do not apply to them.
+   */
+  public static boolean isTypedFormat(String format) {
+    return Constants.PARQUET_FORMAT.equals(format) || Constants.ORC_FORMAT.equals(format);
+  }
+
+  /**
+   * Whether every ascii character is encoded as the same single byte, so delimiters, quotes and
+   * digits can be handled at byte level. e.g. utf-8 and gbk, but not utf-16.
+   */
+  public static boolean isAsciiCompatible(String charset) {
+    byte[] ascii = new byte[128];
+    for (int i = 0; i < ascii.length; i++) {
+      ascii[i] = (byte) i;
+    }
+    try {
+      return Arrays.equals(ascii, new String(ascii, StandardCharsets.US_ASCII)
+          .getBytes(Charset.forName(charset)));
+    } catch (IllegalArgumentException e) {
+      // unsupported charset, will be reported when the data is read
+      return false;
+    }
+  }
+
+  /**
+   * @return true if the utf-8 decoder of java accepts the bytes without replacing any of them,
+   * so they are encoded back to the same bytes
+   */
+  public static boolean isWellFormedUtf8(byte[] v, int offset, int length) {
+    int i = offset;
+    int end = offset + length;
+    while (i < end) {
+      int b = v[i] & 0xff;
+      if (b < 0x80) {
+        i++;
+        continue;
+      }
+      int n;
+      int lower = 0x80;
+      int upper = 0xbf;
+      if (b >= 0xc2 && b <= 0xdf) {
+        n = 1;
+      } else if (b >= 0xe0 && b <= 0xef) {
+        n = 2;
+        if (b == 0xe0) {
+          lower = 0xa0;
+        } else if (b == 0xed) {
+          // surrogates
+          upper = 0x9f;
+        }
+      } else if (b >= 0xf0 && b <= 0xf4) {
+        n = 3;
+        if (b == 0xf0) {
+          lower = 0x90;
+        } else if (b == 0xf4) {
+          upper = 0x8f;
+        }
+      } else {
+        return false;
+      }
+      if (i + n >= end) {
+        return false;
+      }
+      int second = v[i + 1] & 0xff;
+      if (second < lower || second > upper) {
+        return false;
+      }
+      for (int k = 2; k <= n; k++) {
+        int c = v[i + k] & 0xff;
+        if (c < 0x80 || c > 0xbf) {
+          return false;
+        }
+      }
+      i += n + 1;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the gbk or gb18030 decoder of java accepts the bytes without replacing any of
+   * them, so they are encoded back to the same bytes: every lead byte 0x81-0xfe is followed by a
+   * trail byte 0x40-0x7e or 0x80-0xfe, or for gb18030 starts a four-byte sequence mapped to unicode
+   */
+  public static boolean isWellFormedGbk(byte[] v, int offset, int length, boolean isGb18030) {
+    int i = offset;
+    int end = offset + length;
+    while (i < end) {
+      int b = v[i] & 0xff;
+      if (b < 0x80) {
+        i++;
+        continue;
+      }
+      if (b == 0x80 || b == 0xff || i + 1 >= end) {
+        return false;
+      }
+      int second = v[i + 1] & 0xff;
+      if ((second >= 0x40 && second <= 0x7e) || (second >= 0x80 && second <= 0xfe)) {
+        i += 2;
+        continue;
+      }
+      if (!isGb18030 || second < 0x30 || second > 0x39 || i + 3 >= end) {
+        return false;
+      }
+      int third = v[i + 2] & 0xff;
+      int fourth = v[i + 3] & 0xff;
+      if (third < 0x81 || third > 0xfe || fourth < 0x30 || fourth > 0x39) {
+        return false;
+      }
+      // 0x81308130-0x8431a439 are the bmp, 0x90308130-0xe3329a35 the supplementary planes
+      int index = (((b - 0x81) * 10 + second - 0x30) * 126 + third - 0x81) * 10 + fourth - 0x30;
+      if (index > 39419 && (index < 189000 || index > 189000 + 0xfffff)) {
+        return false;
+      }
+      i += 4;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the big5 decoder of java maps every pair of bytes without replacing it, so they
+   * are encoded back to the same bytes
+   */
+  public static boolean isWellFormedBig5(byte[] v, int offset, int length) {
+    int i = offset;
+    int end = offset + length;
+    while (i < end) {
+      int b = v[i] & 0xff;
+      if (b < 0x80) {
+        i++;
+        continue;
+      }
+      if (i + 1 >= end || !Big5Pairs.MAPPED.get((b << 8) | (v[i + 1] & 0xff))) {
+        return false;
+      }
+      i += 2;
+    }
+    return true;
+  }
+
+  /**
+   * Pairs of bytes mapped by the big5 charset of java, which has holes in its lead and trail byte
+   * ranges, so they are taken from the charset itself on first use.
+   */
+  private static class Big5Pairs {
+
+    private static final BitSet MAPPED = new BitSet(0x10000);
+
+    static {
+      Charset big5 = Charset.forName("Big5");
+      byte[] pair = new byte[2];
+      for (int lead = 0x81; lead <= 0xfe; lead++) {
+        for (int trail = 0x40; trail <= 0xfe; trail++) {
+          pair[0] = (byte) lead;
+          pair[1] = (byte) trail;
+          if (Arrays.equals(pair, new String(pair, big5).getBytes(big5))) {
+            MAPPED.set((lead << 8) | trail);
+          }
+        }
+      }
+    }
+  }
+
   public static String toReadableBytes(long bytes) {
     DecimalFormat df = new DecimalFormat("###,###.#");
     if (bytes < 1024) {
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import com.aliyun.odps.ship.upload.CompressedFile;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Compress a downloaded file as a sequence of gzip members or zstd frames.
+ *
+ * Every {@link #flush()} ends the current member, so the bytes flushed to the file always
+ * decompress on their own. A file cut after a flush, such as the file of an interrupted download,
+ * is still readable, and a resumed download or the next chunk of a slice is appended as new
+ * members. The compressed file can be uploaded again in blocks, see {@link CompressedFile}.
+ */
+class CompressedOutputStream extends OutputStream {
+
+  private static final int BUF_SIZE = 64 * 1024;
+
+  private final OutputStream out;
+  private final CompressedFile.Codec codec;
+  // the current member, null until something is written after a flush
+  private OutputStream member;
+  // an empty file is written as one empty member, unless it is appended to
+  private boolean empty;
+
+  /**
+   * @param append
+   *     the stream is appended to a file which is already compressed
+   */
+  CompressedOutputStream(OutputStream out, CompressedFile.Codec codec, boolean append) {
+    this.out = out;
+    this.codec = codec;
+    this.empty = !append;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    openMember().write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (len > 0) {
+      openMember().write(b, off, len);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    closeMember();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (empty) {
+        openMember();
+      }
+      closeMember();
+    } finally {
+      out.close();
+    }
+  }
+
+  private OutputStream openMember() throws IOException {
+    if (member == null) {
+      OutputStream shield = new CloseShieldOutputStream(out);
+      member = codec == CompressedFile.Codec.GZIP ? new GZIPOutputStream(shield, BUF_SIZE)
+                                                 : new ZstdOutputStream(shield);
+      empty = false;
+    }
+    return member;
+  }
+
+  private void closeMember() throws IOException {
+    if (member != null) {
+      // writes the trailer of the member, the file stream is kept open
+      OutputStream m = member;
+      member = null;
+      m.close();
+    }
+  }
+}
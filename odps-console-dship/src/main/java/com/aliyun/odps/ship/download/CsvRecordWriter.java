@@ -3,44 +3,230 @@ package com.aliyun.odps.ship.download;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.FieldSlices;
 import com.aliyun.odps.ship.common.Util;
+import com.aliyun.odps.ship.upload.CompressedFile;
 import com.csvreader.CsvWriter;
 import com.google.common.collect.Maps;
 
+/**
+ * Write records in the csv format of javacsv: cells separated by ',', quoted with '"' when they
+ * contain a quote, a comma, a line break, start with a space or a tab, end with a space or a tab,
+ * or are empty or start with '#' in the first column; quotes in quoted cells are doubled.
+ *
+ * The cells are quoted on the encoded bytes, without decoding and encoding them again, for the
+ * charsets in which the bytes of multi-byte characters never are one of these ascii characters.
+ * Cells which would not decode to the same bytes are decoded and encoded as javacsv does, other
+ * charsets are written with javacsv.
+ */
 public class CsvRecordWriter extends RecordWriter {
+
+  private static final Set<String> BYTE_LEVEL_CHARSETS = new HashSet<String>(
+      Arrays.asList("UTF-8", "GBK", "GB18030", "GB2312", "Big5", "US-ASCII", "ISO-8859-1"));
+
+  private static final byte DELIMITER = ',';
+  private static final byte QUOTE = '"';
+  private static final byte COMMENT = '#';
+
   private CsvWriter csvWriter;
   private Charset charset;
+  // javacsv ends a record with the line separator of the system
+  private byte[] recordDelimiter;
+  // a record is joined here and written at once
+  private byte[] line = new byte[1024];
+  private int pos;
 
 
   public CsvRecordWriter(File file, String cs) throws FileNotFoundException {
-    super(file);
+    this(file, cs, false);
+  }
+
+  public CsvRecordWriter(File file, String cs, boolean append) throws FileNotFoundException {
+    this(file, cs, append, null);
+  }
 
+  public CsvRecordWriter(File file, String cs, boolean append, CompressedFile.Codec codec)
+      throws FileNotFoundException {
+    super(file, append, codec);
+    init(cs);
+  }
+
+  public CsvRecordWriter(OutputStream out, String cs, CompressedFile.Codec codec) {
+    super(out, codec);
+    init(cs);
+  }
+
+  private void init(String cs) {
     String charsetName = Util.isIgnoreCharset(cs) ? Constants.REMOTE_CHARSET : cs;
     this.charset = Charset.forName(charsetName);
-    this.csvWriter = new CsvWriter(os, ',', this.charset);
+    if (BYTE_LEVEL_CHARSETS.contains(charset.name())) {
+      this.recordDelimiter = System.getProperty("line.separator").getBytes(charset);
+    } else {
+      this.csvWriter = new CsvWriter(os, ',', this.charset);
+    }
   }
 
   @Override
   public void write(byte[][] line, List<byte[]> ptVals) throws IOException {
-    for (byte [] value : line) {
-      csvWriter.write(new String(value, charset), true);
+    if (csvWriter != null) {
+      for (byte[] value : line) {
+        csvWriter.write(new String(value, charset), true);
+      }
+
+      for (byte[] ptVal : ptVals) {
+        csvWriter.write(new String(ptVal, charset), true);
+      }
+
+      csvWriter.endRecord();
+      return;
     }
 
+    pos = 0;
+    for (byte[] value : line) {
+      writeCell(value, 0, value.length);
+    }
     for (byte[] ptVal : ptVals) {
-      csvWriter.write(new String(ptVal, charset), true);
+      writeCell(ptVal, 0, ptVal.length);
+    }
+    endRecord();
+  }
+
+  @Override
+  public void write(FieldSlices cells) throws IOException {
+    if (csvWriter != null) {
+      super.write(cells);
+      return;
     }
 
-    csvWriter.endRecord();
+    pos = 0;
+    for (int i = 0; i < cells.size(); i++) {
+      writeCell(cells.getBuffer(i), cells.getOffset(i), cells.getLength(i));
+    }
+    for (byte[] ptVal : ptVals) {
+      writeCell(ptVal, 0, ptVal.length);
+    }
+    endRecord();
+  }
+
+  private void writeCell(byte[] buf, int offset, int length) {
+    boolean first = pos == 0;
+    if (!isWellFormed(buf, offset, length)) {
+      // the replacement characters are written, as javacsv does
+      buf = new String(buf, offset, length, charset).getBytes(charset);
+      offset = 0;
+      length = buf.length;
+    }
+
+    int end = offset + length;
+    int quotes = 0;
+    boolean quoted = false;
+    for (int i = offset; i < end; i++) {
+      byte b = buf[i];
+      if (b == QUOTE) {
+        quotes++;
+      } else if (b == DELIMITER || b == '\n' || b == '\r') {
+        quoted = true;
+      }
+    }
+    if (quotes > 0) {
+      quoted = true;
+    } else if (length == 0) {
+      quoted = first;
+    } else if (!quoted) {
+      byte head = buf[offset];
+      byte tail = buf[end - 1];
+      quoted = (first && head == COMMENT) || head == ' ' || head == '\t' || tail == ' '
+               || tail == '\t';
+    }
+
+    ensure((first ? 0 : 1) + length + quotes + (quoted ? 2 : 0));
+    if (!first) {
+      line[pos++] = DELIMITER;
+    }
+    if (!quoted) {
+      System.arraycopy(buf, offset, line, pos, length);
+      pos += length;
+      return;
+    }
+    line[pos++] = QUOTE;
+    if (quotes == 0) {
+      System.arraycopy(buf, offset, line, pos, length);
+      pos += length;
+    } else {
+      for (int i = offset; i < end; i++) {
+        if (buf[i] == QUOTE) {
+          line[pos++] = QUOTE;
+        }
+        line[pos++] = buf[i];
+      }
+    }
+    line[pos++] = QUOTE;
+  }
+
+  private void endRecord() throws IOException {
+    ensure(recordDelimiter.length);
+    System.arraycopy(recordDelimiter, 0, line, pos, recordDelimiter.length);
+    pos += recordDelimiter.length;
+    os.write(line, 0, pos);
+  }
+
+  private void ensure(int length) {
+    if (pos + length > line.length) {
+      line = Arrays.copyOf(line, Math.max(pos + length, line.length * 2));
+    }
+  }
+
+  /**
+   * @return true if the bytes are decoded and encoded back to the same bytes by the charset
+   */
+  private boolean isWellFormed(byte[] buf, int offset, int length) {
+    switch (charset.name()) {
+      case "UTF-8":
+        return Util.isWellFormedUtf8(buf, offset, length);
+      case "GBK":
+        return Util.isWellFormedGbk(buf, offset, length, false);
+      case "GB18030":
+        return Util.isWellFormedGbk(buf, offset, length, true);
+      case "Big5":
+        return Util.isWellFormedBig5(buf, offset, length);
+      default:
+        return isAscii(buf, offset, length);
+    }
+  }
+
+  private static boolean isAscii(byte[] buf, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if (buf[i] < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (csvWriter != null) {
+      csvWriter.flush();
+    }
+    super.flush();
   }
 
   @Override
   public void close() throws IOException {
-    csvWriter.close();
+    if (csvWriter != null) {
+      csvWriter.close();
+    } else {
+      os.close();
+    }
   }
 }
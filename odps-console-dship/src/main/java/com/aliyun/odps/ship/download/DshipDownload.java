@@ -23,8 +23,12 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -40,13 +44,14 @@ import com.aliyun.odps.Odps;
 import com.aliyun.odps.OdpsException;
 import com.aliyun.odps.PartitionSpec;
 import com.aliyun.odps.ship.common.Constants;
-import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.DshipMetrics;
 import com.aliyun.odps.ship.common.PartitionHelper;
 import com.aliyun.odps.ship.common.SessionStatus;
+import com.aliyun.odps.ship.common.SliceInfo;
 import com.aliyun.odps.ship.common.Util;
 import com.aliyun.odps.ship.history.SessionHistory;
 import com.aliyun.odps.tunnel.TunnelException;
-import com.aliyun.openservices.odps.console.ExecutionContext;
 import com.aliyun.openservices.odps.console.ODPSConsoleException;
 import com.aliyun.openservices.odps.console.utils.OdpsConnectionFactory;
 import com.google.common.io.Files;
@@ -57,11 +62,14 @@ import com.google.common.io.Files;
 public class DshipDownload {
 
   private ArrayList<FileDownloader> workItems = new ArrayList<FileDownloader>();
+  // histories which have the slices added so far, see saveSlice
+  private Map<String, SessionHistory> indexedHistories =
+      new LinkedHashMap<String, SessionHistory>();
   private int threads;
   private String path;
   private long writtenBytes = 0L;
   private Long limit;
-  private ExecutionContext context;
+  private final DshipJobContext context;
   private String projectName;
   private String schemaName;
   private String tableName;
@@ -73,32 +81,56 @@ public class DshipDownload {
   private long totalLines;
   private long slices;
   private boolean isCsv;
+  // parquet and orc files can not be concatenated, so they are never downloaded in chunks
+  private boolean isTyped;
+  // download each partition in chunks, see multiThreadDownload
+  private boolean isChunked = false;
+  // history of the session to resume, null for a new download
+  private SessionHistory resumeHistory;
+  // partitions whose sessions are created while downloading, see downloadPartitions
+  private List<PartitionSpec> partitionSpecs;
+  // the slices are written to stdout in order when the path is '-', null otherwise
+  private OrderedOutput stdout;
+  // histograms of the slices and chunks, saved into the sessions when the download ends
+  private final DshipMetrics metrics = new DshipMetrics("download");
 
   SimpleDateFormat sim = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
-  public DshipDownload() {
-    threads = Integer.parseInt(DshipContext.INSTANCE.get(Constants.THREADS));
-    if (DshipContext.INSTANCE.get(Constants.LIMIT) != null) {
-      limit = Long.parseLong(DshipContext.INSTANCE.get(Constants.LIMIT));
+  public DshipDownload(DshipJobContext context) {
+    this.context = context;
+    threads = Integer.parseInt(context.get(Constants.THREADS));
+    if (context.get(Constants.LIMIT) != null) {
+      limit = Long.parseLong(context.get(Constants.LIMIT));
     } else {
       limit = null;
     }
-    path = DshipContext.INSTANCE.get(Constants.RESUME_PATH);
-    projectName = DshipContext.INSTANCE.get(Constants.TABLE_PROJECT);
-    schemaName = DshipContext.INSTANCE.get(Constants.SCHEMA);
-    tableName = DshipContext.INSTANCE.get(Constants.TABLE);
-    instanceId = DshipContext.INSTANCE.get(Constants.INSTANE_ID);
-    partitonSpecLiteral = DshipContext.INSTANCE.get(Constants.PARTITION_SPEC);
+    path = context.get(Constants.RESUME_PATH);
+    projectName = context.get(Constants.TABLE_PROJECT);
+    schemaName = context.get(Constants.SCHEMA);
+    tableName = context.get(Constants.TABLE);
+    instanceId = context.get(Constants.INSTANE_ID);
+    partitonSpecLiteral = context.get(Constants.PARTITION_SPEC);
     ext = Files.getFileExtension(path);
     filename = Files.getNameWithoutExtension(path);
     parentDir = FilenameUtils.removeExtension(path) + File.separator;
-    context = DshipContext.INSTANCE.getExecutionContext();
-    isCsv = "true".equalsIgnoreCase(DshipContext.INSTANCE.get(Constants.CSV_FORMAT));
+    isCsv = "true".equalsIgnoreCase(context.get(Constants.CSV_FORMAT));
+    isTyped = Util.isTypedFormat(context.get(Constants.FORMAT));
+    if (Constants.STDOUT_PATH.equals(path)) {
+      stdout = new OrderedOutput(System.out, Constants.STDOUT_SLICE_BUFFER_SIZE);
+    }
+  }
+
+  /**
+   * Resume the download recorded in the given session history, the context must be loaded from it.
+   */
+  public DshipDownload(DshipJobContext context, SessionHistory resumeHistory) {
+    this(context);
+    this.resumeHistory = resumeHistory;
   }
 
   public void initInstanceDownloadWorkItems(Odps odps)
       throws IOException, ODPSConsoleException, OdpsException {
-    splitDataByThreads(new TunnelDownloadSession(instanceId), null);
+    splitDataByThreads(new TunnelDownloadSession(context, instanceId, null), null);
   }
 
   public void initTableDownloadWorkItems(Odps odps)
@@ -111,7 +143,7 @@ public class DshipDownload {
         throw new OdpsException(
             Constants.ERROR_INDICATOR + "can not specify partition for an unpartitioned table");
       }
-      splitDataByThreads(new TunnelDownloadSession(tableName, null), null);
+      splitDataByThreads(new TunnelDownloadSession(context, tableName, null, null), null);
     } else {
       List<PartitionSpec> parSpecs = helper.inferPartitionSpecs(partitonSpecLiteral);
       if (parSpecs.size() == 0) {
@@ -120,66 +152,85 @@ public class DshipDownload {
       } else if (parSpecs.size() == 1) {
         // 对于指定分区数为 1 的表，退化为下载整个表的情况，分片数量等于使用线程的数量
         PartitionSpec ps = parSpecs.get(0);
-        splitDataByThreads(new TunnelDownloadSession(tableName, ps), ps);
+        splitDataByThreads(new TunnelDownloadSession(context, tableName, ps, null), ps);
       } else {
-        // 对于指定分区数大于 2 的表，分片数量等于下载分区的数量
-        slices = parSpecs.size();
-        long sliceId = 0;
-        long start = 0;
-        for (PartitionSpec ps : parSpecs) {
-          if (limit != null && start == limit) {
-            break;
-          }
-
-          TunnelDownloadSession tds = new TunnelDownloadSession(tableName, ps);
-          SessionHistory sh = tds.getSessionHistory();
-          String
-              msg =
-              ps.toString() + "\tnew session: " + tds.getDownloadId() + "\ttotal lines: " + Util
-                  .toReadableNumber(tds.getTotalLines());
-          System.err.println(sim.format(new Date()) + "  -  " + msg);
-          sh.log(msg);
-
-          long
-              step =
-              (limit == null) ? tds.getTotalLines() : Math.min(tds.getTotalLines(), limit - start);
-
-          String sliceFileName = filename + PartitionHelper.buildSuffix(ps);
-          if (StringUtils.isNotEmpty(ext)) {
-            sliceFileName = sliceFileName + "." + ext;
-          }
-          path = parentDir + sliceFileName;
-          FileDownloader sd = new FileDownloader(path, sliceId, 0L, step, tds, sh, isCsv, ps);
-          workItems.add(sd);
-          sliceId++;
-          start += step;
-        }
-        totalLines = start;
+        // 对于指定分区数大于 2 的表，分片数量等于下载分区的数量，多线程时每个分区再切分成多个 chunk
+        // 分区的 session 在下载时并发创建，见 downloadPartitions
+        partitionSpecs = parSpecs;
       }
     }
   }
 
   public void download() throws IOException, ParseException, ODPSConsoleException, OdpsException {
-    Odps odps = OdpsConnectionFactory.createOdps(context);
+    try {
+      downloadSlices();
+    } finally {
+      // the console keeps running after the command
+      for (SessionHistory sh : histories().values()) {
+        sh.close();
+      }
+      if (resumeHistory != null) {
+        resumeHistory.close();
+      }
+    }
+  }
+
+  private void downloadSlices()
+      throws IOException, ParseException, ODPSConsoleException, OdpsException {
+    Odps odps = OdpsConnectionFactory.createOdps(context.getExecutionContext());
     //TODO schema rm this
     if (projectName == null) {
       projectName = odps.getDefaultProject();
     }
 
-    if (instanceId != null) {
+    if (resumeHistory != null) {
+      initResumeWorkItems();
+    } else if (instanceId != null) {
         // download instance
       initInstanceDownloadWorkItems(odps);
+      saveSliceIndex();
     } else {
       initTableDownloadWorkItems(odps);
       // download table
+      if (partitionSpecs == null) {
+        saveSliceIndex();
+      }
     }
 
     long startTime = System.currentTimeMillis();
+    try {
+      if (partitionSpecs != null) {
+        downloadPartitions(partitionSpecs);
+      } else {
+        for (final FileDownloader sd : workItems) {
+          sd.sh.saveContext(context, SessionStatus.running);
+        }
+        downloadWorkItems();
+      }
+    } finally {
+      // a failure to save the metrics must not hide the failure of the download
+      try {
+        saveMetrics();
+      } catch (IOException e) {
+        System.err.println(Constants.WARNING_INDICATOR + "failed to save metrics: "
+                           + e.getMessage());
+      }
+    }
+
     for (final FileDownloader sd : workItems) {
-      DshipContext.INSTANCE.put(Constants.STATUS, SessionStatus.running.toString());
-      sd.sh.saveContext();
+      sd.sh.saveContext(context, SessionStatus.success);
+    }
+    long gap = System.currentTimeMillis() - startTime;
+    if (gap > 0) {
+      long avgSpeed = (writtenBytes / gap) * 1000;
+      System.err.printf("total: %s, time: %s, average speed: %s/s\n",
+                        Util.toReadableBytes(writtenBytes), Util.toReadableMilliseconds(gap),
+                        Util.toReadableBytes(avgSpeed));
     }
+    System.err.println("download OK");
+  }
 
+  private void downloadWorkItems() throws IOException, TunnelException {
     if (threads == 1) {
       System.err.printf("downloading %s records into %s\n", Util.toReadableNumber(totalLines),
                         Util.pluralize("file", slices));
@@ -193,19 +244,232 @@ public class DshipDownload {
                         Util.pluralize("thread", threads));
       multiThreadDownload();
     }
+  }
 
-    for (final FileDownloader sd : workItems) {
-      DshipContext.INSTANCE.put(Constants.STATUS, SessionStatus.success.toString());
-      sd.sh.saveContext();
+  /**
+   * Download the partitions while their sessions are created.
+   *
+   * Creating a download session waits for the server to build it, so the sessions are created by a
+   * bounded pool of threads at the same time, and each partition is handed to the download threads
+   * as soon as its session is ready instead of after the sessions of all partitions. The sessions
+   * are taken in partition order, so the slice ids, file names and the limit are the same as when
+   * the sessions were created one by one. A slice is saved into the slice index before it starts,
+   * so a download stopped before all sessions are created is resumed with the slices started.
+   */
+  void downloadPartitions(List<PartitionSpec> partitionSpecs)
+      throws IOException, OdpsException, ODPSConsoleException {
+    slices = partitionSpecs.size();
+    // chunks of a partition are concatenated in files, the slices of stdout are not chunked
+    isChunked = threads > 1 && !isTyped && stdout == null;
+    System.err.printf("downloading %s into %s using %s\n", Util.pluralize("partition", slices),
+                      Util.pluralize("file", slices), Util.pluralize("thread", threads));
+
+    int creators = Math.min(partitionSpecs.size(), Constants.DOWNLOAD_SESSION_CREATORS);
+    ExecutorService sessionExecutors = Executors.newFixedThreadPool(creators);
+    ExecutorService executors = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<TunnelDownloadSession>> sessions =
+          new ArrayList<Future<TunnelDownloadSession>>();
+      for (final PartitionSpec ps : partitionSpecs) {
+        sessions.add(sessionExecutors.submit(new Callable<TunnelDownloadSession>() {
+          @Override
+          public TunnelDownloadSession call() throws Exception {
+            return createSession(ps);
+          }
+        }));
+      }
+
+      List<Future<Long>> futures = new ArrayList<Future<Long>>();
+      List<Integer> sliceIds = new ArrayList<Integer>();
+      long sliceId = 0;
+      long start = 0;
+      for (int i = 0; i < partitionSpecs.size(); i++) {
+        if (limit != null && start == limit) {
+          break;
+        }
+
+        PartitionSpec ps = partitionSpecs.get(i);
+        TunnelDownloadSession tds = getSession(sessions.get(i));
+        SessionHistory sh = tds.getSessionHistory();
+        String
+            msg =
+            ps.toString() + "\tnew session: " + tds.getDownloadId() + "\ttotal lines: " + Util
+                .toReadableNumber(tds.getTotalLines());
+        System.err.println(sim.format(new Date()) + "  -  " + msg);
+        sh.log(msg);
+
+        long
+            step =
+            (limit == null) ? tds.getTotalLines() : Math.min(tds.getTotalLines(), limit - start);
+
+        if (stdout == null) {
+          String sliceFileName = filename + PartitionHelper.buildSuffix(ps);
+          if (StringUtils.isNotEmpty(ext)) {
+            sliceFileName = sliceFileName + "." + ext;
+          }
+          path = parentDir + sliceFileName;
+        }
+        FileDownloader sd = new FileDownloader(context, path, sliceId, 0L, step, tds, sh, isCsv, ps);
+        addWorkItem(sd);
+        saveSlice(sd);
+        sh.saveContext(context, SessionStatus.running);
+        for (Callable<Long> call : getCalls(sd, getChunkLines(step))) {
+          futures.add(executors.submit(call));
+          sliceIds.add(workItems.size() - 1);
+        }
+        sliceId++;
+        start += step;
+      }
+      // sessions after the limit are not needed
+      sessionExecutors.shutdownNow();
+      totalLines = start;
+
+      waitForDownloads(futures, sliceIds);
+    } finally {
+      sessionExecutors.shutdownNow();
+      executors.shutdownNow();
     }
-    long gap = System.currentTimeMillis() - startTime;
-    if (gap > 0) {
-      long avgSpeed = (writtenBytes / gap) * 1000;
-      System.err.printf("total: %s, time: %s, average speed: %s/s\n",
-                        Util.toReadableBytes(writtenBytes), Util.toReadableMilliseconds(gap),
-                        Util.toReadableBytes(avgSpeed));
+  }
+
+  /**
+   * Create the download session of a partition, called by several threads at the same time.
+   */
+  protected TunnelDownloadSession createSession(PartitionSpec ps)
+      throws OdpsException, ODPSConsoleException, IOException {
+    return new TunnelDownloadSession(context, tableName, ps, null);
+  }
+
+  private TunnelDownloadSession getSession(Future<TunnelDownloadSession> session)
+      throws IOException, OdpsException, ODPSConsoleException {
+    try {
+      return session.get();
+    } catch (InterruptedException e) {
+      throw new UserInterruptException(e.getMessage());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof OdpsException) {
+        throw (OdpsException) cause;
+      } else if (cause instanceof ODPSConsoleException) {
+        throw (ODPSConsoleException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
     }
-    System.err.println("download OK");
+  }
+
+  /**
+   * Save a slice added by {@link #addWorkItem} into the history of every session used so far, a
+   * new session gets all slices added before it, so that the slices started can be resumed by any
+   * of the session ids.
+   */
+  private void saveSlice(FileDownloader sd) throws IOException {
+    if (stdout != null) {
+      return;
+    }
+    boolean newSession = !indexedHistories.containsKey(sd.sh.getSid());
+    if (newSession) {
+      List<SliceInfo> sliceIndex = new ArrayList<SliceInfo>();
+      for (FileDownloader item : workItems) {
+        sliceIndex.add(item.getSliceInfo());
+      }
+      sd.sh.saveSliceIndex(sliceIndex);
+    }
+    for (SessionHistory sh : indexedHistories.values()) {
+      sh.appendSliceIndex(sd.getSliceInfo());
+    }
+    if (newSession) {
+      indexedHistories.put(sd.sh.getSid(), sd.sh);
+    }
+  }
+
+  /**
+   * Save all slices of this download into the history of every session used, so that the
+   * download can be resumed by any of the session ids.
+   */
+  private void saveSliceIndex() throws IOException {
+    if (stdout != null) {
+      // a download to stdout can not be resumed
+      return;
+    }
+    List<SliceInfo> sliceIndex = new ArrayList<SliceInfo>();
+    Map<String, SessionHistory> histories = new LinkedHashMap<String, SessionHistory>();
+    for (FileDownloader sd : workItems) {
+      sliceIndex.add(sd.getSliceInfo());
+      histories.put(sd.sh.getSid(), sd.sh);
+    }
+    for (SessionHistory sh : histories.values()) {
+      sh.saveSliceIndex(sliceIndex);
+    }
+  }
+
+  /**
+   * Save the metrics of the slices downloaded so far into the history of every session used.
+   */
+  private void saveMetrics() throws IOException {
+    for (SessionHistory sh : histories().values()) {
+      sh.saveMetrics(metrics);
+    }
+  }
+
+  /**
+   * @return the history of every session used, by session id
+   */
+  private Map<String, SessionHistory> histories() {
+    Map<String, SessionHistory> histories = new LinkedHashMap<String, SessionHistory>();
+    for (FileDownloader sd : workItems) {
+      histories.put(sd.sh.getSid(), sd.sh);
+    }
+    return histories;
+  }
+
+  private void initResumeWorkItems() throws IOException, ODPSConsoleException, OdpsException {
+    List<SliceInfo> sliceIndex = resumeHistory.loadSliceIndex();
+    if (sliceIndex.isEmpty()) {
+      throw new IllegalArgumentException(
+          Constants.ERROR_INDICATOR + "no download slices found in session "
+          + resumeHistory.getSid());
+    }
+
+    Map<String, TunnelDownloadSession> sessions = new HashMap<String, TunnelDownloadSession>();
+    Map<String, Map<Long, long[]>> progresses = new HashMap<String, Map<Long, long[]>>();
+    totalLines = 0;
+    for (SliceInfo slice : sliceIndex) {
+      String sid = slice.getSessionId();
+      PartitionSpec ps =
+          slice.getPartitionSpec() == null ? null : new PartitionSpec(slice.getPartitionSpec());
+      TunnelDownloadSession tds = sessions.get(sid);
+      if (tds == null) {
+        tds = instanceId != null ? new TunnelDownloadSession(context, instanceId, sid)
+                                 : new TunnelDownloadSession(context, tableName, ps, sid);
+        String msg = (ps == null ? "" : ps.toString() + "\t") + "resume session: " + sid
+                     + "\ttotal lines: " + Util.toReadableNumber(tds.getTotalLines());
+        System.err.println(sim.format(new Date()) + "  -  " + msg);
+        tds.getSessionHistory().log(msg);
+        sessions.put(sid, tds);
+        progresses.put(sid, tds.getSessionHistory().loadSliceProgress());
+      }
+
+      FileDownloader sd =
+          new FileDownloader(context, slice.getPath(), slice.getSliceId(), slice.getStart(), slice.getEnd(),
+                             tds, tds.getSessionHistory(), isCsv, ps);
+      long[] progress = progresses.get(sid).get(slice.getSliceId());
+      if (progress == null) {
+        sd.resume(0, 0);
+      } else {
+        sd.resume(progress[0], progress[1]);
+      }
+      sd.setMetrics(metrics);
+      workItems.add(sd);
+      totalLines += slice.getEnd() - slice.getStart();
+    }
+    slices = sliceIndex.size();
+    // partitions are chunked in the same way as a new download
+    isChunked = threads > 1 && sessions.size() > 1 && !isTyped;
   }
 
   private void splitDataByThreads(TunnelDownloadSession tds, PartitionSpec ps)
@@ -225,51 +489,110 @@ public class DshipDownload {
     long step = (totalLines + slices - 1) / slices;
     for (long i = 0; i < slices; i++) {
       long end = Math.min(start + step, totalLines);
-      if (slices != 1) {  //多个分片时，添加分片后缀
+      if (slices != 1 && stdout == null) {  //多个分片时，添加分片后缀
         String sliceFileName = filename + "_" + i;
         if (StringUtils.isNotEmpty(ext)) {
           sliceFileName = sliceFileName + "." + ext;
         }
         path = parentDir + sliceFileName;
       }
-      FileDownloader sd = new FileDownloader(path, i, start, end, tds, sh, isCsv, ps);
-      workItems.add(sd);
+      FileDownloader sd = new FileDownloader(context, path, i, start, end, tds, sh, isCsv, ps);
+      addWorkItem(sd);
       start = end;
     }
   }
 
-  private void multiThreadDownload() throws TunnelException {
+  private void addWorkItem(FileDownloader sd) {
+    if (stdout != null) {
+      sd.setOutput(stdout.newLane());
+    }
+    sd.setMetrics(metrics);
+    workItems.add(sd);
+  }
+
+  /**
+   * Download the work items with a pool of threads.
+   *
+   * When partitions are chunked, the records of every partition are split into chunks which are
+   * queued in partition order, and idle threads take the next chunk from the shared queue of the
+   * pool, so a skewed partition is downloaded by all threads instead of only one.
+   */
+  private void multiThreadDownload() throws IOException, TunnelException {
     ArrayList<Callable<Long>> callList = new ArrayList<Callable<Long>>();
-    for (final FileDownloader downloader : workItems) {
-      Callable<Long> call = new Callable<Long>() {
-        @Override
-        public Long call() throws Exception {
-          downloader.download();
-          return downloader.getWrittenBytes();
-        }
-      };
-      callList.add(call);
+    // slice id of each call
+    ArrayList<Integer> sliceIds = new ArrayList<Integer>();
+    long chunkLines = getChunkLines(totalLines);
+    for (int i = 0; i < workItems.size(); i++) {
+      for (Callable<Long> call : getCalls(workItems.get(i), chunkLines)) {
+        callList.add(call);
+        sliceIds.add(i);
+      }
     }
 
     ExecutorService executors = Executors.newFixedThreadPool(threads);
     try {
-      List<Future<Long>> futures = executors.invokeAll(callList);
-      ArrayList<String> failedThread = new ArrayList<String>();
+      waitForDownloads(executors.invokeAll(callList), sliceIds);
+    } catch (InterruptedException e) {
+      throw new UserInterruptException(e.getMessage());
+    } finally {
+      executors.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the chunks of the downloader when partitions are chunked, or a call to download it
+   * as a whole
+   */
+  private List<Callable<Long>> getCalls(final FileDownloader downloader, long chunkLines)
+      throws IOException {
+    if (isChunked) {
+      return downloader.split(chunkLines);
+    }
+    Callable<Long> call = new Callable<Long>() {
+      @Override
+      public Long call() throws Exception {
+        try {
+          downloader.download();
+        } catch (Exception e) {
+          // the slices after a failed one would wait for it forever
+          if (stdout != null) {
+            stdout.abort(e);
+          }
+          throw e;
+        }
+        return downloader.getWrittenBytes();
+      }
+    };
+    return Collections.singletonList(call);
+  }
+
+  private void waitForDownloads(List<Future<Long>> futures, List<Integer> sliceIds)
+      throws TunnelException {
+    ArrayList<String> failedThread = new ArrayList<String>();
+    try {
       for (int i = 0; i < futures.size(); ++i) {
         try {
           writtenBytes += futures.get(i).get();
         } catch (ExecutionException e) {
           e.printStackTrace();
-          failedThread.add(String.valueOf(i));
+          String sliceId = String.valueOf(sliceIds.get(i));
+          if (!failedThread.contains(sliceId)) {
+            failedThread.add(sliceId);
+          }
         }
       }
-      if (!failedThread.isEmpty()) {
-        throw new TunnelException("Slice ID:" + StringUtils.join(failedThread, ",") + " Failed.");
-      }
     } catch (InterruptedException e) {
       throw new UserInterruptException(e.getMessage());
-    } finally {
-      executors.shutdownNow();
     }
+    if (!failedThread.isEmpty()) {
+      throw new TunnelException("Slice ID:" + StringUtils.join(failedThread, ",") + " Failed.");
+    }
+  }
+
+  private long getChunkLines(long lines) {
+    // about 4 chunks for each thread, so that the last chunks are small enough to balance
+    long chunkLines = (lines + threads * 4L - 1) / (threads * 4L);
+    return Math.min(Math.max(chunkLines, Constants.MIN_DOWNLOAD_CHUNK_LINES),
+                    Constants.MAX_DOWNLOAD_CHUNK_LINES);
   }
 }
@@ -26,9 +26,7 @@ import com.aliyun.odps.Column;
 import com.aliyun.odps.data.Record;
 import com.aliyun.odps.data.RecordReader;
 import com.aliyun.odps.ship.common.Constants;
-import com.aliyun.odps.ship.common.DshipContext;
 import com.aliyun.odps.ship.common.Util;
-import com.aliyun.odps.ship.history.SessionHistoryManager;
 import com.aliyun.odps.tunnel.TunnelException;
 import com.aliyun.odps.tunnel.io.TunnelRecordReader;
 
@@ -42,6 +40,9 @@ public class DshipRecordReader {
   TunnelRecordReader tunnelReader;
   private long currentLines;
   int retry = 0;
+  // retries of all reads, and bytes received by the readers closed before
+  private int retries = 0;
+  private long closedTunnelBytes = 0;
   private Record r = null;
   private List<Column> columns = null;
 
@@ -81,7 +82,11 @@ public class DshipRecordReader {
         throw new IOException(Constants.ERROR_INDICATOR + "download read error, retry exceed 5.");
       }
     }
+    if (throwedException != null) {
+      retries++;
+    }
     if (tunnelReader != null) {
+      closedTunnelBytes += tunnelReader.getTotalBytes();
       tunnelReader.close();
       tunnelReader = null;
     }
@@ -89,16 +94,26 @@ public class DshipRecordReader {
     try {
       tunnelReader = (TunnelRecordReader) openRecordReader(currentLines);
     } catch (Exception e) {
-      SessionHistoryManager.createSessionHistory(download.getDownloadId()).log("retry:" + retry + "  " + Util.getStack(e));
+      download.getSessionHistory().log("retry:" + retry + "  " + Util.getStack(e));
       initReader(e);
     }
   }
 
+  /**
+   * @return bytes of the record stream read from the tunnel
+   */
+  public long getTunnelBytes() {
+    return closedTunnelBytes + (tunnelReader == null ? 0 : tunnelReader.getTotalBytes());
+  }
+
+  public int getRetries() {
+    return retries;
+  }
+
   protected RecordReader openRecordReader(long currentLines) throws TunnelException, IOException {
     if (currentLines > end) {
       throw new TunnelException(Constants.ERROR_INDICATOR + "current lines: " + currentLines + " end: " + end);
     }
-    return download.openRecordReader(currentLines, end - currentLines,
-                                     Boolean.valueOf(DshipContext.INSTANCE.get(Constants.COMPRESS)), columns);
+    return download.openRecordReader(currentLines, end - currentLines, columns);
   }
 }
@@ -24,20 +24,31 @@ import com.aliyun.odps.PartitionSpec;
 import com.aliyun.odps.ship.common.DshipStopWatch;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
 
 import com.aliyun.odps.TableSchema;
 import com.aliyun.odps.data.Record;
 import com.aliyun.odps.ship.common.Constants;
-import com.aliyun.odps.ship.common.DshipContext;
-import com.aliyun.odps.ship.common.OptionsBuilder;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.DshipMetrics;
+import com.aliyun.odps.ship.common.FieldSlices;
 import com.aliyun.odps.ship.common.RecordConverter;
+import com.aliyun.odps.ship.common.SliceInfo;
 import com.aliyun.odps.ship.common.Util;
 import com.aliyun.odps.ship.history.SessionHistory;
+import com.aliyun.odps.ship.upload.CompressedFile;
 import com.aliyun.odps.tunnel.TunnelException;
 import com.aliyun.openservices.odps.console.utils.ODPSConsoleUtils;
 
@@ -61,18 +72,37 @@ public class FileDownloader {
   private RecordWriter writer;
   SimpleDateFormat sim = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
   private boolean isCsv = false;
+  // local file format, typed files are written without formatting text
+  private String format;
   private boolean printIOElapsedTime = false;
   private PartitionSpec partitionSpec;
   private boolean withPt = false;
+  private final DshipJobContext context;
+  private final int threads;
+  private final String charset;
+  // values of the partition columns appended to each record, the same for all records
+  private List<byte[]> ptVals;
 
-  public FileDownloader(String path, Long id, Long start, Long end, TunnelDownloadSession ds, SessionHistory sh) throws FileNotFoundException, IOException {
-    this(path, id, start, end, ds, sh, false, null);
-  }
+  // records [start, start + resumedRecords) are already in the first resumedBytes of the file
+  private long resumedRecords = 0;
+  private long resumedBytes = 0;
 
+  // chunks of this file downloaded by different threads, see split
+  private FileDownloader[] chunks;
+  private boolean[] chunkDone;
+  private int nextChunk;
+  // a chunk failed, so the file can not be completed and the chunks left delete their files
+  private boolean chunkFailed;
+  // the first chunk writes the file of its parent, and saves progress for it
+  private FileDownloader parent;
+  // stream to write instead of the file, see setOutput
+  private OutputStream output;
+  private DshipMetrics metrics;
 
-  public FileDownloader(String path, Long id, Long start, Long end, TunnelDownloadSession ds, SessionHistory sh,
-                        boolean isCsv, PartitionSpec partitionSpec) throws FileNotFoundException, IOException {
-    OptionsBuilder.checkParameters("download");
+  public FileDownloader(DshipJobContext context, String path, Long id, Long start, Long end,
+                        TunnelDownloadSession ds, SessionHistory sh, boolean isCsv,
+                        PartitionSpec partitionSpec) throws FileNotFoundException, IOException {
+    this.context = context;
     this.path = path;
     this.file = new File(path);
     if (!file.getAbsoluteFile().getParentFile().exists()) {
@@ -85,9 +115,12 @@ public class FileDownloader {
     this.schema = ds.getSchema();
     this.sh = sh;
     this.isCsv = isCsv;
+    this.format = context.get(Constants.FORMAT);
     this.partitionSpec = partitionSpec;
-    this.withPt = Boolean.parseBoolean(DshipContext.INSTANCE.get(Constants.WITH_PT));
-    this.printIOElapsedTime = Boolean.valueOf(DshipContext.INSTANCE.get(Constants.TIME));
+    this.withPt = Boolean.parseBoolean(context.get(Constants.WITH_PT));
+    this.printIOElapsedTime = Boolean.valueOf(context.get(Constants.TIME));
+    this.threads = Integer.parseInt(context.get(Constants.THREADS));
+    this.charset = context.get(Constants.CHARSET);
     localIOStopWatch = new DshipStopWatch("local I/O", printIOElapsedTime);
     tunnelIOStopWatch = new DshipStopWatch("tunnel I/O", printIOElapsedTime);
 
@@ -99,56 +132,336 @@ public class FileDownloader {
     }
   }
 
-  public void download() throws IOException, TunnelException {
+  /**
+   * Continue an interrupted download of this file: truncate the file to the bytes of the records
+   * flushed before, and download the remaining records after them.
+   */
+  public void resume(long records, long bytes) throws IOException {
+    if (file.length() < bytes) {
+      throw new IOException(Constants.ERROR_INDICATOR + String.format(
+          "file %s is shorter than the %d bytes downloaded before", path, bytes));
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(bytes);
+    } finally {
+      raf.close();
+    }
+    resumedRecords = records;
+    resumedBytes = bytes;
+
     if (sh != null) {
-      String msg = String.format("file [" + id + "] start");
+      String msg = String.format("file [%d]: resume from %s, %s", id,
+                                 Util.toReadableNumber(start + records),
+                                 Util.toReadableBytes(bytes));
       sh.log(msg);
       System.err.println(sim.format(new Date()) + "  -  " + msg);
     }
+  }
 
-    String fd = DshipContext.INSTANCE.get(Constants.FIELD_DELIMITER);
-    String rd = DshipContext.INSTANCE.get(Constants.RECORD_DELIMITER);
-    String ni = DshipContext.INSTANCE.get(Constants.NULL_INDICATOR);
-    String dfp = DshipContext.INSTANCE.get(Constants.DATE_FORMAT_PATTERN);
-    String tz = DshipContext.INSTANCE.get(Constants.TIME_ZONE);
-    String charset = DshipContext.INSTANCE.get(Constants.CHARSET);
+  /**
+   * Write the records to the stream instead of the file, such as a lane of the stdout. The file is
+   * not created, and the progress is not saved, as the stream can not be resumed.
+   */
+  public void setOutput(OutputStream output) {
+    this.output = output;
+  }
+
+  /**
+   * Add the file, or each chunk of it, to the metrics of the job once it is downloaded.
+   */
+  public void setMetrics(DshipMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public SliceInfo getSliceInfo() {
+    return new SliceInfo(id, ds.getDownloadId(), start, end,
+                         partitionSpec == null ? null : partitionSpec.toString(), path);
+  }
+
+  public void download() throws IOException, TunnelException {
+    logStart();
+
+    if (Util.isTypedFormat(format)) {
+      downloadTyped();
+      return;
+    }
+
+    String fd = context.get(Constants.FIELD_DELIMITER);
+    String rd = context.get(Constants.RECORD_DELIMITER);
+    String ni = context.get(Constants.NULL_INDICATOR);
+    String dfp = context.get(Constants.DATE_FORMAT_PATTERN);
+    String tz = context.get(Constants.TIME_ZONE);
 
     boolean exponential = false;
-    String e = DshipContext.INSTANCE.get(Constants.EXPONENTIAL);
+    String e = context.get(Constants.EXPONENTIAL);
     if (e != null && e.equalsIgnoreCase("true")) {
       exponential = true;
     }
 
-    if (isCsv) {
-      writer = new CsvRecordWriter(file, charset);
+    boolean append = resumedBytes > 0;
+    CompressedFile.Codec codec = getOutputCodec();
+    if (output != null) {
+      writer = isCsv ? new CsvRecordWriter(output, charset, codec)
+                     : new TextRecordWriter(output, fd, rd, codec);
+    } else if (isCsv) {
+      writer = new CsvRecordWriter(file, charset, append, codec);
     } else {
-      writer = new TextRecordWriter(file, fd, rd);
+      writer = new TextRecordWriter(file, fd, rd, append, codec);
     }
 
     RecordConverter converter = new RecordConverter(schema, ni, dfp, tz, charset, exponential, true);
 
-    if ("true".equalsIgnoreCase(DshipContext.INSTANCE.get(Constants.HEADER))) {
+    // the partition values are the same for all records of the file
+    ptVals = getPartitionValues();
+    writer.setPartitionValues(ptVals);
+    if (!append && "true".equalsIgnoreCase(context.get(Constants.HEADER))) {
       writeHeader(writer, schema);
     }
 
     preTime = System.currentTimeMillis();
-    DshipRecordReader recordReader = ds.getRecordReader(start, end);
-    long count = 0;
+    long startTime = preTime;
+    DshipRecordReader recordReader = ds.getRecordReader(start + resumedRecords, end);
+    long count = resumedRecords;
     Record r;
+    FieldSlices cells = new FieldSlices();
 
     while ((r = readAndTime(recordReader)) != null) {
-      writeAndTime(writer, converter.format(r));
+      writeAndTime(writer, converter.format(r, cells));
       count++;
       currTime = System.currentTimeMillis();
       // 5秒一次输出
       if (currTime - preTime > 5000) {
         printProgress(count);
         preTime = currTime;
+        // flush the records, so that they are kept if the download is resumed
+        writer.flush();
+        saveProgress(count, resumedBytes + writer.getWrittedBytes());
       }
       ODPSConsoleUtils.checkThreadInterrupted();
     }
     writer.close();
     writtenBytes = writer.getWrittedBytes();
+    saveProgress(count, resumedBytes + writtenBytes);
+    addMetrics(count - resumedRecords, writer.getRawBytes(), recordReader, startTime);
+    logComplete();
+  }
+
+  /**
+   * Download the records into a parquet or orc file. These files can not be continued after they
+   * are cut, so the progress is only saved once the file is complete, and an incomplete file
+   * is downloaded again on resume.
+   */
+  private void downloadTyped() throws IOException, TunnelException {
+    if (resumedBytes > 0 && resumedRecords == end - start && resumedBytes == file.length()) {
+      writtenBytes = resumedBytes;
+      logComplete();
+      return;
+    }
+
+    TypedFileRecordWriter typedWriter = openTypedWriter();
+    preTime = System.currentTimeMillis();
+    long startTime = preTime;
+    writtenBytes = 0;
+    DshipRecordReader recordReader = ds.getRecordReader(start, end);
+    long count = 0;
+    Record r;
+    try {
+      while ((r = readAndTime(recordReader)) != null) {
+        localIOStopWatch.resume();
+        try {
+          typedWriter.write(r);
+        } finally {
+          localIOStopWatch.suspend();
+        }
+        count++;
+        currTime = System.currentTimeMillis();
+        // 5秒一次输出
+        if (currTime - preTime > 5000) {
+          printProgress(count, typedWriter.getWrittedBytes());
+          preTime = currTime;
+        }
+        ODPSConsoleUtils.checkThreadInterrupted();
+      }
+    } finally {
+      typedWriter.close();
+    }
+    writtenBytes = typedWriter.getWrittedBytes();
+    saveProgress(count, writtenBytes);
+    addMetrics(count, writtenBytes, recordReader, startTime);
+    logComplete();
+  }
+
+  private TypedFileRecordWriter openTypedWriter() throws IOException {
+    if (Constants.PARQUET_FORMAT.equals(format)) {
+      return new ParquetFileRecordWriter(file, schema.getColumns(),
+                                         Constants.PARQUET_ROW_GROUP_SIZE);
+    }
+    return new OrcFileRecordWriter(file, schema.getColumns(), Constants.ORC_STRIPE_SIZE);
+  }
+
+  private void addMetrics(long records, long rawBytes, DshipRecordReader reader, long startTime) {
+    if (metrics != null) {
+      metrics.addBlock(records, rawBytes, reader.getTunnelBytes(),
+                       System.currentTimeMillis() - startTime, reader.getRetries());
+    }
+  }
+
+  private CompressedFile.Codec getOutputCodec() {
+    String compress = context.get(Constants.OUTPUT_COMPRESS);
+    if (Constants.GZIP_COMPRESS.equals(compress)) {
+      return CompressedFile.Codec.GZIP;
+    } else if (Constants.ZSTD_COMPRESS.equals(compress)) {
+      return CompressedFile.Codec.ZSTD;
+    }
+    return null;
+  }
+
+  private void saveProgress(long records, long bytes) throws IOException {
+    if (output != null) {
+      return;
+    }
+    if (parent != null) {
+      parent.saveProgress(records, bytes);
+    } else if (sh != null) {
+      sh.saveSliceProgress(id, records, bytes);
+    }
+  }
+
+  /**
+   * Split the records of this file into chunks of at most chunkLines records, which can be
+   * downloaded by different threads in any order.
+   *
+   * The first chunk is written to the file directly, every other chunk is written to a temporary
+   * file and appended to the file once all chunks before it are done, so the file has the same
+   * content as {@link #download()}. The temporary files are deleted once a chunk fails, and the
+   * ones left by an earlier run of the file are deleted here.
+   *
+   * @return one task for each chunk, which returns the written bytes of the chunk
+   */
+  public List<Callable<Long>> split(long chunkLines) throws IOException {
+    deleteStaleChunkFiles();
+    long first = start + resumedRecords;
+    int n = (int) Math.max(1, (end - first + chunkLines - 1) / chunkLines);
+    chunks = new FileDownloader[n];
+    chunkDone = new boolean[n];
+    nextChunk = 0;
+    chunkFailed = false;
+    writtenBytes = 0;
+
+    List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(n);
+    for (int i = 0; i < n; i++) {
+      long from = first + i * chunkLines;
+      long to = Math.min(from + chunkLines, end);
+      final FileDownloader chunk;
+      if (i == 0) {
+        chunk = new FileDownloader(context, path, id, start, to, ds, null, isCsv, partitionSpec);
+        chunk.resumedRecords = resumedRecords;
+        chunk.resumedBytes = resumedBytes;
+        chunk.parent = this;
+      } else {
+        chunk = new FileDownloader(context, path + "." + i + ".tmp", id, from, to, ds, null, isCsv,
+                                   partitionSpec);
+      }
+      chunk.metrics = metrics;
+      chunks[i] = chunk;
+      final int index = i;
+      tasks.add(new Callable<Long>() {
+        @Override
+        public Long call() throws Exception {
+          if (index == 0) {
+            logStart();
+          }
+          boolean completed = false;
+          try {
+            chunk.download();
+            completeChunk(index, chunk);
+            completed = true;
+          } finally {
+            if (!completed) {
+              abortChunk(index);
+            }
+          }
+          return chunk.getWrittenBytes();
+        }
+      });
+    }
+    return tasks;
+  }
+
+  /**
+   * Delete the temporary files of the chunks of an earlier run of this file, which failed or was
+   * killed before they were appended, the chunks of this run may be fewer.
+   */
+  private void deleteStaleChunkFiles() {
+    final Pattern chunkFile = Pattern.compile(Pattern.quote(file.getName()) + "\\.\\d+\\.tmp");
+    File[] stale = file.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return chunkFile.matcher(name).matches();
+      }
+    });
+    if (stale != null) {
+      for (File f : stale) {
+        FileUtils.deleteQuietly(f);
+      }
+    }
+  }
+
+  /**
+   * Delete the temporary file of a failed or interrupted chunk, and of the chunks done but not
+   * appended yet, as the file can not be completed any more.
+   */
+  private synchronized void abortChunk(int index) {
+    chunkFailed = true;
+    chunkDone[index] = true;
+    for (int i = Math.max(1, nextChunk); i < chunks.length; i++) {
+      if (chunkDone[i]) {
+        FileUtils.deleteQuietly(chunks[i].file);
+      }
+    }
+  }
+
+  private synchronized void completeChunk(int index, FileDownloader chunk) throws IOException {
+    chunkDone[index] = true;
+    if (chunkFailed) {
+      if (index > 0) {
+        FileUtils.deleteQuietly(chunk.file);
+      }
+      return;
+    }
+    writtenBytes += chunk.getWrittenBytes();
+    localIOStopWatch.addTime(chunk.localIOStopWatch.getTime());
+    tunnelIOStopWatch.addTime(chunk.tunnelIOStopWatch.getTime());
+
+    while (nextChunk < chunks.length && chunkDone[nextChunk]) {
+      if (nextChunk > 0) {
+        File chunkFile = chunks[nextChunk].file;
+        OutputStream os = new FileOutputStream(file, true);
+        try {
+          FileUtils.copyFile(chunkFile, os);
+        } finally {
+          os.close();
+        }
+        saveProgress(chunks[nextChunk].end - start, file.length());
+        FileUtils.forceDelete(chunkFile);
+      }
+      nextChunk++;
+    }
+    if (nextChunk == chunks.length) {
+      logComplete();
+    }
+  }
+
+  private void logStart() throws IOException {
+    if (sh != null) {
+      String msg = String.format("file [" + id + "] start");
+      sh.log(msg);
+      System.err.println(sim.format(new Date()) + "  -  " + msg);
+    }
+  }
+
+  private void logComplete() throws IOException {
     if (sh != null) {
       StringBuilder messageBuilder = new StringBuilder();
       messageBuilder.append(String.format("file [%d] OK. total: %s",
@@ -162,18 +475,21 @@ public class FileDownloader {
   }
 
   private void printProgress(long count) throws IOException {
+    printProgress(count, writer.getWrittedBytes());
+  }
+
+  private void printProgress(long count, long bytes) throws IOException {
     if (end - start == 0) {
       return;
     }
 
     long speed = 0; // bytes per sec
-    if (writer.getWrittedBytes() - writtenBytes > 0 && currTime - preTime > 0) {
-      speed = (writer.getWrittedBytes() - writtenBytes) / (currTime - preTime) * 1000;
+    if (bytes - writtenBytes > 0 && currTime - preTime > 0) {
+      speed = (bytes - writtenBytes) / (currTime - preTime) * 1000;
     }
-    writtenBytes = writer.getWrittedBytes();
+    writtenBytes = bytes;
     long percentage = (count * 100 / (end - start));
 
-    int threads = Integer.parseInt(DshipContext.INSTANCE.get(Constants.THREADS));
     StringBuilder msgBuilder = new StringBuilder();
     if (threads > 1) {
       long threadId = Thread.currentThread().getId() % threads;
@@ -190,20 +506,17 @@ public class FileDownloader {
   }
 
   private void writeHeader(RecordWriter writer, TableSchema schema) throws IOException {
-    boolean withPt = Boolean.parseBoolean(DshipContext.INSTANCE.get(Constants.WITH_PT));
     byte[][] headers = new byte[schema.getColumns().size()][];
     if (withPt) {
       headers = new byte[schema.getColumns().size() + schema.getPartitionColumns().size()][];
     }
     for (int i = 0; i < schema.getColumns().size(); i++) {
-      String charset = DshipContext.INSTANCE.get(Constants.CHARSET);
       // schema column 没有直接 getBytes 的接口，实际上无法支持 ignore charset。不过这种场景应该也很罕见
       headers[i] = schema.getColumn(i).getName().getBytes(
           Util.isIgnoreCharset(charset) ? Constants.REMOTE_CHARSET : charset);
     }
     if (withPt) {
       for (int i = 0; i < schema.getPartitionColumns().size(); i++) {
-        String charset = DshipContext.INSTANCE.get(Constants.CHARSET);
         headers[schema.getColumns().size() + i] = schema.getPartitionColumn(i).getName().getBytes(
             Util.isIgnoreCharset(charset) ? Constants.REMOTE_CHARSET : charset);
       }
@@ -221,11 +534,10 @@ public class FileDownloader {
     }
   }
 
-  private void writeAndTime(RecordWriter writer, byte[][] record) throws IOException {
+  private List<byte[]> getPartitionValues() throws IOException {
     TableSchema schema = ds.getSchema();
     List<byte[]> ptVals = new ArrayList<>(schema.getPartitionColumns().size());
     if (withPt) {
-      String charset = DshipContext.INSTANCE.get(Constants.CHARSET);
       for (Column c: schema.getPartitionColumns()){
         if (charset == null || charset.equalsIgnoreCase(Constants.IGNORE_CHARSET)) {
           ptVals.add(partitionSpec.get(c.getName()).getBytes());
@@ -234,7 +546,19 @@ public class FileDownloader {
         }
       }
     }
+    return ptVals;
+  }
+
+  private void writeAndTime(RecordWriter writer, FieldSlices record) throws IOException {
+    localIOStopWatch.resume();
+    try {
+        writer.write(record);
+    } finally {
+        localIOStopWatch.suspend();
+    }
+  }
 
+  private void writeAndTime(RecordWriter writer, byte[][] record) throws IOException {
     localIOStopWatch.resume();
     try {
         writer.write(record, ptVals);
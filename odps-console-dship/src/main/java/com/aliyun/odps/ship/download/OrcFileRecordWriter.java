@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.aliyun.odps.ship.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.orc.OrcFile;
+import org.apache.orc.TypeDescription;
+import org.apache.orc.Writer;
+import org.apache.orc.storage.common.type.HiveDecimal;
+import org.apache.orc.storage.ql.exec.vector.BytesColumnVector;
+import org.apache.orc.storage.ql.exec.vector.ColumnVector;
+import org.apache.orc.storage.ql.exec.vector.DecimalColumnVector;
+import org.apache.orc.storage.ql.exec.vector.DoubleColumnVector;
+import org.apache.orc.storage.ql.exec.vector.ListColumnVector;
+import org.apache.orc.storage.ql.exec.vector.LongColumnVector;
+import org.apache.orc.storage.ql.exec.vector.MapColumnVector;
+import org.apache.orc.storage.ql.exec.vector.StructColumnVector;
+import org.apache.orc.storage.ql.exec.vector.TimestampColumnVector;
+import org.apache.orc.storage.ql.exec.vector.VectorizedRowBatch;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.Struct;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.LocalHadoopFiles;
+import com.aliyun.odps.type.AbstractCharTypeInfo;
+import com.aliyun.odps.type.ArrayTypeInfo;
+import com.aliyun.odps.type.DecimalTypeInfo;
+import com.aliyun.odps.type.MapTypeInfo;
+import com.aliyun.odps.type.StructTypeInfo;
+import com.aliyun.odps.type.TypeInfo;
+
+/**
+ * Write records into an orc file.
+ *
+ * Datetime and timestamp values are written as timestamps with local time zone, timestamp_ntz
+ * values as timestamps. Decimals keep at most 38 digits, the maximum precision of orc. Arrays,
+ * maps and structs are written as orc lists, maps and structs.
+ */
+public class OrcFileRecordWriter implements TypedFileRecordWriter {
+
+  private static final int MAX_DECIMAL_PRECISION = 38;
+
+  private final File file;
+  private final Column[] columns;
+  private final Writer writer;
+  private final VectorizedRowBatch batch;
+
+  public OrcFileRecordWriter(File file, List<Column> columns, long stripeSize)
+      throws IOException {
+    this.file = file;
+    this.columns = columns.toArray(new Column[0]);
+    TypeDescription schema = TypeDescription.createStruct();
+    for (Column column : this.columns) {
+      schema.addField(column.getName(), toOrcType(column, column.getTypeInfo()));
+    }
+    // timestamps without time zone are written as utc, so they keep their local date time
+    this.writer = OrcFile.createWriter(
+        LocalHadoopFiles.toPath(file),
+        OrcFile.writerOptions(LocalHadoopFiles.newConfiguration()).setSchema(schema)
+            .stripeSize(stripeSize).overwrite(true).useUTCTimestamp(true));
+    this.batch = schema.createRowBatch();
+  }
+
+  @Override
+  public void write(Record record) throws IOException {
+    int row = batch.size++;
+    for (int i = 0; i < columns.length; i++) {
+      setValue(batch.cols[i], row, columns[i].getTypeInfo(), record.get(i), columns[i]);
+    }
+    if (batch.size == batch.getMaxSize()) {
+      writeBatch();
+    }
+  }
+
+  /**
+   * Set a row of a vector to a value of the column or nested in it, the value may be null.
+   */
+  private static void setValue(ColumnVector vector, int row, TypeInfo type, Object value,
+                               Column column) throws IOException {
+    if (value == null) {
+      vector.noNulls = false;
+      vector.isNull[row] = true;
+      return;
+    }
+    vector.isNull[row] = false;
+    switch (type.getOdpsType()) {
+      case BOOLEAN:
+        ((LongColumnVector) vector).vector[row] = (Boolean) value ? 1 : 0;
+        break;
+      case TINYINT:
+      case SMALLINT:
+      case INT:
+      case BIGINT:
+        ((LongColumnVector) vector).vector[row] = ((Number) value).longValue();
+        break;
+      case FLOAT:
+      case DOUBLE:
+        ((DoubleColumnVector) vector).vector[row] = ((Number) value).doubleValue();
+        break;
+      case DECIMAL:
+        HiveDecimal decimal = HiveDecimal.create((BigDecimal) value);
+        DecimalColumnVector decimals = (DecimalColumnVector) vector;
+        decimals.set(row, decimal);
+        if (decimal == null || decimals.isNull[row]) {
+          throw new IOException("value " + value + " of column '" + column.getName()
+                                + "' is out of range of "
+                                + "decimal(" + decimals.precision + "," + decimals.scale + ")");
+        }
+        break;
+      case DATE:
+        ((LongColumnVector) vector).vector[row] = RecordValues.toLocalDate(value).toEpochDay();
+        break;
+      case DATETIME:
+      case TIMESTAMP:
+        ((TimestampColumnVector) vector)
+            .set(row, Timestamp.from(RecordValues.toInstant(value)));
+        break;
+      case TIMESTAMP_NTZ:
+        ((TimestampColumnVector) vector).set(
+            row, Timestamp.from(RecordValues.toLocalDateTime(value).toInstant(ZoneOffset.UTC)));
+        break;
+      case ARRAY:
+        TypeInfo elementType = ((ArrayTypeInfo) type).getElementTypeInfo();
+        List<?> elements = (List<?>) value;
+        ListColumnVector list = (ListColumnVector) vector;
+        // the elements of a row follow the ones of the rows before it
+        int offset = list.childCount;
+        list.offsets[row] = offset;
+        list.lengths[row] = elements.size();
+        list.childCount += elements.size();
+        list.child.ensureSize(list.childCount, true);
+        for (Object element : elements) {
+          setValue(list.child, offset++, elementType, element, column);
+        }
+        break;
+      case MAP:
+        MapTypeInfo mapType = (MapTypeInfo) type;
+        Map<?, ?> entries = (Map<?, ?>) value;
+        MapColumnVector map = (MapColumnVector) vector;
+        int entry = map.childCount;
+        map.offsets[row] = entry;
+        map.lengths[row] = entries.size();
+        map.childCount += entries.size();
+        map.keys.ensureSize(map.childCount, true);
+        map.values.ensureSize(map.childCount, true);
+        for (Map.Entry<?, ?> e : entries.entrySet()) {
+          if (e.getKey() == null) {
+            throw new IOException("map of column '" + column.getName() + "' has a null key");
+          }
+          setValue(map.keys, entry, mapType.getKeyTypeInfo(), e.getKey(), column);
+          setValue(map.values, entry++, mapType.getValueTypeInfo(), e.getValue(), column);
+        }
+        break;
+      case STRUCT:
+        List<TypeInfo> fieldTypes = ((StructTypeInfo) type).getFieldTypeInfos();
+        Struct struct = (Struct) value;
+        ColumnVector[] fields = ((StructColumnVector) vector).fields;
+        for (int i = 0; i < fields.length; i++) {
+          setValue(fields[i], row, fieldTypes.get(i), struct.getFieldValue(i), column);
+        }
+        break;
+      default:
+        ((BytesColumnVector) vector).setVal(row, RecordValues.toBytes(value));
+    }
+  }
+
+  private void writeBatch() throws IOException {
+    writer.addRowBatch(batch);
+    batch.reset();
+  }
+
+  /**
+   * @param type type of the column, or of a value nested in it
+   */
+  private static TypeDescription toOrcType(Column column, TypeInfo type) throws IOException {
+    switch (type.getOdpsType()) {
+      case BOOLEAN:
+        return TypeDescription.createBoolean();
+      case TINYINT:
+        return TypeDescription.createByte();
+      case SMALLINT:
+        return TypeDescription.createShort();
+      case INT:
+        return TypeDescription.createInt();
+      case BIGINT:
+        return TypeDescription.createLong();
+      case FLOAT:
+        return TypeDescription.createFloat();
+      case DOUBLE:
+        return TypeDescription.createDouble();
+      case STRING:
+        return TypeDescription.createString();
+      case VARCHAR:
+        return TypeDescription.createVarchar()
+            .withMaxLength(((AbstractCharTypeInfo) type).getLength());
+      case CHAR:
+        return TypeDescription.createChar()
+            .withMaxLength(((AbstractCharTypeInfo) type).getLength());
+      case BINARY:
+        return TypeDescription.createBinary();
+      case DECIMAL:
+        DecimalTypeInfo decimal = (DecimalTypeInfo) type;
+        int precision = Math.min(decimal.getPrecision(), MAX_DECIMAL_PRECISION);
+        return TypeDescription.createDecimal().withPrecision(precision)
+            .withScale(Math.min(decimal.getScale(), precision));
+      case DATE:
+        return TypeDescription.createDate();
+      case DATETIME:
+      case TIMESTAMP:
+        return TypeDescription.createTimestampInstant();
+      case TIMESTAMP_NTZ:
+        return TypeDescription.createTimestamp();
+      case ARRAY:
+        return TypeDescription.createList(
+            toOrcType(column, ((ArrayTypeInfo) type).getElementTypeInfo()));
+      case MAP:
+        MapTypeInfo map = (MapTypeInfo) type;
+        return TypeDescription.createMap(toOrcType(column, map.getKeyTypeInfo()),
+                                         toOrcType(column, map.getValueTypeInfo()));
+      case STRUCT:
+        StructTypeInfo struct = (StructTypeInfo) type;
+        TypeDescription fields = TypeDescription.createStruct();
+        for (int i = 0; i < struct.getFieldCount(); i++) {
+          fields.addField(struct.getFieldNames().get(i),
+                          toOrcType(column, struct.getFieldTypeInfos().get(i)));
+        }
+        return fields;
+      default:
+        throw RecordValues.unsupportedType(column, type, Constants.ORC_FORMAT);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (batch.size > 0) {
+        writeBatch();
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * @return bytes of the stripes written
+   */
+  @Override
+  public long getWrittedBytes() {
+    return file.length();
+  }
+}
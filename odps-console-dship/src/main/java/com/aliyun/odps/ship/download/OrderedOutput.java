@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write the slices of a download into one stream, such as stdout, in the order of the slices,
+ * while the slices are downloaded by several threads.
+ *
+ * Each slice writes to its own lane. The first lane which is not closed yet writes through to the
+ * stream, the lanes after it keep their bytes in a buffer of at most {@code bufferSize} bytes and
+ * wait when it is full. A closed lane waits until all lanes before it are written, so the slices
+ * being downloaded hold at most {@code bufferSize} bytes each, and the memory is bounded by the
+ * number of threads.
+ *
+ * The slices must be started in lane order, so the first open lane is always being downloaded.
+ */
+class OrderedOutput {
+
+  private final OutputStream out;
+  private final int bufferSize;
+  private final List<Lane> lanes = new ArrayList<Lane>();
+  // index of the lane written through to the stream
+  private volatile int head = 0;
+  private Throwable failure;
+
+  OrderedOutput(OutputStream out, int bufferSize) {
+    this.out = out;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * @return the lane of the next slice
+   */
+  synchronized OutputStream newLane() {
+    Lane lane = new Lane(lanes.size());
+    lanes.add(lane);
+    return lane;
+  }
+
+  /**
+   * Stop the download, the lanes waiting for the lanes before them throw an IOException.
+   */
+  synchronized void abort(Throwable cause) {
+    if (failure == null) {
+      failure = cause;
+    }
+    notifyAll();
+  }
+
+  private void writeOut(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    // a print stream hides the errors, such as a closed pipe
+    if (out instanceof PrintStream && ((PrintStream) out).checkError()) {
+      throw new IOException("write to stdout failed");
+    }
+  }
+
+  private void await() throws IOException {
+    if (failure != null) {
+      throw new IOException("download to stdout is aborted", failure);
+    }
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException(e.getMessage());
+    }
+  }
+
+  private class Lane extends OutputStream {
+
+    private final int index;
+    private byte[] buffer = new byte[0];
+    private int size = 0;
+    private boolean closed = false;
+
+    Lane(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      // the head moves to this lane after its buffer is written
+      if (head == index) {
+        writeOut(b, off, len);
+        return;
+      }
+      synchronized (OrderedOutput.this) {
+        while (head != index && size > 0 && size + len > bufferSize) {
+          await();
+        }
+        if (head == index) {
+          writeOut(b, off, len);
+          return;
+        }
+        if (size + len > buffer.length) {
+          byte[] grown = new byte[Math.max(size + len, Math.min(buffer.length * 2, bufferSize))];
+          System.arraycopy(buffer, 0, grown, 0, size);
+          buffer = grown;
+        }
+        System.arraycopy(b, off, buffer, size, len);
+        size += len;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (head == index) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (OrderedOutput.this) {
+        if (closed) {
+          return;
+        }
+        while (head != index) {
+          await();
+        }
+        closed = true;
+        if (size > 0) {
+          writeOut(buffer, 0, size);
+        }
+        buffer = null;
+        // the buffer of the next lane is written before it writes through
+        if (index + 1 < lanes.size()) {
+          Lane next = lanes.get(index + 1);
+          if (next.size > 0) {
+            writeOut(next.buffer, 0, next.size);
+            next.size = 0;
+          }
+        }
+        out.flush();
+        head = index + 1;
+        OrderedOutput.this.notifyAll();
+      }
+    }
+  }
+}
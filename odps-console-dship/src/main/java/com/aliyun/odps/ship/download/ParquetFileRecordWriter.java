@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.aliyun.odps.ship.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Type.Repetition;
+import org.apache.parquet.schema.Types;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.Struct;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.LocalHadoopFiles;
+import com.aliyun.odps.type.ArrayTypeInfo;
+import com.aliyun.odps.type.DecimalTypeInfo;
+import com.aliyun.odps.type.MapTypeInfo;
+import com.aliyun.odps.type.StructTypeInfo;
+import com.aliyun.odps.type.TypeInfo;
+
+/**
+ * Write records into a snappy compressed parquet file.
+ *
+ * Datetime values are written as millisecond timestamps and timestamp values as nanosecond
+ * timestamps adjusted to utc, timestamp_ntz values as nanosecond timestamps which are not. Arrays
+ * and maps are written as the standard three-level LIST and MAP groups, structs as groups with a
+ * field for each struct field.
+ */
+public class ParquetFileRecordWriter implements TypedFileRecordWriter {
+
+  private final Column[] columns;
+  private final SimpleGroupFactory groups;
+  private final ParquetWriter<Group> writer;
+
+  public ParquetFileRecordWriter(File file, List<Column> columns, long rowGroupSize)
+      throws IOException {
+    this.columns = columns.toArray(new Column[0]);
+    Types.MessageTypeBuilder builder = Types.buildMessage();
+    for (Column column : this.columns) {
+      builder.addField(
+          toParquetType(column, column.getName(), column.getTypeInfo(), Repetition.OPTIONAL));
+    }
+    MessageType schema = builder.named("odps");
+    this.groups = new SimpleGroupFactory(schema);
+    this.writer = ExampleParquetWriter.builder(LocalHadoopFiles.toPath(file))
+        .withConf(LocalHadoopFiles.newConfiguration())
+        .withType(schema)
+        .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+        .withCompressionCodec(CompressionCodecName.SNAPPY)
+        .withRowGroupSize(rowGroupSize)
+        .build();
+  }
+
+  @Override
+  public void write(Record record) throws IOException {
+    Group group = groups.newGroup();
+    for (int i = 0; i < columns.length; i++) {
+      Object value = record.get(i);
+      if (value != null) {
+        addValue(group, i, columns[i].getTypeInfo(), value, columns[i]);
+      }
+    }
+    writer.write(group);
+  }
+
+  /**
+   * Add a value which is not null to a field of a group, the value is of the column or nested in
+   * it.
+   */
+  private static void addValue(Group group, int field, TypeInfo type, Object value, Column column)
+      throws IOException {
+    switch (type.getOdpsType()) {
+      case BOOLEAN:
+        group.add(field, (Boolean) value);
+        break;
+      case TINYINT:
+      case SMALLINT:
+      case INT:
+        group.add(field, ((Number) value).intValue());
+        break;
+      case BIGINT:
+        group.add(field, ((Number) value).longValue());
+        break;
+      case FLOAT:
+        group.add(field, ((Number) value).floatValue());
+        break;
+      case DOUBLE:
+        group.add(field, ((Number) value).doubleValue());
+        break;
+      case DECIMAL:
+        BigDecimal decimal = ((BigDecimal) value)
+            .setScale(((DecimalTypeInfo) type).getScale(), RoundingMode.HALF_UP);
+        group.add(field, Binary.fromConstantByteArray(decimal.unscaledValue().toByteArray()));
+        break;
+      case DATE:
+        group.add(field, (int) RecordValues.toLocalDate(value).toEpochDay());
+        break;
+      case DATETIME:
+        group.add(field, RecordValues.toInstant(value).toEpochMilli());
+        break;
+      case TIMESTAMP:
+        group.add(field, toNanos(RecordValues.toInstant(value), column));
+        break;
+      case TIMESTAMP_NTZ:
+        group.add(field,
+                  toNanos(RecordValues.toLocalDateTime(value).toInstant(ZoneOffset.UTC), column));
+        break;
+      case ARRAY:
+        TypeInfo elementType = ((ArrayTypeInfo) type).getElementTypeInfo();
+        Group list = group.addGroup(field);
+        for (Object element : (List<?>) value) {
+          // an element group without the element field is a null element
+          Group item = list.addGroup(0);
+          if (element != null) {
+            addValue(item, 0, elementType, element, column);
+          }
+        }
+        break;
+      case MAP:
+        MapTypeInfo mapType = (MapTypeInfo) type;
+        Group map = group.addGroup(field);
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          if (entry.getKey() == null) {
+            throw new IOException("map of column '" + column.getName() + "' has a null key");
+          }
+          Group keyValue = map.addGroup(0);
+          addValue(keyValue, 0, mapType.getKeyTypeInfo(), entry.getKey(), column);
+          if (entry.getValue() != null) {
+            addValue(keyValue, 1, mapType.getValueTypeInfo(), entry.getValue(), column);
+          }
+        }
+        break;
+      case STRUCT:
+        List<TypeInfo> fieldTypes = ((StructTypeInfo) type).getFieldTypeInfos();
+        Struct struct = (Struct) value;
+        Group fields = group.addGroup(field);
+        for (int i = 0; i < fieldTypes.size(); i++) {
+          Object fieldValue = struct.getFieldValue(i);
+          if (fieldValue != null) {
+            addValue(fields, i, fieldTypes.get(i), fieldValue, column);
+          }
+        }
+        break;
+      default:
+        group.add(field, Binary.fromConstantByteArray(RecordValues.toBytes(value)));
+    }
+  }
+
+  private static long toNanos(Instant instant, Column column) throws IOException {
+    try {
+      return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1000000000L),
+                           instant.getNano());
+    } catch (ArithmeticException e) {
+      throw new IOException("value " + instant + " of column '" + column.getName()
+                            + "' is out of range of parquet nanosecond timestamps");
+    }
+  }
+
+  /**
+   * @param type type of the column, or of a value nested in it
+   */
+  private static Type toParquetType(Column column, String name, TypeInfo type,
+                                    Repetition repetition) throws IOException {
+    switch (type.getOdpsType()) {
+      case BOOLEAN:
+        return Types.primitive(PrimitiveTypeName.BOOLEAN, repetition).named(name);
+      case TINYINT:
+        return Types.primitive(PrimitiveTypeName.INT32, repetition)
+            .as(LogicalTypeAnnotation.intType(8, true)).named(name);
+      case SMALLINT:
+        return Types.primitive(PrimitiveTypeName.INT32, repetition)
+            .as(LogicalTypeAnnotation.intType(16, true)).named(name);
+      case INT:
+        return Types.primitive(PrimitiveTypeName.INT32, repetition).named(name);
+      case BIGINT:
+        return Types.primitive(PrimitiveTypeName.INT64, repetition).named(name);
+      case FLOAT:
+        return Types.primitive(PrimitiveTypeName.FLOAT, repetition).named(name);
+      case DOUBLE:
+        return Types.primitive(PrimitiveTypeName.DOUBLE, repetition).named(name);
+      case STRING:
+      case VARCHAR:
+      case CHAR:
+        return Types.primitive(PrimitiveTypeName.BINARY, repetition)
+            .as(LogicalTypeAnnotation.stringType()).named(name);
+      case BINARY:
+        return Types.primitive(PrimitiveTypeName.BINARY, repetition).named(name);
+      case DECIMAL:
+        DecimalTypeInfo decimal = (DecimalTypeInfo) type;
+        return Types.primitive(PrimitiveTypeName.BINARY, repetition)
+            .as(LogicalTypeAnnotation.decimalType(decimal.getScale(), decimal.getPrecision()))
+            .named(name);
+      case DATE:
+        return Types.primitive(PrimitiveTypeName.INT32, repetition)
+            .as(LogicalTypeAnnotation.dateType()).named(name);
+      case DATETIME:
+        return Types.primitive(PrimitiveTypeName.INT64, repetition)
+            .as(LogicalTypeAnnotation.timestampType(true, LogicalTypeAnnotation.TimeUnit.MILLIS))
+            .named(name);
+      case TIMESTAMP:
+        return Types.primitive(PrimitiveTypeName.INT64, repetition)
+            .as(LogicalTypeAnnotation.timestampType(true, LogicalTypeAnnotation.TimeUnit.NANOS))
+            .named(name);
+      case TIMESTAMP_NTZ:
+        return Types.primitive(PrimitiveTypeName.INT64, repetition)
+            .as(LogicalTypeAnnotation.timestampType(false, LogicalTypeAnnotation.TimeUnit.NANOS))
+            .named(name);
+      case ARRAY:
+        TypeInfo elementType = ((ArrayTypeInfo) type).getElementTypeInfo();
+        return Types.buildGroup(repetition).as(LogicalTypeAnnotation.listType())
+            .addField(Types.repeatedGroup()
+                          .addField(toParquetType(column, "element", elementType,
+                                                  Repetition.OPTIONAL))
+                          .named("list"))
+            .named(name);
+      case MAP:
+        MapTypeInfo map = (MapTypeInfo) type;
+        return Types.buildGroup(repetition).as(LogicalTypeAnnotation.mapType())
+            .addField(Types.repeatedGroup()
+                          .addField(toParquetType(column, "key", map.getKeyTypeInfo(),
+                                                  Repetition.REQUIRED))
+                          .addField(toParquetType(column, "value", map.getValueTypeInfo(),
+                                                  Repetition.OPTIONAL))
+                          .named("key_value"))
+            .named(name);
+      case STRUCT:
+        StructTypeInfo struct = (StructTypeInfo) type;
+        Types.GroupBuilder<GroupType> builder = Types.buildGroup(repetition);
+        for (int i = 0; i < struct.getFieldCount(); i++) {
+          builder.addField(toParquetType(column, struct.getFieldNames().get(i),
+                                         struct.getFieldTypeInfos().get(i),
+                                         Repetition.OPTIONAL));
+        }
+        return builder.named(name);
+      default:
+        throw RecordValues.unsupportedType(column, type, Constants.PARQUET_FORMAT);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+  /**
+   * @return bytes of the row groups written and of the buffered rows
+   */
+  @Override
+  public long getWrittedBytes() {
+    return writer.getDataSize();
+  }
+}
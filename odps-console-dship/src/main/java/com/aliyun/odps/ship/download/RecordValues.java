@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.aliyun.odps.ship.download;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.data.AbstractChar;
+import com.aliyun.odps.data.Binary;
+import com.aliyun.odps.type.TypeInfo;
+
+/**
+ * Values of the records written to parquet and orc files.
+ *
+ * The values of a column are the ones kept by {@link com.aliyun.odps.data.ArrayRecord}, the
+ * values inside arrays, maps and structs may also be the legacy java.util.Date and String ones, so
+ * both are taken.
+ */
+class RecordValues {
+
+  private RecordValues() {
+  }
+
+  /**
+   * @return instant of a datetime or timestamp value
+   */
+  static Instant toInstant(Object value) {
+    if (value instanceof ZonedDateTime) {
+      return ((ZonedDateTime) value).toInstant();
+    }
+    if (value instanceof Date) {
+      // timestamps keep their nanos
+      return ((Date) value).toInstant();
+    }
+    return (Instant) value;
+  }
+
+  static LocalDate toLocalDate(Object value) {
+    if (value instanceof java.sql.Date) {
+      return ((java.sql.Date) value).toLocalDate();
+    }
+    if (value instanceof Date) {
+      return ((Date) value).toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+    return (LocalDate) value;
+  }
+
+  static LocalDateTime toLocalDateTime(Object value) {
+    if (value instanceof Timestamp) {
+      return ((Timestamp) value).toLocalDateTime();
+    }
+    return (LocalDateTime) value;
+  }
+
+  /**
+   * @return bytes of a string, varchar, char or binary value, strings are encoded as utf-8
+   */
+  static byte[] toBytes(Object value) {
+    if (value instanceof byte[]) {
+      return (byte[]) value;
+    }
+    if (value instanceof Binary) {
+      return ((Binary) value).data();
+    }
+    if (value instanceof AbstractChar) {
+      return ((AbstractChar) value).getValue().getBytes(StandardCharsets.UTF_8);
+    }
+    return value.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param type type of the column, or of a value nested in it
+   */
+  static IOException unsupportedType(Column column, TypeInfo type, String format) {
+    String nested = type == column.getTypeInfo() ? "" : " (" + type.getTypeName() + ")";
+    return new IOException("column '" + column.getName() + "' of type "
+                           + column.getTypeInfo().getTypeName() + nested
+                           + " can not be written to " + format + " files");
+  }
+}
@@ -5,22 +5,92 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.io.output.CountingOutputStream;
 
+import com.aliyun.odps.ship.common.FieldSlices;
+import com.aliyun.odps.ship.upload.CompressedFile;
+
 public abstract class RecordWriter {
   private final int BUFFER_SIZE = 8 * 1024 * 1024;
 
-  protected CountingOutputStream os;
+  protected OutputStream os;
+  // bytes written to the file, after compression
+  private final CountingOutputStream counter;
+  // bytes written before compression, the same counter if the file is not compressed
+  private final CountingOutputStream rawCounter;
+  // partition values written after the cells of every record, see setPartitionValues
+  protected List<byte[]> ptVals = Collections.emptyList();
 
   public RecordWriter(File file) throws FileNotFoundException {
-    this.os = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    this(file, false);
+  }
+
+  /**
+   * @param append write after the existing content of the file, the written bytes do not count it
+   */
+  public RecordWriter(File file, boolean append) throws FileNotFoundException {
+    this(file, append, null);
+  }
+
+  /**
+   * @param codec compress the file with the codec, null to write it as is
+   */
+  public RecordWriter(File file, boolean append, CompressedFile.Codec codec)
+      throws FileNotFoundException {
+    this(new FileOutputStream(file, append), append, codec);
+  }
+
+  /**
+   * Write the records to a stream instead of a file, the stream is closed with the writer.
+   */
+  public RecordWriter(OutputStream out, CompressedFile.Codec codec) {
+    this(out, false, codec);
+  }
+
+  private RecordWriter(OutputStream out, boolean append, CompressedFile.Codec codec) {
+    this.counter = new CountingOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+    this.rawCounter = codec == null ? counter
+                                    : new CountingOutputStream(
+                                        new CompressedOutputStream(counter, codec, append));
+    this.os = rawCounter;
   }
 
   public abstract void write(byte[][] line, List<byte[]> ptVals) throws IOException;
+
+  /**
+   * Set the partition values written by {@link #write(FieldSlices)}, they are the same for all
+   * records of a file.
+   */
+  public void setPartitionValues(List<byte[]> ptVals) {
+    this.ptVals = ptVals;
+  }
+
+  /**
+   * Write the cells of a record and the partition values.
+   */
+  public void write(FieldSlices line) throws IOException {
+    write(line.toArray(), ptVals);
+  }
   public abstract void close() throws IOException;
+
+  /**
+   * Flush all written records to the file, after that the written bytes are in the file.
+   */
+  public void flush() throws IOException {
+    os.flush();
+  }
   public long getWrittedBytes() {
-    return os.getByteCount();
+    return counter.getByteCount();
+  }
+
+  /**
+   * @return bytes of the records written, before they are compressed
+   */
+  public long getRawBytes() {
+    return rawCounter.getByteCount();
   }
 }
@@ -22,17 +22,42 @@ package com.aliyun.odps.ship.download;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.List;
 
+import com.aliyun.odps.ship.common.FieldSlices;
+import com.aliyun.odps.ship.upload.CompressedFile;
+
 
 public class TextRecordWriter extends RecordWriter {
 
   byte[] fd;
   byte[] rd;
+  // fd and the partition values, written after the cells of every record
+  private byte[] ptSuffix = new byte[0];
+  // a record is joined here and written at once
+  private byte[] line = new byte[1024];
 
   public TextRecordWriter(File file, String fd, String rd) throws FileNotFoundException {
+    this(file, fd, rd, false);
+  }
+
+  public TextRecordWriter(File file, String fd, String rd, boolean append)
+      throws FileNotFoundException {
+    this(file, fd, rd, append, null);
+  }
+
+  public TextRecordWriter(File file, String fd, String rd, boolean append,
+                          CompressedFile.Codec codec) throws FileNotFoundException {
 
-    super(file);
+    super(file, append, codec);
+    this.fd = fd.getBytes();
+    this.rd = rd.getBytes();
+  }
+
+  public TextRecordWriter(OutputStream out, String fd, String rd, CompressedFile.Codec codec) {
+    super(out, codec);
     this.fd = fd.getBytes();
     this.rd = rd.getBytes();
   }
@@ -60,6 +85,52 @@ public class TextRecordWriter extends RecordWriter {
     os.write(rd);
   }
 
+  @Override
+  public void setPartitionValues(List<byte[]> ptVals) {
+    super.setPartitionValues(ptVals);
+    int length = 0;
+    for (byte[] ptVal : ptVals) {
+      length += fd.length + ptVal.length;
+    }
+    ptSuffix = new byte[length];
+    int pos = 0;
+    for (byte[] ptVal : ptVals) {
+      System.arraycopy(fd, 0, ptSuffix, pos, fd.length);
+      pos += fd.length;
+      System.arraycopy(ptVal, 0, ptSuffix, pos, ptVal.length);
+      pos += ptVal.length;
+    }
+  }
+
+  /**
+   * The same bytes as {@link #write(byte[][], List)} with the partition values.
+   */
+  @Override
+  public void write(FieldSlices cells) throws IOException {
+    int length = ptSuffix.length + rd.length;
+    for (int i = 0; i < cells.size(); i++) {
+      length += cells.getLength(i) + fd.length;
+    }
+    if (length > line.length) {
+      line = Arrays.copyOf(line, Math.max(length, line.length * 2));
+    }
+
+    int pos = 0;
+    for (int i = 0; i < cells.size(); i++) {
+      if (i > 0) {
+        System.arraycopy(fd, 0, line, pos, fd.length);
+        pos += fd.length;
+      }
+      System.arraycopy(cells.getBuffer(i), cells.getOffset(i), line, pos, cells.getLength(i));
+      pos += cells.getLength(i);
+    }
+    System.arraycopy(ptSuffix, 0, line, pos, ptSuffix.length);
+    pos += ptSuffix.length;
+    System.arraycopy(rd, 0, line, pos, rd.length);
+    pos += rd.length;
+    os.write(line, 0, pos);
+  }
+
   @Override
   public void close() throws IOException {
     os.close();
@@ -35,7 +35,7 @@ import com.aliyun.odps.PartitionSpec;
 import com.aliyun.odps.TableSchema;
 import com.aliyun.odps.data.RecordReader;
 import com.aliyun.odps.ship.common.Constants;
-import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
 import com.aliyun.odps.ship.history.SessionHistory;
 import com.aliyun.odps.ship.history.SessionHistoryManager;
 import com.aliyun.odps.tunnel.InstanceTunnel;
@@ -55,51 +55,65 @@ public class TunnelDownloadSession {
   private String downloadId;
   private SessionHistory sessionHistory;
   private long totalLines;
+  private boolean compress;
 
   protected TunnelDownloadSession(long lines) {
     totalLines = lines;
   }
 
-  public TunnelDownloadSession(String instanceId)
+  /**
+   * @param downloadId id of an existing download session to resume, null to create a new one
+   */
+  public TunnelDownloadSession(DshipJobContext context, String instanceId, String downloadId)
       throws TunnelException, ODPSConsoleException, FileNotFoundException {
-    String tableProject = DshipContext.INSTANCE.get(Constants.TABLE_PROJECT);
-    Odps odps = OdpsConnectionFactory.createOdps(DshipContext.INSTANCE.getExecutionContext());
+    this.compress = Boolean.valueOf(context.get(Constants.COMPRESS));
+    String tableProject = context.get(Constants.TABLE_PROJECT);
+    Odps odps = OdpsConnectionFactory.createOdps(context.getExecutionContext());
     InstanceTunnel tunnel = new InstanceTunnel(odps);
 
-    if (DshipContext.INSTANCE.get(Constants.TUNNEL_ENDPOINT) != null) {
-      tunnel.setEndpoint(DshipContext.INSTANCE.get(Constants.TUNNEL_ENDPOINT));
+    if (context.get(Constants.TUNNEL_ENDPOINT) != null) {
+      tunnel.setEndpoint(context.get(Constants.TUNNEL_ENDPOINT));
     } else if (StringUtils.isNotEmpty(
-        DshipContext.INSTANCE.getExecutionContext().getTunnelEndpoint())) {
-      tunnel.setEndpoint(DshipContext.INSTANCE.getExecutionContext().getTunnelEndpoint());
+        context.getExecutionContext().getTunnelEndpoint())) {
+      tunnel.setEndpoint(context.getExecutionContext().getTunnelEndpoint());
     }
 
     if (tableProject == null) {
       tableProject = odps.getDefaultProject();
     }
 
-    instanceDownload = tunnel.createDownloadSession(tableProject, instanceId);
-    sessionHistory = SessionHistoryManager.createSessionHistory(instanceDownload.getId());
+    if (downloadId == null) {
+      instanceDownload = tunnel.createDownloadSession(tableProject, instanceId);
+    } else {
+      instanceDownload = tunnel.getDownloadSession(tableProject, instanceId, downloadId);
+    }
+    sessionHistory = SessionHistoryManager.createSessionHistory(context, instanceDownload.getId());
     totalLines = instanceDownload.getRecordCount();
     schema = instanceDownload.getSchema();
-    downloadId = instanceDownload.getId();
+    this.downloadId = instanceDownload.getId();
 
     isInstanceTunnel = true;
-    initSelectColumns();
+    initSelectColumns(context);
   }
 
-  public TunnelDownloadSession(String tableName, PartitionSpec ps)
+  /**
+   * @param downloadId id of an existing download session to resume, null to create a new one
+   */
+  public TunnelDownloadSession(DshipJobContext context, String tableName, PartitionSpec ps,
+                               String downloadId)
       throws OdpsException, ODPSConsoleException, IOException {
-    String tableProject = DshipContext.INSTANCE.get(Constants.TABLE_PROJECT);
-    String schemaName = DshipContext.INSTANCE.get(Constants.SCHEMA);
-    Odps odps = OdpsConnectionFactory.createOdps(DshipContext.INSTANCE.getExecutionContext());
+    this.compress = Boolean.valueOf(context.get(Constants.COMPRESS));
+    String tableProject = context.get(Constants.TABLE_PROJECT);
+    String schemaName = context.get(Constants.SCHEMA);
+    Odps odps = OdpsConnectionFactory.createOdps(context.getExecutionContext());
     TableTunnel tunnel = new TableTunnel(odps);
-    tunnel.getConfig().setQuotaName(DshipContext.INSTANCE.get(Constants.QUOTA_NAME));
+    tunnel.getConfig().setQuotaName(context.get(Constants.QUOTA_NAME));
 
-    if (DshipContext.INSTANCE.get(Constants.TUNNEL_ENDPOINT) != null) {
-      tunnel.setEndpoint(DshipContext.INSTANCE.get(Constants.TUNNEL_ENDPOINT));
+    if (context.get(Constants.TUNNEL_ENDPOINT) != null) {
+      tunnel.setEndpoint(context.get(Constants.TUNNEL_ENDPOINT));
     } else if (StringUtils.isNotEmpty(
-        DshipContext.INSTANCE.getExecutionContext().getTunnelEndpoint())) {
-      tunnel.setEndpoint(DshipContext.INSTANCE.getExecutionContext().getTunnelEndpoint());
+        context.getExecutionContext().getTunnelEndpoint())) {
+      tunnel.setEndpoint(context.getExecutionContext().getTunnelEndpoint());
     }
 
     if (tableProject == null) {
@@ -109,12 +123,15 @@ public class TunnelDownloadSession {
         builder =
         tunnel.buildDownloadSession(tableProject, tableName).setSchemaName(schemaName)
             .setAsyncMode(true).setWaitAsyncBuild(false);
+    if (downloadId != null) {
+      builder.setDownloadId(downloadId);
+    }
     if (ps == null) {
       tableDownload = builder.build();
     } else {
       tableDownload = builder.setPartitionSpec(ps).build();
     }
-    sessionHistory = SessionHistoryManager.createSessionHistory(tableDownload.getId());
+    sessionHistory = SessionHistoryManager.createSessionHistory(context, tableDownload.getId());
     String rapInstanceId = tableDownload.getRAPInstanceId();
     if (rapInstanceId != null) {
       while (rapInstanceId.isEmpty()) {
@@ -146,13 +163,13 @@ public class TunnelDownloadSession {
     }
     totalLines = tableDownload.getRecordCount();
     schema = tableDownload.getSchema();
-    downloadId = tableDownload.getId();
-    initSelectColumns();
+    this.downloadId = tableDownload.getId();
+    initSelectColumns(context);
   }
 
-  private void initSelectColumns() {
-    String columnNames = DshipContext.INSTANCE.get(Constants.COLUMNS_NAME);
-    String columnIndexes = DshipContext.INSTANCE.get(Constants.COLUMNS_INDEX);
+  private void initSelectColumns(DshipJobContext context) {
+    String columnNames = context.get(Constants.COLUMNS_NAME);
+    String columnIndexes = context.get(Constants.COLUMNS_INDEX);
 
     if (columnIndexes != null || columnNames != null) {
       boolean isIndex = (columnIndexes != null);
@@ -203,8 +220,8 @@ public class TunnelDownloadSession {
     return sessionHistory;
   }
 
-  public RecordReader openRecordReader(long start, long count, boolean compress,
-                                       List<Column> columns) throws TunnelException, IOException {
+  public RecordReader openRecordReader(long start, long count, List<Column> columns)
+      throws TunnelException, IOException {
     return isInstanceTunnel ? instanceDownload.openRecordReader(start, count, compress, columns)
                             : tableDownload.openRecordReader(start, count, compress, columns);
   }
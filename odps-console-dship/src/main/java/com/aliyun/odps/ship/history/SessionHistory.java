@@ -34,39 +34,57 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.aliyun.odps.ship.common.BlockInfo;
-import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.DshipMetrics;
+import com.aliyun.odps.ship.common.SessionStatus;
+import com.aliyun.odps.ship.common.SliceInfo;
 import com.aliyun.odps.ship.common.Util;
 
 public class SessionHistory {
 
   String sid;
   SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  private SessionStatus status;
+  // the dir of the session, under the session dir of the job
+  private final String dir;
 
-  SessionHistory(String sid) {
+  SessionHistory(DshipJobContext context, String sid) {
     this.sid = sid;
+    this.dir = Util.getSessionDir(context, sid);
 
-    File f = new File(Util.getSessionDir(sid));
+    File f = new File(dir);
     if (!f.exists()) {
       f.mkdirs();
     }
 
   }
 
-  public void saveContext() throws FileNotFoundException, IOException {
+  /**
+   * Save the options of a job, together with the last status set by
+   * {@link #saveContext(DshipJobContext, SessionStatus)}.
+   */
+  public synchronized void saveContext(DshipJobContext context)
+      throws FileNotFoundException, IOException {
 
-    String cp = Util.getSessionDir(sid) + "/context.properties";
+    String cp = dir + "/context.properties";
 
     Properties p = new Properties();
-    p.putAll(DshipContext.INSTANCE.getAll());
+    p.putAll(context.getAll());
+    if (status != null) {
+      p.put(Constants.STATUS, status.toString());
+    }
     FileOutputStream out = new FileOutputStream(cp);
     try {
       p.store(out, "context");
@@ -75,15 +93,26 @@ public class SessionHistory {
     }
   }
 
-  public void loadContext() throws FileNotFoundException, IOException {
-    //DshipContext.INSTANCE.clear();
-    Map<String, String> ctx = loadProperty();
-    DshipContext.INSTANCE.putAll(ctx);
+  public synchronized void saveContext(DshipJobContext context, SessionStatus status)
+      throws FileNotFoundException, IOException {
+    this.status = status;
+    saveContext(context);
+  }
+
+  /**
+   * @return the options of a job saved by {@link #saveContext(DshipJobContext)}, over the given
+   * options, such as the ones of the resume command
+   */
+  public DshipJobContext loadContext(DshipJobContext options)
+      throws FileNotFoundException, IOException {
+    Map<String, String> ctx = new HashMap<String, String>(options.getAll());
+    ctx.putAll(loadProperty());
+    return new DshipJobContext(ctx, options.getExecutionContext(), options.getRetryInterval());
   }
 
   public Map<String, String> loadProperty() throws FileNotFoundException, IOException {
 
-    String cp = Util.getSessionDir(sid) + "/context.properties";
+    String cp = dir + "/context.properties";
     File file = new File(cp);
     if (!file.exists()) {
       //null context
@@ -110,23 +139,36 @@ public class SessionHistory {
 
   public void log(String msg) throws FileNotFoundException, IOException {
 
-    String log = Util.getSessionDir(sid) + "/log.txt";
-    String m = df.format(new Date()) + "  -  " + msg + "\n";
-    write(new File(log), m, true);
+    String m;
+    synchronized (df) {
+      m = df.format(new Date()) + "  -  " + msg + "\n";
+    }
+    journal().append("log.txt", m);
   }
 
   public void clearBadData(long bid) {
+    journal().delete("bad_" + bid);
+  }
 
-    String bad = Util.getSessionDir(sid) + "/bad_" + bid;
-    File f = new File(bad);
-    if (f.exists()) {
-      f.delete();
+  /**
+   * Write the buffered history of the session and close its files, they are opened again when
+   * more history is appended.
+   */
+  public void close() {
+    try {
+      SessionJournal.close(dir);
+    } catch (IOException e) {
+      // the history is best effort once the command is done
     }
   }
 
   public void delete() {
-    String s = Util.getSessionDir(sid);
-    File f = new File(s);
+    try {
+      journal().close();
+    } catch (IOException e) {
+      // the files are deleted
+    }
+    File f = new File(dir);
     if (f.exists()) {
       File[] fs = f.listFiles();
       for (File df : fs) {
@@ -141,21 +183,20 @@ public class SessionHistory {
   }
 
   public void saveBadData(String data, long bid) throws IOException {
-
-    String bad = Util.getSessionDir(sid) + "/bad_" + bid;
-    write(new File(bad), data, true);
+    journal().append("bad_" + bid, data);
   }
 
   public void showLog() throws FileNotFoundException, IOException {
 
-    String log = Util.getSessionDir(sid) + "/log.txt";
+    journal().flush();
+    String log = dir + "/log.txt";
     show(new File(log));
   }
 
-  protected boolean existsBad() {
+  protected boolean existsBad() throws IOException {
 
-    File dir = new File(Util.getSessionDir(sid));
-    String[] bl = dir.list(new FilenameFilter() {
+    journal().flush();
+    String[] bl = new File(dir).list(new FilenameFilter() {
       @Override
       public boolean accept(File dir, String name) {
         return name.indexOf("bad_") == 0;
@@ -166,9 +207,8 @@ public class SessionHistory {
 
   public void showBad() throws FileNotFoundException, IOException {
 
-    String bad = Util.getSessionDir(sid);
-
-    File[] fs = new File(bad).listFiles();
+    journal().flush();
+    File[] fs = new File(dir).listFiles();
     fs = Util.sortFiles(fs);
     for (File f : fs) {
       if (f.getName().indexOf("bad_") == 0) {
@@ -177,28 +217,68 @@ public class SessionHistory {
     }
   }
 
+  /**
+   * Save the metrics of a job as JSON, and in the Prometheus text format for a node exporter.
+   */
+  public void saveMetrics(DshipMetrics metrics) throws IOException {
+    write(new File(dir, DshipMetrics.JSON_FILE), metrics.toJson(), false);
+    write(new File(dir, DshipMetrics.PROMETHEUS_FILE), metrics.toPrometheus(sid), false);
+  }
+
+  public void showMetrics() throws FileNotFoundException, IOException {
+    File f = new File(dir, DshipMetrics.JSON_FILE);
+    if (!f.exists()) {
+      throw new FileNotFoundException(Constants.ERROR_INDICATOR + "metrics of session '" + sid
+                                      + "' not found");
+    }
+    DshipMetrics metrics = DshipMetrics.fromJson(FileUtils.readFileToString(f, "utf-8"));
+    System.out.print(metrics.toSummary());
+  }
+
   public void saveBlockIndex(ArrayList<BlockInfo> blockIndex) throws FileNotFoundException, IOException {
-    File blockIndexFile = new File(Util.getSessionDir(sid) + "/block_index.txt");
+    File blockIndexFile = new File(dir + "/block_index.txt");
 
     if (blockIndexFile.exists()) {
       blockIndexFile.delete();
     }
 
+    StringBuilder sb = new StringBuilder();
     for (BlockInfo blockInfo : blockIndex) {
-      write(blockIndexFile, blockInfo.toString() + "\n", true);
+      sb.append(blockInfo.toString()).append("\n");
     }
+    write(blockIndexFile, sb.toString(), false);
   }
 
+  /**
+   * Commit a finished block, the history of the session, including the bad data of the block, is
+   * synced to the disk before it returns.
+   */
   public void saveFinishBlock(BlockInfo blockInfo) throws FileNotFoundException, IOException {
-    File finishBlockFile = new File(Util.getSessionDir(sid) + "/finish_block.txt");
-    write(finishBlockFile, blockInfo.toString() + "\n", true);
+    SessionJournal journal = journal();
+    journal.append("finish_block.txt", blockInfo.toString() + "\n");
+    journal.commit();
+  }
+
+  /**
+   * Commit the parts of a block written to several tunnel blocks in one go, so either all or none
+   * of them are finished when the session is resumed.
+   */
+  public void saveFinishBlocks(List<BlockInfo> blocks) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (BlockInfo blockInfo : blocks) {
+      sb.append(blockInfo.toString()).append("\n");
+    }
+    SessionJournal journal = journal();
+    journal.append("finish_block.txt", sb.toString());
+    journal.commit();
   }
 
   public ArrayList<BlockInfo> loadBlockIndex() throws IOException {
 
+    journal().flush();
     ArrayList<BlockInfo> blockIndex = new ArrayList<BlockInfo>();
     //step 1 load all block from block_index.txt
-    File blockIndexFile = new File(Util.getSessionDir(sid) + "/block_index.txt");
+    File blockIndexFile = new File(dir + "/block_index.txt");
     if (!blockIndexFile.exists()) {
       return blockIndex;
     }
@@ -214,27 +294,23 @@ public class SessionHistory {
       IOUtils.closeQuietly(blockIndexReader);
     }
     //step2 remove block exists in finish_block_index.txt
-    File finishBlockFile = new File(Util.getSessionDir(sid) + "/finish_block.txt");
-    if (!finishBlockFile.exists()) {
+    HashSet<BlockInfo> finished = new HashSet<BlockInfo>(loadFinishBlockList());
+    if (finished.isEmpty()) {
       return blockIndex;
     }
-    BufferedReader finishBlockReader = new BufferedReader(new FileReader(finishBlockFile));
-    try {
-      String finishBlock = null;
-      while ((finishBlock = finishBlockReader.readLine()) != null) {
-        BlockInfo block = new BlockInfo();
-        block.parse(finishBlock);
-        blockIndex.remove(block);
+    ArrayList<BlockInfo> unfinished = new ArrayList<BlockInfo>();
+    for (BlockInfo block : blockIndex) {
+      if (!finished.contains(block)) {
+        unfinished.add(block);
       }
-    } finally {
-      IOUtils.closeQuietly(finishBlockReader);
     }
-    return blockIndex;
+    return unfinished;
   }
 
   public List<BlockInfo> loadFinishBlockList() throws IOException{
+    journal().flush();
     List<BlockInfo> blockList = new ArrayList<BlockInfo>();
-    File finishBlockFile = new File(Util.getSessionDir(sid) + "/finish_block.txt");
+    File finishBlockFile = new File(dir + "/finish_block.txt");
     if (!finishBlockFile.exists()) {
       return blockList;
     }
@@ -256,6 +332,87 @@ public class SessionHistory {
   }
 
 
+  public void saveSliceIndex(List<SliceInfo> sliceIndex) throws IOException {
+    File sliceIndexFile = new File(dir + "/slice_index.txt");
+
+    // drops the appended slices too
+    journal().delete("slice_index.txt");
+
+    StringBuilder sb = new StringBuilder();
+    for (SliceInfo sliceInfo : sliceIndex) {
+      sb.append(sliceInfo.toString()).append("\n");
+    }
+    write(sliceIndexFile, sb.toString(), false);
+  }
+
+  /**
+   * Append a slice to the index, it is written to the file before it returns.
+   */
+  public void appendSliceIndex(SliceInfo sliceInfo) throws IOException {
+    SessionJournal journal = journal();
+    journal.append("slice_index.txt", sliceInfo.toString() + "\n");
+    journal.flush();
+  }
+
+  public List<SliceInfo> loadSliceIndex() throws IOException {
+    journal().flush();
+    List<SliceInfo> sliceIndex = new ArrayList<SliceInfo>();
+    File sliceIndexFile = new File(dir + "/slice_index.txt");
+    if (!sliceIndexFile.exists()) {
+      return sliceIndex;
+    }
+
+    BufferedReader sliceIndexReader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(sliceIndexFile), "utf-8"));
+    try {
+      String sliceInfo = null;
+      while ((sliceInfo = sliceIndexReader.readLine()) != null) {
+        SliceInfo slice = new SliceInfo();
+        slice.parse(sliceInfo);
+        sliceIndex.add(slice);
+      }
+    } finally {
+      IOUtils.closeQuietly(sliceIndexReader);
+    }
+    return sliceIndex;
+  }
+
+  /**
+   * Records and bytes of a slice which are flushed to its file, the first records of the slice are
+   * stored in the first bytes of the file.
+   */
+  public synchronized void saveSliceProgress(long sliceId, long records, long bytes)
+      throws IOException {
+    SessionJournal journal = journal();
+    journal.append("slice_progress.txt", sliceId + ":" + records + ":" + bytes + "\n");
+    // synced like a finished block, the progress is read by resume after a crash
+    journal.commit();
+  }
+
+  /**
+   * @return the last saved {records, bytes} of each slice
+   */
+  public Map<Long, long[]> loadSliceProgress() throws IOException {
+    journal().flush();
+    Map<Long, long[]> progress = new HashMap<Long, long[]>();
+    File progressFile = new File(dir + "/slice_progress.txt");
+    if (!progressFile.exists()) {
+      return progress;
+    }
+
+    // a line is complete only when its line break is written
+    String content = FileUtils.readFileToString(progressFile, "utf-8");
+    content = content.substring(0, content.lastIndexOf('\n') + 1);
+    for (String line : content.split("\n")) {
+      String[] splits = line.split(":");
+      if (splits.length == 3) {
+        progress.put(Long.valueOf(splits[0]),
+                     new long[]{Long.parseLong(splits[1]), Long.parseLong(splits[2])});
+      }
+    }
+    return progress;
+  }
+
   private void show(File f) throws IOException {
     FileInputStream fileInputStream = new FileInputStream(f);
 
@@ -287,6 +444,10 @@ public class SessionHistory {
     }
   }
 
+  private SessionJournal journal() {
+    return SessionJournal.of(dir);
+  }
+
   public String getSid() {
     return sid;
   }
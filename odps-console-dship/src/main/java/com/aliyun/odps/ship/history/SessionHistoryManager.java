@@ -29,15 +29,16 @@ import java.util.List;
 import java.util.Map;
 
 import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.DshipJobContext;
 import com.aliyun.odps.ship.common.SessionStatus;
 import com.aliyun.odps.ship.common.Util;
 
 public class SessionHistoryManager {
 
-  private static List<SessionHistory> listHistory() {
+  private static List<SessionHistory> listHistory(DshipJobContext context) {
 
     //format of session dir is '<root_dir>/sessions/<date>/<session_id>'
-    String sp = Util.getSessionBaseDir() + "/sessions";
+    String sp = Util.getSessionBaseDir(context) + "/sessions";
 
     List<SessionHistory> ls = new ArrayList<SessionHistory>();
     File file = new File(sp);
@@ -47,7 +48,7 @@ public class SessionHistoryManager {
         if (f.isDirectory() && !f.getName().startsWith(".")) {
           File[] sfl = f.listFiles();
           for (File sf : sfl) {
-            ls.add(new SessionHistory(sf.getName()));
+            ls.add(new SessionHistory(context, sf.getName()));
           }
         }
       }
@@ -60,9 +61,10 @@ public class SessionHistoryManager {
     return ls;
   }
 
-  public static void showHistory(int n) throws FileNotFoundException, IOException {
+  public static void showHistory(DshipJobContext context, int n)
+      throws FileNotFoundException, IOException {
 
-    List<SessionHistory> l = listHistory();
+    List<SessionHistory> l = listHistory(context);
     int size = n > l.size() ? l.size() : n;
 
     for (int i = 0; i < size; i++) {
@@ -78,9 +80,10 @@ public class SessionHistoryManager {
     }
   }
 
-  public static SessionHistory getLatest() throws FileNotFoundException, IOException {
+  public static SessionHistory getLatest(DshipJobContext context)
+      throws FileNotFoundException, IOException {
 
-    List<SessionHistory> ls = listHistory();
+    List<SessionHistory> ls = listHistory(context);
 
     if (ls.size() == 0) {
       throw new FileNotFoundException(Constants.ERROR_INDICATOR + "session not found.");
@@ -94,17 +97,18 @@ public class SessionHistoryManager {
    * @return SessionHistory or null
    * @throws IOException
    */
-  public static SessionHistory getLatestSilently() throws IOException {
+  public static SessionHistory getLatestSilently(DshipJobContext context) throws IOException {
     try {
-      return getLatest();
+      return getLatest(context);
     } catch (FileNotFoundException e) {
       return null;
     }
   }
 
-  public static void purgeHistory(int n) throws FileNotFoundException, IOException {
+  public static void purgeHistory(DshipJobContext context, int n)
+      throws FileNotFoundException, IOException {
 
-    List<SessionHistory> s = listHistory();
+    List<SessionHistory> s = listHistory(context);
     Long d = System.currentTimeMillis() - n * 3600 * 24 * 1000;
     for (SessionHistory sh : s) {
       Map<String, String> ctx = sh.loadProperty();
@@ -116,13 +120,25 @@ public class SessionHistoryManager {
     }
   }
 
-  public static SessionHistory createSessionHistory(String sid) throws FileNotFoundException {
+  /**
+   * @return the history of a session, under the session dir of a job
+   */
+  public static SessionHistory createSessionHistory(DshipJobContext context, String sid)
+      throws FileNotFoundException {
 
-    File f = new File(Util.getSessionDir(sid));
-    if (!f.exists() && !f.mkdirs()) {
+    File f = new File(Util.getSessionDir(context, sid));
+    // the dir may be created by another thread of the session at the same time
+    if (!f.exists() && !f.mkdirs() && !f.isDirectory()) {
       throw new FileNotFoundException(Constants.ERROR_INDICATOR + "create session dir fail, dir path is " + f.getPath());
     }
-    return new SessionHistory(sid);
+    return new SessionHistory(context, sid);
+  }
+
+  /**
+   * Write the buffered history of all sessions and close their files, see {@link SessionJournal}.
+   */
+  public static void closeHistories() {
+    SessionJournal.closeAll();
   }
 
 }
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.history;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The append-only files of a session: log.txt, finish_block.txt, slice_progress.txt and the bad
+ * data of the blocks.
+ *
+ * Appended lines are kept in a buffer per file, and written when the buffer is full, before the
+ * files are read, and at {@link #commit()}, which also syncs the written files to the disk. A file
+ * is opened once and kept open until the journal is closed, instead of being opened for every line.
+ * The files keep their format, so histories written by older versions are read as before.
+ *
+ * All SessionHistory objects of a session share its journal, so the lines of concurrent blocks do
+ * not interleave within a line. A closed journal is dropped, the next lines of the session go to a
+ * new one.
+ */
+class SessionJournal {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final Map<String, SessionJournal> journals = new HashMap<String, SessionJournal>();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        closeAll();
+      }
+    }));
+  }
+
+  private final File dir;
+  private final Map<String, Appender> appenders = new LinkedHashMap<String, Appender>();
+  private boolean closed = false;
+
+  private SessionJournal(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * @return the journal of a session directory
+   */
+  static synchronized SessionJournal of(String dir) {
+    String key = new File(dir).getAbsolutePath();
+    SessionJournal journal = journals.get(key);
+    if (journal == null) {
+      journal = new SessionJournal(new File(key));
+      journals.put(key, journal);
+    }
+    return journal;
+  }
+
+  /**
+   * Close the journal of a session directory if it is open.
+   */
+  static void close(String dir) throws IOException {
+    SessionJournal journal;
+    synchronized (SessionJournal.class) {
+      journal = journals.get(new File(dir).getAbsolutePath());
+    }
+    if (journal != null) {
+      journal.close();
+    }
+  }
+
+  /**
+   * Write the buffered data of all sessions and close their files, the files are opened again when
+   * more data is appended.
+   */
+  static void closeAll() {
+    List<SessionJournal> all;
+    synchronized (SessionJournal.class) {
+      all = new ArrayList<SessionJournal>(journals.values());
+    }
+    for (SessionJournal journal : all) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        // the history is best effort once the command is done
+      }
+    }
+  }
+
+  void append(String name, String data) throws IOException {
+    synchronized (this) {
+      if (!closed) {
+        Appender appender = appenders.get(name);
+        if (appender == null) {
+          appender = new Appender(new File(dir, name));
+          appenders.put(name, appender);
+        }
+        appender.append(data.getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+    }
+    // closed while the caller held it, the line goes to the open journal of the session
+    of(dir.getPath()).append(name, data);
+  }
+
+  /**
+   * Write the buffered data to the files, so they can be read.
+   */
+  synchronized void flush() throws IOException {
+    for (Appender appender : appenders.values()) {
+      appender.flush(false);
+    }
+  }
+
+  /**
+   * Write the buffered data and sync the files written since the last commit to the disk.
+   */
+  synchronized void commit() throws IOException {
+    for (Appender appender : appenders.values()) {
+      appender.flush(true);
+    }
+  }
+
+  /**
+   * Drop the buffered data of a file and delete it.
+   */
+  synchronized void delete(String name) {
+    Appender appender = appenders.remove(name);
+    if (appender != null) {
+      IOUtils.closeQuietly(appender.out);
+    }
+    File f = new File(dir, name);
+    if (f.exists()) {
+      f.delete();
+    }
+  }
+
+  /**
+   * Write the buffered data, close the files and drop the journal.
+   */
+  void close() throws IOException {
+    synchronized (SessionJournal.class) {
+      if (journals.get(dir.getPath()) == this) {
+        journals.remove(dir.getPath());
+      }
+    }
+    synchronized (this) {
+      closed = true;
+      try {
+        flush();
+      } finally {
+        for (Appender appender : appenders.values()) {
+          IOUtils.closeQuietly(appender.out);
+        }
+        appenders.clear();
+      }
+    }
+  }
+
+  private static class Appender {
+
+    private final File file;
+    private FileOutputStream out;
+    private byte[] buffer = new byte[256];
+    private int size = 0;
+    // written since the last sync
+    private boolean dirty = false;
+
+    Appender(File file) {
+      this.file = file;
+    }
+
+    void append(byte[] data) throws IOException {
+      if (size + data.length > BUFFER_SIZE) {
+        flush(false);
+      }
+      if (data.length > BUFFER_SIZE) {
+        write(data, data.length);
+        return;
+      }
+      if (size + data.length > buffer.length) {
+        byte[] grown = new byte[Math.min(Math.max(size + data.length, buffer.length * 2),
+                                         BUFFER_SIZE)];
+        System.arraycopy(buffer, 0, grown, 0, size);
+        buffer = grown;
+      }
+      System.arraycopy(data, 0, buffer, size, data.length);
+      size += data.length;
+    }
+
+    void flush(boolean sync) throws IOException {
+      if (size > 0) {
+        // the buffer is dropped when the write fails, the next lines are appended after the
+        // bytes already written
+        int n = size;
+        size = 0;
+        write(buffer, n);
+      }
+      if (sync && dirty) {
+        out.getFD().sync();
+        dirty = false;
+      }
+    }
+
+    private void write(byte[] data, int length) throws IOException {
+      // the session may be purged or deleted by another process while the file is open
+      if (out != null && !file.exists()) {
+        IOUtils.closeQuietly(out);
+        out = null;
+      }
+      if (out == null) {
+        out = new FileOutputStream(file, true);
+      }
+      out.write(data, 0, length);
+      dirty = true;
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import com.aliyun.odps.ship.common.Constants;
+
+/**
+ * Number of blocks uploaded at the same time with -threads auto.
+ *
+ * The upload starts with a few threads. After every round of blocks, one block per thread, the
+ * throughput of the upload is estimated from the throughput of the blocks, and more threads are
+ * added while it grows. When adding threads does not make the upload faster, e.g. the bandwidth is
+ * used up or the tunnel throttles the writes, the number goes back to the last one and stops
+ * growing. A retried block halves the number, once for the blocks uploaded at the same time, and
+ * it does not grow beyond the number at which blocks were retried any more.
+ *
+ * The controller only sees the bytes and the time of the finished blocks, so it is tested with
+ * simulated blocks.
+ */
+public class AdaptiveConcurrency {
+
+  // more threads are kept when the throughput grows by this ratio at least
+  static final double MIN_GAIN = 0.1;
+
+  private int limit;
+  // no more threads than this are tried, lowered when adding threads does not help
+  private int ceiling;
+  private int running = 0;
+
+  // throughput of the blocks finished in the current round, in bytes per second
+  private double roundThroughput = 0;
+  private int roundBlocks = 0;
+  // the number of threads before the last increase, and the throughput with it
+  private int lastLimit = 0;
+  private double lastThroughput = 0;
+  // blocks to finish before backing off again, the blocks uploaded at the same time as a retried
+  // block are often retried for the same reason
+  private int retryGuard = 0;
+
+  public AdaptiveConcurrency(int initial, int max) {
+    this.limit = Math.max(1, Math.min(initial, max));
+    this.ceiling = max;
+  }
+
+  /**
+   * Block size in MiB for a file of {@code fileSize} bytes, so each of {@code threads} threads
+   * uploads a few blocks, which makes room for adjusting the threads, and a retried block repeats
+   * less work. It is never larger than the default block size.
+   */
+  public static long getBlockSize(long fileSize, int threads) {
+    long mib = 1024 * 1024;
+    long blockSize = (fileSize / mib + 1) / ((long) threads * 4);
+    return Math.max(Constants.AUTO_MIN_BLOCK_SIZE,
+                    Math.min(blockSize, Constants.DEFAULT_BLOCK_SIZE));
+  }
+
+  public synchronized int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Wait until fewer blocks than the limit are being uploaded.
+   */
+  public synchronized void acquire() throws InterruptedException {
+    while (running >= limit) {
+      wait();
+    }
+    running++;
+  }
+
+  public synchronized void release() {
+    running--;
+    notifyAll();
+  }
+
+  /**
+   * A block is uploaded.
+   *
+   * @param bytes
+   *     bytes of the block
+   * @param millis
+   *     time of uploading the block
+   */
+  public synchronized void onBlockComplete(long bytes, long millis) {
+    if (retryGuard > 0) {
+      retryGuard--;
+    }
+    roundThroughput += bytes * 1000.0 / Math.max(millis, 1);
+    roundBlocks++;
+    if (roundBlocks < limit) {
+      return;
+    }
+
+    // every thread uploads a block at the throughput of the blocks
+    double throughput = roundThroughput / roundBlocks * limit;
+    roundThroughput = 0;
+    roundBlocks = 0;
+    if (lastLimit > 0 && limit > lastLimit && throughput < lastThroughput * (1 + MIN_GAIN)) {
+      ceiling = lastLimit;
+      limit = lastLimit;
+      lastLimit = 0;
+      notifyAll();
+      return;
+    }
+    if (limit < ceiling) {
+      lastLimit = limit;
+      lastThroughput = throughput;
+      limit = Math.min(ceiling, limit + Math.max(1, limit / 2));
+      notifyAll();
+    }
+  }
+
+  /**
+   * A block is retried, e.g. the write is throttled or timed out, fewer threads are used.
+   */
+  public synchronized void onRetry() {
+    if (retryGuard > 0) {
+      return;
+    }
+    retryGuard = limit;
+    ceiling = Math.max(1, limit - 1);
+    limit = Math.max(1, limit / 2);
+    roundThroughput = 0;
+    roundBlocks = 0;
+    lastLimit = 0;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import java.io.IOException;
+
+import com.aliyun.odps.ship.history.SessionHistory;
+
+/**
+ * Bad records of a block, saved to its bad data file in batches.
+ *
+ * The records are kept in memory until they take {@code budget} bytes, and flushed when the block
+ * is committed or fails, so the file has the same content as when every record is saved on its
+ * own, without taking the lock of the session history for every record.
+ *
+ * The buffer also counts the bad records of the block. The parts of a compressed block share the
+ * buffer of the block, so their bad records are saved to its bad data file and counted against
+ * -mbr together.
+ */
+class BadRecordBuffer {
+
+  private final SessionHistory sessionHistory;
+  private final long blockId;
+  private final int budget;
+  private final StringBuilder buffer = new StringBuilder();
+  private long records;
+
+  /**
+   * @param budget
+   *     bytes of records kept in memory
+   */
+  BadRecordBuffer(SessionHistory sessionHistory, long blockId, int budget) {
+    this.sessionHistory = sessionHistory;
+    this.blockId = blockId;
+    this.budget = budget;
+  }
+
+  /**
+   * Count a bad record of the block, before it is added.
+   *
+   * @return bad records of the block, including this one
+   */
+  synchronized long count() {
+    return ++records;
+  }
+
+  synchronized void add(String record) throws IOException {
+    buffer.append(record);
+    // a char takes two bytes in the buffer
+    if (buffer.length() * 2L >= budget) {
+      flush();
+    }
+  }
+
+  synchronized void flush() throws IOException {
+    if (buffer.length() > 0) {
+      String records = buffer.toString();
+      buffer.setLength(0);
+      sessionHistory.saveBadData(records, blockId);
+    }
+  }
+
+  /**
+   * Drop the bad records of the block, before it is uploaded again.
+   */
+  synchronized void clear() {
+    buffer.setLength(0);
+    records = 0;
+    sessionHistory.clearBadData(blockId);
+  }
+}
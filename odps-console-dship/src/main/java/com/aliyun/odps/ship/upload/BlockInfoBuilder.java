@@ -30,12 +30,18 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by lulu on 15-2-04.
  */
 public class BlockInfoBuilder {
   private long blockSize = Constants.DEFAULT_BLOCK_SIZE * 1024 * 1024;
+  private boolean isCsv = false;
+  // local file format, typed files are split at their own boundaries
+  private String format = Constants.DEFAULT_FORMAT;
+  private String charset = Constants.REMOTE_CHARSET;
+  private String recordDelimiter = Constants.DEFAULT_RECORD_DELIMITER;
 
   public BlockInfoBuilder() {
   }
@@ -52,6 +58,25 @@ public class BlockInfoBuilder {
     this.blockSize = blockSize;
   }
 
+  public void setCsv(boolean isCsv) {
+    // csv files are split at record boundaries outside quoted fields
+    this.isCsv = isCsv;
+  }
+
+  public void setFormat(String format) {
+    // parquet files are split at row groups, orc files at stripes
+    this.format = format == null ? Constants.DEFAULT_FORMAT : format;
+  }
+
+  public void setRecordDelimiter(String recordDelimiter) {
+    // compressed files are split where the data before ends with a record delimiter
+    this.recordDelimiter = recordDelimiter;
+  }
+
+  public void setCharset(String charset) {
+    this.charset = Util.isIgnoreCharset(charset) ? Constants.REMOTE_CHARSET : charset;
+  }
+
   public long getFileSize(File file)
             throws IOException, TunnelException, ParseException {
     long totalBytes = 0;
@@ -93,6 +118,12 @@ public class BlockInfoBuilder {
       if (file.length() > 0) {
         blockIndex.add(new BlockInfo(Long.valueOf(blockIndex.size() + 1), file, 0L, file.length()));
       }
+    } else if (Util.isTypedFormat(format)) {
+      buildTyped(file, blockIndex);
+    } else if (isCompressed(file)) {
+      buildCompressed(file, blockIndex);
+    } else if (isCsv) {
+      buildCsv(file, blockIndex);
     } else {
       long fileLength = file.length();
       long i = 0;
@@ -105,4 +136,65 @@ public class BlockInfoBuilder {
       }
     }
   }
+
+  private void buildTyped(File file, ArrayList<BlockInfo> blockIndex) throws IOException {
+    long fileLength = file.length();
+    if (fileLength == 0) {
+      return;
+    }
+    if (isCompressed(file)) {
+      throw new IOException(
+          "Compressed " + format + " file is not supported: " + file.getPath());
+    }
+    List<Long> starts;
+    if (Constants.PARQUET_FORMAT.equals(format)) {
+      starts = ParquetFileRecordReader.split(file, blockSize);
+    } else {
+      starts = OrcFileRecordReader.split(file, blockSize);
+    }
+    addBlocks(file, starts, blockIndex);
+  }
+
+  private static boolean isCompressed(File file) throws IOException {
+    return file.length() > 0 && CompressedFile.detect(file) != null;
+  }
+
+  private void buildCompressed(File file, ArrayList<BlockInfo> blockIndex) throws IOException {
+    CompressedFile.Codec codec = CompressedFile.detect(file);
+    List<Long> starts;
+    if (isCsv) {
+      // quotes can not be found without decompressing the whole file
+      starts = new ArrayList<Long>();
+      starts.add(0L);
+    } else {
+      starts = CompressedFile.split(file, codec, blockSize, recordDelimiter.getBytes());
+    }
+    addBlocks(file, starts, blockIndex);
+  }
+
+  private void buildCsv(File file, ArrayList<BlockInfo> blockIndex) throws IOException {
+    long fileLength = file.length();
+    if (fileLength == 0) {
+      return;
+    }
+
+    List<Long> starts;
+    if (Util.isAsciiCompatible(charset)) {
+      // quotes and line breaks can be found at byte level
+      starts = new CsvBlockSplitter(blockSize).split(file);
+    } else {
+      starts = new ArrayList<Long>();
+      starts.add(0L);
+    }
+    addBlocks(file, starts, blockIndex);
+  }
+
+  private void addBlocks(File file, List<Long> starts, ArrayList<BlockInfo> blockIndex) {
+    long fileLength = file.length();
+    for (int i = 0; i < starts.size(); i++) {
+      long start = starts.get(i);
+      long end = i + 1 < starts.size() ? starts.get(i + 1) : fileLength;
+      blockIndex.add(new BlockInfo(Long.valueOf(blockIndex.size() + 1), file, start, end - start));
+    }
+  }
 }
@@ -19,58 +19,113 @@
 
 package com.aliyun.odps.ship.upload;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 
-import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.IOUtils;
 
 import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.ByteSearcher;
 import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.FieldSlices;
 
 public class BlockRecordReader extends RecordReader {
 
-  private byte[] fieldDelimiter;
-  private byte[] recordDelimiter;
+  private static final int DEFAULT_BUF_SIZE = 8 * 1024 * 1024;
+
+  private ByteSearcher fieldDelimiter;
+  private ByteSearcher recordDelimiter;
   boolean ignoreHeader;
   boolean isLastLine;
-  byte [] currentLine;
-
 
-  private BufferedInputStream is;
+  private ReadableByteChannel channel;
+  // decompressed data of the block if the file is compressed
+  private CompressedFile.DecompressedInputStream decompressed;
 
-  private ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(8 * 1024 * 1024);
-  private final int BUF_SIZE = 8 * 1024 * 1024;
-  private byte[] buf = new byte[BUF_SIZE];
+  // bytes [offset, bufLength) of buf are read from file but not consumed yet.
+  // a line is returned as a slice of buf, the buffer only grows when a single line does not fit.
+  private byte[] buf;
   private int bufLength = 0;
   private int offset = 0;
+  private boolean eof = false;
+
+  // current line is buf[lineStart, lineEnd)
+  private int lineStart = 0;
+  private int lineEnd = 0;
+  private final FieldSlices fields = new FieldSlices();
 
   public BlockRecordReader(BlockInfo blockInfo, String fd, String rd, boolean ignoreHeader)
       throws IOException {
+    this(blockInfo, fd, rd, ignoreHeader, DEFAULT_BUF_SIZE);
+  }
+
+  BlockRecordReader(BlockInfo blockInfo, String fd, String rd, boolean ignoreHeader,
+                    int bufferSize) throws IOException {
     super(blockInfo);
 
-    this.fieldDelimiter = fd.getBytes();
-    this.recordDelimiter = rd.getBytes();
+    this.fieldDelimiter = new ByteSearcher(fd.getBytes());
+    this.recordDelimiter = new ByteSearcher(rd.getBytes());
     this.ignoreHeader = ignoreHeader;
+    this.buf = new byte[Math.max(bufferSize, this.recordDelimiter.length() + 1)];
 
     init();
   }
 
   public byte[][] readTextRecord() throws IOException {
-    if (isLastLine) {
+    FieldSlices slices = readFieldSlices();
+    return slices == null ? null : slices.toArray();
+  }
+
+  /**
+   * Read next record without copying its fields. The returned slices point into the read buffer
+   * and are only valid until the next read.
+   */
+  @Override
+  public FieldSlices readFieldSlices() throws IOException {
+    if (!nextBlockLine()) {
       return null;
     }
-    currentLine = readLine();
-    isLastLine = startPos + readBytes > blockInfo.getStartPos() + blockInfo.getLength();
-    return splitLine(currentLine);
+    splitLine(buf, lineStart, lineEnd, fields);
+    return fields;
+  }
+
+  private boolean nextBlockLine() throws IOException {
+    if (isLastLine) {
+      return false;
+    }
+    if (!nextLine()) {
+      return false;
+    }
+    // a block of a compressed file ends at a record boundary, it is read to its end
+    isLastLine = decompressed == null
+                 && startPos + readBytes > blockInfo.getStartPos() + blockInfo.getLength();
+    return true;
+  }
+
+  /**
+   * Copy the raw line only, it is split on the thread which parses it.
+   */
+  @Override
+  public boolean readTextLine(TextLines lines) throws IOException {
+    if (!nextBlockLine()) {
+      return false;
+    }
+    lines.add(buf, lineStart, lineEnd, getReadBytes(), getBlockReadBytes());
+    return true;
+  }
+
+  @Override
+  public FieldSlices getFields(TextLines lines, int i, FieldSlices reuse) {
+    splitLine(lines.getData(), lines.getStart(i), lines.getEnd(i), reuse);
+    return reuse;
   }
 
   public String getCurrentLine() {
-    return new String(currentLine);
+    return new String(buf, lineStart, lineEnd - lineStart);
   }
 
   protected byte[][] splitLine(byte[] sbl) {
@@ -78,96 +133,109 @@ public class BlockRecordReader extends RecordReader {
     if (sbl == null) {
       return null;
     }
-    List<byte[]> l = new ArrayList<byte[]>();
-    int start = 0;
-    int end = 0;
-    while (end != -1) {
-      end = indexOf(sbl, start, sbl.length, fieldDelimiter);
-      int colLen = (end == -1 ? sbl.length - start : end - start);
-      byte[] col = new byte[colLen];
-      System.arraycopy(sbl, start, col, 0, colLen);
-      l.add(col);
-      start = end + fieldDelimiter.length;
-    }
-    return l.toArray(new byte[l.size()][]);
+    FieldSlices slices = new FieldSlices();
+    splitLine(sbl, 0, sbl.length, slices);
+    return slices.toArray();
   }
 
-  private int count = 0;
+  private void splitLine(byte[] src, int from, int to, FieldSlices slices) {
+    slices.clear();
+    int start = from;
+    while (true) {
+      int end = fieldDelimiter.indexOf(src, start, to);
+      if (end == -1) {
+        slices.add(src, start, to - start);
+        return;
+      }
+      slices.add(src, start, end - start);
+      start = end + fieldDelimiter.length();
+    }
+  }
 
   protected byte[] readLine() throws IOException {
+    if (!nextLine()) {
+      return null;
+    }
+    return Arrays.copyOfRange(buf, lineStart, lineEnd);
+  }
 
-    int lineLength = 0;
-    byteArrayOutputStream.reset();
-    int len = 0;
+  /**
+   * Move [lineStart, lineEnd) to the next line.
+   *
+   * @return false if there is no more data
+   */
+  private boolean nextLine() throws IOException {
+    int rdLength = recordDelimiter.length();
+    int scanFrom = offset;
 
     while (true) {
-      if (bufLength == -1) {
-        return null;
+      int foundIndex = recordDelimiter.indexOf(buf, scanFrom, bufLength);
+      if (foundIndex != -1) {
+        lineStart = offset;
+        lineEnd = foundIndex;
+        offset = foundIndex + rdLength;
+        readBytes += lineEnd - lineStart + rdLength;
+        return true;
       }
 
-      int foundIndex = 0;
-
-      if (offset == bufLength || (foundIndex = indexOf(buf, offset, bufLength, recordDelimiter)) == -1) {
-        if (bufLength - offset > recordDelimiter.length) {
-          lineLength += bufLength - offset - recordDelimiter.length;
-          if (lineLength > Constants.MAX_RECORD_SIZE) {
-            throw new IllegalArgumentException(
-                Constants.ERROR_INDICATOR + "line bigger than 200M - please check record delimiter");
-          }
-          byteArrayOutputStream.write(buf, offset, bufLength - recordDelimiter.length - offset);
-          offset = bufLength - recordDelimiter.length;
+      if (eof) {
+        if (bufLength > offset) {
+          // last line without record delimiter
+          lineStart = offset;
+          lineEnd = bufLength;
+          offset = bufLength;
+          readBytes += lineEnd - lineStart;
+          return true;
         }
+        return false;
+      }
 
-        if (offset < bufLength) {
-          System.arraycopy(buf, offset, buf, 0, bufLength - offset);
-        }
+      int pending = bufLength - offset;
+      if (pending - rdLength > Constants.MAX_RECORD_SIZE) {
+        throw new IllegalArgumentException(
+            Constants.ERROR_INDICATOR + "line bigger than 200M - please check record delimiter");
+      }
 
-        bufLength = bufLength - offset;
+      if (offset > 0) {
+        System.arraycopy(buf, offset, buf, 0, pending);
+        bufLength = pending;
         offset = 0;
-
-        len = is.read(buf, bufLength, buf.length - bufLength);
-        if (len == -1) {
-          if (lineLength + bufLength - offset > 0) {
-            byteArrayOutputStream.write(buf, offset, bufLength - offset);
-            bufLength = -1;
-            readBytes += lineLength + bufLength - offset;
-            return byteArrayOutputStream.toByteArray();
-          } else {
-            return null;
-          }
-        }
-        bufLength = bufLength + len;
-      } else {
-        byteArrayOutputStream.write(buf, offset, foundIndex - offset);
-        offset = foundIndex + recordDelimiter.length;
-        byte[] returnValue = byteArrayOutputStream.toByteArray();
-        readBytes += returnValue.length + recordDelimiter.length;
-        return returnValue;
+      } else if (bufLength == buf.length) {
+        long newSize = Math.min((long) buf.length * 2,
+                                (long) Constants.MAX_RECORD_SIZE + rdLength + 1);
+        buf = Arrays.copyOf(buf, (int) Math.max(newSize, buf.length + 1));
       }
+
+      // the bytes already scanned can not contain a delimiter, except its first rdLength - 1 bytes
+      scanFrom = Math.max(0, pending - rdLength + 1);
+      fill();
     }
   }
 
+  private void fill() throws IOException {
+    ByteBuffer byteBuffer = ByteBuffer.wrap(buf, bufLength, buf.length - bufLength);
+    int len = 0;
+    while (len == 0) {
+      len = channel.read(byteBuffer);
+    }
+    if (len == -1) {
+      eof = true;
+    } else {
+      bufLength += len;
+    }
+  }
 
   public void close() throws IOException {
-    is.close();
+    channel.close();
+  }
+
+  @Override
+  public long getBlockReadBytes() {
+    return decompressed == null ? readBytes : decompressed.getCompressedBytes();
   }
 
   public static int indexOf(byte[] src, int offset, int length, byte[] search) {
-    int index = offset;
-    while (index <= length - search.length) {
-      boolean find = true;
-      for (int j = 0; j < search.length; j++) {
-        if (src[index + j] != search[j]) {
-          find = false;
-          break;
-        }
-      }
-      if (find) {
-        return index;
-      }
-      ++index;
-    }
-    return -1;
+    return new ByteSearcher(search).indexOf(src, offset, length);
   }
 
   /**
@@ -177,32 +245,50 @@ public class BlockRecordReader extends RecordReader {
    * 一种特殊的情况是行分隔符有多个字符，且block恰好切分在某个行分隔符之间。这个前一个block读到这个分隔符就会停止。
    * 为了让后一个block识别出这个分隔符，而不是把下一个分隔符当作第一个分隔符导致数据丢失，后一个block需要从原始的startPos
    * 往前偏移recordDelimeter.length － 1
+   * rule 3: 压缩文件只在行分隔符之后的 member / frame 边界切分，每个block解压并读取自己的全部数据，见 CompressedFile
    */
   private void init() throws IOException {
+    detectCompression();
     detectBomCharset();
     readBytes = 0;
-    //TODO  using one input stream,but why only on thread failed?
-    is = new BufferedInputStream(blockInfo.getFileInputStream());
     startPos = 0;
+    isLastLine = false;
+    if (codec != null) {
+      // a compressed file is split at record boundaries, see CompressedFile.split
+      decompressed = CompressedFile.open(blockInfo.getFile(), codec, blockInfo.getStartPos(),
+                                         blockInfo.getLength());
+      channel = Channels.newChannel(decompressed);
+      if (blockInfo.getStartPos() == 0L) {
+        IOUtils.skipFully(decompressed, bomBytes);
+        if (ignoreHeader) {
+          nextLine();
+        }
+      }
+      return;
+    }
+
+    FileChannel fileChannel = blockInfo.getFileChannel();
+    channel = fileChannel;
     if (blockInfo.getStartPos() == 0L) {
       if (detectedCharset != null) {
         startPos = bomBytes;
-        if (is.skip(startPos) != startPos) {
-          throw new IOException(String.format("block %s failed to seek to position %s",
-                                              blockInfo.getBlockId(), startPos));
-        }
+        seek(fileChannel, startPos);
       }
       if (ignoreHeader) {
-        readLine();
+        nextLine();
       }
     } else {
-      startPos = blockInfo.getStartPos() - (recordDelimiter.length - 1);
-      if (is.skip(startPos) != startPos) {
-        throw new IOException(String.format("block %s failed to seek to position %s",
-                                            blockInfo.getBlockId(), startPos));
-      }
-      readLine();
+      startPos = blockInfo.getStartPos() - (recordDelimiter.length() - 1);
+      seek(fileChannel, startPos);
+      nextLine();
+    }
+  }
+
+  private void seek(FileChannel channel, long pos) throws IOException {
+    channel.position(pos);
+    if (channel.position() != pos) {
+      throw new IOException(String.format("block %s failed to seek to position %s",
+                                          blockInfo.getBlockId(), pos));
     }
-    isLastLine = false;
   }
 }
@@ -25,22 +25,28 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.aliyun.odps.ship.common.CommandType;
 import org.apache.commons.cli.ParseException;
 import org.jline.reader.UserInterruptException;
 
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.commons.proto.ProtobufRecordStreamWriter;
 import com.aliyun.odps.data.Record;
 import com.aliyun.odps.data.RecordWriter;
 import com.aliyun.odps.ship.common.BlockInfo;
 import com.aliyun.odps.ship.common.Constants;
-import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.DshipMetrics;
 import com.aliyun.odps.ship.common.DshipStopWatch;
+import com.aliyun.odps.ship.common.FieldSlices;
 import com.aliyun.odps.ship.common.RecordConverter;
 import com.aliyun.odps.ship.common.SessionStatus;
 import com.aliyun.odps.ship.common.Util;
 import com.aliyun.odps.ship.history.SessionHistory;
 import com.aliyun.odps.tunnel.TunnelException;
+import com.aliyun.odps.tunnel.io.TunnelBufferedWriter;
 import com.aliyun.openservices.odps.console.utils.ODPSConsoleUtils;
 
 public class BlockUploader {
@@ -52,29 +58,52 @@ public class BlockUploader {
   private SessionHistory sessionHistory;
 
   private boolean isScan;
+  // scan and upload in one pass, a block is written only after all its records are scanned
+  private boolean isInlineScan;
 
   private boolean isDiscardBadRecord;
   private boolean isStrictSchema;
   private long badRecords;
+  private BadRecordBuffer badRecordBuffer;
   private long maxBadRecords = Constants.DEFAULT_BAD_RECORDS;
 
-  private DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+  private static final DateTimeFormatter dateTimeFormatter =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
   private long startTime = 0;
   private long preTime = 0;
+  // bytes of the block read by the current try, printed by the progress reporter
+  private final AtomicLong progressBytes = new AtomicLong();
+  private ProgressReporter reporter;
+  private final ProgressReporter.Progress progress = new ProgressReporter.Progress() {
+    @Override
+    public void report(long now) {
+      printProgress(progressBytes.get(), now, false);
+    }
+  };
+  // time of the upload of the block, including retries
+  private long elapsedTime = 0;
+  // threads of -threads auto, told about retries
+  private AdaptiveConcurrency concurrency;
+  private DshipMetrics metrics;
+  // records, text bytes read and tunnel bytes written by the last try of the block
+  private long records;
+  private long rawBytes;
+  private long tunnelBytes;
   private DshipStopWatch localIOStopWatch;
   private DshipStopWatch tunnelIOStopWatch;
   private boolean isCsv;
+  // local file format, typed files are read without parsing text
+  private String format;
   private boolean printIOElapsedTime;
+  // records of a part of a block, see CompressedBlockUploader
+  private RecordReader partReader;
 
   protected boolean isUpsert;
+  private final DshipJobContext context;
 
-  public BlockUploader(BlockInfo blockInfo, TunnelUpdateSession tus, SessionHistory sh)
-      throws IOException {
-    this(blockInfo, tus, sh, false);
-  }
-
-  public BlockUploader(BlockInfo blockInfo, TunnelUpdateSession tus, SessionHistory sh,
-                       boolean isCsv) {
+  public BlockUploader(DshipJobContext context, BlockInfo blockInfo, TunnelUpdateSession tus,
+                       SessionHistory sh, boolean isCsv) {
+    this.context = context;
     this.isUpsert = tus.getCommandType().equals(CommandType.upsert);
     this.blockInfo = blockInfo;
     this.blockId = blockInfo.getBlockId();
@@ -82,17 +111,20 @@ public class BlockUploader {
     this.updateSession = tus;
     this.sessionHistory = sh;
     this.isScan = tus.isScan();
+    this.isInlineScan = Constants.INLINE_SCAN.equals(context.get(Constants.SCAN));
 
-    isDiscardBadRecord = Boolean.valueOf(DshipContext.INSTANCE.get(Constants.DISCARD_BAD_RECORDS));
-    isStrictSchema = Boolean.valueOf(DshipContext.INSTANCE.get(Constants.STRICT_SCHEMA));
-    printIOElapsedTime = Boolean.valueOf(DshipContext.INSTANCE.get(Constants.TIME));
+    isDiscardBadRecord = Boolean.valueOf(context.get(Constants.DISCARD_BAD_RECORDS));
+    isStrictSchema = Boolean.valueOf(context.get(Constants.STRICT_SCHEMA));
+    printIOElapsedTime = Boolean.valueOf(context.get(Constants.TIME));
     localIOStopWatch = new DshipStopWatch("local I/O", printIOElapsedTime);
     tunnelIOStopWatch = new DshipStopWatch("tunnel I/O", printIOElapsedTime);
     badRecords = 0;
-    if (DshipContext.INSTANCE.get(Constants.MAX_BAD_RECORDS) != null) {
-      maxBadRecords = Long.valueOf(DshipContext.INSTANCE.get(Constants.MAX_BAD_RECORDS));
+    badRecordBuffer = new BadRecordBuffer(sh, blockId, Constants.BAD_RECORD_BUFFER_SIZE);
+    if (context.get(Constants.MAX_BAD_RECORDS) != null) {
+      maxBadRecords = Long.valueOf(context.get(Constants.MAX_BAD_RECORDS));
     }
     this.isCsv = isCsv;
+    this.format = context.get(Constants.FORMAT);
   }
 
   public void upload()
@@ -103,39 +135,67 @@ public class BlockUploader {
     String type = isUpsert ? "upsert" : (isScan ? "scan" : "upload");
     print(type + " block: '" + blockId + "'\n");
     sessionHistory.log("start " + type + " , blockid=" + blockId);
-    sessionHistory.saveContext();
+    sessionHistory.saveContext(context);
+
+    if (reporter != null) {
+      reporter.add(progress);
+    }
+    try {
+      uploadWithRetry(type);
+    } finally {
+      if (reporter != null) {
+        reporter.remove(progress);
+      }
+    }
+  }
 
+  private void uploadWithRetry(String type) throws TunnelException, IOException, ParseException {
     //if upsert block fail, retry 5 time.
     int retry = 1;
     while (true) {
       try {
-        doUpdate();
+        try {
+          doUpdate();
+        } finally {
+          // the bad records of a failed block are saved as well
+          badRecordBuffer.flush();
+        }
         break;
       } catch (TunnelException e) {
         sessionHistory.log("retry:" + retry + "  " + Util.getStack(e));
+        if (partReader != null) {
+          throw e;
+        }
+        onRetry();
         if (retry > Constants.RETRY_LIMIT) {
-          DshipContext.INSTANCE.put(Constants.STATUS, SessionStatus.resume.toString());
-          sessionHistory.saveContext();
+          sessionHistory.saveContext(context, SessionStatus.resume);
           throw e;
         }
         print("update block " + blockId + " fail, retry:" + retry + "\n");
       } catch (IOException e) {
         sessionHistory.log("retry:" + retry + "  " + Util.getStack(e));
+        if (partReader != null) {
+          throw e;
+        }
+        onRetry();
         if (retry > Constants.RETRY_LIMIT) {
-          DshipContext.INSTANCE.put(Constants.STATUS, SessionStatus.resume.toString());
-          sessionHistory.saveContext();
+          sessionHistory.saveContext(context, SessionStatus.resume);
           throw e;
         }
         print("update block " + blockId + " fail, retry:" + retry + "\n");
       }
       retry++;
       try {
-        Thread.sleep(Constants.RETRY_INTERNAL);
+        Thread.sleep(context.getRetryInterval());
       } catch (InterruptedException e) {
         throw new UserInterruptException(e.getMessage());
       }
     }
 
+    elapsedTime = System.currentTimeMillis() - startTime;
+    if (metrics != null && !isScan) {
+      metrics.addBlock(records, rawBytes, tunnelBytes, elapsedTime, retry - 1);
+    }
     sessionHistory.log(type + " complete, blockid=" + blockId);
     StringBuilder messageBuilder = new StringBuilder();
     messageBuilder.append(String.format("%s block complete, block id: %d%s",
@@ -151,70 +211,213 @@ public class BlockUploader {
   }
 
 
+  /**
+   * Upload the records of the reader as a part of a block, see {@link CompressedBlockUploader}.
+   * The part is neither retried nor saved as finished, the block does both. Its bad records are
+   * added to the buffer of the block, which the block clears before every try.
+   */
+  void setPartReader(RecordReader reader, BadRecordBuffer blockBadRecords) {
+    this.partReader = reader;
+    this.badRecordBuffer = blockBadRecords;
+  }
+
+  /**
+   * Report retries of the block to the threads of -threads auto.
+   */
+  public void setConcurrency(AdaptiveConcurrency concurrency) {
+    this.concurrency = concurrency;
+  }
+
+  /**
+   * Print the progress of the block from the reporter of the job while it is uploaded, only the
+   * summary of the block is printed without one.
+   */
+  public void setProgressReporter(ProgressReporter reporter) {
+    this.reporter = reporter;
+  }
+
+  /**
+   * Add the block to the metrics of the job once it is uploaded.
+   */
+  public void setMetrics(DshipMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return milliseconds of uploading the block, after {@link #upload()} returns
+   */
+  public long getElapsedTime() {
+    return elapsedTime;
+  }
+
+  private void onRetry() {
+    if (concurrency != null) {
+      concurrency.onRetry();
+    }
+  }
+
   private boolean doUpdate() throws TunnelException, IOException, ParseException {
     // clear bad data for new block upsert
-    sessionHistory.clearBadData(blockId);
+    if (partReader == null) {
+      badRecordBuffer.clear();
+    }
+    badRecords = 0;
+    records = 0;
+    progressBytes.set(0);
+
+    if (Util.isTypedFormat(format)) {
+      return doUpdateTyped();
+    }
 
     //init reader/writer
-    RecordReader reader = createReader();
+    RecordReader reader =
+        partReader != null ? partReader : createReader(context, blockInfo, isCsv);
 
     RecordConverter recordConverter = createRecordConverter(reader.getDetectedCharset());
 
-    RecordWriter writer = updateSession.getWriter(blockId);
+    RecordWriter writer = openWriter();
     updateSession.initRecord();
 
     while (true) {
       try {
-        byte[][] textRecord = readAndTime(reader);
+        FieldSlices textRecord = readAndTime(reader);
 
         if (textRecord == null) {
           break;
         }
         Record r = updateSession.getRecord(recordConverter, textRecord);
         writeAndTime(writer, r);
-        printProgress(reader.getReadBytes(), false);
+        updateProgress(reader.getBlockReadBytes());
         ODPSConsoleUtils.checkThreadInterrupted();
       } catch (ParseException e) {
-        String currentLine = reader.getCurrentLine();
-        long offset = reader.getReadBytes() + blockInfo.getStartPos() - currentLine.length();
-        if (currentLine.length() > 100) {
-          currentLine = currentLine.substring(0, 100) + " ...";
-        }
-        String errMsg = e.getMessage() + "content: " + currentLine + "\noffset: " + offset + "\n";
-        if (isDiscardBadRecord) {
-          print(errMsg);
-          checkDiscardBadData();
-          // save bad data
-          sessionHistory.saveBadData(reader.getCurrentLine() + DshipContext.INSTANCE.get(
-              Constants.RECORD_DELIMITER), Long.valueOf(blockId));
-        } else {
-          DshipContext.INSTANCE.put(Constants.STATUS, SessionStatus.failed.toString());
-          sessionHistory.saveContext();
-          throw new ParseException(errMsg);
-        }
+        handleBadRecord(e, reader.isCompressed(), reader.getCurrentLine(), reader.getReadBytes());
       }
     }
     writer.close();
     reader.close();
+    rawBytes = reader.getReadBytes();
+    tunnelBytes = getTunnelBytes(writer);
 
     if (!isScan) {
-      printProgress(reader.getReadBytes(), true);
+      printProgress(reader.getBlockReadBytes(), System.currentTimeMillis(), true);
+      badRecordBuffer.flush();
+      if (partReader == null) {
+        sessionHistory.saveFinishBlock(blockInfo);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Report a record which failed to parse, the block fails unless bad records are discarded.
+   *
+   * @param readBytes
+   *     bytes of the block read, including the record
+   */
+  private void handleBadRecord(ParseException e, boolean isCompressed, String currentLine,
+                               long readBytes) throws ParseException, IOException {
+    String line = currentLine;
+    String offset;
+    if (isCompressed) {
+      // offset in the decompressed data of the block, which starts at a member of the file
+      offset = (readBytes - line.length()) + " after compressed offset "
+               + blockInfo.getStartPos();
+    } else {
+      offset = String.valueOf(readBytes + blockInfo.getStartPos() - line.length());
+    }
+    if (line.length() > 100) {
+      line = line.substring(0, 100) + " ...";
+    }
+    String errMsg = e.getMessage() + "content: " + line + "\noffset: " + offset + "\n";
+    if (isDiscardBadRecord) {
+      print(errMsg);
+      checkDiscardBadData();
+      // save bad data
+      badRecordBuffer.add(currentLine + context.get(Constants.RECORD_DELIMITER));
+    } else {
+      sessionHistory.saveContext(context, SessionStatus.failed);
+      throw new ParseException(errMsg);
+    }
+  }
+
+  /**
+   * Upload the records of a block of a parquet or orc file, they are typed and written
+   * without parsing.
+   */
+  private boolean doUpdateTyped() throws TunnelException, IOException, ParseException {
+    TypedFileRecordReader reader = openTypedReader();
+    try {
+      RecordWriter writer = openWriter();
+      while (true) {
+        Record r = readAndTime(reader);
+        if (r == null) {
+          break;
+        }
+        writeAndTime(writer, r);
+        updateProgress(reader.getReadBytes());
+        ODPSConsoleUtils.checkThreadInterrupted();
+      }
+      writer.close();
+      rawBytes = reader.getReadBytes();
+      tunnelBytes = getTunnelBytes(writer);
+    } catch (ParseException e) {
+      sessionHistory.saveContext(context, SessionStatus.failed);
+      throw new ParseException(e.getMessage() + "\nblock: " + blockInfo + "\n");
+    } finally {
+      reader.close();
+    }
+
+    if (!isScan) {
+      printProgress(reader.getReadBytes(), System.currentTimeMillis(), true);
+      badRecordBuffer.flush();
       sessionHistory.saveFinishBlock(blockInfo);
     }
     return false;
   }
 
-  private RecordReader createReader() throws IOException {
+  private TypedFileRecordReader openTypedReader() throws IOException, ParseException {
+    TableSchema schema = updateSession.getSchema();
+    if (Constants.PARQUET_FORMAT.equals(format)) {
+      return new ParquetFileRecordReader(blockInfo, schema, isStrictSchema);
+    }
+    return new OrcFileRecordReader(blockInfo, schema, isStrictSchema);
+  }
+
+  private RecordWriter openWriter() throws TunnelException, IOException {
+    // a block which fails the scan is never closed, so it is not written
+    if (isInlineScan) {
+      return updateSession.getBufferedWriter(blockId);
+    }
+    return updateSession.getWriter(blockId);
+  }
+
+  /**
+   * @return bytes of the record stream of the block written to the tunnel, or -1 if the writer
+   * does not count them
+   */
+  private static long getTunnelBytes(RecordWriter writer) throws IOException {
+    if (writer instanceof ProtobufRecordStreamWriter) {
+      return ((ProtobufRecordStreamWriter) writer).getTotalBytes();
+    } else if (writer instanceof TunnelBufferedWriter) {
+      return ((TunnelBufferedWriter) writer).getTotalBytes();
+    } else if (writer instanceof TunnelUploadSession.RecordPackWriter) {
+      return ((TunnelUploadSession.RecordPackWriter) writer).getTotalBytes();
+    }
+    return -1;
+  }
+
+  static RecordReader createReader(DshipJobContext context, BlockInfo blockInfo, boolean isCsv)
+      throws IOException {
     RecordReader reader;
-    boolean ignoreHeader = "true".equalsIgnoreCase(DshipContext.INSTANCE.get(Constants.HEADER));
+    boolean ignoreHeader = "true".equalsIgnoreCase(context.get(Constants.HEADER));
 
     if (isCsv) {
       reader =
-          new CsvRecordReader(blockInfo, DshipContext.INSTANCE.get(Constants.CHARSET),
+          new CsvRecordReader(blockInfo, context.get(Constants.CHARSET),
                               ignoreHeader);
     } else {
-      String fieldDelimiter = DshipContext.INSTANCE.get(Constants.FIELD_DELIMITER);
-      String recordDelimiter = DshipContext.INSTANCE.get(Constants.RECORD_DELIMITER);
+      String fieldDelimiter = context.get(Constants.FIELD_DELIMITER);
+      String recordDelimiter = context.get(Constants.RECORD_DELIMITER);
       reader = new BlockRecordReader(blockInfo, fieldDelimiter, recordDelimiter, ignoreHeader);
     }
     return reader;
@@ -225,21 +428,30 @@ public class BlockUploader {
 
     String
         charset =
-        detectedCharset == null ? DshipContext.INSTANCE.get(Constants.CHARSET) : detectedCharset;
-    String ni = DshipContext.INSTANCE.get(Constants.NULL_INDICATOR);
-    String dfp = DshipContext.INSTANCE.get(Constants.DATE_FORMAT_PATTERN);
-    String tz = DshipContext.INSTANCE.get(Constants.TIME_ZONE);
+        detectedCharset == null ? context.get(Constants.CHARSET) : detectedCharset;
+    String ni = context.get(Constants.NULL_INDICATOR);
+    String dfp = context.get(Constants.DATE_FORMAT_PATTERN);
+    String tz = context.get(Constants.TIME_ZONE);
     RecordConverter
         recordConverter =
         new RecordConverter(updateSession.getSchema(), ni, dfp, tz, charset, false, isStrictSchema);
     return recordConverter;
   }
 
-  private void printProgress(long cb, boolean summary) {
+  /**
+   * Called for every record, the line is printed by the reporter.
+   */
+  private void updateProgress(long cb) {
+    progressBytes.lazySet(cb);
+  }
+
+  /**
+   * Synchronized as the progress is printed by the reporter and the summary by the uploader.
+   */
+  private synchronized void printProgress(long cb, long currTime, boolean summary) {
     if (updateSession.isScan()) {
       return;
     }
-    long currTime = System.currentTimeMillis();
     //update progress every 5 seconds
     int updateGap = 5000;
     if(!summary && currTime - preTime <= updateGap) {
@@ -265,7 +477,7 @@ public class BlockUploader {
     }
   }
 
-  private void print(String msg) {
+  static void print(String msg) {
     Instant instant = Instant.now();
     ZonedDateTime zonedDateTime = instant.atZone(ZoneId.systemDefault());
     String processStr = dateTimeFormatter.format(zonedDateTime) + "\t";
@@ -274,9 +486,8 @@ public class BlockUploader {
 
   private void checkDiscardBadData() throws ParseException, IOException {
     badRecords++;
-    if (badRecords > maxBadRecords) {
-      DshipContext.INSTANCE.put(Constants.STATUS, SessionStatus.failed.toString());
-      sessionHistory.saveContext();
+    if (badRecordBuffer.count() > maxBadRecords) {
+      sessionHistory.saveContext(context, SessionStatus.failed);
       throw new ParseException(Constants.ERROR_INDICATOR + "bad records exceed " + maxBadRecords);
     }
   }
@@ -285,15 +496,25 @@ public class BlockUploader {
     tunnelIOStopWatch.resume();
     try {
       writer.write(record);
+      records++;
     } finally {
       tunnelIOStopWatch.suspend();
     }
   }
 
-  private byte[][] readAndTime(RecordReader reader) throws IOException {
+  private Record readAndTime(TypedFileRecordReader reader) throws IOException, ParseException {
+    localIOStopWatch.resume();
+    try {
+      return reader.read();
+    } finally {
+      localIOStopWatch.suspend();
+    }
+  }
+
+  private FieldSlices readAndTime(RecordReader reader) throws IOException {
     localIOStopWatch.resume();
     try {
-      return reader.readTextRecord();
+      return reader.readFieldSlices();
     } finally {
       localIOStopWatch.suspend();
     }
@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.aliyun.odps.ship.upload;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.ParseException;
+import org.jline.reader.UserInterruptException;
+
+import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.DshipMetrics;
+import com.aliyun.odps.ship.common.FieldSlices;
+import com.aliyun.odps.ship.common.SessionStatus;
+import com.aliyun.odps.ship.common.Util;
+import com.aliyun.odps.ship.history.SessionHistory;
+import com.aliyun.odps.tunnel.TunnelException;
+
+/**
+ * Upload a block of a compressed file which can not be split, such as a gzip file of a single
+ * member, with several threads.
+ *
+ * One reader decompresses the block and hands batches of records to the lanes in turn. Each lane
+ * parses its batches and writes them to its own tunnel blocks, a new one after about partSize
+ * bytes of records. The m-th part of lane l is written to block id
+ * {@code blockId + (m * lanes + l) * blockCount}, so the first part is the block itself and the
+ * others never overlap the blocks of the index. The parts are saved as finished together once all
+ * of them are written, a failed try uploads the whole block again. The bad records of all the
+ * parts are saved to the bad data file of the block and counted against -mbr together.
+ */
+public class CompressedBlockUploader {
+
+  private static final long POLL_INTERVAL_MS = 100;
+
+  // ends the current part of a lane, the next batch starts a new one
+  private static final TextLines NEXT_PART = new TextLines(0);
+  // ends a lane
+  private static final TextLines END = new TextLines(0);
+
+  private final DshipJobContext context;
+  private final BlockInfo blockInfo;
+  private final TunnelUpdateSession updateSession;
+  private final SessionHistory sessionHistory;
+  private final boolean isCsv;
+  private final int lanes;
+  private final long blockCount;
+  private final long partSize;
+  private DshipMetrics metrics;
+  private ProgressReporter reporter;
+
+  /**
+   * @param blockCount
+   *     blocks of the whole index of the session, including the finished ones
+   * @param partSize
+   *     decompressed bytes written to one tunnel block by a lane
+   */
+  public CompressedBlockUploader(DshipJobContext context, BlockInfo blockInfo,
+                                 TunnelUpdateSession tus, SessionHistory sh, boolean isCsv,
+                                 int lanes, long blockCount, long partSize) {
+    this.context = context;
+    this.blockInfo = blockInfo;
+    this.updateSession = tus;
+    this.sessionHistory = sh;
+    this.isCsv = isCsv;
+    this.lanes = lanes;
+    this.blockCount = blockCount;
+    this.partSize = partSize;
+  }
+
+  /**
+   * Add the parts to the metrics of the job once they are uploaded.
+   */
+  public void setMetrics(DshipMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Print the progress of the parts from the reporter of the job.
+   */
+  public void setProgressReporter(ProgressReporter reporter) {
+    this.reporter = reporter;
+  }
+
+  public void upload() throws TunnelException, IOException, ParseException {
+    int retry = 1;
+    while (true) {
+      try {
+        List<BlockInfo> parts = uploadParts();
+        if (!updateSession.isScan()) {
+          sessionHistory.saveFinishBlocks(parts);
+        }
+        return;
+      } catch (TunnelException | IOException e) {
+        sessionHistory.log("retry:" + retry + "  " + Util.getStack(e));
+        if (retry > Constants.RETRY_LIMIT) {
+          sessionHistory.saveContext(context, SessionStatus.resume);
+          throw e;
+        }
+        BlockUploader.print("update block " + blockInfo.getBlockId() + " fail, retry:" + retry
+                            + "\n");
+      }
+      retry++;
+      try {
+        Thread.sleep(context.getRetryInterval());
+      } catch (InterruptedException e) {
+        throw new UserInterruptException(e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Read the block on the calling thread and upload its records on the lanes.
+   *
+   * @return the parts written
+   */
+  private List<BlockInfo> uploadParts() throws TunnelException, IOException, ParseException {
+    final BadRecordBuffer badRecords = new BadRecordBuffer(
+        sessionHistory, blockInfo.getBlockId(), Constants.BAD_RECORD_BUFFER_SIZE);
+    badRecords.clear();
+    RecordReader reader = BlockUploader.createReader(context, blockInfo, isCsv);
+    ExecutorService executor = Executors.newFixedThreadPool(lanes);
+    try {
+      List<BlockingQueue<TextLines>> queues = new ArrayList<BlockingQueue<TextLines>>();
+      List<Future<List<BlockInfo>>> futures = new ArrayList<Future<List<BlockInfo>>>();
+      for (int i = 0; i < lanes; i++) {
+        final int lane = i;
+        final BlockingQueue<TextLines> queue =
+            new ArrayBlockingQueue<TextLines>(Constants.LANE_BATCHES);
+        final RecordReader source = reader;
+        queues.add(queue);
+        futures.add(executor.submit(new Callable<List<BlockInfo>>() {
+          @Override
+          public List<BlockInfo> call() throws Exception {
+            return uploadLane(lane, queue, source, badRecords);
+          }
+        }));
+      }
+
+      read(reader, queues, futures);
+
+      List<BlockInfo> parts = new ArrayList<BlockInfo>();
+      for (Future<List<BlockInfo>> future : futures) {
+        parts.addAll(get(future));
+      }
+      return parts;
+    } finally {
+      executor.shutdownNow();
+      reader.close();
+    }
+  }
+
+  private void read(RecordReader reader, List<BlockingQueue<TextLines>> queues,
+                    List<Future<List<BlockInfo>>> futures)
+      throws TunnelException, IOException, ParseException {
+    long[] laneBytes = new long[lanes];
+    long[] laneParts = new long[lanes];
+    long readBytes = 0;
+    int lane = 0;
+    TextLines batch = new TextLines(Constants.LANE_BATCH_RECORDS);
+    while (true) {
+      boolean more = reader.readTextLine(batch);
+      if (batch.isFull() || (!more && batch.size() > 0)) {
+        put(queues.get(lane), batch, futures);
+        long end = batch.getReadBytes(batch.size() - 1);
+        laneBytes[lane] += end - readBytes;
+        readBytes = end;
+        // the last part of a lane takes the rest of its records once the block ids run out
+        if (laneBytes[lane] >= partSize
+            && partId(lane + (laneParts[lane] + 1) * lanes) < Constants.MAX_BLOCK_ID) {
+          put(queues.get(lane), NEXT_PART, futures);
+          laneBytes[lane] = 0;
+          laneParts[lane]++;
+        }
+        lane = (lane + 1) % lanes;
+        batch = new TextLines(Constants.LANE_BATCH_RECORDS);
+      }
+      if (!more) {
+        break;
+      }
+    }
+    for (BlockingQueue<TextLines> queue : queues) {
+      put(queue, END, futures);
+    }
+  }
+
+  /**
+   * Wait for the lane to take the batch, a failure of any lane is thrown.
+   */
+  private void put(BlockingQueue<TextLines> queue, TextLines batch,
+                   List<Future<List<BlockInfo>>> futures)
+      throws TunnelException, IOException, ParseException {
+    try {
+      while (!queue.offer(batch, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+        for (Future<List<BlockInfo>> future : futures) {
+          // a lane only returns after END
+          if (future.isDone()) {
+            get(future);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new UserInterruptException(e.getMessage());
+    }
+  }
+
+  private List<BlockInfo> uploadLane(int lane, BlockingQueue<TextLines> queue, RecordReader source,
+                                     BadRecordBuffer badRecords)
+      throws TunnelException, IOException, ParseException, InterruptedException {
+    List<BlockInfo> parts = new ArrayList<BlockInfo>();
+    TextLines first = queue.take();
+    // the first part is the block itself, it is written even if the block has no records
+    for (long part = lane; first != END || part == 0; part += lanes) {
+      BlockInfo partInfo = part == 0 ? blockInfo : new BlockInfo(
+          partId(part), blockInfo.getFile(), blockInfo.getStartPos(), blockInfo.getLength());
+      PartRecordReader reader = new PartRecordReader(partInfo, source, queue, first);
+      BlockUploader uploader =
+          new BlockUploader(context, partInfo, updateSession, sessionHistory, isCsv);
+      uploader.setMetrics(metrics);
+      uploader.setProgressReporter(reporter);
+      uploader.setPartReader(reader, badRecords);
+      uploader.upload();
+      parts.add(partInfo);
+      first = reader.isLastPart() ? END : queue.take();
+    }
+    return parts;
+  }
+
+  private long partId(long part) {
+    return blockInfo.getBlockId() + part * blockCount;
+  }
+
+  private static <T> T get(Future<T> future) throws TunnelException, IOException, ParseException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new UserInterruptException(e.getMessage());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof TunnelException) {
+        throw (TunnelException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof ParseException) {
+        throw (ParseException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * The records of one part of a lane, taken from the batches of its queue. The records keep the
+   * offsets of the whole block, so bad records and the progress are reported as by the reader of
+   * the block.
+   */
+  private static class PartRecordReader extends RecordReader {
+
+    private final RecordReader source;
+    private final BlockingQueue<TextLines> queue;
+    private final FieldSlices fields = new FieldSlices();
+    private TextLines batch;
+    private int index = -1;
+    private boolean ended = false;
+    private boolean lastPart = false;
+
+    PartRecordReader(BlockInfo info, RecordReader source, BlockingQueue<TextLines> queue,
+                     TextLines first) {
+      super(info);
+      this.source = source;
+      this.queue = queue;
+      this.batch = first;
+      this.detectedCharset = source.getDetectedCharset();
+      if (first == END) {
+        ended = true;
+        lastPart = true;
+      }
+    }
+
+    @Override
+    public FieldSlices readFieldSlices() throws IOException {
+      if (!next()) {
+        return null;
+      }
+      return source.getFields(batch, index, fields);
+    }
+
+    @Override
+    public byte[][] readTextRecord() throws IOException {
+      FieldSlices slices = readFieldSlices();
+      return slices == null ? null : slices.toArray();
+    }
+
+    private boolean next() {
+      while (index + 1 >= batch.size()) {
+        if (ended) {
+          return false;
+        }
+        TextLines next;
+        try {
+          next = queue.take();
+        } catch (InterruptedException e) {
+          throw new UserInterruptException(e.getMessage());
+        }
+        if (next == NEXT_PART || next == END) {
+          ended = true;
+          lastPart = next == END;
+          return false;
+        }
+        batch = next;
+        index = -1;
+      }
+      index++;
+      readBytes = batch.getReadBytes(index);
+      return true;
+    }
+
+    /**
+     * @return true if no part of the lane follows this one, after all its records are read
+     */
+    boolean isLastPart() {
+      return lastPart;
+    }
+
+    @Override
+    public long getBlockReadBytes() {
+      return index < 0 ? 0 : batch.getBlockReadBytes(index);
+    }
+
+    @Override
+    public boolean isCompressed() {
+      return source.isCompressed();
+    }
+
+    @Override
+    public String getCurrentLine() {
+      return batch.getText(index);
+    }
+
+    @Override
+    public void close() {
+      // the reader of the block is closed by the block
+    }
+  }
+}
@@ -0,0 +1,494 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * Gzip and zstd compressed upload files, detected by their magic bytes.
+ *
+ * A compressed file is made of members (gzip) or frames (zstd) which can be decompressed on their
+ * own, so a file with many of them, such as a bgzip / pigz --independent / concatenated gzip file,
+ * or a seekable zstd file, is split into blocks at member boundaries and the blocks are
+ * decompressed in parallel. A block only starts at a boundary where the data before it ends with
+ * a record delimiter, so each block holds whole records and is read to its end, like the blocks
+ * of a csv file. A file which can not be split is one block, decompressed as it is read, and
+ * its records are uploaded by several threads, see CompressedBlockUploader.
+ *
+ * A gzip member which is not bgzf has no size in its header, so a multi-member gzip file larger
+ * than the block size is decompressed once to find its members when the index is built.
+ */
+public final class CompressedFile {
+
+  public enum Codec {
+    GZIP, ZSTD
+  }
+
+  private static final int BUF_SIZE = 64 * 1024;
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int GZIP_FEXTRA = 4;
+  private static final int GZIP_FNAME = 8;
+  private static final int GZIP_FCOMMENT = 16;
+  private static final int GZIP_FHCRC = 2;
+
+  private static final int ZSTD_MAGIC = 0xFD2FB528;
+  private static final int ZSTD_SKIPPABLE_MAGIC = 0x184D2A50;
+  private static final int ZSTD_SKIPPABLE_MASK = 0xFFFFFFF0;
+
+  private CompressedFile() {
+  }
+
+  /**
+   * @return codec of the file, or null if the file is not compressed
+   */
+  public static Codec detect(File file) throws IOException {
+    byte[] magic = new byte[4];
+    int n;
+    InputStream is = new FileInputStream(file);
+    try {
+      n = IOUtils.read(is, magic);
+    } finally {
+      IOUtils.closeQuietly(is);
+    }
+    if (n >= 2 && getShort(magic, 0) == GZIP_MAGIC) {
+      return Codec.GZIP;
+    }
+    if (n == 4 && (getInt(magic, 0) == ZSTD_MAGIC
+                   || (getInt(magic, 0) & ZSTD_SKIPPABLE_MASK) == ZSTD_SKIPPABLE_MAGIC)) {
+      return Codec.ZSTD;
+    }
+    return null;
+  }
+
+  /**
+   * Decompress the members in [start, start + length) of the file.
+   *
+   * @param length
+   *     -1 to decompress to the end of the file
+   */
+  public static DecompressedInputStream open(File file, Codec codec, long start, long length)
+      throws IOException {
+    InputStream is = new FileInputStream(file);
+    try {
+      IOUtils.skipFully(is, start);
+    } catch (IOException e) {
+      is.close();
+      throw e;
+    }
+    if (length >= 0) {
+      is = new BoundedInputStream(is, length);
+    }
+    CountingInputStream raw = new CountingInputStream(new BufferedInputStream(is, BUF_SIZE));
+    InputStream decompressed;
+    try {
+      decompressed = codec == Codec.GZIP ? new GZIPInputStream(raw, BUF_SIZE)
+                                         : new ZstdInputStream(raw);
+    } catch (IOException e) {
+      raw.close();
+      throw e;
+    }
+    return new DecompressedInputStream(decompressed, raw);
+  }
+
+  /**
+   * Split a compressed file into blocks of about blockSize compressed bytes.
+   *
+   * @return start positions of the blocks, the first one is always 0
+   */
+  public static List<Long> split(File file, Codec codec, long blockSize, byte[] recordDelimiter)
+      throws IOException {
+    List<Long> starts = new ArrayList<Long>();
+    starts.add(0L);
+
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      MemberWalker walker = codec == Codec.GZIP ? new GzipMemberWalker(file, channel)
+                                                : new ZstdFrameWalker(file, channel);
+      long fileLength = channel.size();
+      if (fileLength <= blockSize) {
+        // one block, the members are not walked
+        return starts;
+      }
+      long blockStart = 0;
+      long end;
+      while ((end = walker.next(recordDelimiter.length)) != -1 && end < fileLength) {
+        if (end - blockStart >= blockSize && endsWith(walker.tail(), recordDelimiter)) {
+          starts.add(end);
+          blockStart = end;
+        }
+      }
+    } finally {
+      channel.close();
+    }
+    return starts;
+  }
+
+  private static boolean endsWith(byte[] tail, byte[] suffix) {
+    if (tail == null || tail.length < suffix.length) {
+      return false;
+    }
+    for (int i = 0; i < suffix.length; i++) {
+      if (tail[tail.length - suffix.length + i] != suffix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decompressed data of a range of a compressed file, which also counts the compressed bytes
+   * read.
+   */
+  public static class DecompressedInputStream extends FilterInputStream {
+
+    private final CountingInputStream raw;
+
+    DecompressedInputStream(InputStream decompressed, CountingInputStream raw) {
+      super(decompressed);
+      this.raw = raw;
+    }
+
+    public long getCompressedBytes() {
+      return raw.getByteCount();
+    }
+  }
+
+  /**
+   * Iterate members of a compressed file.
+   */
+  private abstract static class MemberWalker {
+
+    protected final File file;
+    protected final FileChannel channel;
+    protected long pos = 0;
+    private long memberStart = -1;
+    private int tailLength;
+
+    MemberWalker(File file, FileChannel channel) {
+      this.file = file;
+      this.channel = channel;
+    }
+
+    /**
+     * @param tailLength
+     *     bytes at the end of the member which {@link #tail()} returns
+     * @return end position of the next member, or -1 if there is none
+     */
+    long next(int tailLength) throws IOException {
+      this.tailLength = tailLength;
+      this.memberStart = pos;
+      long end = nextEnd();
+      if (end != -1) {
+        pos = end;
+      }
+      return end;
+    }
+
+    protected abstract long nextEnd() throws IOException;
+
+    /**
+     * @return last bytes of the decompressed data of the member, null if they are not known
+     */
+    byte[] tail() throws IOException {
+      DecompressedInputStream is = open(file, getCodec(), memberStart, pos - memberStart);
+      try {
+        return readTail(is, tailLength);
+      } finally {
+        is.close();
+      }
+    }
+
+    protected abstract Codec getCodec();
+
+    protected int getTailLength() {
+      return tailLength;
+    }
+
+    protected byte[] read(long position, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) == -1) {
+          return null;
+        }
+      }
+      return buffer.array();
+    }
+  }
+
+  private static byte[] readTail(InputStream is, int length) throws IOException {
+    byte[] buf = new byte[BUF_SIZE];
+    Tail tail = new Tail(length);
+    int n;
+    while ((n = is.read(buf)) != -1) {
+      tail.update(buf, n);
+    }
+    return tail.get();
+  }
+
+  /**
+   * Last bytes of a stream of chunks.
+   */
+  private static class Tail {
+
+    private final byte[] bytes;
+    private int size = 0;
+
+    Tail(int length) {
+      this.bytes = new byte[length];
+    }
+
+    void update(byte[] buf, int n) {
+      if (n >= bytes.length) {
+        System.arraycopy(buf, n - bytes.length, bytes, 0, bytes.length);
+        size = bytes.length;
+      } else if (n > 0) {
+        int keep = Math.min(size, bytes.length - n);
+        System.arraycopy(bytes, size - keep, bytes, 0, keep);
+        System.arraycopy(buf, 0, bytes, keep, n);
+        size = keep + n;
+      }
+    }
+
+    byte[] get() {
+      return size == bytes.length ? bytes.clone() : null;
+    }
+  }
+
+  /**
+   * Members of a gzip file. A bgzf member has its size in the header, others are inflated to find
+   * their ends.
+   */
+  private static class GzipMemberWalker extends MemberWalker {
+
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] in = new byte[BUF_SIZE];
+    private final byte[] out = new byte[BUF_SIZE];
+    // tail of the member inflated by nextEnd, null if the member was not inflated
+    private byte[] inflatedTail;
+
+    GzipMemberWalker(File file, FileChannel channel) {
+      super(file, channel);
+    }
+
+    @Override
+    protected Codec getCodec() {
+      return Codec.GZIP;
+    }
+
+    @Override
+    protected long nextEnd() throws IOException {
+      inflatedTail = null;
+      byte[] header = read(pos, 10);
+      if (header == null || getShort(header, 0) != GZIP_MAGIC || header[2] != 8) {
+        // end of file, or trailing bytes which gzip ignores
+        return -1;
+      }
+      int flags = header[3] & 0xff;
+      long dataStart = pos + 10;
+      if ((flags & GZIP_FEXTRA) != 0) {
+        byte[] xlen = read(dataStart, 2);
+        if (xlen == null) {
+          return -1;
+        }
+        int extraLength = getShort(xlen, 0);
+        byte[] extra = read(dataStart + 2, extraLength);
+        if (extra == null) {
+          return -1;
+        }
+        long bsize = getBgzfBlockSize(extra);
+        if (bsize != -1) {
+          return pos + bsize + 1;
+        }
+        dataStart += 2 + extraLength;
+      }
+      if ((flags & GZIP_FNAME) != 0) {
+        dataStart = skipZeroTerminated(dataStart);
+      }
+      if ((flags & GZIP_FCOMMENT) != 0) {
+        dataStart = skipZeroTerminated(dataStart);
+      }
+      if ((flags & GZIP_FHCRC) != 0) {
+        dataStart += 2;
+      }
+      if (dataStart < 0) {
+        return -1;
+      }
+      return inflate(dataStart);
+    }
+
+    private long inflate(long dataStart) throws IOException {
+      inflater.reset();
+      Tail tail = new Tail(getTailLength());
+      long inPos = dataStart;
+      try {
+        while (!inflater.finished()) {
+          if (inflater.needsInput()) {
+            ByteBuffer buffer = ByteBuffer.wrap(in);
+            int n = channel.read(buffer, inPos);
+            if (n == -1) {
+              throw new IOException("Unexpected end of gzip file: " + file);
+            }
+            inPos += n;
+            inflater.setInput(in, 0, n);
+          }
+          int n = inflater.inflate(out);
+          tail.update(out, n);
+          if (n == 0 && inflater.needsDictionary()) {
+            throw new IOException("Invalid gzip file: " + file);
+          }
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Invalid gzip file: " + file + ", " + e.getMessage());
+      }
+      inflatedTail = tail.get();
+      // 8 bytes trailer, crc32 and isize
+      return dataStart + inflater.getBytesRead() + 8;
+    }
+
+    @Override
+    byte[] tail() throws IOException {
+      return inflatedTail != null ? inflatedTail : super.tail();
+    }
+
+    private long skipZeroTerminated(long position) throws IOException {
+      if (position < 0) {
+        return position;
+      }
+      while (true) {
+        byte[] b = read(position++, 1);
+        if (b == null) {
+          return -1;
+        }
+        if (b[0] == 0) {
+          return position;
+        }
+      }
+    }
+
+    private static long getBgzfBlockSize(byte[] extra) {
+      int i = 0;
+      while (i + 4 <= extra.length) {
+        int subfieldLength = getShort(extra, i + 2);
+        if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2 && i + 6 <= extra.length) {
+          return getShort(extra, i + 4);
+        }
+        i += 4 + subfieldLength;
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Frames of a zstd file, found from the frame and block headers without decompressing them.
+   * Skippable frames, such as the seek table of a seekable zstd file, are members too.
+   */
+  private static class ZstdFrameWalker extends MemberWalker {
+
+    ZstdFrameWalker(File file, FileChannel channel) {
+      super(file, channel);
+    }
+
+    @Override
+    protected Codec getCodec() {
+      return Codec.ZSTD;
+    }
+
+    @Override
+    protected long nextEnd() throws IOException {
+      byte[] magicBytes = read(pos, 4);
+      if (magicBytes == null) {
+        return -1;
+      }
+      int magic = getInt(magicBytes, 0);
+      if ((magic & ZSTD_SKIPPABLE_MASK) == ZSTD_SKIPPABLE_MAGIC) {
+        byte[] size = read(pos + 4, 4);
+        if (size == null) {
+          return -1;
+        }
+        return pos + 8 + (getInt(size, 0) & 0xFFFFFFFFL);
+      }
+      if (magic != ZSTD_MAGIC) {
+        return -1;
+      }
+
+      byte[] descriptor = read(pos + 4, 1);
+      if (descriptor == null) {
+        return -1;
+      }
+      int fhd = descriptor[0] & 0xff;
+      int fcsFlag = fhd >>> 6;
+      boolean singleSegment = (fhd & 0x20) != 0;
+      boolean checksum = (fhd & 0x04) != 0;
+      int dictIdFlag = fhd & 0x03;
+      int headerSize = 1 + (singleSegment ? 0 : 1) + new int[]{0, 1, 2, 4}[dictIdFlag]
+                       + new int[]{singleSegment ? 1 : 0, 2, 4, 8}[fcsFlag];
+
+      long blockPos = pos + 4 + headerSize;
+      while (true) {
+        byte[] blockHeader = read(blockPos, 3);
+        if (blockHeader == null) {
+          throw new IOException("Unexpected end of zstd file: " + file);
+        }
+        int header = (blockHeader[0] & 0xff) | (blockHeader[1] & 0xff) << 8
+                     | (blockHeader[2] & 0xff) << 16;
+        boolean last = (header & 1) != 0;
+        int type = (header >>> 1) & 0x03;
+        int size = header >>> 3;
+        if (type == 3) {
+          throw new IOException("Invalid zstd file: " + file);
+        }
+        // rle block has one byte
+        blockPos += 3 + (type == 1 ? 1 : size);
+        if (last) {
+          break;
+        }
+      }
+      return blockPos + (checksum ? 4 : 0);
+    }
+  }
+
+  private static int getShort(byte[] b, int off) {
+    return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+  }
+
+  private static int getInt(byte[] b, int off) {
+    return getShort(b, off) | getShort(b, off + 2) << 16;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Split a csv file into blocks whose boundaries are record boundaries.
+ *
+ * Whether a line break is inside a quoted field depends on everything before it, so the file is
+ * scanned once from the beginning, tracking the quote state the same way CsvReader does with its
+ * default settings (',' delimiter, '"' qualifier, doubled escape, leading whitespace trimmed,
+ * CR / LF / CRLF record delimiter). Each block ends right after the first record delimiter outside
+ * quotes at or after its nominal size, so every block can be parsed by its own CsvRecordReader and
+ * the blocks together yield exactly the records of a serial read.
+ */
+class CsvBlockSplitter {
+
+  private static final int BUF_SIZE = 4 * 1024 * 1024;
+
+  private static final byte QUOTE = '"';
+  private static final byte DELIMITER = ',';
+  private static final byte CR = '\r';
+  private static final byte LF = '\n';
+
+  private final long blockSize;
+
+  // quote state, see CsvReader#readRecord
+  private boolean fieldStart = true;
+  private boolean quoted = false;
+  private boolean lastLetterWasQualifier = false;
+  private boolean pendingCR = false;
+
+  CsvBlockSplitter(long blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * @return start positions of the blocks, the first one is always 0
+   */
+  List<Long> split(File file) throws IOException {
+    List<Long> starts = new ArrayList<Long>();
+    starts.add(0L);
+
+    InputStream is = new FileInputStream(file);
+    try {
+      byte[] buf = new byte[BUF_SIZE];
+      long fileLength = file.length();
+      long pos = 0;
+      long nextCut = blockSize;
+      int len;
+      boolean first = true;
+      while ((len = IOUtils.read(is, buf, 0, buf.length)) > 0) {
+        int i = 0;
+        if (first) {
+          first = false;
+          if (hasUnicodeBom(buf, len)) {
+            // utf-16/32, can not split by bytes
+            return starts;
+          }
+          if (len >= 3 && buf[0] == (byte) 0xEF && buf[1] == (byte) 0xBB
+              && buf[2] == (byte) 0xBF) {
+            i = 3;
+          }
+        }
+        for (; i < len; i++) {
+          long cut = next(buf[i], pos + i);
+          if (cut >= nextCut && cut < fileLength) {
+            starts.add(cut);
+            nextCut = cut + blockSize;
+          }
+        }
+        pos += len;
+      }
+    } finally {
+      IOUtils.closeQuietly(is);
+    }
+    return starts;
+  }
+
+  /**
+   * Feed one byte at position pos.
+   *
+   * @return the start position of the next record if a record ends before this byte, or -1
+   */
+  private long next(byte b, long pos) {
+    long cut = -1;
+    if (pendingCR) {
+      pendingCR = false;
+      if (b == LF) {
+        // CRLF, next record starts after LF
+        return pos + 1;
+      }
+      cut = pos;
+    }
+    return Math.max(cut, consume(b, pos));
+  }
+
+  private long consume(byte b, long pos) {
+    long cut = -1;
+    if (quoted) {
+      if (b == QUOTE) {
+        // a doubled qualifier is an escaped one, otherwise it closes the field
+        lastLetterWasQualifier = !lastLetterWasQualifier;
+        return -1;
+      } else if (!lastLetterWasQualifier) {
+        return -1;
+      }
+      // the field is closed, everything up to the next delimiter is ignored like unquoted text
+      quoted = false;
+    }
+
+    if (b == DELIMITER) {
+      fieldStart = true;
+    } else if (b == CR || b == LF) {
+      cut = endRecord(b, pos);
+    } else if (fieldStart) {
+      if (b == QUOTE) {
+        quoted = true;
+        lastLetterWasQualifier = false;
+        fieldStart = false;
+      } else if (b != ' ' && b != '\t') {
+        // leading whitespace is trimmed, the qualifier may still follow
+        fieldStart = false;
+      }
+    }
+    return cut;
+  }
+
+  private long endRecord(byte b, long pos) {
+    fieldStart = true;
+    if (b == CR) {
+      // wait for a possible LF
+      pendingCR = true;
+      return -1;
+    }
+    return pos + 1;
+  }
+
+  private static boolean hasUnicodeBom(byte[] bom, int n) {
+    return ((n >= 4) && (bom[0] == (byte) 0x00) && (bom[1] == (byte) 0x00)
+            && (bom[2] == (byte) 0xFE) && (bom[3] == (byte) 0xFF))
+           || ((n >= 2) && (bom[0] == (byte) 0xFE) && (bom[1] == (byte) 0xFF))
+           || ((n >= 2) && (bom[0] == (byte) 0xFF) && (bom[1] == (byte) 0xFE));
+  }
+}
@@ -6,6 +6,9 @@ import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
 import com.aliyun.odps.ship.common.BlockInfo;
 
 import com.aliyun.odps.ship.common.Constants;
@@ -19,6 +22,7 @@ public class CsvRecordReader extends RecordReader {
   private String currentLine;
   private String charset;
   private boolean ignoreHeader;
+  private CompressedFile.DecompressedInputStream decompressed;
 
   public CsvRecordReader(BlockInfo info, String charset, boolean ignoreHeader) throws IOException {
     super(info);
@@ -56,30 +60,55 @@ public class CsvRecordReader extends RecordReader {
     return null;
   }
 
+  @Override
+  public long getBlockReadBytes() {
+    return decompressed == null ? readBytes : decompressed.getCompressedBytes();
+  }
+
   public void close() throws IOException {
     csvReader.close();
   }
 
   private void init() throws IOException {
+    detectCompression();
     detectBomCharset();
 
     charset = detectedCharset != null ? detectedCharset
                                       : (Util.isIgnoreCharset(charset) ? Constants.REMOTE_CHARSET
                                                                        : charset);
 
-    InputStream is = new BufferedInputStream(blockInfo.getFileInputStream());
+    // a csv file is split at record boundaries, see CsvBlockSplitter. the first block skips bom
+    // bytes and the header, the others start at a record and read exactly their own bytes
+    boolean firstBlock = blockInfo.getStartPos() == 0L;
+    long skip = firstBlock ? bomBytes : blockInfo.getStartPos();
+    InputStream is;
+    if (codec != null) {
+      // a compressed csv file is one block
+      decompressed = CompressedFile.open(blockInfo.getFile(), codec, 0, -1);
+      is = decompressed;
+      IOUtils.skipFully(is, bomBytes);
+      skip = 0;
+    } else {
+      is = blockInfo.getFileInputStream();
+    }
 
-    if (bomBytes != 0) {
-      if (is.skip(bomBytes) != bomBytes) {
+    if (skip != 0) {
+      if (is.skip(skip) != skip) {
+        is.close();
         throw new IOException(String.format("block %s failed to seek to position %s",
-                                            blockInfo.getBlockId(), bomBytes));
+                                            blockInfo.getBlockId(), skip));
       }
     }
+    if (codec == null) {
+      long length = blockInfo.getLength() - (firstBlock ? bomBytes : 0);
+      is = new BoundedInputStream(is, length);
+    }
+    is = new BufferedInputStream(is);
 
     csvReader = new CsvReader(is, Charset.forName(charset));
     csvReader.setSafetySwitch(false);
 
-    if (ignoreHeader) {
+    if (ignoreHeader && firstBlock) {
       csvReader.readHeaders();
     }
   }
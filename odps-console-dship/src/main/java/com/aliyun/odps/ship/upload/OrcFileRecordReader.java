@@ -0,0 +1,395 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.aliyun.odps.ship.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.cli.ParseException;
+import org.apache.orc.OrcFile;
+import org.apache.orc.Reader;
+import org.apache.orc.RecordReader;
+import org.apache.orc.StripeInformation;
+import org.apache.orc.TypeDescription;
+import org.apache.orc.storage.ql.exec.vector.BytesColumnVector;
+import org.apache.orc.storage.ql.exec.vector.ColumnVector;
+import org.apache.orc.storage.ql.exec.vector.DecimalColumnVector;
+import org.apache.orc.storage.ql.exec.vector.DoubleColumnVector;
+import org.apache.orc.storage.ql.exec.vector.ListColumnVector;
+import org.apache.orc.storage.ql.exec.vector.LongColumnVector;
+import org.apache.orc.storage.ql.exec.vector.MapColumnVector;
+import org.apache.orc.storage.ql.exec.vector.StructColumnVector;
+import org.apache.orc.storage.ql.exec.vector.TimestampColumnVector;
+import org.apache.orc.storage.ql.exec.vector.VectorizedRowBatch;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.SimpleStruct;
+import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.LocalHadoopFiles;
+import com.aliyun.odps.ship.upload.TypedValueConverter.Kind;
+import com.aliyun.odps.type.ArrayTypeInfo;
+import com.aliyun.odps.type.MapTypeInfo;
+import com.aliyun.odps.type.StructTypeInfo;
+import com.aliyun.odps.type.TypeInfo;
+
+/**
+ * Read the records of a block of an orc file.
+ *
+ * A block of an orc file is a range of stripes: it holds the stripes which start in
+ * [start, start + length), see {@link #split(File, long)}. Columns of the file are matched with
+ * the table columns by name, only the matched columns are read. Lists, maps and structs are read
+ * into the arrays, maps and structs of the table, the fields of structs are matched by name too.
+ */
+public class OrcFileRecordReader implements TypedFileRecordReader {
+
+  private final Column[] columns;
+  private final ArrayRecord record;
+  // field of each table column in the file, -1 if the file does not have the column
+  private final int[] fields;
+  private final TypeDescription[] types;
+  // kind of the values of each column, null if the column is of a nested type
+  private final Kind[] kinds;
+  private final Reader reader;
+  private final RecordReader rows;
+  private final VectorizedRowBatch batch;
+  private int nextRow = 0;
+
+  // rows at the end of each stripe of the block, and the bytes of the block up to its end
+  private final List<Long> stripeEnds = new ArrayList<Long>();
+  private final List<Long> stripeBytes = new ArrayList<Long>();
+  private int nextStripe = 0;
+  private long rowCount = 0;
+  private final long blockLength;
+  private long readBytes = 0;
+
+  public OrcFileRecordReader(BlockInfo blockInfo, TableSchema schema, boolean isStrictSchema)
+      throws IOException, ParseException {
+    this.columns = schema.getColumns().toArray(new Column[0]);
+    this.record = new ArrayRecord(columns);
+    this.fields = new int[columns.length];
+    this.types = new TypeDescription[columns.length];
+    this.kinds = new Kind[columns.length];
+
+    File file = blockInfo.getFile();
+    // timestamps without time zone are read as utc, so they keep their local date time
+    reader = OrcFile.createReader(LocalHadoopFiles.toPath(file),
+                                  OrcFile.readerOptions(LocalHadoopFiles.newConfiguration())
+                                      .useUTCTimestamp(true));
+    long start = blockInfo.getStartPos();
+    long end = start + blockInfo.getLength();
+    blockLength = blockInfo.getLength();
+    long blockRows = 0;
+    for (StripeInformation stripe : reader.getStripes()) {
+      if (stripe.getOffset() >= start && stripe.getOffset() < end) {
+        blockRows += stripe.getNumberOfRows();
+        stripeEnds.add(blockRows);
+        stripeBytes.add(stripe.getOffset() + stripe.getLength() - start);
+      }
+    }
+
+    TypeDescription fileSchema = reader.getSchema();
+    List<String> names = fileSchema.getFieldNames();
+    List<TypeDescription> children = fileSchema.getChildren();
+    boolean[] include = new boolean[fileSchema.getMaximumId() + 1];
+    include[0] = true;
+    for (int i = 0; i < columns.length; i++) {
+      fields[i] = getField(names, columns[i].getName());
+      if (fields[i] < 0) {
+        if (isStrictSchema) {
+          throw new ParseException("column '" + columns[i].getName() + "' not found in " + file);
+        }
+        continue;
+      }
+      TypeDescription type = children.get(fields[i]);
+      types[i] = type;
+      kinds[i] = kindOf(type);
+      if (!canRead(type, columns[i].getTypeInfo())) {
+        throw new ParseException(
+            "column '" + columns[i].getName() + "' of type " + type + " can not be read as "
+            + columns[i].getTypeInfo().getTypeName());
+      }
+      // the children of a nested column follow it
+      Arrays.fill(include, type.getId(), type.getMaximumId() + 1, true);
+    }
+
+    rows = reader.rows(reader.options().range(start, blockInfo.getLength()).include(include));
+    batch = fileSchema.createRowBatch();
+  }
+
+  @Override
+  public Record read() throws IOException, ParseException {
+    while (nextRow >= batch.size) {
+      if (!rows.nextBatch(batch)) {
+        readBytes = blockLength;
+        return null;
+      }
+      nextRow = 0;
+    }
+
+    for (int i = 0; i < columns.length; i++) {
+      if (fields[i] < 0) {
+        record.set(i, null);
+        continue;
+      }
+      ColumnVector vector = batch.cols[fields[i]];
+      int row = vector.isRepeating ? 0 : nextRow;
+      if (!vector.noNulls && vector.isNull[row]) {
+        record.set(i, null);
+      } else if (kinds[i] != null) {
+        record.set(i, TypedValueConverter.convert(getValue(vector, row, kinds[i]), kinds[i],
+                                                  columns[i].getTypeInfo()));
+      } else {
+        record.set(i, readNested(vector, row, types[i], columns[i].getTypeInfo()));
+      }
+    }
+    nextRow++;
+    rowCount++;
+    while (nextStripe < stripeEnds.size() && rowCount >= stripeEnds.get(nextStripe)) {
+      readBytes = stripeBytes.get(nextStripe++);
+    }
+    return record;
+  }
+
+  private static Object getValue(ColumnVector vector, int row, Kind kind) {
+    switch (kind) {
+      case BOOLEAN:
+        return ((LongColumnVector) vector).vector[row] != 0;
+      case DOUBLE:
+        return ((DoubleColumnVector) vector).vector[row];
+      case BYTES:
+        BytesColumnVector bytes = (BytesColumnVector) vector;
+        return Arrays.copyOfRange(bytes.vector[row], bytes.start[row],
+                                  bytes.start[row] + bytes.length[row]);
+      case DECIMAL:
+        return ((DecimalColumnVector) vector).vector[row].getHiveDecimal().bigDecimalValue();
+      case INSTANT:
+      case LOCAL_DATETIME:
+        TimestampColumnVector timestamps = (TimestampColumnVector) vector;
+        long seconds = Math.floorDiv(timestamps.time[row], 1000L);
+        int nanos = timestamps.nanos[row];
+        if (kind == Kind.INSTANT) {
+          return Instant.ofEpochSecond(seconds, nanos);
+        }
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+      default:
+        // long and date values
+        return ((LongColumnVector) vector).vector[row];
+    }
+  }
+
+  /**
+   * @return value of a row of a list, map or struct vector, which is not null
+   */
+  private static Object readNested(ColumnVector vector, int row, TypeDescription type,
+                                   TypeInfo typeInfo) throws ParseException {
+    List<TypeDescription> children = type.getChildren();
+    switch (type.getCategory()) {
+      case LIST:
+        ListColumnVector list = (ListColumnVector) vector;
+        TypeInfo elementType = ((ArrayTypeInfo) typeInfo).getElementTypeInfo();
+        int offset = (int) list.offsets[row];
+        int length = (int) list.lengths[row];
+        List<Object> elements = new ArrayList<Object>(length);
+        for (int i = offset; i < offset + length; i++) {
+          elements.add(readValue(list.child, i, children.get(0), elementType));
+        }
+        return elements;
+      case MAP:
+        MapColumnVector map = (MapColumnVector) vector;
+        MapTypeInfo mapType = (MapTypeInfo) typeInfo;
+        int entry = (int) map.offsets[row];
+        int end = entry + (int) map.lengths[row];
+        Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+        for (; entry < end; entry++) {
+          Object key = readValue(map.keys, entry, children.get(0), mapType.getKeyTypeInfo());
+          if (key == null) {
+            throw new ParseException("null key of map " + type);
+          }
+          entries.put(key, readValue(map.values, entry, children.get(1),
+                                     mapType.getValueTypeInfo()));
+        }
+        return entries;
+      default:
+        StructColumnVector struct = (StructColumnVector) vector;
+        StructTypeInfo structType = (StructTypeInfo) typeInfo;
+        List<Object> values = new ArrayList<Object>(structType.getFieldCount());
+        for (int i = 0; i < structType.getFieldCount(); i++) {
+          int field = getField(type.getFieldNames(), structType.getFieldNames().get(i));
+          values.add(field < 0 ? null : readValue(struct.fields[field], row, children.get(field),
+                                                  structType.getFieldTypeInfos().get(i)));
+        }
+        return new SimpleStruct(structType, values);
+    }
+  }
+
+  /**
+   * @return value of a row of a vector nested in a list, map or struct, may be null
+   */
+  private static Object readValue(ColumnVector vector, int row, TypeDescription type,
+                                  TypeInfo typeInfo) throws ParseException {
+    if (vector.isRepeating) {
+      row = 0;
+    }
+    if (!vector.noNulls && vector.isNull[row]) {
+      return null;
+    }
+    Kind kind = kindOf(type);
+    if (kind == null) {
+      return readNested(vector, row, type, typeInfo);
+    }
+    return TypedValueConverter.convertNested(getValue(vector, row, kind), kind, typeInfo);
+  }
+
+  /**
+   * @return whether the values of the file type can be read as the values of the table type
+   */
+  private static boolean canRead(TypeDescription type, TypeInfo typeInfo) {
+    List<TypeDescription> children = type.getChildren();
+    OdpsType odpsType = typeInfo.getOdpsType();
+    switch (type.getCategory()) {
+      case LIST:
+        return odpsType == OdpsType.ARRAY
+               && canRead(children.get(0), ((ArrayTypeInfo) typeInfo).getElementTypeInfo());
+      case MAP:
+        return odpsType == OdpsType.MAP
+               && canRead(children.get(0), ((MapTypeInfo) typeInfo).getKeyTypeInfo())
+               && canRead(children.get(1), ((MapTypeInfo) typeInfo).getValueTypeInfo());
+      case STRUCT:
+        if (odpsType != OdpsType.STRUCT) {
+          return false;
+        }
+        StructTypeInfo structType = (StructTypeInfo) typeInfo;
+        for (int i = 0; i < structType.getFieldCount(); i++) {
+          int field = getField(type.getFieldNames(), structType.getFieldNames().get(i));
+          if (field >= 0
+              && !canRead(children.get(field), structType.getFieldTypeInfos().get(i))) {
+            return false;
+          }
+        }
+        return true;
+      default:
+        Kind kind = kindOf(type);
+        return kind != null && TypedValueConverter.canConvert(kind, typeInfo);
+    }
+  }
+
+  /**
+   * @return index of the field of the name, ignoring case, or -1
+   */
+  private static int getField(List<String> names, String name) {
+    for (int i = 0; i < names.size(); i++) {
+      if (names.get(i).equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return kind of the values of the type, or null if it is not a primitive type which can be
+   * read
+   */
+  private static Kind kindOf(TypeDescription type) {
+    switch (type.getCategory()) {
+      case BOOLEAN:
+        return Kind.BOOLEAN;
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        return Kind.LONG;
+      case FLOAT:
+      case DOUBLE:
+        return Kind.DOUBLE;
+      case STRING:
+      case VARCHAR:
+      case CHAR:
+      case BINARY:
+        return Kind.BYTES;
+      case DECIMAL:
+        return Kind.DECIMAL;
+      case DATE:
+        return Kind.DATE;
+      case TIMESTAMP:
+        return Kind.LOCAL_DATETIME;
+      case TIMESTAMP_INSTANT:
+        return Kind.INSTANT;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return bytes of the block up to the end of the stripes read
+   */
+  @Override
+  public long getReadBytes() {
+    return readBytes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      rows.close();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Split an orc file into blocks of whole stripes, a block ends after the first stripe which makes
+   * it reach blockSize bytes.
+   *
+   * @return start positions of the blocks, the first one is always 0
+   */
+  static List<Long> split(File file, long blockSize) throws IOException {
+    List<Long> starts = new ArrayList<Long>();
+    starts.add(0L);
+
+    Reader reader = OrcFile.createReader(
+        LocalHadoopFiles.toPath(file), OrcFile.readerOptions(LocalHadoopFiles.newConfiguration()));
+    try {
+      long size = 0;
+      for (StripeInformation stripe : reader.getStripes()) {
+        if (size >= blockSize) {
+          starts.add(stripe.getOffset());
+          size = 0;
+        }
+        size += stripe.getLength();
+      }
+    } finally {
+      reader.close();
+    }
+    return starts;
+  }
+}
@@ -0,0 +1,466 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.aliyun.odps.ship.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.SimpleStruct;
+import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.LocalHadoopFiles;
+import com.aliyun.odps.ship.upload.TypedValueConverter.Kind;
+import com.aliyun.odps.type.ArrayTypeInfo;
+import com.aliyun.odps.type.MapTypeInfo;
+import com.aliyun.odps.type.StructTypeInfo;
+import com.aliyun.odps.type.TypeInfo;
+
+/**
+ * Read the records of a block of a parquet file.
+ *
+ * A block of a parquet file is a range of row groups: it holds the row groups which start in
+ * [start, start + length), see {@link #split(File, long)}. Columns of the file are matched with
+ * the table columns by name, only the matched columns are read. LIST and MAP groups, including
+ * the legacy two-level lists, are read into the arrays and maps of the table, and the other groups
+ * into structs, whose fields are matched by name too.
+ */
+public class ParquetFileRecordReader implements TypedFileRecordReader {
+
+  // julian day of 1970-01-01, int96 timestamps are the nanos of a julian day
+  private static final long JULIAN_EPOCH_DAY = 2440588;
+
+  private final Column[] columns;
+  private final ArrayRecord record;
+  // field of each table column in the projected schema, -1 if the file does not have the column
+  private final int[] fields;
+  private final Type[] types;
+  // kind of the values of each column, null if the column is of a nested type
+  private final Kind[] kinds;
+  private final ParquetReader<Group> reader;
+
+  // rows at the end of each row group of the block, and the bytes of the block up to its end
+  private final List<Long> rowGroupEnds = new ArrayList<Long>();
+  private final List<Long> rowGroupBytes = new ArrayList<Long>();
+  private int nextRowGroup = 0;
+  private long rows = 0;
+  private final long blockLength;
+  private long readBytes = 0;
+
+  public ParquetFileRecordReader(BlockInfo blockInfo, TableSchema schema, boolean isStrictSchema)
+      throws IOException, ParseException {
+    this.columns = schema.getColumns().toArray(new Column[0]);
+    this.record = new ArrayRecord(columns);
+    this.fields = new int[columns.length];
+    this.types = new Type[columns.length];
+    this.kinds = new Kind[columns.length];
+
+    File file = blockInfo.getFile();
+    Configuration conf = LocalHadoopFiles.newConfiguration();
+    Path path = LocalHadoopFiles.toPath(file);
+    ParquetMetadata footer = readFooter(path, conf);
+    long start = blockInfo.getStartPos();
+    long end = start + blockInfo.getLength();
+    blockLength = blockInfo.getLength();
+    long blockRows = 0;
+    for (BlockMetaData rowGroup : footer.getBlocks()) {
+      if (rowGroup.getStartingPos() >= start && rowGroup.getStartingPos() < end) {
+        if (!rowGroupEnds.isEmpty()) {
+          // the previous row group of the block is read up to this one
+          rowGroupBytes.add(rowGroup.getStartingPos() - start);
+        }
+        blockRows += rowGroup.getRowCount();
+        rowGroupEnds.add(blockRows);
+      }
+    }
+    if (!rowGroupEnds.isEmpty()) {
+      rowGroupBytes.add(blockLength);
+    }
+
+    MessageType fileSchema = footer.getFileMetaData().getSchema();
+    List<Type> projection = new ArrayList<Type>();
+    for (int i = 0; i < columns.length; i++) {
+      fields[i] = -1;
+      Type field = getField(fileSchema, columns[i].getName());
+      if (field == null) {
+        if (isStrictSchema) {
+          throw new ParseException("column '" + columns[i].getName() + "' not found in " + file);
+        }
+        continue;
+      }
+      if (field.isRepetition(Type.Repetition.REPEATED)
+          || !canRead(field, columns[i].getTypeInfo())) {
+        throw new ParseException(
+            "column '" + columns[i].getName() + "' of type " + field + " can not be read as "
+            + columns[i].getTypeInfo().getTypeName());
+      }
+      fields[i] = projection.size();
+      types[i] = field;
+      kinds[i] = field.isPrimitive() ? kindOf(field.asPrimitiveType()) : null;
+      projection.add(field);
+    }
+    if (!projection.isEmpty()) {
+      conf.set(ReadSupport.PARQUET_READ_SCHEMA,
+               new MessageType(fileSchema.getName(), projection).toString());
+    }
+    reader = ParquetReader.builder(new GroupReadSupport(), path).withConf(conf)
+        .withFileRange(start, end).build();
+  }
+
+  @Override
+  public Record read() throws IOException, ParseException {
+    Group group = reader.read();
+    if (group == null) {
+      readBytes = blockLength;
+      return null;
+    }
+
+    for (int i = 0; i < columns.length; i++) {
+      if (fields[i] < 0 || group.getFieldRepetitionCount(fields[i]) == 0) {
+        record.set(i, null);
+      } else if (kinds[i] != null) {
+        record.set(i, TypedValueConverter.convert(
+            getValue(group, fields[i], 0, types[i].asPrimitiveType(), kinds[i]), kinds[i],
+            columns[i].getTypeInfo()));
+      } else {
+        record.set(i, readNested(group.getGroup(fields[i], 0), types[i].asGroupType(),
+                                 columns[i].getTypeInfo()));
+      }
+    }
+    rows++;
+    while (nextRowGroup < rowGroupEnds.size() && rows >= rowGroupEnds.get(nextRowGroup)) {
+      readBytes = rowGroupBytes.get(nextRowGroup++);
+    }
+    return record;
+  }
+
+  /**
+   * @return value of a list, map or struct group
+   */
+  private static Object readNested(Group group, GroupType type, TypeInfo typeInfo)
+      throws ParseException {
+    LogicalTypeAnnotation logicalType = type.getLogicalTypeAnnotation();
+    if (logicalType instanceof LogicalTypeAnnotation.ListLogicalTypeAnnotation) {
+      TypeInfo elementType = ((ArrayTypeInfo) typeInfo).getElementTypeInfo();
+      Type element = getListElement(type);
+      int length = group.getFieldRepetitionCount(0);
+      List<Object> elements = new ArrayList<Object>(length);
+      for (int i = 0; i < length; i++) {
+        if (element == type.getType(0)) {
+          elements.add(readValue(group, 0, i, element, elementType));
+        } else {
+          // the element of a three-level list is the field of a repeated group
+          elements.add(readValue(group.getGroup(0, i), 0, 0, element, elementType));
+        }
+      }
+      return elements;
+    }
+    if (logicalType != null) {
+      MapTypeInfo mapType = (MapTypeInfo) typeInfo;
+      GroupType keyValueType = type.getType(0).asGroupType();
+      int length = group.getFieldRepetitionCount(0);
+      Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+      for (int i = 0; i < length; i++) {
+        Group keyValue = group.getGroup(0, i);
+        Object key = readValue(keyValue, 0, 0, keyValueType.getType(0), mapType.getKeyTypeInfo());
+        if (key == null) {
+          throw new ParseException("null key of map " + type);
+        }
+        entries.put(key, keyValueType.getFieldCount() < 2 ? null : readValue(
+            keyValue, 1, 0, keyValueType.getType(1), mapType.getValueTypeInfo()));
+      }
+      return entries;
+    }
+    StructTypeInfo structType = (StructTypeInfo) typeInfo;
+    List<Object> values = new ArrayList<Object>(structType.getFieldCount());
+    for (int i = 0; i < structType.getFieldCount(); i++) {
+      String name = structType.getFieldNames().get(i);
+      Type field = getField(type, name);
+      values.add(field == null ? null : readValue(group, type.getFieldIndex(field.getName()), 0,
+                                                  field, structType.getFieldTypeInfos().get(i)));
+    }
+    return new SimpleStruct(structType, values);
+  }
+
+  /**
+   * @return value at the index of a field nested in a list, map or struct, null if the field does
+   * not have it
+   */
+  private static Object readValue(Group group, int field, int index, Type type, TypeInfo typeInfo)
+      throws ParseException {
+    if (group.getFieldRepetitionCount(field) <= index) {
+      return null;
+    }
+    if (!type.isPrimitive()) {
+      return readNested(group.getGroup(field, index), type.asGroupType(), typeInfo);
+    }
+    Kind kind = kindOf(type.asPrimitiveType());
+    return TypedValueConverter.convertNested(
+        getValue(group, field, index, type.asPrimitiveType(), kind), kind, typeInfo);
+  }
+
+  /**
+   * @return whether the values of the file type can be read as the values of the table type
+   */
+  private static boolean canRead(Type type, TypeInfo typeInfo) {
+    OdpsType odpsType = typeInfo.getOdpsType();
+    if (type.isPrimitive()) {
+      Kind kind = kindOf(type.asPrimitiveType());
+      return kind != null && TypedValueConverter.canConvert(kind, typeInfo);
+    }
+    GroupType group = type.asGroupType();
+    LogicalTypeAnnotation logicalType = group.getLogicalTypeAnnotation();
+    if (logicalType instanceof LogicalTypeAnnotation.ListLogicalTypeAnnotation) {
+      return odpsType == OdpsType.ARRAY && group.getFieldCount() == 1
+             && group.getType(0).isRepetition(Type.Repetition.REPEATED)
+             && canRead(getListElement(group), ((ArrayTypeInfo) typeInfo).getElementTypeInfo());
+    }
+    if (logicalType instanceof LogicalTypeAnnotation.MapLogicalTypeAnnotation
+        || logicalType instanceof LogicalTypeAnnotation.MapKeyValueTypeAnnotation) {
+      if (odpsType != OdpsType.MAP || group.getFieldCount() != 1
+          || group.getType(0).isPrimitive()
+          || !group.getType(0).isRepetition(Type.Repetition.REPEATED)) {
+        return false;
+      }
+      GroupType keyValue = group.getType(0).asGroupType();
+      MapTypeInfo mapType = (MapTypeInfo) typeInfo;
+      return keyValue.getFieldCount() >= 1 && keyValue.getFieldCount() <= 2
+             && isSingle(keyValue.getType(0))
+             && canRead(keyValue.getType(0), mapType.getKeyTypeInfo())
+             && (keyValue.getFieldCount() == 1
+                 || (isSingle(keyValue.getType(1))
+                     && canRead(keyValue.getType(1), mapType.getValueTypeInfo())));
+    }
+    if (logicalType != null || odpsType != OdpsType.STRUCT) {
+      return false;
+    }
+    StructTypeInfo structType = (StructTypeInfo) typeInfo;
+    for (int i = 0; i < structType.getFieldCount(); i++) {
+      Type field = getField(group, structType.getFieldNames().get(i));
+      if (field != null
+          && !(isSingle(field) && canRead(field, structType.getFieldTypeInfos().get(i)))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSingle(Type type) {
+    return !type.isRepetition(Type.Repetition.REPEATED);
+  }
+
+  /**
+   * @return element of a LIST group, which is the repeated field itself in a two-level list
+   */
+  private static Type getListElement(GroupType list) {
+    Type repeated = list.getType(0);
+    if (repeated.isPrimitive() || repeated.asGroupType().getFieldCount() != 1
+        || repeated.getName().equals("array")
+        || repeated.getName().equals(list.getName() + "_tuple")) {
+      return repeated;
+    }
+    return repeated.asGroupType().getType(0);
+  }
+
+  private static Object getValue(Group group, int field, int index, PrimitiveType type,
+                                 Kind kind) {
+    switch (type.getPrimitiveTypeName()) {
+      case BOOLEAN:
+        return group.getBoolean(field, index);
+      case INT32:
+        return fromLong(group.getInteger(field, index), type, kind);
+      case INT64:
+        return fromLong(group.getLong(field, index), type, kind);
+      case INT96:
+        ByteBuffer buffer =
+            group.getInt96(field, index).toByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        long nanosOfDay = buffer.getLong();
+        long days = buffer.getInt() - JULIAN_EPOCH_DAY;
+        return Instant.ofEpochSecond(days * 86400, nanosOfDay);
+      case FLOAT:
+        return (double) group.getFloat(field, index);
+      case DOUBLE:
+        return group.getDouble(field, index);
+      default:
+        byte[] bytes = group.getBinary(field, index).getBytes();
+        if (kind == Kind.DECIMAL) {
+          return new BigDecimal(new BigInteger(bytes), getScale(type));
+        }
+        return bytes;
+    }
+  }
+
+  private static Object fromLong(long value, PrimitiveType type, Kind kind) {
+    switch (kind) {
+      case DECIMAL:
+        return BigDecimal.valueOf(value, getScale(type));
+      case INSTANT:
+      case LOCAL_DATETIME:
+        long nanosPerUnit;
+        switch (((LogicalTypeAnnotation.TimestampLogicalTypeAnnotation)
+            type.getLogicalTypeAnnotation()).getUnit()) {
+          case MILLIS:
+            nanosPerUnit = 1000000L;
+            break;
+          case MICROS:
+            nanosPerUnit = 1000L;
+            break;
+          default:
+            nanosPerUnit = 1L;
+        }
+        long unitsPerSecond = 1000000000L / nanosPerUnit;
+        long seconds = Math.floorDiv(value, unitsPerSecond);
+        int nanos = (int) (Math.floorMod(value, unitsPerSecond) * nanosPerUnit);
+        if (kind == Kind.INSTANT) {
+          return Instant.ofEpochSecond(seconds, nanos);
+        }
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+      default:
+        // long and date values
+        return value;
+    }
+  }
+
+  private static int getScale(PrimitiveType type) {
+    return ((LogicalTypeAnnotation.DecimalLogicalTypeAnnotation)
+        type.getLogicalTypeAnnotation()).getScale();
+  }
+
+  /**
+   * @return kind of the values of the type, or null if they can not be read
+   */
+  private static Kind kindOf(PrimitiveType type) {
+    LogicalTypeAnnotation logicalType = type.getLogicalTypeAnnotation();
+    if (logicalType instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) {
+      return Kind.DECIMAL;
+    }
+    if (logicalType instanceof LogicalTypeAnnotation.TimeLogicalTypeAnnotation) {
+      return null;
+    }
+    switch (type.getPrimitiveTypeName()) {
+      case BOOLEAN:
+        return Kind.BOOLEAN;
+      case INT32:
+        return logicalType instanceof LogicalTypeAnnotation.DateLogicalTypeAnnotation
+               ? Kind.DATE : Kind.LONG;
+      case INT64:
+        if (logicalType instanceof LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) {
+          return ((LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) logicalType)
+                     .isAdjustedToUTC() ? Kind.INSTANT : Kind.LOCAL_DATETIME;
+        }
+        return Kind.LONG;
+      case INT96:
+        return Kind.INSTANT;
+      case FLOAT:
+      case DOUBLE:
+        return Kind.DOUBLE;
+      default:
+        return Kind.BYTES;
+    }
+  }
+
+  private static Type getField(GroupType group, String name) {
+    for (Type field : group.getFields()) {
+      if (field.getName().equalsIgnoreCase(name)) {
+        return field;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return bytes of the block up to the end of the row groups read
+   */
+  @Override
+  public long getReadBytes() {
+    return readBytes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private static ParquetMetadata readFooter(Path path, Configuration conf) throws IOException {
+    ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(path, conf));
+    try {
+      return reader.getFooter();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Split a parquet file into blocks of whole row groups, a block ends after the first row group
+   * which makes it reach blockSize bytes.
+   *
+   * @return start positions of the blocks, the first one is always 0
+   */
+  static List<Long> split(File file, long blockSize) throws IOException {
+    List<Long> starts = new ArrayList<Long>();
+    starts.add(0L);
+
+    ParquetMetadata footer =
+        readFooter(LocalHadoopFiles.toPath(file), LocalHadoopFiles.newConfiguration());
+    // start of the first row group of the current block
+    long blockStart = -1;
+    for (BlockMetaData rowGroup : footer.getBlocks()) {
+      if (blockStart < 0) {
+        blockStart = rowGroup.getStartingPos();
+      } else if (rowGroup.getStartingPos() - blockStart >= blockSize) {
+        blockStart = rowGroup.getStartingPos();
+        starts.add(blockStart);
+      }
+    }
+    return starts;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Print the progress of the blocks of an upload job from one scheduled thread.
+ *
+ * The block uploaders only update a counter of the bytes read for each record, and register their
+ * progress while a block is uploaded. The reporter checks every registered block at each tick, and
+ * a block prints its progress when the last line is old enough, so the time is not read and the
+ * line is not formatted for every record.
+ */
+public class ProgressReporter implements Closeable {
+
+  /**
+   * Progress of a block being uploaded.
+   */
+  interface Progress {
+
+    /**
+     * Print the progress if it is due, called on the thread of the reporter.
+     *
+     * @param now
+     *     current time in millis
+     */
+    void report(long now);
+  }
+
+  private final Set<Progress> blocks =
+      Collections.newSetFromMap(new ConcurrentHashMap<Progress, Boolean>());
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * @param period
+   *     millis between the checks of the blocks
+   */
+  public ProgressReporter(long period) {
+    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "dship-progress");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    scheduler.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        tick(System.currentTimeMillis());
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  void add(Progress progress) {
+    blocks.add(progress);
+  }
+
+  void remove(Progress progress) {
+    blocks.remove(progress);
+  }
+
+  void tick(long now) {
+    for (Progress progress : blocks) {
+      try {
+        progress.report(now);
+      } catch (RuntimeException e) {
+        // a failed line must not cancel the later ticks
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+}
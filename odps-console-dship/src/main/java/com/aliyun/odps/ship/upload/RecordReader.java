@@ -7,6 +7,7 @@ import java.io.InputStream;
 import org.apache.commons.io.IOUtils;
 
 import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.FieldSlices;
 
 
 public abstract class   RecordReader {
@@ -15,6 +16,8 @@ public abstract class   RecordReader {
   protected BlockInfo blockInfo;
   protected String detectedCharset;
   protected int bomBytes;
+  // codec of a compressed file, null if the file is not compressed
+  protected CompressedFile.Codec codec;
 
   public RecordReader(BlockInfo info) {
     this.blockInfo = info;
@@ -24,8 +27,57 @@ public abstract class   RecordReader {
     return readBytes;
   }
 
+  /**
+   * @return bytes of the block read from the file, the compressed bytes for a compressed file
+   */
+  public long getBlockReadBytes() {
+    return readBytes;
+  }
+
+  public boolean isCompressed() {
+    return codec != null;
+  }
+
+  protected void detectCompression() throws IOException {
+    codec = CompressedFile.detect(blockInfo.getFile());
+  }
+
   public abstract byte[][] readTextRecord() throws IOException;
 
+  private final FieldSlices wrappedFields = new FieldSlices();
+
+  /**
+   * Read next record as field slices. Readers which own a line buffer override this to avoid
+   * copying every field, the slices are only valid until the next read.
+   */
+  public FieldSlices readFieldSlices() throws IOException {
+    byte[][] record = readTextRecord();
+    return record == null ? null : wrappedFields.wrap(record);
+  }
+
+  /**
+   * Append next record to lines as a copy which outlives the reader buffer, for a lane of a
+   * compressed block which parses the records on another thread.
+   *
+   * @return false at the end of the block
+   */
+  public boolean readTextLine(TextLines lines) throws IOException {
+    byte[][] record = readTextRecord();
+    if (record == null) {
+      return false;
+    }
+    lines.add(record, getCurrentLine(), getReadBytes(), getBlockReadBytes());
+    return true;
+  }
+
+  /**
+   * Fields of record i of lines, which was read by {@link #readTextLine(TextLines)}. It may be
+   * called on another thread than the reads.
+   */
+  public FieldSlices getFields(TextLines lines, int i, FieldSlices reuse) {
+    return reuse.wrap(lines.getRecord(i));
+  }
+
   public abstract String getCurrentLine();
 
   public abstract  void close() throws IOException;
@@ -45,10 +97,11 @@ public abstract class   RecordReader {
    * Read four bytes and check for BOM marks.
    */
   protected void detectBomCharset() throws IOException {
-    InputStream internalIs = blockInfo.getFileInputStream();
+    InputStream internalIs = codec == null ? blockInfo.getFileInputStream()
+                                           : CompressedFile.open(blockInfo.getFile(), codec, 0, -1);
     try {
       byte bom[] = new byte[4];
-      int n = internalIs.read(bom, 0, bom.length);
+      int n = IOUtils.read(internalIs, bom, 0, bom.length);
 
       if ((n >= 4) && (bom[0] == (byte) 0x00) && (bom[1] == (byte) 0x00) &&
           (bom[2] == (byte) 0xFE) && (bom[3] == (byte) 0xFF)) {
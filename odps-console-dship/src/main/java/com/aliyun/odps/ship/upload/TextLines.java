@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.aliyun.odps.ship.upload;
+
+import java.util.Arrays;
+
+/**
+ * A batch of text records which stays valid after its reader moves on, so the records can be
+ * parsed on another thread than the one which read them. See
+ * {@link RecordReader#readTextLine(TextLines)}.
+ *
+ * The raw lines are copied one after another into a single buffer, which is kept when the batch
+ * is cleared, so a recycled batch reads its records without allocating.
+ */
+public class TextLines {
+
+  private static final int INITIAL_LINE_BYTES = 128;
+
+  // line i is data[i == 0 ? 0 : ends[i - 1], ends[i])
+  private byte[] data;
+  private final int[] ends;
+  private final long[] readBytes;
+  private final long[] blockReadBytes;
+  // fields and text of the records of a reader which does not keep raw lines, e.g. a csv reader
+  private byte[][][] records;
+  private String[] texts;
+  private int size = 0;
+
+  public TextLines(int capacity) {
+    data = new byte[capacity * INITIAL_LINE_BYTES];
+    ends = new int[capacity];
+    readBytes = new long[capacity];
+    blockReadBytes = new long[capacity];
+  }
+
+  /**
+   * Append a copy of src[from, to).
+   *
+   * @param readBytes
+   *     {@link RecordReader#getReadBytes()} right after the record was read
+   * @param blockReadBytes
+   *     {@link RecordReader#getBlockReadBytes()} right after the record was read
+   */
+  public void add(byte[] src, int from, int to, long readBytes, long blockReadBytes) {
+    int start = getStart(size);
+    int end = start + to - from;
+    if (end > data.length) {
+      data = Arrays.copyOf(data, Math.max(end, data.length * 2));
+    }
+    System.arraycopy(src, from, data, start, to - from);
+    append(end, readBytes, blockReadBytes);
+  }
+
+  /**
+   * Append a record which is already split into fields, the fields are not copied.
+   */
+  public void add(byte[][] fields, String text, long readBytes, long blockReadBytes) {
+    if (records == null) {
+      records = new byte[ends.length][][];
+      texts = new String[ends.length];
+    }
+    records[size] = fields;
+    texts[size] = text;
+    append(getStart(size), readBytes, blockReadBytes);
+  }
+
+  private void append(int end, long readBytes, long blockReadBytes) {
+    ends[size] = end;
+    this.readBytes[size] = readBytes;
+    this.blockReadBytes[size] = blockReadBytes;
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isFull() {
+    return size == ends.length;
+  }
+
+  public byte[] getData() {
+    return data;
+  }
+
+  public int getStart(int i) {
+    return i == 0 ? 0 : ends[i - 1];
+  }
+
+  public int getEnd(int i) {
+    return ends[i];
+  }
+
+  /**
+   * @return fields of a record added by {@link #add(byte[][], String, long, long)}
+   */
+  public byte[][] getRecord(int i) {
+    return records[i];
+  }
+
+  /**
+   * @return raw text of the record, the same as {@link RecordReader#getCurrentLine()} right after
+   * it was read
+   */
+  public String getText(int i) {
+    if (texts != null && texts[i] != null) {
+      return texts[i];
+    }
+    return new String(data, getStart(i), getEnd(i) - getStart(i));
+  }
+
+  public long getReadBytes(int i) {
+    return readBytes[i];
+  }
+
+  public long getBlockReadBytes(int i) {
+    return blockReadBytes[i];
+  }
+
+  public void clear() {
+    if (records != null) {
+      Arrays.fill(records, 0, size, null);
+      Arrays.fill(texts, 0, size, null);
+    }
+    size = 0;
+  }
+}
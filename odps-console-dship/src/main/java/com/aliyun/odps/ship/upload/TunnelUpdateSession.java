@@ -29,6 +29,7 @@ import com.aliyun.odps.TableSchema;
 import com.aliyun.odps.data.Record;
 import com.aliyun.odps.data.RecordWriter;
 import com.aliyun.odps.ship.common.CommandType;
+import com.aliyun.odps.ship.common.FieldSlices;
 import com.aliyun.odps.ship.common.RecordConverter;
 import com.aliyun.odps.tunnel.TunnelException;
 
@@ -42,9 +43,22 @@ public interface TunnelUpdateSession {
 
   RecordWriter getWriter(long bId) throws TunnelException, IOException;
 
+  /**
+   * Writer of a block which keeps the records until it is closed, the block is written only if
+   * the writer is closed. Used to scan and upload a block in one pass.
+   */
+  default RecordWriter getBufferedWriter(long bId) throws TunnelException, IOException {
+    return getWriter(bId);
+  }
+
   Record getRecord(RecordConverter recordConverter, byte[][] textRecord)
       throws UnsupportedEncodingException, ParseException;
 
+  default Record getRecord(RecordConverter recordConverter, FieldSlices textRecord)
+      throws UnsupportedEncodingException, ParseException {
+    return getRecord(recordConverter, textRecord.toArray());
+  }
+
   void initRecord();
 
   void complete(List<Long> bList) throws TunnelException, IOException;
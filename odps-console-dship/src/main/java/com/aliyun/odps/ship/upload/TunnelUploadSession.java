@@ -33,63 +33,80 @@ import com.aliyun.odps.PartitionSpec;
 import com.aliyun.odps.Table;
 import com.aliyun.odps.TableSchema;
 import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.RecordPack;
 import com.aliyun.odps.data.RecordWriter;
 import com.aliyun.odps.ship.common.CommandType;
 import com.aliyun.odps.ship.common.Constants;
-import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.FieldSlices;
 import com.aliyun.odps.ship.common.RecordConverter;
 import com.aliyun.odps.tunnel.TableTunnel;
 import com.aliyun.odps.tunnel.TableTunnel.UploadSession;
 import com.aliyun.odps.tunnel.TunnelException;
+import com.aliyun.odps.tunnel.io.CompressOption;
+import com.aliyun.odps.tunnel.io.ProtobufRecordPack;
 import com.aliyun.openservices.odps.console.ODPSConsoleException;
 import com.aliyun.openservices.odps.console.utils.OdpsConnectionFactory;
 
 public class TunnelUploadSession implements TunnelUpdateSession{
 
   UploadSession upload;
-  private Record record;
+  // the record reused by the block uploaders, one for each thread as the blocks are uploaded in
+  // parallel with the same session
+  private final ThreadLocal<Record> record = new ThreadLocal<Record>() {
+    @Override
+    protected Record initialValue() {
+      return upload.newRecord(true);
+    }
+  };
+  private final DshipJobContext context;
+  private volatile boolean scan;
 
   //just for test
-  protected TunnelUploadSession(String str){
+  protected TunnelUploadSession(DshipJobContext context, String str){
+    this.context = context;
   }
 
-  public TunnelUploadSession() throws OdpsException, IOException, ODPSConsoleException {
-    String tableProject = DshipContext.INSTANCE.get(Constants.TABLE_PROJECT);
-    String schemaName = DshipContext.INSTANCE.get(Constants.SCHEMA);
-    String tableName = DshipContext.INSTANCE.get(Constants.TABLE);
-    String partitionSpec = DshipContext.INSTANCE.get(Constants.PARTITION_SPEC);
+  public TunnelUploadSession(DshipJobContext context)
+      throws OdpsException, IOException, ODPSConsoleException {
+    this.context = context;
+    this.scan = Boolean.valueOf(context.get(Constants.SCAN));
+    String tableProject = context.get(Constants.TABLE_PROJECT);
+    String schemaName = context.get(Constants.SCHEMA);
+    String tableName = context.get(Constants.TABLE);
+    String partitionSpec = context.get(Constants.PARTITION_SPEC);
 
-    Odps odps = OdpsConnectionFactory.createOdps(DshipContext.INSTANCE.getExecutionContext());
+    Odps odps = OdpsConnectionFactory.createOdps(context.getExecutionContext());
 
     PartitionSpec ps = partitionSpec == null ? null : new PartitionSpec(partitionSpec);
     TableTunnel tunnel = new TableTunnel(odps);
-    tunnel.getConfig().setQuotaName(DshipContext.INSTANCE.get(Constants.QUOTA_NAME));
+    tunnel.getConfig().setQuotaName(context.get(Constants.QUOTA_NAME));
 
-    if (DshipContext.INSTANCE.get(Constants.TUNNEL_ENDPOINT) != null) {
-      tunnel.setEndpoint(DshipContext.INSTANCE.get(Constants.TUNNEL_ENDPOINT));
+    if (context.get(Constants.TUNNEL_ENDPOINT) != null) {
+      tunnel.setEndpoint(context.get(Constants.TUNNEL_ENDPOINT));
     } else if (StringUtils.isNotEmpty(
-        DshipContext.INSTANCE.getExecutionContext().getTunnelEndpoint())) {
-      tunnel.setEndpoint(DshipContext.INSTANCE.getExecutionContext().getTunnelEndpoint());
+        context.getExecutionContext().getTunnelEndpoint())) {
+      tunnel.setEndpoint(context.getExecutionContext().getTunnelEndpoint());
     }
 
     if (StringUtils.isEmpty(tableProject)) {
       tableProject = odps.getDefaultProject();
     }
 
-    if (StringUtils.isNotEmpty(DshipContext.INSTANCE.get(Constants.RESUME_UPLOAD_ID))) {
+    if (StringUtils.isNotEmpty(context.get(Constants.RESUME_UPLOAD_ID))) {
       if (ps == null) {
         upload = tunnel.getUploadSession(tableProject, schemaName, tableName,
-                                         DshipContext.INSTANCE.get(Constants.RESUME_UPLOAD_ID));
+                                         context.get(Constants.RESUME_UPLOAD_ID));
       } else {
         upload = tunnel.getUploadSession(tableProject, schemaName, tableName, ps,
-                                         DshipContext.INSTANCE.get(Constants.RESUME_UPLOAD_ID));
+                                         context.get(Constants.RESUME_UPLOAD_ID));
       }
     } else {
-      boolean overwrite = Boolean.parseBoolean(DshipContext.INSTANCE.get(Constants.OVERWRITE));
+      boolean overwrite = Boolean.parseBoolean(context.get(Constants.OVERWRITE));
       if (ps == null) {
         upload = tunnel.createUploadSession(tableProject, schemaName, tableName, overwrite);
       } else {
-        if ("true".equalsIgnoreCase(DshipContext.INSTANCE.get(Constants.AUTO_CREATE_PARTITION))) {
+        if ("true".equalsIgnoreCase(context.get(Constants.AUTO_CREATE_PARTITION))) {
           Table t = odps.tables().get(tableProject, schemaName, tableName);
           if (!t.hasPartition(ps)) {
             System.err.println("Create partition " + ps.toString());
@@ -103,11 +120,11 @@ public class TunnelUploadSession implements TunnelUpdateSession{
   }
 
   public void setScan(boolean isScan) {
-    DshipContext.INSTANCE.put(Constants.SCAN, String.valueOf(isScan));
+    this.scan = isScan;
   }
 
   public boolean isScan() {
-    return Boolean.valueOf(DshipContext.INSTANCE.get(Constants.SCAN));
+    return scan;
   }
 
   public TableSchema getSchema() {
@@ -118,12 +135,18 @@ public class TunnelUploadSession implements TunnelUpdateSession{
   @Override
   public Record getRecord(RecordConverter recordConverter, byte[][] textRecord)
       throws UnsupportedEncodingException, ParseException {
-    return recordConverter.parse(record, textRecord);
+    return recordConverter.parse(record.get(), textRecord);
+  }
+
+  @Override
+  public Record getRecord(RecordConverter recordConverter, FieldSlices textRecord)
+      throws UnsupportedEncodingException, ParseException {
+    return recordConverter.parse(record.get(), textRecord);
   }
 
   @Override
   public void initRecord() {
-    record = upload.newRecord(true);
+    record.set(upload.newRecord(true));
   }
 
   public RecordWriter getWriter(long bId) throws TunnelException, IOException {
@@ -132,7 +155,23 @@ public class TunnelUploadSession implements TunnelUpdateSession{
       return new ScanerWriter();
     }
     return upload.openRecordWriter(bId, Boolean.valueOf(
-        DshipContext.INSTANCE.get(Constants.COMPRESS)));
+        context.get(Constants.COMPRESS)));
+  }
+
+  @Override
+  public RecordWriter getBufferedWriter(long bId) throws TunnelException, IOException {
+    if (isScan()) {
+      return new ScanerWriter();
+    }
+    return new RecordPackWriter(bId, upload.newRecordPack(getCompressOption()));
+  }
+
+  private CompressOption getCompressOption() {
+    // same as openRecordWriter(bId, compress)
+    if (Boolean.valueOf(context.get(Constants.COMPRESS))) {
+      return new CompressOption();
+    }
+    return new CompressOption(CompressOption.CompressAlgorithm.ODPS_RAW, 0, 0);
   }
 
   @Override
@@ -168,7 +207,7 @@ public class TunnelUploadSession implements TunnelUpdateSession{
         }
       }
       try {
-        Thread.sleep(Constants.RETRY_INTERNAL);
+        Thread.sleep(context.getRetryInterval());
       } catch (InterruptedException e) {
         throw new UserInterruptException(e.getMessage());
       }
@@ -179,6 +218,37 @@ public class TunnelUploadSession implements TunnelUpdateSession{
 //    upload.abort();
 //  }
 
+  /**
+   * Keep the records of a block in a record pack, the block is written when the writer is closed.
+   */
+  class RecordPackWriter implements RecordWriter {
+
+    private final long blockId;
+    private final RecordPack pack;
+
+    RecordPackWriter(long blockId, RecordPack pack) {
+      this.blockId = blockId;
+      this.pack = pack;
+    }
+
+    @Override
+    public void close() throws IOException {
+      upload.writeBlock(blockId, pack);
+    }
+
+    @Override
+    public void write(Record record) throws IOException {
+      pack.append(record);
+    }
+
+    /**
+     * @return bytes of the records in the pack, or -1 if the pack does not count them
+     */
+    long getTotalBytes() {
+      return pack instanceof ProtobufRecordPack ? ((ProtobufRecordPack) pack).getTotalBytes() : -1;
+    }
+  }
+
   class ScanerWriter implements RecordWriter {
 
     @Override
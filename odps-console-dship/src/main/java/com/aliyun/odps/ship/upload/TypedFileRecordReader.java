@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.aliyun.odps.ship.upload;
+
+import java.io.IOException;
+
+import org.apache.commons.cli.ParseException;
+
+import com.aliyun.odps.data.Record;
+
+/**
+ * Reader of a block of a local file with typed values, i.e. a parquet or orc file.
+ */
+public interface TypedFileRecordReader {
+
+  /**
+   * @return the next record, which is reused by the following reads, or null at the end of the
+   * block
+   */
+  Record read() throws IOException, ParseException;
+
+  /**
+   * @return bytes of the file read so far
+   */
+  long getReadBytes();
+
+  void close() throws IOException;
+}
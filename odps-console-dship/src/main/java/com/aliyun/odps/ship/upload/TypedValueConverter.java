@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.aliyun.odps.ship.upload;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import org.apache.commons.cli.ParseException;
+
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.data.Binary;
+import com.aliyun.odps.data.Char;
+import com.aliyun.odps.data.Varchar;
+import com.aliyun.odps.type.TypeInfo;
+
+/**
+ * Convert the values read from parquet and orc files into the values of table columns.
+ *
+ * The readers map each column of a file to a {@link Kind}, and check with {@link #canConvert}
+ * that the table column can take it before any value is read. Only the leaf values are converted
+ * here, the readers build the arrays, maps and structs of nested columns out of them.
+ */
+class TypedValueConverter {
+
+  /**
+   * Kinds of the values of a file column, and the java class of the values passed to
+   * {@link #convert}.
+   */
+  enum Kind {
+    // Boolean
+    BOOLEAN,
+    // Long
+    LONG,
+    // Double
+    DOUBLE,
+    // byte[]
+    BYTES,
+    // BigDecimal
+    DECIMAL,
+    // Long, days since 1970-01-01
+    DATE,
+    // Instant
+    INSTANT,
+    // LocalDateTime, a timestamp without time zone
+    LOCAL_DATETIME
+  }
+
+  private TypedValueConverter() {
+  }
+
+  static boolean canConvert(Kind kind, TypeInfo typeInfo) {
+    OdpsType type = typeInfo.getOdpsType();
+    switch (kind) {
+      case BOOLEAN:
+        return type == OdpsType.BOOLEAN;
+      case LONG:
+        return type == OdpsType.TINYINT || type == OdpsType.SMALLINT || type == OdpsType.INT
+               || type == OdpsType.BIGINT || type == OdpsType.DECIMAL;
+      case DOUBLE:
+        return type == OdpsType.DOUBLE || type == OdpsType.FLOAT;
+      case BYTES:
+        return type == OdpsType.STRING || type == OdpsType.VARCHAR || type == OdpsType.CHAR
+               || type == OdpsType.BINARY;
+      case DECIMAL:
+        return type == OdpsType.DECIMAL;
+      case DATE:
+        return type == OdpsType.DATE;
+      case INSTANT:
+      case LOCAL_DATETIME:
+        return type == OdpsType.DATETIME || type == OdpsType.TIMESTAMP
+               || type == OdpsType.TIMESTAMP_NTZ;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @param value a value of the kind, not null
+   * @return the value of the table column, as it is taken by {@link
+   * com.aliyun.odps.data.Record#set(int, Object)}
+   */
+  static Object convert(Object value, Kind kind, TypeInfo typeInfo) throws ParseException {
+    OdpsType type = typeInfo.getOdpsType();
+    switch (kind) {
+      case LONG:
+        return convertLong((Long) value, typeInfo);
+      case DOUBLE:
+        return type == OdpsType.FLOAT ? Float.valueOf(((Double) value).floatValue()) : value;
+      case BYTES:
+        byte[] bytes = (byte[]) value;
+        switch (type) {
+          case VARCHAR:
+            return new Varchar(new String(bytes, StandardCharsets.UTF_8));
+          case CHAR:
+            return new Char(new String(bytes, StandardCharsets.UTF_8));
+          case BINARY:
+            return new Binary(bytes);
+          default:
+            // string values are kept as their utf-8 bytes
+            return bytes;
+        }
+      case DATE:
+        return LocalDate.ofEpochDay((Long) value);
+      case INSTANT:
+        Instant instant = (Instant) value;
+        switch (type) {
+          case DATETIME:
+            return ZonedDateTime.ofInstant(instant, ZoneId.systemDefault());
+          case TIMESTAMP_NTZ:
+            return LocalDateTime.ofEpochSecond(instant.getEpochSecond(), instant.getNano(),
+                                               ZoneOffset.UTC);
+          default:
+            return instant;
+        }
+      case LOCAL_DATETIME:
+        LocalDateTime dateTime = (LocalDateTime) value;
+        switch (type) {
+          case DATETIME:
+            return dateTime.atZone(ZoneId.systemDefault());
+          case TIMESTAMP:
+            return dateTime.atZone(ZoneId.systemDefault()).toInstant();
+          default:
+            return dateTime;
+        }
+      default:
+        return value;
+    }
+  }
+
+  /**
+   * Same as {@link #convert}, for a value nested in an array, map or struct, where string values
+   * are kept as strings.
+   */
+  static Object convertNested(Object value, Kind kind, TypeInfo typeInfo) throws ParseException {
+    if (kind == Kind.BYTES && typeInfo.getOdpsType() == OdpsType.STRING) {
+      return new String((byte[]) value, StandardCharsets.UTF_8);
+    }
+    return convert(value, kind, typeInfo);
+  }
+
+  private static Object convertLong(long value, TypeInfo typeInfo) throws ParseException {
+    switch (typeInfo.getOdpsType()) {
+      case TINYINT:
+        checkRange(value, Byte.MIN_VALUE, Byte.MAX_VALUE, typeInfo);
+        return (byte) value;
+      case SMALLINT:
+        checkRange(value, Short.MIN_VALUE, Short.MAX_VALUE, typeInfo);
+        return (short) value;
+      case INT:
+        checkRange(value, Integer.MIN_VALUE, Integer.MAX_VALUE, typeInfo);
+        return (int) value;
+      case DECIMAL:
+        return BigDecimal.valueOf(value);
+      default:
+        return value;
+    }
+  }
+
+  private static void checkRange(long value, long min, long max, TypeInfo typeInfo)
+      throws ParseException {
+    if (value < min || value > max) {
+      throw new ParseException("value " + value + " is out of range of " + typeInfo.getTypeName());
+    }
+  }
+}
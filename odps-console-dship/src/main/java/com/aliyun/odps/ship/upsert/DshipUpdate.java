@@ -23,6 +23,7 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -43,14 +44,19 @@ import org.jline.reader.UserInterruptException;
 import com.aliyun.odps.OdpsException;
 import com.aliyun.odps.ship.common.BlockInfo;
 import com.aliyun.odps.ship.common.Constants;
-import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.DshipMetrics;
 import com.aliyun.odps.ship.common.SessionStatus;
 import com.aliyun.odps.ship.common.Util;
 import com.aliyun.odps.ship.history.SessionHistory;
 import com.aliyun.odps.ship.history.SessionHistoryManager;
+import com.aliyun.odps.ship.upload.AdaptiveConcurrency;
 import com.aliyun.odps.ship.upload.BlockInfoBuilder;
 import com.aliyun.odps.ship.upload.BlockRecordReader;
 import com.aliyun.odps.ship.upload.BlockUploader;
+import com.aliyun.odps.ship.upload.CompressedBlockUploader;
+import com.aliyun.odps.ship.upload.CompressedFile;
+import com.aliyun.odps.ship.upload.ProgressReporter;
 import com.aliyun.odps.ship.upload.TunnelUpdateSession;
 import com.aliyun.odps.tunnel.TunnelException;
 
@@ -74,38 +80,52 @@ public class DshipUpdate {
   private final String[] recordDelimiterArray = {"\r\n", "\n"};
   private final int checkRDBlockSize = Constants.MAX_RECORD_SIZE / 20;
   protected boolean isCsv = false;
+  protected String format;
+  // options of this job, completed with the session id and the detected record delimiter
+  private DshipJobContext context;
 
-  public DshipUpdate(TunnelUpdateSession tunnelUpdateSession)
+  public DshipUpdate(DshipJobContext context, TunnelUpdateSession tunnelUpdateSession)
       throws OdpsException, IOException, ParseException {
+    this.context = context;
     this.tunnelUpdateSession = tunnelUpdateSession;
     sessionId = tunnelUpdateSession.getSessionId();
 
     switch (tunnelUpdateSession.getCommandType()) {
       case upsert:
-        resume = (DshipContext.INSTANCE.get(Constants.RESUME_UPSERT_ID) != null);
-        DshipContext.INSTANCE.put(Constants.RESUME_UPSERT_ID, sessionId);
+        resume = (context.get(Constants.RESUME_UPSERT_ID) != null);
+        // upsert requires ordered input, so blocks are read by one thread, and upsert do not
+        // support scan
+        this.context = context.with(Constants.RESUME_UPSERT_ID, sessionId)
+            .with(Constants.THREADS, "1").with(Constants.SCAN, "false");
         break;
       case upload:
       default:
-        resume = (DshipContext.INSTANCE.get(Constants.RESUME_UPLOAD_ID) != null);
-        DshipContext.INSTANCE.put(Constants.RESUME_UPLOAD_ID, sessionId);
+        resume = (context.get(Constants.RESUME_UPLOAD_ID) != null);
+        this.context = context.with(Constants.RESUME_UPLOAD_ID, sessionId);
         break;
     }
-    sessionHistory = SessionHistoryManager.createSessionHistory(sessionId);
+    sessionHistory = SessionHistoryManager.createSessionHistory(this.context, sessionId);
 
-    this.uploadFile = new File(DshipContext.INSTANCE.get(Constants.RESUME_PATH));
+    this.uploadFile = new File(this.context.get(Constants.RESUME_PATH));
     this.totalUploadBytes = 0;
 
-    if (DshipContext.INSTANCE.get(Constants.CSV_FORMAT).equals("true")) {
+    if (this.context.get(Constants.CSV_FORMAT).equals("true")) {
       isCsv = true;
     }
-
-    if (DshipContext.INSTANCE.get(Constants.BLOCK_SIZE) != null) {
-      blockSize = Long.valueOf(DshipContext.INSTANCE.get(Constants.BLOCK_SIZE)) * 1024 * 1024;
+    format = this.context.get(Constants.FORMAT);
+
+    if (this.context.get(Constants.BLOCK_SIZE) != null) {
+      blockSize = Long.valueOf(this.context.get(Constants.BLOCK_SIZE)) * 1024 * 1024;
+    } else if (isAutoThreads() && !resume) {
+      long size = uploadFile.isDirectory() ? FileUtils.sizeOfDirectory(uploadFile)
+                                           : uploadFile.length();
+      long mib = AdaptiveConcurrency.getBlockSize(size, Constants.AUTO_THREADS_MAX);
+      blockSize = mib * 1024 * 1024;
+      System.err.println("Using block size " + mib + " MiB for threads auto");
     }
     checkRecordDelimiter();
 
-    sessionHistory.saveContext();
+    sessionHistory.saveContext(this.context);
 
     buildIndex(uploadFile);
   }
@@ -113,13 +133,13 @@ public class DshipUpdate {
 
   private void checkRecordDelimiter() throws TunnelException, IOException {
     // to find out the RECORD_DELIMITER if it is null
-    if (DshipContext.INSTANCE.get(Constants.RECORD_DELIMITER) == null) {
+    if (context.get(Constants.RECORD_DELIMITER) == null) {
       String
           fileRecordDelimiter =
           getRecordDelimiter(uploadFile, checkRDBlockSize, recordDelimiterArray);
-      DshipContext.INSTANCE.put(Constants.RECORD_DELIMITER,
-                                fileRecordDelimiter == null ? Constants.DEFAULT_RECORD_DELIMITER
-                                                            : fileRecordDelimiter);
+      context = context.with(Constants.RECORD_DELIMITER,
+                             fileRecordDelimiter == null ? Constants.DEFAULT_RECORD_DELIMITER
+                                                         : fileRecordDelimiter);
     }
 
   }
@@ -147,10 +167,12 @@ public class DshipUpdate {
       }
     }
 
-    BufferedInputStream is = new BufferedInputStream(new FileInputStream(file));
+    CompressedFile.Codec codec = CompressedFile.detect(file);
+    InputStream is = codec == null ? new BufferedInputStream(new FileInputStream(file))
+                                   : CompressedFile.open(file, codec, 0, -1);
     try {
-      int len = is.read(buf, 0, checkSize);
-      if (len != -1) {
+      int len = codec == null ? is.read(buf, 0, checkSize) : IOUtils.read(is, buf, 0, checkSize);
+      if (len > 0) {
         for (String delimiter : delimiterArray) {
           int res = BlockRecordReader.indexOf(buf, 0, len, delimiter.getBytes());
           if (res != -1) {
@@ -167,15 +189,28 @@ public class DshipUpdate {
   }
 
   public void upload() throws TunnelException, IOException, ParseException {
+    try {
+      uploadFile();
+    } finally {
+      // the console keeps running after the command
+      sessionHistory.close();
+    }
+  }
+
+  private void uploadFile() throws TunnelException, IOException, ParseException {
     System.err.println("Start upload:" + uploadFile.getPath());
 
-    if (isCsv) {
-      System.err.println("Using CSV format.");
+    if (Util.isTypedFormat(format)) {
+      System.err.println("Using " + format + " format.");
+    } else {
+      if (isCsv) {
+        System.err.println("Using CSV format.");
+      }
+      System.err.println("Using " + StringEscapeUtils.escapeJava(
+          context.get(Constants.RECORD_DELIMITER)) + " to split records");
     }
-    System.err.println("Using " + StringEscapeUtils.escapeJava(
-        DshipContext.INSTANCE.get(Constants.RECORD_DELIMITER)) + " to split records");
     System.err.println(
-        "Upload in strict schema mode: " + DshipContext.INSTANCE.get(Constants.STRICT_SCHEMA));
+        "Upload in strict schema mode: " + context.get(Constants.STRICT_SCHEMA));
 
     if (!resume) {
       System.err.println(
@@ -185,17 +220,28 @@ public class DshipUpdate {
     }
     sessionHistory.log("start upload:" + uploadFile.getPath());
 
-    String scan = DshipContext.INSTANCE.get(Constants.SCAN);
+    String scan = context.get(Constants.SCAN);
     if (isScan(scan)) {
       tunnelUpdateSession.setScan(true);
       //only scan, don't really upload
-      uploadBlock();
+      uploadBlock(null);
     }
 
     if (isUpload(scan)) {
       tunnelUpdateSession.setScan(false);
-      //really upload
-      uploadBlock();
+      //really upload, with -scan=inline each block is scanned before it is written
+      DshipMetrics metrics = new DshipMetrics(tunnelUpdateSession.getCommandType().toString());
+      try {
+        uploadBlock(metrics);
+      } finally {
+        // a failure to save the metrics must not hide the failure of the upload
+        try {
+          sessionHistory.saveMetrics(metrics);
+        } catch (IOException e) {
+          System.err.println(Constants.WARNING_INDICATOR + "failed to save metrics: "
+                             + e.getMessage());
+        }
+      }
       List<BlockInfo> finishBlockList = sessionHistory.loadFinishBlockList();
       List<Long> finishBlockIdList = new ArrayList<Long>();
       for (BlockInfo block : finishBlockList) {
@@ -212,8 +258,7 @@ public class DshipUpdate {
 
     sessionHistory.log("upload complete:" + uploadFile.getPath());
 
-    DshipContext.INSTANCE.put(Constants.STATUS, SessionStatus.success.toString());
-    sessionHistory.saveContext();
+    sessionHistory.saveContext(context, SessionStatus.success);
 
     System.err.println("OK");
   }
@@ -222,20 +267,59 @@ public class DshipUpdate {
     return tunnelUpdateSession.getSessionId();
   }
 
-  private void uploadBlock()
+  private boolean isAutoThreads() {
+    return Constants.AUTO_THREADS.equals(context.get(Constants.THREADS));
+  }
+
+  /**
+   * @param metrics histograms of the uploaded blocks, null when the blocks are only scanned
+   */
+  private void uploadBlock(DshipMetrics metrics)
       throws IOException, TunnelException {
-    int threads = Integer.parseInt(DshipContext.INSTANCE.get(Constants.THREADS));
+    // with -threads auto the pool has the most threads, and blocks wait for the current limit
+    final AdaptiveConcurrency concurrency = isAutoThreads() ? new AdaptiveConcurrency(
+        Constants.AUTO_THREADS_INITIAL, Constants.AUTO_THREADS_MAX) : null;
+    int threads = concurrency != null ? Constants.AUTO_THREADS_MAX
+                                      : Integer.parseInt(context.get(Constants.THREADS));
     ExecutorService executors = new ThreadPoolExecutor(threads, threads,
                                                        0L, TimeUnit.MILLISECONDS,
                                                        new LinkedBlockingQueue<>(10240));
+    // one reporter prints the progress of all the blocks being uploaded
+    ProgressReporter reporter = new ProgressReporter(Constants.PROGRESS_TICK);
+    // a compressed block which can not be split uses the threads the other blocks leave
+    int lanes = concurrency == null && context.get(Constants.BLOCK_COUNT) != null
+                ? threads / Math.max(1, blockIndex.size()) : 1;
     ArrayList<Callable<Long>> callList = new ArrayList<>();
     for (BlockInfo block : blockIndex) {
+      if (lanes > 1 && canUploadByLanes(block, lanes)) {
+        final CompressedBlockUploader uploader = new CompressedBlockUploader(
+            context, block, tunnelUpdateSession, sessionHistory, isCsv, lanes,
+            Long.parseLong(context.get(Constants.BLOCK_COUNT)), blockSize);
+        uploader.setMetrics(metrics);
+        uploader.setProgressReporter(reporter);
+        callList.add(() -> {
+          uploader.upload();
+          return 0L;
+        });
+        continue;
+      }
       final BlockUploader
-          updater = new BlockUploader(block, tunnelUpdateSession, sessionHistory, isCsv);
-      Callable<Long> call = () -> {
-        updater.upload();
-        return 0L;
-      };
+          updater = new BlockUploader(context, block, tunnelUpdateSession, sessionHistory, isCsv);
+      updater.setMetrics(metrics);
+      updater.setProgressReporter(reporter);
+      Callable<Long> call;
+      if (concurrency == null) {
+        call = () -> {
+          updater.upload();
+          return 0L;
+        };
+      } else {
+        updater.setConcurrency(concurrency);
+        call = () -> {
+          uploadWithLimit(concurrency, updater, block.getLength());
+          return 0L;
+        };
+      }
       callList.add(call);
     }
 
@@ -257,6 +341,35 @@ public class DshipUpdate {
       throw new UserInterruptException(e.getMessage());
     } finally {
       executors.shutdownNow();
+      reporter.close();
+    }
+  }
+
+  /**
+   * @return true if the block is a compressed file which can not be split, and the first parts
+   * of its lanes have tunnel block ids
+   */
+  private boolean canUploadByLanes(BlockInfo block, int lanes) throws IOException {
+    long blockCount = Long.parseLong(context.get(Constants.BLOCK_COUNT));
+    return block.getBlockId() + (lanes - 1) * blockCount < Constants.MAX_BLOCK_ID
+           && !Util.isTypedFormat(format) && block.getStartPos() == 0
+           && block.getLength() == block.getFile().length()
+           && CompressedFile.detect(block.getFile()) != null;
+  }
+
+  private void uploadWithLimit(AdaptiveConcurrency concurrency, BlockUploader updater,
+                               long bytes)
+      throws IOException, TunnelException, ParseException, InterruptedException {
+    concurrency.acquire();
+    try {
+      updater.upload();
+    } finally {
+      concurrency.release();
+    }
+    int limit = concurrency.getLimit();
+    concurrency.onBlockComplete(bytes, updater.getElapsedTime());
+    if (concurrency.getLimit() != limit) {
+      System.err.println("Upload threads: " + concurrency.getLimit());
     }
   }
 
@@ -264,11 +377,17 @@ public class DshipUpdate {
       throws IOException, TunnelException, ParseException {
     if (!resume) {
       BlockInfoBuilder blockIndexBuilder = new BlockInfoBuilder();
-      blockIndexBuilder.setBlockSize(isCsv ? -1 : blockSize);
+      blockIndexBuilder.setBlockSize(blockSize);
+      blockIndexBuilder.setCsv(isCsv);
+      blockIndexBuilder.setFormat(format);
+      blockIndexBuilder.setCharset(context.get(Constants.CHARSET));
+      blockIndexBuilder.setRecordDelimiter(context.get(Constants.RECORD_DELIMITER));
 
       blockIndex = blockIndexBuilder.buildBlockIndex(file);
       totalUploadBytes = blockIndexBuilder.getFileSize(file);
       sessionHistory.saveBlockIndex(blockIndex);
+      context = context.with(Constants.BLOCK_COUNT, String.valueOf(blockIndex.size()));
+      sessionHistory.saveContext(context);
     } else {
       blockIndex = sessionHistory.loadBlockIndex();
     }
@@ -277,7 +396,7 @@ public class DshipUpdate {
   private boolean isScan(String scan) throws ParseException {
     if ("true".equalsIgnoreCase(scan) || "only".equalsIgnoreCase(scan)) {
       return true;
-    } else if ("false".equalsIgnoreCase(scan)) {
+    } else if ("false".equalsIgnoreCase(scan) || Constants.INLINE_SCAN.equalsIgnoreCase(scan)) {
       return false;
     } else {
       throw new ParseException("Unrecognized command, '-scan='" + scan);
@@ -285,7 +404,8 @@ public class DshipUpdate {
   }
 
   private boolean isUpload(String scan) throws ParseException {
-    if ("true".equalsIgnoreCase(scan) || "false".equalsIgnoreCase(scan)) {
+    if ("true".equalsIgnoreCase(scan) || "false".equalsIgnoreCase(scan)
+        || Constants.INLINE_SCAN.equalsIgnoreCase(scan)) {
       return true;
     } else if ("only".equalsIgnoreCase(scan)) {
       return false;
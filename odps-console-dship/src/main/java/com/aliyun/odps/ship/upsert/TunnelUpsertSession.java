@@ -37,8 +37,11 @@ import com.aliyun.odps.data.Record;
 import com.aliyun.odps.data.RecordWriter;
 import com.aliyun.odps.ship.common.CommandType;
 import com.aliyun.odps.ship.common.Constants;
-import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.FieldSlices;
 import com.aliyun.odps.ship.common.RecordConverter;
+import com.aliyun.odps.ship.history.SessionHistory;
+import com.aliyun.odps.ship.history.SessionHistoryManager;
 import com.aliyun.odps.ship.upload.TunnelUpdateSession;
 import com.aliyun.odps.tunnel.TableTunnel;
 import com.aliyun.odps.tunnel.TunnelException;
@@ -48,32 +51,37 @@ import com.aliyun.openservices.odps.console.utils.OdpsConnectionFactory;
 public class TunnelUpsertSession implements TunnelUpdateSession {
 
   private TableTunnel.UpsertSession upsert;
-  private Record record;
-
-  public TunnelUpsertSession() throws ODPSConsoleException, OdpsException, IOException {
-    String tableProject = DshipContext.INSTANCE.get(Constants.TABLE_PROJECT);
-    String schemaName = DshipContext.INSTANCE.get(Constants.SCHEMA);
-    String tableName = DshipContext.INSTANCE.get(Constants.TABLE);
-    String partitionSpec = DshipContext.INSTANCE.get(Constants.PARTITION_SPEC);
-    String resumeUpsertId = DshipContext.INSTANCE.get(Constants.RESUME_UPSERT_ID);
-
-    Odps odps = OdpsConnectionFactory.createOdps(DshipContext.INSTANCE.getExecutionContext());
+  private int[] primaryKeyIndexes;
+  private int streams;
+  private SessionHistory sessionHistory;
+  private final long retryInterval;
+
+  public TunnelUpsertSession(DshipJobContext context)
+      throws ODPSConsoleException, OdpsException, IOException {
+    retryInterval = context.getRetryInterval();
+    String tableProject = context.get(Constants.TABLE_PROJECT);
+    String schemaName = context.get(Constants.SCHEMA);
+    String tableName = context.get(Constants.TABLE);
+    String partitionSpec = context.get(Constants.PARTITION_SPEC);
+    String resumeUpsertId = context.get(Constants.RESUME_UPSERT_ID);
+
+    Odps odps = OdpsConnectionFactory.createOdps(context.getExecutionContext());
 
     PartitionSpec ps = partitionSpec == null ? null : new PartitionSpec(partitionSpec);
     TableTunnel tunnel = new TableTunnel(odps);
 
-    if (DshipContext.INSTANCE.get(Constants.TUNNEL_ENDPOINT) != null) {
-      tunnel.setEndpoint(DshipContext.INSTANCE.get(Constants.TUNNEL_ENDPOINT));
+    if (context.get(Constants.TUNNEL_ENDPOINT) != null) {
+      tunnel.setEndpoint(context.get(Constants.TUNNEL_ENDPOINT));
     } else if (StringUtils.isNotEmpty(
-        DshipContext.INSTANCE.getExecutionContext().getTunnelEndpoint())) {
-      tunnel.setEndpoint(DshipContext.INSTANCE.getExecutionContext().getTunnelEndpoint());
+        context.getExecutionContext().getTunnelEndpoint())) {
+      tunnel.setEndpoint(context.getExecutionContext().getTunnelEndpoint());
     }
 
     if (StringUtils.isEmpty(tableProject)) {
       tableProject = odps.getDefaultProject();
     }
     if (ps != null && "true".equalsIgnoreCase(
-        DshipContext.INSTANCE.get(Constants.AUTO_CREATE_PARTITION))) {
+        context.get(Constants.AUTO_CREATE_PARTITION))) {
       Table t = odps.tables().get(tableProject, schemaName, tableName);
       if (!t.hasPartition(ps)) {
         System.err.println("Create partition " + ps);
@@ -89,13 +97,27 @@ public class TunnelUpsertSession implements TunnelUpdateSession {
       builder.setUpsertId(resumeUpsertId);
     }
     upsert = builder.build();
-    // upsert requires ordered input, so the thread is set to 1.
-    DshipContext.INSTANCE.put(Constants.THREADS, "1");
-    // upsert do not support scan
-    DshipContext.INSTANCE.put(Constants.SCAN, "false");
+    primaryKeyIndexes = getPrimaryKeyIndexes(
+        odps.tables().get(tableProject, schemaName, tableName), upsert.getSchema());
+    // upsert requires ordered input, so blocks are read by one thread (see DshipUpdate), and the
+    // records are routed by primary key to the streams, see UpsertRecordWriter
+    streams = Integer.parseInt(context.get(Constants.THREADS));
+    sessionHistory = SessionHistoryManager.createSessionHistory(context, upsert.getId());
     System.err.println("Upload session: " + upsert.getId());
   }
 
+  private static int[] getPrimaryKeyIndexes(Table table, TableSchema schema) {
+    List<String> primaryKey = table.getPrimaryKey();
+    if (primaryKey == null) {
+      return new int[0];
+    }
+    int[] indexes = new int[primaryKey.size()];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = schema.getColumnIndex(primaryKey.get(i));
+    }
+    return indexes;
+  }
+
   public TableSchema getSchema() {
     return upsert.getSchema();
   }
@@ -110,7 +132,7 @@ public class TunnelUpsertSession implements TunnelUpdateSession {
   }
 
   public RecordWriter getWriter(long bId) throws IOException, TunnelException {
-    return new UpsertRecordWriter(upsert);
+    return new UpsertRecordWriter(upsert, sessionHistory, primaryKeyIndexes, streams);
   }
 
   public void complete(List<Long> bList) throws TunnelException, IOException {
@@ -129,7 +151,7 @@ public class TunnelUpsertSession implements TunnelUpdateSession {
           }
         }
         try {
-          Thread.sleep(Constants.RETRY_INTERNAL);
+          Thread.sleep(retryInterval);
         } catch (InterruptedException e) {
           throw new UserInterruptException(e.getMessage());
         }
@@ -140,12 +162,18 @@ public class TunnelUpsertSession implements TunnelUpdateSession {
   }
 
   public void initRecord() {
-    record = upsert.newRecord();
+    // records are handed over to the stream threads, so each one is created in getRecord
   }
 
   public Record getRecord(RecordConverter recordConverter, byte[][] textRecord)
       throws UnsupportedEncodingException, ParseException {
-    return recordConverter.parse(record, textRecord);
+    return recordConverter.parse(upsert.newRecord(), textRecord);
+  }
+
+  @Override
+  public Record getRecord(RecordConverter recordConverter, FieldSlices textRecord)
+      throws UnsupportedEncodingException, ParseException {
+    return recordConverter.parse(upsert.newRecord(), textRecord);
   }
 
 
@@ -20,67 +20,192 @@
 package com.aliyun.odps.ship.upsert;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.jline.reader.UserInterruptException;
+
+import com.aliyun.odps.data.Binary;
 import com.aliyun.odps.data.Record;
 import com.aliyun.odps.data.RecordWriter;
 import com.aliyun.odps.ship.history.SessionHistory;
-import com.aliyun.odps.ship.history.SessionHistoryManager;
 import com.aliyun.odps.tunnel.TableTunnel;
 import com.aliyun.odps.tunnel.TunnelException;
 import com.aliyun.odps.tunnel.streams.UpsertStream;
 
+/**
+ * Writes records of one block to an upsert session through one or more UpsertStreams.
+ *
+ * With more than one shard, every record is routed by the hash of its primary key columns to a
+ * shard, and each shard owns one UpsertStream which is only used by the shard's own thread. Records
+ * with the same key always go to the same stream in the order they are written, so the per-key
+ * order of the input is kept while the streams flush in parallel. Records must not be reused by the
+ * caller after {@link #write(Record)}.
+ *
+ * The first failure of any stream is rethrown by the next {@link #write(Record)} or by
+ * {@link #close()}, so the block fails instead of silently losing data.
+ */
 public class UpsertRecordWriter implements RecordWriter {
+
+  private static final int BATCH_SIZE = 256;
+  private static final int QUEUE_CAPACITY = 16;
+  private static final long POLL_INTERVAL = 100;
+
+  private static final List<Record> END_OF_DATA = new ArrayList<>();
+
   private DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-  private UpsertStream.Listener listener;
   private SessionHistory sessionHistory;
-  private UpsertStream stream;
+  private final int[] keyIndexes;
+  private final Shard[] shards;
+  private final AtomicReference<Throwable> error = new AtomicReference<>();
+  private boolean closed = false;
 
-  public UpsertRecordWriter(TableTunnel.UpsertSession upsertSession) throws IOException, TunnelException {
-    String sessionId = upsertSession.getId();
-    sessionHistory = SessionHistoryManager.createSessionHistory(sessionId);
-    listener = new UpsertStream.Listener() {
+  public UpsertRecordWriter(TableTunnel.UpsertSession upsertSession, SessionHistory sessionHistory)
+      throws IOException, TunnelException {
+    this(upsertSession, sessionHistory, new int[0], 1);
+  }
 
-      @Override
-      public void onFlush(UpsertStream.FlushResult result) {
-        // pass
-      }
+  /**
+   * @param keyIndexes indexes of the primary key columns used to route records
+   * @param shardCount number of streams, 1 if keyIndexes is empty
+   */
+  public UpsertRecordWriter(TableTunnel.UpsertSession upsertSession, SessionHistory sessionHistory,
+                            int[] keyIndexes, int shardCount) throws IOException, TunnelException {
+    this.sessionHistory = sessionHistory;
+    this.keyIndexes = keyIndexes;
 
-      @Override
-      public boolean onFlushFail(String error, int retry) {
-        try {
-          sessionHistory.log(String.format("flush failed %s, retry times: %d", error, retry));
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
-        print(String.format("flush failed %s, retry times: %d", error, retry));
-        return false;
+    int n = keyIndexes.length == 0 ? 1 : Math.max(shardCount, 1);
+    shards = new Shard[n];
+    try {
+      for (int i = 0; i < n; i++) {
+        UpsertStream stream =
+            upsertSession.buildUpsertStream().setListener(new FlushListener()).build();
+        shards[i] = new Shard(i, stream);
       }
-    };
-    stream = upsertSession.buildUpsertStream().setListener(listener).build();
+    } catch (IOException | TunnelException e) {
+      abort();
+      throw e;
+    }
+    for (Shard shard : shards) {
+      shard.start();
+    }
   }
 
   @Override
   public void write(Record record) throws IOException {
-    try {
-      stream.upsert(record);
-    } catch (TunnelException e) {
-      sessionHistory.log("UpsertStream upsert failed: " + e.getMessage());
-      e.printStackTrace();
+    checkError();
+    Shard shard = shards[shardOf(record)];
+    shard.batch.add(record);
+    if (shard.batch.size() >= BATCH_SIZE) {
+      shard.submit();
     }
   }
 
   @Override
   public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
     try {
-      stream.flush();
-      stream.close();
-    } catch (TunnelException e) {
-      sessionHistory.log("UpsertStream commit failed: " + e.getMessage());
-      e.printStackTrace();
+      for (Shard shard : shards) {
+        if (!shard.batch.isEmpty()) {
+          shard.submit();
+        }
+        shard.put(END_OF_DATA);
+      }
+      for (Shard shard : shards) {
+        shard.join();
+      }
+    } catch (IOException e) {
+      abort();
+      throw e;
+    }
+    checkError();
+  }
+
+  int getShardCount() {
+    return shards.length;
+  }
+
+  int shardOf(Record record) {
+    if (shards.length == 1) {
+      return 0;
+    }
+    int h = 1;
+    for (int idx : keyIndexes) {
+      h = 31 * h + hashValue(record.get(idx));
+    }
+    // spread the bits so that sequential keys do not fall into a few shards
+    h ^= (h >>> 16);
+    return (h & Integer.MAX_VALUE) % shards.length;
+  }
+
+  /**
+   * Keys which are equal in the table must go to the same shard, so values with more than one
+   * representation are normalised before hashing: 1.0 and 1.00, 0.0 and -0.0.
+   */
+  static int hashValue(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof BigDecimal) {
+      BigDecimal decimal = (BigDecimal) value;
+      return decimal.signum() == 0 ? 0 : decimal.stripTrailingZeros().hashCode();
+    }
+    if (value instanceof Double || value instanceof Float) {
+      double d = ((Number) value).doubleValue();
+      return d == 0.0d ? 0 : Double.hashCode(d);
+    }
+    if (value instanceof Binary) {
+      return Arrays.hashCode(((Binary) value).data());
+    }
+    if (value instanceof byte[]) {
+      return Arrays.hashCode((byte[]) value);
+    }
+    return value.hashCode();
+  }
+
+  private void checkError() throws IOException {
+    Throwable t = error.get();
+    if (t != null) {
+      abort();
+      if (t instanceof IOException) {
+        throw (IOException) t;
+      }
+      throw new IOException("UpsertStream failed: " + t.getMessage(), t);
+    }
+  }
+
+  private void fail(Throwable t) {
+    if (error.compareAndSet(null, t)) {
+      try {
+        sessionHistory.log("UpsertStream upsert failed: " + t.getMessage());
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Stop all shard threads, each thread closes its own stream before it exits.
+   */
+  private void abort() {
+    closed = true;
+    for (Shard shard : shards) {
+      if (shard != null) {
+        shard.interrupt();
+      }
     }
   }
 
@@ -90,4 +215,103 @@ public class UpsertRecordWriter implements RecordWriter {
     String processStr = dateTimeFormatter.format(zonedDateTime) + "\t";
     System.err.println(processStr + msg);
   }
+
+  private class FlushListener implements UpsertStream.Listener {
+
+    @Override
+    public void onFlush(UpsertStream.FlushResult result) {
+      // pass
+    }
+
+    @Override
+    public boolean onFlushFail(String error, int retry) {
+      try {
+        sessionHistory.log(String.format("flush failed %s, retry times: %d", error, retry));
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      print(String.format("flush failed %s, retry times: %d", error, retry));
+      fail(new IOException("UpsertStream flush failed: " + error));
+      return false;
+    }
+  }
+
+  private class Shard implements Runnable {
+
+    private final UpsertStream stream;
+    private final Thread thread;
+    private final BlockingQueue<List<Record>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private List<Record> batch = new ArrayList<>(BATCH_SIZE);
+
+    Shard(int id, UpsertStream stream) {
+      this.stream = stream;
+      this.thread = new Thread(this, "upsert-stream-" + id);
+      this.thread.setDaemon(true);
+    }
+
+    void start() {
+      thread.start();
+    }
+
+    void submit() throws IOException {
+      put(batch);
+      batch = new ArrayList<>(BATCH_SIZE);
+    }
+
+    void put(List<Record> records) throws IOException {
+      try {
+        while (!queue.offer(records, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+          // the shard may have stopped taking records because of an error
+          checkError();
+          if (!thread.isAlive()) {
+            throw new IOException("UpsertStream thread " + thread.getName() + " exited");
+          }
+        }
+      } catch (InterruptedException e) {
+        abort();
+        throw new UserInterruptException(e.getMessage());
+      }
+    }
+
+    void join() {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        abort();
+        throw new UserInterruptException(e.getMessage());
+      }
+    }
+
+    void interrupt() {
+      if (thread.isAlive()) {
+        thread.interrupt();
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          List<Record> records = queue.take();
+          if (records == END_OF_DATA) {
+            stream.flush();
+            break;
+          }
+          for (Record r : records) {
+            stream.upsert(r);
+          }
+        }
+      } catch (InterruptedException e) {
+        // aborted
+      } catch (Throwable t) {
+        fail(t);
+      } finally {
+        try {
+          stream.close();
+        } catch (Throwable t) {
+          fail(t);
+        }
+      }
+    }
+  }
 }
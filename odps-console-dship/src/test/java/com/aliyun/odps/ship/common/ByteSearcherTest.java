@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 测试分隔符查找
+ * */
+public class ByteSearcherTest {
+
+  @Test
+  public void testIndexOf() throws Exception {
+    byte[] src = "123||ab||||c,,,".getBytes("utf8");
+
+    assertEquals(3, new ByteSearcher("||".getBytes()).indexOf(src, 0, src.length));
+    assertEquals(7, new ByteSearcher("||".getBytes()).indexOf(src, 4, src.length));
+    assertEquals(7, new ByteSearcher("||||".getBytes()).indexOf(src, 0, src.length));
+    assertEquals(12, new ByteSearcher(",,,".getBytes()).indexOf(src, 0, src.length));
+    assertEquals(-1, new ByteSearcher(",,,".getBytes()).indexOf(src, 0, src.length - 1));
+    assertEquals(0, new ByteSearcher("1".getBytes()).indexOf(src, 0, src.length));
+    assertEquals(-1, new ByteSearcher("1".getBytes()).indexOf(src, 1, src.length));
+    assertEquals(-1, new ByteSearcher("x".getBytes()).indexOf(src, 0, src.length));
+  }
+
+  /**
+   * 和逐字节比较的朴素实现对比结果
+   * */
+  @Test
+  public void testIndexOfRandom() throws Exception {
+    Random random = new Random(0);
+    for (int round = 0; round < 2000; round++) {
+      byte[] src = new byte[random.nextInt(64)];
+      byte[] pattern = new byte[1 + random.nextInt(4)];
+      // small alphabet to get plenty of partial matches
+      for (int i = 0; i < src.length; i++) {
+        src[i] = (byte) (random.nextInt(3) - 1);
+      }
+      for (int i = 0; i < pattern.length; i++) {
+        pattern[i] = (byte) (random.nextInt(3) - 1);
+      }
+      int from = src.length == 0 ? 0 : random.nextInt(src.length);
+      ByteSearcher searcher = new ByteSearcher(pattern);
+      assertEquals(naiveIndexOf(src, from, src.length, pattern),
+                   searcher.indexOf(src, from, src.length));
+    }
+  }
+
+  private static int naiveIndexOf(byte[] src, int from, int to, byte[] pattern) {
+    for (int i = from; i <= to - pattern.length; i++) {
+      int j = 0;
+      while (j < pattern.length && src[i + j] == pattern[j]) {
+        j++;
+      }
+      if (j == pattern.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
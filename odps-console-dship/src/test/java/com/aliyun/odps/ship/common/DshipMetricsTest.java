@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.aliyun.odps.ship.history.SessionHistory;
+import com.aliyun.odps.ship.history.SessionHistoryManager;
+
+/**
+ * 测试 block 的 metrics
+ */
+public class DshipMetricsTest {
+
+  private static final String SID = "tunnel-metrics-test";
+  private static final long MIB = 1024 * 1024;
+
+  @After
+  public void tearDown() throws IOException {
+    SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(), SID).delete();
+  }
+
+  /**
+   * 测试每个 block 计入各个 histogram 的 bucket
+   */
+  @Test
+  public void testAddBlock() throws Exception {
+    DshipMetrics metrics = new DshipMetrics("upload");
+    // 2 MiB in 1 second, 4 MiB in 1 second with 2 retries, an empty block without tunnel bytes
+    metrics.addBlock(20000, 2 * MIB, MIB, 1000, 0);
+    metrics.addBlock(100000, 4 * MIB, 3 * MIB, 1000, 2);
+    metrics.addBlock(0, 0, -1, 0, 0);
+
+    assertEquals("not equal", 3, metrics.getBlocks());
+    assertEquals("not equal", 120000, metrics.getRecords());
+    DshipMetrics.Histogram secondsPerMib = metrics.getHistograms().get(0);
+    assertEquals("not equal", 2, secondsPerMib.getCount());
+    assertEquals("not equal", 0.75, secondsPerMib.getSum(), 1e-9);
+    // 0.25 and 0.5 seconds per MiB
+    assertArrayEquals("not equal", new long[]{0, 0, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0},
+                      secondsPerMib.getCounts());
+    DshipMetrics.Histogram recordsPerSecond = metrics.getHistograms().get(1);
+    assertArrayEquals("not equal", new long[]{1, 0, 0, 1, 1, 0, 0, 0, 0, 0, 0},
+                      recordsPerSecond.getCounts());
+    DshipMetrics.Histogram retries = metrics.getHistograms().get(2);
+    assertArrayEquals("not equal", new long[]{2, 0, 1, 0, 0, 0, 0}, retries.getCounts());
+    DshipMetrics.Histogram rawBytes = metrics.getHistograms().get(3);
+    assertEquals("not equal", 3, rawBytes.getCount());
+    assertEquals("not equal", 6.0 * MIB, rawBytes.getSum(), 0);
+    DshipMetrics.Histogram tunnelBytes = metrics.getHistograms().get(4);
+    assertEquals("not equal", 2, tunnelBytes.getCount());
+    assertArrayEquals("not equal", new long[]{0, 1, 1, 0, 0, 0, 0, 0, 0},
+                      tunnelBytes.getCounts());
+  }
+
+  /**
+   * 测试 Prometheus 文本格式的 bucket 是累计的
+   */
+  @Test
+  public void testPrometheus() throws Exception {
+    DshipMetrics metrics = new DshipMetrics("download");
+    metrics.addBlock(100, 1000, 500, 10, 0);
+    metrics.addBlock(100, 1000, 500, 10, 7);
+    String text = metrics.toPrometheus("sid\"1");
+
+    String labels = "{session=\"sid\\\"1\",command=\"download\"";
+    assertTrue(text, text.startsWith(
+        "# HELP tunnel_block_seconds_per_mib Seconds to transfer one MiB of raw bytes of a block.\n"
+        + "# TYPE tunnel_block_seconds_per_mib histogram\n"));
+    assertTrue(text, text.contains("tunnel_block_retries_bucket" + labels + ",le=\"0\"} 1\n"
+                                   + "tunnel_block_retries_bucket" + labels + ",le=\"1\"} 1\n"));
+    assertTrue(text, text.contains("tunnel_block_retries_bucket" + labels + ",le=\"+Inf\"} 2\n"
+                                   + "tunnel_block_retries_sum" + labels + "} 7\n"
+                                   + "tunnel_block_retries_count" + labels + "} 2\n"));
+    assertTrue(text, text.contains("tunnel_block_raw_bytes_bucket" + labels
+                                   + ",le=\"65536\"} 2\n"));
+    assertEquals("not equal", 5 * 5 + 12 + 10 + 6 + 8 + 8,
+                 text.split("\n").length);
+  }
+
+  /**
+   * 测试保存到 session 目录, 从 JSON 读回的 metrics 与保存的一致
+   */
+  @Test
+  public void testSaveAndShow() throws Exception {
+    DshipMetrics metrics = new DshipMetrics("upsert");
+    for (int i = 0; i < 100; i++) {
+      metrics.addBlock(1000, (i + 1) * MIB, MIB, 1000, i < 95 ? 0 : 3);
+    }
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   SID);
+    sh.saveMetrics(metrics);
+
+    File dir = new File(Util.getSessionDir(DshipContext.INSTANCE.snapshot(), SID));
+    String prometheus =
+        FileUtils.readFileToString(new File(dir, DshipMetrics.PROMETHEUS_FILE), "utf-8");
+    assertEquals("not equal", metrics.toPrometheus(SID), prometheus);
+    DshipMetrics loaded = DshipMetrics.fromJson(
+        FileUtils.readFileToString(new File(dir, DshipMetrics.JSON_FILE), "utf-8"));
+    assertEquals("not equal", "upsert", loaded.getCommand());
+    assertEquals("not equal", metrics.toJson(), loaded.toJson());
+    assertEquals("not equal", metrics.toPrometheus(SID), loaded.toPrometheus(SID));
+
+    String[] lines = loaded.toSummary().split("\n");
+    assertEquals("not equal", "upsert: 100 blocks, 100000 records", lines[0]);
+    assertTrue(lines[4], lines[4].matches("retries\\s+100\\s+0.2\\s+<= 0\\s+<= 0\\s+<= 3"));
+    assertTrue(lines[5], lines[5].matches(
+        "raw_bytes\\s+100\\s+50\\.5 MB\\s+<= 64 MB\\s+<= 256 MB\\s+<= 256 MB"));
+  }
+}
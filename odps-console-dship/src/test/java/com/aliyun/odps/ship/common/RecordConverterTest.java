@@ -46,18 +46,23 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.TimeZone;
 
 import org.apache.commons.cli.ParseException;
@@ -941,4 +946,177 @@ public class RecordConverterTest {
     assertEquals(record1.get(2).toString(), record2.get(2).toString());
     assertEquals(record1.get(3).toString(), record2.get(3).toString());
   }
+
+  /**
+   * 测试 BIGINT/INT/DOUBLE/BOOLEAN 直接从字节解析的结果和异常信息与 String 解析一致
+   */
+  @Test
+  public void testParseNumberFromBytes() throws Exception {
+    TableSchema rs = mkTableSchema(BIGINT, INT, DOUBLE, BOOLEAN);
+    RecordConverter converter = new ConverterBuilder(rs).build();
+    RecordConverter gbkConverter = new ConverterBuilder(rs).charset("gbk").build();
+
+    String[] values = new String[]{"0", "-0", "+1", "007", " 12 ", "\t-3\r\n", "1.", ".5", "-.5",
+                                   "0.1", "3.14159", "123456789012345", "1234567890123456789",
+                                   "9223372036854775807", "9223372036854775808",
+                                   "-9223372036854775807", "2147483647", "2147483648",
+                                   "-2147483648", "-2147483649", "00000000000000000000001",
+                                   "1e3", "1E-3", "NaN", "-Infinity", "1d", "0x10", "", " ", "-",
+                                   "+", ".", "1.2.3", "1 2", "abc", "\u0000", "\u00001",
+                                   "１２", "true", "FALSE", "True", "1", "0", "t", "truee",
+                                   "0.30000000000000004", "4.35", "0.000000000000000000001",
+                                   "NULL", "null"};
+    for (RecordConverter c : new RecordConverter[]{converter, gbkConverter}) {
+      for (String v : values) {
+        for (int i = 0; i < rs.getColumns().size(); i++) {
+          String[] text = new String[]{"0", "0", "0", "0"};
+          text[i] = v;
+          Object expected;
+          try {
+            expected = "NULL".equals(v) ? null : parseByString(rs.getColumn(i).getType(), v);
+          } catch (Exception e) {
+            expected = e;
+          }
+
+          // the field is a slice in the middle of a buffer
+          FieldSlices slices = new FieldSlices();
+          for (String t : text) {
+            byte[] buf = ("||" + t + "||").getBytes(c == gbkConverter ? "gbk" : "utf8");
+            slices.add(buf, 2, buf.length - 4);
+          }
+          try {
+            ArrayRecord r = (ArrayRecord) c.parse(new ArrayRecord(rs), slices);
+            assertEquals(v + " at " + i, expected, r.get(i));
+          } catch (ParseException e) {
+            assertTrue(v + " at " + i + ": " + e.getMessage(), expected instanceof Exception);
+            String head = "ERROR: format error - :" + (i + 1) + ", " + rs.getColumn(i).getTypeInfo()
+                          + ":'" + (v.length() > 20 ? v.substring(0, 17) + "..." : v) + "'  "
+                          + expected.toString();
+            assertTrue(e.getMessage(), e.getMessage().startsWith(head));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * 测试格式化到复用的 buffer 与 format(Record) 的结果逐字节一致, 包括设置 -dfp / -tz / charset
+   */
+  @Test
+  public void testFormatIntoBuffer() throws Exception {
+    TableSchema rs = new TableSchema();
+    rs.addColumn(new Column("bigint", TypeInfoFactory.BIGINT));
+    rs.addColumn(new Column("int", TypeInfoFactory.INT));
+    rs.addColumn(new Column("double", TypeInfoFactory.DOUBLE));
+    rs.addColumn(new Column("boolean", TypeInfoFactory.BOOLEAN));
+    rs.addColumn(new Column("string", TypeInfoFactory.STRING));
+    rs.addColumn(new Column("datetime", TypeInfoFactory.DATETIME));
+    rs.addColumn(new Column("timestamp", TypeInfoFactory.TIMESTAMP));
+    rs.addColumn(new Column("timestamp_ntz", TypeInfoFactory.TIMESTAMP_NTZ));
+    rs.addColumn(new Column("date", TypeInfoFactory.DATE));
+    rs.addColumn(new Column("decimal", TypeInfoFactory.getDecimalTypeInfo(38, 18)));
+    rs.addColumn(new Column("float", TypeInfoFactory.FLOAT));
+
+    String[][] options = new String[][]{
+        {null, null, "UTF-8"}, {null, "Asia/Shanghai", "UTF-8"}, {null, "America/New_York", "GBK"},
+        {"yyyyMMddHHmmss", "GMT", "UTF-8"}, {"yyyy/MM/dd HH:mm:ss.SSS", null, "ignore"},
+        {null, "GMT+08:00", "ignore"}};
+    String[] strings = new String[]{"", "abc", "中文字符", "a\tb,c\n", "\uD83D\uDE00 emoji", "NULL"};
+    Random random = new Random(0);
+    for (String[] option : options) {
+      for (boolean exponential : new boolean[]{false, true}) {
+        RecordConverter expected =
+            new RecordConverter(rs, "NULL", option[0], option[1], option[2], exponential, true);
+        RecordConverter buffered =
+            new RecordConverter(rs, "NULL", option[0], option[1], option[2], exponential, true);
+        ZoneId zone = option[1] == null ? ZoneId.systemDefault()
+                                        : TimeZone.getTimeZone(option[1]).toZoneId();
+        FieldSlices cells = new FieldSlices();
+        for (int n = 0; n < 5000; n++) {
+          Record r = new ArrayRecord(rs.getColumns().toArray(new Column[0]));
+          // years 0 to 9999, the range MaxCompute accepts, and mostly around now
+          long seconds = random.nextInt(5) == 0
+                         ? -62000000000L + (long) (random.nextDouble() * 315000000000L)
+                         : random.nextLong() % 4000000000L;
+          int nanos = random.nextBoolean() ? 0 : random.nextInt(1000000000)
+                                                 / (int) Math.pow(10, random.nextInt(9));
+          Instant instant = Instant.ofEpochSecond(seconds, nanos);
+          r.set(0, random.nextBoolean() ? random.nextLong() : (long) random.nextInt(1000) - 500);
+          r.set(1, random.nextInt());
+          r.set(2, randomDouble(random));
+          r.set(3, random.nextBoolean());
+          if (random.nextBoolean()) {
+            r.set(4, strings[random.nextInt(strings.length)]);
+          } else {
+            byte[] bytes = new byte[random.nextInt(8)];
+            random.nextBytes(bytes);
+            r.set(4, bytes);
+          }
+          r.set(5, instant.atZone(random.nextBoolean() ? zone : ZoneOffset.ofHours(-3)));
+          r.set(6, instant);
+          r.set(7, LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC));
+          r.set(8, LocalDate.ofEpochDay(seconds / 86400));
+          r.set(9, new BigDecimal(random.nextLong()).movePointLeft(random.nextInt(18)));
+          r.set(10, random.nextFloat() * 1000);
+          for (int i = 0; i < rs.getColumns().size(); i++) {
+            if (random.nextInt(20) == 0) {
+              r.set(i, null);
+            }
+          }
+
+          byte[][] line = expected.format(r);
+          buffered.format(r, cells);
+          assertEquals("not equal", line.length, cells.size());
+          for (int i = 0; i < line.length; i++) {
+            if (!Arrays.equals(line[i], cells.toBytes(i))) {
+              fail(Arrays.toString(option) + " " + rs.getColumn(i).getName() + " " + r.get(i)
+                   + ": '" + new String(line[i]) + "' != '" + new String(cells.toBytes(i)) + "'");
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static double randomDouble(Random random) {
+    switch (random.nextInt(8)) {
+      case 0:
+        return Double.longBitsToDouble(random.nextLong());
+      case 1:
+        return random.nextInt(2000000) / 100.0 - 10000;
+      case 2:
+        return (double) random.nextLong();
+      case 3:
+        return random.nextInt(1000) - 500;
+      case 4:
+        return new double[]{0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY,
+                            Double.NEGATIVE_INFINITY, 0.001, 0.00099, 1e7, 9999999.5, 0.002,
+                            Double.MAX_VALUE, Double.MIN_VALUE, 9007199254740992.0,
+                            9007199254740993.0, 1e22, 1e23}[random.nextInt(16)];
+      case 5:
+        return random.nextDouble() * Math.pow(10, random.nextInt(12) - 4);
+      default:
+        return random.nextGaussian() * 1e6;
+    }
+  }
+
+  private static Object parseByString(OdpsType type, String v) {
+    String value = v.trim();
+    switch (type) {
+      case BIGINT:
+        return Long.valueOf(value);
+      case INT:
+        return Integer.valueOf(value);
+      case DOUBLE:
+        return Double.valueOf(value);
+      default:
+        String vStr = value.toLowerCase();
+        if ("true".equals(vStr) || "false".equals(vStr)) {
+          return "true".equals(vStr);
+        } else if ("0".equals(vStr) || "1".equals(vStr)) {
+          return "1".equals(vStr);
+        }
+        throw new IllegalArgumentException("Invalid boolean value, expect: 'true'|'false'|'0'|'1'");
+    }
+  }
 }
@@ -22,6 +22,8 @@ package com.aliyun.odps.ship.common;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -32,12 +34,12 @@ public class UtilTest {
 
   @Test
   public void testGetSessionBaseDir() {
-    String path = Util.getSessionBaseDir();
+    String path = Util.getSessionBaseDir(DshipContext.INSTANCE.snapshot());
     System.err.println(path);
     String sessionDir = path + "/custom_session_dir" + System.currentTimeMillis();
     DshipContext.INSTANCE.put(Constants.SESSION_DIR, sessionDir);
     assertEquals("custom_session_dir", sessionDir,
-                 Util.getSessionBaseDir());
+                 Util.getSessionBaseDir(DshipContext.INSTANCE.snapshot()));
     assertTrue("custom_session_dir", (new File(sessionDir).exists()));
     DshipContext.INSTANCE.remove(Constants.SESSION_DIR);
 
@@ -46,7 +48,7 @@ public class UtilTest {
       File file = new File(sessionFile);
       file.createNewFile();
       DshipContext.INSTANCE.put(Constants.SESSION_DIR, sessionFile);
-      Util.getSessionBaseDir();
+      Util.getSessionBaseDir(DshipContext.INSTANCE.snapshot());
       fail("custom session dir can't be file");
     } catch (Exception e) {
       DshipContext.INSTANCE.remove(Constants.SESSION_DIR);
@@ -56,20 +58,23 @@ public class UtilTest {
 
   @Test
   public void testGetSessionDir() {
-    String path = Util.getSessionBaseDir();
+    DshipJobContext context = DshipContext.INSTANCE.snapshot();
+    String path = Util.getSessionBaseDir(context);
 
     //in ut, root dir is src/test/resources/file
-    assertEquals("null", path + "/sessions/null/null", Util.getSessionDir(null));
+    assertEquals("null", path + "/sessions/null/null", Util.getSessionDir(context, null));
     assertEquals("abc",
-                 path + "/sessions/abc/abc", Util.getSessionDir("abc"));
+                 path + "/sessions/abc/abc", Util.getSessionDir(context, "abc"));
     assertEquals("abcdefghijk",
-                 path + "/sessions/abcdefghijk/abcdefghijk", Util.getSessionDir("abcdefghijk"));
+                 path + "/sessions/abcdefghijk/abcdefghijk",
+                 Util.getSessionDir(context, "abcdefghijk"));
     assertEquals("20141129",
-                 path + "/sessions/20141129/20141129", Util.getSessionDir("20141129"));
+                 path + "/sessions/20141129/20141129", Util.getSessionDir(context, "20141129"));
     assertEquals("20141131",
-                 path + "/sessions/20141131/20141131", Util.getSessionDir("20141131"));
+                 path + "/sessions/20141131/20141131", Util.getSessionDir(context, "20141131"));
     assertEquals("20141129abc",
-                 path + "/sessions/20141129/20141129abc", Util.getSessionDir("20141129abc"));
+                 path + "/sessions/20141129/20141129abc",
+                 Util.getSessionDir(context, "20141129abc"));
   }
 
   @Test
@@ -79,4 +84,48 @@ public class UtilTest {
     assertFalse(Util.isIgnoreCharset("gbk"));
     assertFalse(Util.isIgnoreCharset("utf-8"));
   }
+
+  @Test
+  public void testWellFormedMultiByte() {
+    Charset gbk = Charset.forName("GBK");
+    Charset gb18030 = Charset.forName("GB18030");
+    Charset big5 = Charset.forName("Big5");
+    for (int lead = 0x80; lead <= 0xff; lead++) {
+      byte[] single = new byte[]{(byte) lead};
+      assertFalse(Util.isWellFormedGbk(single, 0, 1, false));
+      assertFalse(Util.isWellFormedGbk(single, 0, 1, true));
+      assertFalse(Util.isWellFormedBig5(single, 0, 1));
+      for (int trail = 0; trail <= 0xff; trail++) {
+        byte[] pair = new byte[]{'a', (byte) lead, (byte) trail, 'b'};
+        String msg = Integer.toHexString(lead) + " " + Integer.toHexString(trail);
+        assertEquals(msg, isRoundTrip(pair, gbk), Util.isWellFormedGbk(pair, 1, 2, false));
+        assertEquals(msg, isRoundTrip(pair, gb18030), Util.isWellFormedGbk(pair, 1, 2, true));
+        assertEquals(msg, isRoundTrip(pair, big5), Util.isWellFormedBig5(pair, 1, 2));
+      }
+    }
+
+    // the edges of the four-byte ranges of gb18030
+    for (int first : new int[]{0x81, 0x84, 0x85, 0x8f, 0x90, 0xe3, 0xe4, 0xfe}) {
+      for (int second = 0x30; second <= 0x39; second++) {
+        for (int third = 0x80; third <= 0xff; third++) {
+          for (int fourth = 0x2f; fourth <= 0x3a; fourth++) {
+            byte[] v = new byte[]{(byte) first, (byte) second, (byte) third, (byte) fourth};
+            assertEquals(Arrays.toString(v), isRoundTrip(v, gb18030),
+                         Util.isWellFormedGbk(v, 0, 4, true));
+          }
+        }
+      }
+    }
+    byte[] cut = "中文".getBytes(gb18030);
+    assertTrue(Util.isWellFormedGbk(cut, 0, cut.length, true));
+    assertFalse(Util.isWellFormedGbk(cut, 0, cut.length - 1, true));
+    byte[] emoji = "😀".getBytes(gb18030);
+    assertTrue(Util.isWellFormedGbk(emoji, 0, emoji.length, true));
+    assertFalse(Util.isWellFormedGbk(emoji, 0, emoji.length - 1, true));
+    assertFalse(Util.isWellFormedGbk(emoji, 0, emoji.length, false));
+  }
+
+  private static boolean isRoundTrip(byte[] v, Charset charset) {
+    return Arrays.equals(v, new String(v, charset).getBytes(charset));
+  }
 }
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.commons.transport.DefaultConnection;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.RecordReader;
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.OptionsBuilder;
+import com.aliyun.odps.tunnel.TunnelException;
+import com.aliyun.odps.tunnel.io.CompressOption;
+import com.aliyun.odps.tunnel.io.TunnelRecordReader;
+import com.aliyun.openservices.odps.console.ExecutionContext;
+
+public class ChunkedDownloadTest {
+
+  private static final String DIR = "src/test/resources/file/filedownloader/chunked";
+  private static final long LINES = 1003;
+
+  @Before
+  public void setup() throws Exception {
+    String[] args =
+        new String[]{"download", "instance://chunked_download_test", DIR + "/tmp.txt", "-fd=,",
+                     "-rd=\n"};
+    DshipContext.INSTANCE.setExecutionContext(new ExecutionContext());
+    OptionsBuilder.buildDownloadOption(args);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(new File(DIR));
+  }
+
+  /**
+   * 测试一个分区切分成多个 chunk 乱序下载后，文件内容和整体下载一致，不丢行也不重复
+   */
+  @Test
+  public void testChunksInAnyOrder() throws Exception {
+    RangeDownloadSession ds = new RangeDownloadSession(LINES);
+    new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                       DIR + "/serial.txt", 0L, 0L, LINES, ds, null, false, null).download();
+    String expected = FileUtils.readFileToString(new File(DIR + "/serial.txt"), "UTF-8");
+    assertEquals("not equal", LINES, expected.split("\n").length);
+
+    for (long chunkLines : new long[]{100, 334, 1002, 1003, 5000}) {
+      String path = DIR + "/chunked_" + chunkLines + ".txt";
+      FileDownloader downloader = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                                                     path, 0L, 0L, LINES, ds, null, false, null);
+      List<Callable<Long>> chunks = downloader.split(chunkLines);
+      assertEquals("not equal", (LINES + chunkLines - 1) / chunkLines, chunks.size());
+
+      // the last chunk first, then the others by several threads
+      Collections.reverse(chunks);
+      ExecutorService executors = Executors.newFixedThreadPool(3);
+      long writtenBytes = 0;
+      try {
+        for (Future<Long> future : executors.invokeAll(chunks)) {
+          writtenBytes += future.get();
+        }
+      } finally {
+        executors.shutdownNow();
+      }
+
+      assertEquals("chunk size " + chunkLines, expected,
+                   FileUtils.readFileToString(new File(path), "UTF-8"));
+      assertEquals("not equal", expected.length(), writtenBytes);
+      assertEquals("not equal", writtenBytes, downloader.getWrittenBytes());
+      for (int i = 1; i < chunks.size(); i++) {
+        assertFalse("temporary file is not deleted", new File(path + "." + i + ".tmp").exists());
+      }
+    }
+  }
+
+  /**
+   * 测试空分区切分后仍然生成空文件
+   */
+  @Test
+  public void testEmptyPartition() throws Exception {
+    RangeDownloadSession ds = new RangeDownloadSession(0);
+    String path = DIR + "/empty.txt";
+    FileDownloader downloader = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                                                   path, 0L, 0L, 0L, ds, null, false, null);
+    List<Callable<Long>> chunks = downloader.split(10);
+    assertEquals("not equal", 1, chunks.size());
+    assertEquals("not equal", Long.valueOf(0), chunks.get(0).call());
+    assertEquals("not equal", 0, new File(path).length());
+  }
+
+  /**
+   * 测试一个 chunk 下载失败后，所有 chunk 的临时文件都被删除
+   */
+  @Test
+  public void testFailedChunkDeletesTemporaryFiles() throws Exception {
+    // the chunk [500, 600) fails, the chunks after it are done before it or after it fails
+    RangeDownloadSession ds = new RangeDownloadSession(LINES) {
+      @Override
+      public DshipRecordReader getRecordReader(Long start, final Long end)
+          throws IOException, TunnelException {
+        if (start != 500) {
+          return super.getRecordReader(start, end);
+        }
+        return new DshipRecordReader(null, start, end, null) {
+          @Override
+          protected RecordReader openRecordReader(long currentLines) throws IOException {
+            return new RangeReader(getSchema(), currentLines, end) {
+              @Override
+              public Record read(Record r) throws IOException {
+                throw new IOException("mock read error");
+              }
+            };
+          }
+        };
+      }
+    };
+    String path = DIR + "/failed.txt";
+    FileDownloader downloader = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                                                   path, 0L, 0L, LINES, ds, null, false, null);
+    List<Callable<Long>> chunks = downloader.split(100);
+    Collections.reverse(chunks);
+    ExecutorService executors = Executors.newFixedThreadPool(3);
+    int failed = 0;
+    try {
+      for (Future<Long> future : executors.invokeAll(chunks)) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          assertTrue(e.getMessage(), e.getMessage().contains("mock read error"));
+          failed++;
+        }
+      }
+    } finally {
+      executors.shutdownNow();
+    }
+    assertEquals("not equal", 1, failed);
+    for (int i = 1; i < chunks.size(); i++) {
+      assertFalse("temporary file is not deleted", new File(path + "." + i + ".tmp").exists());
+    }
+  }
+
+  /**
+   * 测试切分前删除上次下载留下的临时文件，不删除其他文件的临时文件
+   */
+  @Test
+  public void testStaleTemporaryFilesDeleted() throws Exception {
+    RangeDownloadSession ds = new RangeDownloadSession(LINES);
+    String path = DIR + "/stale.txt";
+    FileDownloader downloader = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                                                   path, 0L, 0L, LINES, ds, null, false, null);
+    FileUtils.writeStringToFile(new File(path + ".3.tmp"), "stale", "UTF-8");
+    FileUtils.writeStringToFile(new File(path + ".42.tmp"), "stale", "UTF-8");
+    FileUtils.writeStringToFile(new File(DIR + "/other.txt.1.tmp"), "other", "UTF-8");
+
+    List<Callable<Long>> chunks = downloader.split(500);
+    assertEquals("not equal", 3, chunks.size());
+    assertFalse("stale file is not deleted", new File(path + ".3.tmp").exists());
+    assertFalse("stale file is not deleted", new File(path + ".42.tmp").exists());
+    assertTrue("other file is deleted", new File(DIR + "/other.txt.1.tmp").exists());
+
+    for (Callable<Long> chunk : chunks) {
+      chunk.call();
+    }
+    assertEquals("not equal", LINES,
+                 FileUtils.readFileToString(new File(path), "UTF-8").split("\n").length);
+  }
+
+  /**
+   * Download session whose readers return exactly the records in the requested range.
+   */
+  static class RangeDownloadSession extends TunnelDownloadSession {
+
+    private final TableSchema schema;
+
+    RangeDownloadSession(long lines) {
+      super(lines);
+      schema = new TableSchema();
+      schema.addColumn(new Column("id", OdpsType.BIGINT));
+      schema.addColumn(new Column("name", OdpsType.STRING));
+    }
+
+    @Override
+    public TableSchema getSchema() {
+      return schema;
+    }
+
+    @Override
+    public String getDownloadId() {
+      return "range-download-id";
+    }
+
+    @Override
+    public DshipRecordReader getRecordReader(Long start, final Long end)
+        throws IOException, TunnelException {
+      return new DshipRecordReader(null, start, end, null) {
+        @Override
+        protected RecordReader openRecordReader(long currentLines) throws IOException {
+          return new RangeReader(schema, currentLines, end);
+        }
+      };
+    }
+  }
+
+  static class RangeReader extends TunnelRecordReader {
+
+    private static final DefaultConnection connection = new DefaultConnection() {
+      @Override
+      public InputStream getInputStream() {
+        return null;
+      }
+    };
+
+    private final TableSchema schema;
+    private long next;
+    private final long end;
+
+    RangeReader(TableSchema schema, long start, long end) throws IOException {
+      super(schema, connection, new CompressOption());
+      this.schema = schema;
+      this.next = start;
+      this.end = end;
+    }
+
+    @Override
+    public Record read() {
+      if (next >= end) {
+        return null;
+      }
+      ArrayRecord r = new ArrayRecord(schema.getColumns().toArray(new Column[0]));
+      r.setBigint(0, next);
+      r.setString(1, "row" + next);
+      next++;
+      return r;
+    }
+
+    @Override
+    public Record read(Record r) throws IOException {
+      return read();
+    }
+
+    @Override
+    public long getTotalBytes() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.OptionsBuilder;
+import com.aliyun.odps.ship.upload.CompressedFile;
+import com.aliyun.openservices.odps.console.ExecutionContext;
+
+/**
+ * 测试下载文件的压缩输出
+ */
+public class CompressedDownloadTest {
+
+  private static final String DIR = "src/test/resources/file/filedownloader/compressed";
+  private static final long LINES = 1003;
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(new File(DIR));
+  }
+
+  /**
+   * 测试压缩文件解压后与不压缩下载的文件一致, 包括分 chunk 下载的文件
+   */
+  @Test
+  public void testDownload() throws Exception {
+    for (String compress : new String[]{"gzip", "zstd"}) {
+      CompressedFile.Codec codec = CompressedFile.Codec.valueOf(compress.toUpperCase());
+      ChunkedDownloadTest.RangeDownloadSession ds =
+          new ChunkedDownloadTest.RangeDownloadSession(LINES);
+      buildContext(null);
+      new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                         DIR + "/plain.txt", 0L, 0L, LINES, ds, null, false, null).download();
+      String expected = FileUtils.readFileToString(new File(DIR + "/plain.txt"), "UTF-8");
+
+      buildContext(compress);
+      File serial = new File(DIR + "/serial.txt." + compress);
+      new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                         serial.getPath(), 0L, 0L, LINES, ds, null, false, null).download();
+      assertEquals("not equal", codec, CompressedFile.detect(serial));
+      assertEquals("not equal", expected, decompress(serial, codec));
+
+      File chunked = new File(DIR + "/chunked.txt." + compress);
+      FileDownloader downloader = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+          chunked.getPath(), 0L, 0L, LINES, ds, null, false, null);
+      List<Callable<Long>> chunks = downloader.split(100);
+      Collections.reverse(chunks);
+      long writtenBytes = 0;
+      for (Callable<Long> chunk : chunks) {
+        writtenBytes += chunk.call();
+      }
+      assertEquals("not equal", expected, decompress(chunked, codec));
+      assertEquals("not equal", chunked.length(), writtenBytes);
+    }
+  }
+
+  /**
+   * 测试中断后截断到已 flush 的字节仍可解压, 续传追加后与完整内容一致
+   */
+  @Test
+  public void testCutAndResume() throws Exception {
+    for (CompressedFile.Codec codec : CompressedFile.Codec.values()) {
+      File file = new File(DIR + "/resume." + codec);
+      file.getParentFile().mkdirs();
+      TextRecordWriter writer = new TextRecordWriter(file, ",", "\n", false, codec);
+      writeLines(writer, 0, 500);
+      writer.flush();
+      long flushed = writer.getWrittedBytes();
+      assertEquals("not equal", flushed, file.length());
+      writeLines(writer, 500, 600);
+      writer.flush();
+      writer.close();
+
+      // the download is interrupted after the first flush
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(flushed);
+      } finally {
+        raf.close();
+      }
+      assertEquals("not equal", lines(0, 500), decompress(file, codec));
+
+      writer = new TextRecordWriter(file, ",", "\n", true, codec);
+      writeLines(writer, 500, 1000);
+      writer.close();
+      assertEquals("not equal", lines(0, 1000), decompress(file, codec));
+    }
+  }
+
+  /**
+   * 测试没有记录时生成可以解压的空文件
+   */
+  @Test
+  public void testEmpty() throws Exception {
+    for (CompressedFile.Codec codec : CompressedFile.Codec.values()) {
+      File file = new File(DIR + "/empty." + codec);
+      file.getParentFile().mkdirs();
+      new TextRecordWriter(file, ",", "\n", false, codec).close();
+      assertTrue("empty file", file.length() > 0);
+      assertEquals("not equal", "", decompress(file, codec));
+    }
+  }
+
+  /**
+   * 测试不支持的压缩格式
+   */
+  @Test
+  public void testInvalidCompress() throws Exception {
+    try {
+      buildContext("lz4");
+      fail("need fail.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith(
+          "Invalid parameter : output compress expected 'gzip' or 'zstd', found 'lz4'"));
+    }
+  }
+
+  private static void buildContext(String compress) throws Exception {
+    String[] args =
+        new String[]{"download", "instance://compressed_download_test", DIR + "/tmp.txt",
+                     "-fd=,", "-rd=\n"};
+    if (compress != null) {
+      args = new String[]{args[0], args[1], args[2], args[3], args[4], "-oc=" + compress};
+    }
+    DshipContext.INSTANCE.setExecutionContext(new ExecutionContext());
+    OptionsBuilder.buildDownloadOption(args);
+  }
+
+  private static void writeLines(RecordWriter writer, int from, int to) throws IOException {
+    List<byte[]> ptVals = Collections.emptyList();
+    for (int i = from; i < to; i++) {
+      writer.write(new byte[][]{String.valueOf(i).getBytes(), ("row" + i).getBytes()}, ptVals);
+    }
+  }
+
+  private static String lines(int from, int to) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = from; i < to; i++) {
+      sb.append(i).append(",row").append(i).append("\n");
+    }
+    return sb.toString();
+  }
+
+  private static String decompress(File file, CompressedFile.Codec codec) throws IOException {
+    InputStream is = CompressedFile.open(file, codec, 0, -1);
+    try {
+      return IOUtils.toString(is, "UTF-8");
+    } finally {
+      is.close();
+    }
+  }
+}
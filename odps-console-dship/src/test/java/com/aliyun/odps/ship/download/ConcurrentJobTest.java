@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.ship.DShipCommand;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.history.SessionHistoryManager;
+import com.aliyun.odps.ship.local.LocalTunnelServer;
+import com.aliyun.odps.type.TypeInfoFactory;
+
+/**
+ * 测试同一个 JVM 中同时运行的 tunnel 任务使用各自的选项
+ */
+public class ConcurrentJobTest {
+
+  private static final String DIR = "src/test/resources/file/concurrent";
+  private static final int LINES = 5000;
+  private static final int ROUNDS = 3;
+
+  private LocalTunnelServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new LocalTunnelServer();
+    for (String table : new String[]{"a", "b"}) {
+      TableSchema schema = new TableSchema();
+      schema.addColumn(new Column("id", TypeInfoFactory.BIGINT));
+      schema.addColumn(new Column("name", TypeInfoFactory.STRING));
+      server.createTable(table, schema);
+    }
+    new File(DIR).mkdirs();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+    FileUtils.deleteDirectory(new File(DIR));
+  }
+
+  /**
+   * 测试同时上传的两个任务用各自的分隔符解析数据, 会话记录写在各自的 session 目录
+   */
+  @Test
+  public void testConcurrentUploads() throws Exception {
+    // the names contain the delimiters of the other job
+    FileUtils.writeStringToFile(new File(DIR + "/a.txt"), lines(",", "\n", "a|"), "UTF-8");
+    FileUtils.writeStringToFile(new File(DIR + "/b.txt"), lines("|", "#", "b,"), "UTF-8");
+
+    runConcurrently(
+        "tunnel upload " + DIR + "/a.txt a -fd , -threads 2 -bs 1 -sd " + sessionDir("a"),
+        "tunnel upload " + DIR + "/b.txt b -fd | -rd # -threads 2 -bs 1 -sd " + sessionDir("b"));
+
+    assertRecords(server.getRecords("a", null), "a|");
+    assertRecords(server.getRecords("b", null), "b,");
+    assertSessions("a", Constants.TABLE, "a");
+    assertSessions("b", Constants.TABLE, "b");
+  }
+
+  /**
+   * 测试同时下载的两个任务用各自的分隔符写文件, 会话记录写在各自的 session 目录
+   */
+  @Test
+  public void testConcurrentDownloads() throws Exception {
+    server.append("a", null, records("a|"));
+    server.append("b", null, records("b,"));
+
+    runConcurrently(
+        "tunnel download a " + DIR + "/a.txt -fd , -threads 2 -sd " + sessionDir("a"),
+        "tunnel download b " + DIR + "/b.txt -fd | -rd # -sd " + sessionDir("b"));
+
+    StringBuilder a = new StringBuilder();
+    for (int i = 0; i < 2; i++) {
+      a.append(FileUtils.readFileToString(new File(DIR + "/a/a_" + i + ".txt"), "UTF-8"));
+    }
+    assertEquals("not equal", lines(",", "\n", "a|"), a.toString());
+    assertEquals("not equal", lines("|", "#", "b,"),
+                 FileUtils.readFileToString(new File(DIR + "/b.txt"), "UTF-8"));
+    assertSessions("a", Constants.TABLE, "a");
+    assertSessions("b", Constants.TABLE, "b");
+  }
+
+  /**
+   * Parse and run each command ROUNDS times on its own thread, the commands start together.
+   */
+  private void runConcurrently(final String... commands) throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(commands.length);
+    ExecutorService executors = Executors.newFixedThreadPool(commands.length);
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (final String command : commands) {
+        futures.add(executors.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int i = 0; i < ROUNDS; i++) {
+              barrier.await(30, TimeUnit.SECONDS);
+              DShipCommand.parse(command, server.newExecutionContext()).run();
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executors.shutdownNow();
+    }
+  }
+
+  /**
+   * Check that the session dir of a job only keeps its own sessions.
+   */
+  private void assertSessions(String job, String key, String value) throws IOException {
+    Map<String, String> options = new HashMap<String, String>();
+    options.put(Constants.SESSION_DIR, sessionDir(job));
+    DshipJobContext context = new DshipJobContext(options, null);
+    assertNotNull(SessionHistoryManager.getLatest(context));
+    int sessions = 0;
+    for (File date : new File(sessionDir(job), "sessions").listFiles()) {
+      for (File session : date.listFiles()) {
+        Map<String, String> saved =
+            SessionHistoryManager.createSessionHistory(context, session.getName()).loadProperty();
+        assertEquals("not equal", value, saved.get(key));
+        sessions++;
+      }
+    }
+    assertEquals("not equal", ROUNDS, sessions);
+  }
+
+  private static String sessionDir(String job) {
+    return new File(DIR, "sessions_" + job).getAbsolutePath();
+  }
+
+  private static void assertRecords(List<Record> records, String prefix) {
+    assertEquals("not equal", ROUNDS * LINES, records.size());
+    for (int i = 0; i < records.size(); i++) {
+      long id = i % LINES;
+      assertEquals("not equal", Long.valueOf(id), records.get(i).getBigint("id"));
+      assertEquals("not equal", prefix + id, records.get(i).getString("name"));
+    }
+  }
+
+  private static List<Record> records(String prefix) {
+    Column[] columns = {new Column("id", TypeInfoFactory.BIGINT),
+                        new Column("name", TypeInfoFactory.STRING)};
+    List<Record> records = new ArrayList<Record>();
+    for (int i = 0; i < LINES; i++) {
+      Record record = new ArrayRecord(columns);
+      record.setBigint(0, (long) i);
+      record.setString(1, prefix + i);
+      records.add(record);
+    }
+    return records;
+  }
+
+  private static String lines(String fd, String rd, String prefix) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < LINES; i++) {
+      sb.append(i).append(fd).append(prefix).append(i).append(rd);
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.aliyun.odps.ship.common.FieldSlices;
+import com.csvreader.CsvWriter;
+
+/**
+ * 测试 CsvRecordWriter 直接在编码后的字节上转义
+ */
+public class CsvRecordWriterTest {
+
+  private static final String[] PIECES = new String[]{"a", "abc", "1.5", ",", "\"", "\"\"", "\r",
+                                                      "\n", "\r\n", " ", "\t", "#", "'", "\\", "",
+                                                      "中文", "表", "ü", "😀", "NULL"};
+
+  /**
+   * 测试随机生成的内容与 javacsv 的输出逐字节一致, 包括 gbk 等多字节编码和非法字节
+   */
+  @Test
+  public void testSameAsJavacsv() throws Exception {
+    Random random = new Random(0);
+    for (String cs : new String[]{"UTF-8", "GBK", "GB18030", "Big5", "ISO-8859-1", "ignore",
+                                 "UTF-16"}) {
+      Charset charset = Charset.forName("ignore".equals(cs) ? "UTF-8" : cs);
+      for (int ptCount = 0; ptCount < 3; ptCount++) {
+        List<byte[]> ptVals = new ArrayList<byte[]>();
+        for (int i = 0; i < ptCount; i++) {
+          ptVals.add(randomValue(random, charset));
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        CsvWriter javacsv = new CsvWriter(expected, ',', charset);
+        ByteArrayOutputStream arraysOut = new ByteArrayOutputStream();
+        CsvRecordWriter arrays = new CsvRecordWriter(arraysOut, cs, null);
+        ByteArrayOutputStream slicesOut = new ByteArrayOutputStream();
+        CsvRecordWriter slices = new CsvRecordWriter(slicesOut, cs, null);
+        slices.setPartitionValues(ptVals);
+
+        FieldSlices cells = new FieldSlices();
+        for (int n = 0; n < 2000; n++) {
+          byte[][] line = new byte[random.nextInt(5)][];
+          for (int i = 0; i < line.length; i++) {
+            line[i] = randomValue(random, charset);
+          }
+          for (byte[] value : line) {
+            javacsv.write(new String(value, charset), true);
+          }
+          for (byte[] ptVal : ptVals) {
+            javacsv.write(new String(ptVal, charset), true);
+          }
+          javacsv.endRecord();
+          arrays.write(line, ptVals);
+
+          // cells are slices of a shared buffer when they come from RecordConverter
+          byte[] joined = new byte[0];
+          for (byte[] value : line) {
+            joined = Arrays.copyOf(joined, joined.length + value.length + 3);
+          }
+          cells.clear();
+          int offset = 0;
+          for (byte[] value : line) {
+            offset += random.nextInt(4);
+            System.arraycopy(value, 0, joined, offset, value.length);
+            cells.add(joined, offset, value.length);
+            offset += value.length;
+          }
+          slices.write(cells);
+        }
+        javacsv.close();
+        arrays.close();
+        slices.close();
+        assertArrayEquals(cs, expected.toByteArray(), arraysOut.toByteArray());
+        assertArrayEquals(cs, expected.toByteArray(), slicesOut.toByteArray());
+      }
+    }
+  }
+
+  /**
+   * 测试没有分区值时空记录和只有空字符串的记录
+   */
+  @Test
+  public void testEmptyCells() throws Exception {
+    List<byte[]> ptVals = Collections.emptyList();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CsvRecordWriter writer = new CsvRecordWriter(out, "UTF-8", null);
+    writer.write(new byte[][]{}, ptVals);
+    writer.write(new byte[][]{new byte[0], new byte[0]}, ptVals);
+    writer.write(new byte[][]{"#a".getBytes(), "#b".getBytes()}, ptVals);
+    writer.close();
+    String ls = System.getProperty("line.separator");
+    assertArrayEquals("not equal", (ls + "\"\"," + ls + "\"#a\",#b" + ls).getBytes(),
+                      out.toByteArray());
+  }
+
+  private static byte[] randomValue(Random random, Charset charset) {
+    if (random.nextInt(10) == 0) {
+      // invalid in most charsets
+      byte[] bytes = new byte[random.nextInt(6)];
+      random.nextBytes(bytes);
+      return bytes;
+    }
+    StringBuilder sb = new StringBuilder();
+    int pieces = random.nextInt(6);
+    for (int i = 0; i < pieces; i++) {
+      sb.append(PIECES[random.nextInt(PIECES.length)]);
+    }
+    return sb.toString().getBytes(charset);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.RecordReader;
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipMetrics;
+import com.aliyun.odps.ship.common.OptionsBuilder;
+import com.aliyun.odps.tunnel.TunnelException;
+import com.aliyun.openservices.odps.console.ExecutionContext;
+
+/**
+ * 测试下载的 metrics
+ */
+public class DownloadMetricsTest {
+
+  private static final String DIR = "src/test/resources/file/filedownloader/metrics";
+  private static final long LINES = 1003;
+  // bytes of a record on the tunnel
+  private static final int RECORD_BYTES = 10;
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(new File(DIR));
+  }
+
+  /**
+   * 测试每个 chunk 计入一个 block, 压缩前后的字节数和重试次数与实际一致
+   */
+  @Test
+  public void testChunkMetrics() throws Exception {
+    String[] args =
+        new String[]{"download", "instance://download_metrics_test", DIR + "/tmp.txt", "-fd=,",
+                     "-rd=\n", "-oc=gzip"};
+    DshipContext.INSTANCE.setExecutionContext(new ExecutionContext());
+    OptionsBuilder.buildDownloadOption(args);
+
+    DshipMetrics metrics = new DshipMetrics("download");
+    File file = new File(DIR + "/metrics.txt.gz");
+    FileDownloader downloader =
+        new FileDownloader(DshipContext.INSTANCE.snapshot(),
+            file.getPath(), 0L, 0L, LINES, new MeteredSession(500), null, false, null);
+    downloader.setMetrics(metrics);
+    List<Callable<Long>> chunks = downloader.split(100);
+    for (Callable<Long> chunk : chunks) {
+      chunk.call();
+    }
+
+    long textBytes = 0;
+    for (long i = 0; i < LINES; i++) {
+      textBytes += (i + ",row" + i + "\n").length();
+    }
+    assertEquals("not equal", chunks.size(), metrics.getBlocks());
+    assertEquals("not equal", LINES, metrics.getRecords());
+    List<DshipMetrics.Histogram> histograms = metrics.getHistograms();
+    assertEquals("not equal", 1, (long) histograms.get(2).getSum());
+    assertEquals("not equal", textBytes, (long) histograms.get(3).getSum());
+    assertEquals("not equal", LINES * RECORD_BYTES, (long) histograms.get(4).getSum());
+    assertTrue("file is compressed", file.length() < textBytes);
+  }
+
+  /**
+   * Download session whose readers count the bytes of the records read from the tunnel, and fail
+   * once when the given record is read.
+   */
+  private static class MeteredSession extends ChunkedDownloadTest.RangeDownloadSession {
+
+    private final long failAt;
+    private final AtomicBoolean failed = new AtomicBoolean();
+
+    MeteredSession(long failAt) {
+      super(LINES);
+      this.failAt = failAt;
+    }
+
+    @Override
+    public DshipRecordReader getRecordReader(Long start, final Long end)
+        throws IOException, TunnelException {
+      return new DshipRecordReader(null, start, end, null) {
+        @Override
+        protected RecordReader openRecordReader(final long currentLines) throws IOException {
+          return new ChunkedDownloadTest.RangeReader(getSchema(), currentLines, end) {
+            private long next = currentLines;
+
+            @Override
+            public Record read() {
+              Record r = super.read();
+              if (r != null) {
+                next++;
+              }
+              return r;
+            }
+
+            @Override
+            public Record read(Record r) throws IOException {
+              if (next == failAt && failed.compareAndSet(false, true)) {
+                throw new IOException("connection reset");
+              }
+              return read();
+            }
+
+            @Override
+            public long getTotalBytes() {
+              return (next - currentLines) * RECORD_BYTES;
+            }
+          };
+        }
+      };
+    }
+  }
+}
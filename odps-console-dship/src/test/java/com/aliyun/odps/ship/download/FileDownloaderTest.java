@@ -81,7 +81,8 @@ public class FileDownloaderTest {
     us.crash = 0;
     us.alreadCrash = 0;
     FileDownloader
-        sd = new FileDownloader("src/test/resources/file/filedownloader/tmp.txt", 0L, 0L, 10L, us, null);
+        sd = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+            "src/test/resources/file/filedownloader/tmp.txt", 0L, 0L, 10L, us, null, false, null);
     sd.download();
     assertEquals("download", readFile("src/test/resources/file/filedownloader/sample.txt"),
                  readFile("src/test/resources/file/filedownloader/tmp.txt"));
@@ -111,7 +112,9 @@ public class FileDownloaderTest {
     schema.setColumns(columns);
     us.setSchema(schema);
     FileDownloader
-        sd = new FileDownloader("src/test/resources/file/filedownloader/tmp_partial.txt", 0L, 0L, 10L, us, null);
+        sd = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                                "src/test/resources/file/filedownloader/tmp_partial.txt", 0L, 0L,
+                                10L, us, null, false, null);
     sd.download();
     assertEquals("download", readFile("src/test/resources/file/filedownloader/sample_partial.txt"),
                  readFile("src/test/resources/file/filedownloader/tmp_partial.txt"));
@@ -134,7 +137,8 @@ public class FileDownloaderTest {
     MockDownloadSession us = new MockDownloadSession();
     MockDownloadSession.crash = 4;
     FileDownloader
-        sd = new FileDownloader("src/test/resources/file/filedownloader/tmp.txt", 0L, 0L, 10L, us, null);
+        sd = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+            "src/test/resources/file/filedownloader/tmp.txt", 0L, 0L, 10L, us, null, false, null);
     sd.download();
 
     assertEquals("download", readFile("src/test/resources/file/filedownloader/sample.txt"),
@@ -157,7 +161,8 @@ public class FileDownloaderTest {
     MockDownloadSession.crash = 5;
 
     FileDownloader
-        sd = new FileDownloader("src/test/resources/file/filedownloader/tmp.txt", 0L, 0L, 10L, us, null);
+        sd = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+            "src/test/resources/file/filedownloader/tmp.txt", 0L, 0L, 10L, us, null, false, null);
     try {
       sd.download();
     } catch (Exception e) {
@@ -123,6 +123,11 @@ class MockReader extends TunnelRecordReader implements RecordReader {
   public void close() throws IOException {
   }
 
+  @Override
+  public long getTotalBytes() {
+    return 0;
+  }
+
   @Override
   public Record read() throws IOException {
 
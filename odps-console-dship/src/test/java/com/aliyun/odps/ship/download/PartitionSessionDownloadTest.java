@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.aliyun.odps.PartitionSpec;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.OptionsBuilder;
+import com.aliyun.odps.ship.common.SliceInfo;
+import com.aliyun.odps.ship.common.Util;
+import com.aliyun.odps.ship.history.SessionHistory;
+import com.aliyun.odps.ship.history.SessionHistoryManager;
+import com.aliyun.odps.tunnel.TunnelException;
+import com.aliyun.openservices.odps.console.ExecutionContext;
+
+/**
+ * 测试多个分区下载时并发创建 session
+ */
+public class PartitionSessionDownloadTest {
+
+  private static final String DIR = "src/test/resources/file/filedownloader/partitions";
+  private static final long LINES = 1003;
+  private static final int PARTITIONS = 6;
+
+  private final int creators = Constants.DOWNLOAD_SESSION_CREATORS;
+
+  @After
+  public void tearDown() throws IOException {
+    Constants.DOWNLOAD_SESSION_CREATORS = creators;
+    FileUtils.deleteDirectory(new File(DIR));
+    for (int i = 0; i < PARTITIONS; i++) {
+      FileUtils.deleteDirectory(new File(Util.getSessionDir(DshipContext.INSTANCE.snapshot(),
+                                                            sessionId(i))));
+    }
+  }
+
+  /**
+   * 测试 session 由有限个线程并发创建, 第一个分区在最后一个 session 创建完成前开始下载
+   */
+  @Test
+  public void testCreateSessionsWhileDownloading() throws Exception {
+    Constants.DOWNLOAD_SESSION_CREATORS = 3;
+    final CountDownLatch firstRead = new CountDownLatch(1);
+    final AtomicInteger creating = new AtomicInteger();
+    final AtomicInteger maxCreating = new AtomicInteger();
+    final boolean[] readBeforeLastSession = new boolean[1];
+
+    DshipDownload download = new DshipDownload(buildContext("-threads=2")) {
+      @Override
+      protected TunnelDownloadSession createSession(PartitionSpec ps) throws IOException {
+        int i = Integer.parseInt(ps.get("pt").substring(1));
+        int n = creating.incrementAndGet();
+        synchronized (maxCreating) {
+          maxCreating.set(Math.max(maxCreating.get(), n));
+        }
+        try {
+          if (i == PARTITIONS - 1) {
+            readBeforeLastSession[0] = firstRead.await(10, TimeUnit.SECONDS);
+          } else {
+            Thread.sleep(100);
+          }
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        } finally {
+          creating.decrementAndGet();
+        }
+        return new PartitionSession(i, i == 0 ? firstRead : null);
+      }
+    };
+    download.downloadPartitions(partitions());
+
+    assertTrue("first partition downloaded before the last session", readBeforeLastSession[0]);
+    assertEquals("not equal", 3, maxCreating.get());
+    String expected = null;
+    for (int i = 0; i < PARTITIONS; i++) {
+      String content = FileUtils.readFileToString(file(i), "UTF-8");
+      assertEquals("not equal", LINES, content.split("\n").length);
+      if (expected != null) {
+        assertEquals("not equal", expected, content);
+      }
+      expected = content;
+    }
+    assertSliceIndex(PARTITIONS, LINES);
+  }
+
+  /**
+   * 测试下载条数达到 limit 后不再下载后面的分区
+   */
+  @Test
+  public void testLimit() throws Exception {
+    DshipDownload download = new DshipDownload(buildContext("-limit=2500")) {
+      @Override
+      protected TunnelDownloadSession createSession(PartitionSpec ps) throws IOException {
+        return new PartitionSession(Integer.parseInt(ps.get("pt").substring(1)), null);
+      }
+    };
+    download.downloadPartitions(partitions());
+
+    assertEquals("not equal", LINES,
+                 FileUtils.readFileToString(file(1), "UTF-8").split("\n").length);
+    assertEquals("not equal", 2500 - 2 * LINES,
+                 FileUtils.readFileToString(file(2), "UTF-8").split("\n").length);
+    assertFalse("partition after the limit is downloaded", file(3).exists());
+    assertSliceIndex(3, 2500 - 2 * LINES);
+  }
+
+  /**
+   * 测试创建后面分区的 session 失败时, 已开始的分区保存在每个 session 的 slice index 中, 可以 resume
+   */
+  @Test
+  public void testSliceIndexBeforeSessionFailure() throws Exception {
+    DshipDownload download = new DshipDownload(buildContext("-threads=2")) {
+      @Override
+      protected TunnelDownloadSession createSession(PartitionSpec ps) throws IOException {
+        int i = Integer.parseInt(ps.get("pt").substring(1));
+        if (i == 3) {
+          throw new IOException("mock session error");
+        }
+        return new PartitionSession(i, null);
+      }
+    };
+    try {
+      download.downloadPartitions(partitions());
+      fail("session error is ignored");
+    } catch (IOException e) {
+      assertEquals("not equal", "mock session error", e.getMessage());
+    }
+    assertSliceIndex(3, LINES);
+  }
+
+  /**
+   * Check the slice index saved in the history of every session.
+   */
+  private void assertSliceIndex(int slices, long lastLines) throws IOException {
+    for (int s = 0; s < slices; s++) {
+      SessionHistory sh = SessionHistoryManager.createSessionHistory(
+          DshipContext.INSTANCE.snapshot(), sessionId(s));
+      List<SliceInfo> sliceIndex = sh.loadSliceIndex();
+      assertEquals("not equal", slices, sliceIndex.size());
+      for (int i = 0; i < slices; i++) {
+        assertEquals("not equal", Long.valueOf(i), sliceIndex.get(i).getSliceId());
+        assertEquals("not equal", sessionId(i), sliceIndex.get(i).getSessionId());
+      }
+      assertEquals("not equal", Long.valueOf(lastLines), sliceIndex.get(slices - 1).getEnd());
+    }
+  }
+
+  private static DshipJobContext buildContext(String option) throws Exception {
+    String[] args =
+        new String[]{"download", "instance://partition_session_test", DIR + "/tmp.txt", "-fd=,",
+                     "-rd=\n", option};
+    DshipContext.INSTANCE.setExecutionContext(new ExecutionContext());
+    OptionsBuilder.buildDownloadOption(args);
+    return DshipContext.INSTANCE.snapshot();
+  }
+
+  private static List<PartitionSpec> partitions() {
+    List<PartitionSpec> partitions = new ArrayList<PartitionSpec>();
+    for (int i = 0; i < PARTITIONS; i++) {
+      partitions.add(new PartitionSpec("pt=p" + i));
+    }
+    return partitions;
+  }
+
+  private static File file(int i) {
+    return new File(DIR + "/tmp/tmp.p" + i + ".txt");
+  }
+
+  private static String sessionId(int i) {
+    return "partition-session-" + i;
+  }
+
+  /**
+   * Download session of one partition with its own history.
+   */
+  static class PartitionSession extends ChunkedDownloadTest.RangeDownloadSession {
+
+    private final int index;
+    private final CountDownLatch read;
+    private final SessionHistory sh;
+
+    PartitionSession(int index, CountDownLatch read) throws IOException {
+      super(LINES);
+      this.index = index;
+      this.read = read;
+      this.sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                           sessionId(index));
+    }
+
+    @Override
+    public String getDownloadId() {
+      return sessionId(index);
+    }
+
+    @Override
+    public SessionHistory getSessionHistory() {
+      return sh;
+    }
+
+    @Override
+    public DshipRecordReader getRecordReader(Long start, Long end)
+        throws IOException, TunnelException {
+      if (read != null) {
+        read.countDown();
+      }
+      return super.getRecordReader(start, end);
+    }
+  }
+}
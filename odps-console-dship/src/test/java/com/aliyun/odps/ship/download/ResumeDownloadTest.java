@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.OptionsBuilder;
+import com.aliyun.odps.ship.common.SliceInfo;
+import com.aliyun.odps.ship.common.Util;
+import com.aliyun.odps.ship.history.SessionHistory;
+import com.aliyun.odps.ship.history.SessionHistoryManager;
+import com.aliyun.openservices.odps.console.ExecutionContext;
+
+public class ResumeDownloadTest {
+
+  private static final String DIR = "src/test/resources/file/filedownloader/resume";
+  private static final long LINES = 1003;
+  private static final int COMMITTED = 100;
+
+  private SessionHistory sh;
+  private String expected;
+
+  @Before
+  public void setup() throws Exception {
+    String[] args =
+        new String[]{"download", "instance://resume_download_test", DIR + "/tmp.txt", "-fd=,",
+                     "-rd=\n"};
+    DshipContext.INSTANCE.setExecutionContext(new ExecutionContext());
+    OptionsBuilder.buildDownloadOption(args);
+    DshipContext.INSTANCE.put(Constants.SESSION_DIR, new File(DIR + "/sessions").getAbsolutePath());
+    sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                    "resume-download-test");
+
+    ChunkedDownloadTest.RangeDownloadSession ds = new ChunkedDownloadTest.RangeDownloadSession(LINES);
+    new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                       DIR + "/serial.txt", 0L, 0L, LINES, ds, null, false, null).download();
+    expected = FileUtils.readFileToString(new File(DIR + "/serial.txt"), "UTF-8");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    DshipContext.INSTANCE.remove(Constants.SESSION_DIR);
+    FileUtils.deleteDirectory(new File(DIR));
+  }
+
+  /**
+   * 测试续传时文件被截断到已提交的记录，之后继续下载，结果和一次下载完成一致，并记录进度
+   */
+  @Test
+  public void testResume() throws Exception {
+    String path = DIR + "/resume.txt";
+    long committedBytes = writePartialFile(path);
+
+    ChunkedDownloadTest.RangeDownloadSession ds = new ChunkedDownloadTest.RangeDownloadSession(LINES);
+    FileDownloader downloader = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                                                   path, 3L, 0L, LINES, ds, sh, false, null);
+    downloader.resume(COMMITTED, committedBytes);
+    assertEquals("not equal", committedBytes, new File(path).length());
+    downloader.download();
+
+    assertEquals("not equal", expected, FileUtils.readFileToString(new File(path), "UTF-8"));
+    assertEquals("not equal", expected.length() - committedBytes, downloader.getWrittenBytes());
+    assertArrayEquals(new long[]{LINES, expected.length()}, sh.loadSliceProgress().get(3L));
+  }
+
+  /**
+   * 测试分 chunk 下载时续传，第一个 chunk 从已提交的记录之后开始
+   */
+  @Test
+  public void testResumeChunks() throws Exception {
+    String path = DIR + "/resume_chunks.txt";
+    long committedBytes = writePartialFile(path);
+
+    ChunkedDownloadTest.RangeDownloadSession ds = new ChunkedDownloadTest.RangeDownloadSession(LINES);
+    FileDownloader downloader = new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                                                   path, 4L, 0L, LINES, ds, sh, false, null);
+    downloader.resume(COMMITTED, committedBytes);
+    List<Callable<Long>> chunks = downloader.split(300);
+    assertEquals("not equal", 4, chunks.size());
+    Collections.reverse(chunks);
+    for (Callable<Long> chunk : chunks) {
+      chunk.call();
+    }
+
+    assertEquals("not equal", expected, FileUtils.readFileToString(new File(path), "UTF-8"));
+    assertArrayEquals(new long[]{LINES, expected.length()}, sh.loadSliceProgress().get(4L));
+  }
+
+  /**
+   * 测试文件比已提交的字节短时不能续传
+   */
+  @Test(expected = IOException.class)
+  public void testResumeShortFile() throws Exception {
+    String path = DIR + "/short.txt";
+    FileUtils.writeStringToFile(new File(path), "0,row0\n", "UTF-8");
+    ChunkedDownloadTest.RangeDownloadSession ds = new ChunkedDownloadTest.RangeDownloadSession(LINES);
+    new FileDownloader(DshipContext.INSTANCE.snapshot(),
+                       path, 5L, 0L, LINES, ds, sh, false, null).resume(2, 100);
+  }
+
+  /**
+   * 测试 slice 信息和进度的保存与读取，进度以最后一条完整记录为准
+   */
+  @Test
+  public void testSliceHistory() throws Exception {
+    List<SliceInfo> slices = new ArrayList<SliceInfo>();
+    slices.add(new SliceInfo(0L, "sid0", 0L, 10L, "ds='2024:01',pt='a'", DIR + "/a:b.txt"));
+    slices.add(new SliceInfo(1L, "sid1", 10L, 20L, null, DIR + "/c.txt"));
+    sh.saveSliceIndex(slices);
+    List<SliceInfo> loaded = sh.loadSliceIndex();
+    assertEquals("not equal", 2, loaded.size());
+    for (int i = 0; i < slices.size(); i++) {
+      assertEquals("not equal", slices.get(i).toString(), loaded.get(i).toString());
+    }
+    assertEquals("not equal", "ds='2024:01',pt='a'", loaded.get(0).getPartitionSpec());
+    assertNull(loaded.get(1).getPartitionSpec());
+
+    sh.saveSliceProgress(0, 5, 50);
+    sh.saveSliceProgress(1, 1, 10);
+    sh.saveSliceProgress(0, 8, 80);
+    // a line interrupted while writing is ignored
+    FileUtils.writeStringToFile(
+        new File(Util.getSessionDir(DshipContext.INSTANCE.snapshot(),
+                                    sh.getSid()) + "/slice_progress.txt"), "0:9", "UTF-8", true);
+    Map<Long, long[]> progress = sh.loadSliceProgress();
+    assertArrayEquals(new long[]{8, 80}, progress.get(0L));
+    assertArrayEquals(new long[]{1, 10}, progress.get(1L));
+  }
+
+  private long writePartialFile(String path) throws IOException {
+    int committedBytes = 0;
+    for (int i = 0; i < COMMITTED; i++) {
+      committedBytes = expected.indexOf('\n', committedBytes) + 1;
+    }
+    // records after the committed ones may be partially written
+    FileUtils.writeStringToFile(new File(path), expected.substring(0, committedBytes + 15),
+                                "UTF-8");
+    return committedBytes;
+  }
+}
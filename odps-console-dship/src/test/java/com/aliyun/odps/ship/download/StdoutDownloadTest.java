@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.aliyun.odps.PartitionSpec;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.OptionsBuilder;
+import com.aliyun.odps.ship.common.Util;
+import com.aliyun.openservices.odps.console.ExecutionContext;
+
+/**
+ * 测试下载到 stdout
+ */
+public class StdoutDownloadTest {
+
+  private static final String DIR = "src/test/resources/file/filedownloader/stdout";
+  private static final int PARTITIONS = 5;
+
+  private final PrintStream stdout = System.out;
+  private final int bufferSize = Constants.STDOUT_SLICE_BUFFER_SIZE;
+
+  @After
+  public void tearDown() throws IOException {
+    System.setOut(stdout);
+    Constants.STDOUT_SLICE_BUFFER_SIZE = bufferSize;
+    FileUtils.deleteDirectory(new File(DIR));
+    for (int i = 0; i < PARTITIONS; i++) {
+      FileUtils.deleteDirectory(new File(Util.getSessionDir(DshipContext.INSTANCE.snapshot(),
+                                                            "partition-session-" + i)));
+    }
+  }
+
+  /**
+   * 测试多线程下载多个分区到 stdout, 输出与下载到文件的内容按分区顺序拼接后逐字节一致
+   */
+  @Test
+  public void testPartitionsToStdout() throws Exception {
+    for (String compress : new String[]{null, "gzip"}) {
+      new TestDownload(DIR + "/tmp.txt", compress).downloadPartitions(partitions());
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      for (int i = 0; i < PARTITIONS; i++) {
+        expected.write(FileUtils.readFileToByteArray(new File(DIR + "/tmp/tmp.p" + i + ".txt")));
+      }
+
+      Constants.STDOUT_SLICE_BUFFER_SIZE = 1024;
+      ByteArrayOutputStream captured = new ByteArrayOutputStream();
+      System.setOut(new PrintStream(captured, false));
+      try {
+        new TestDownload(Constants.STDOUT_PATH, compress).downloadPartitions(partitions());
+      } finally {
+        System.setOut(stdout);
+      }
+      assertArrayEquals("compress " + compress, expected.toByteArray(), captured.toByteArray());
+      assertTrue("no file is written", !new File("-").exists());
+    }
+  }
+
+  /**
+   * 测试 lane 乱序写入时按 lane 顺序输出, 未轮到的 lane 缓存不超过上限
+   */
+  @Test
+  public void testOrderedOutput() throws Exception {
+    final int lanes = 8;
+    final int bufferSize = 100;
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final OrderedOutput output = new OrderedOutput(out, bufferSize);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    Random random = new Random(0);
+    for (int i = 0; i < lanes; i++) {
+      final byte[] data = new byte[random.nextInt(2000)];
+      random.nextBytes(data);
+      expected.write(data);
+      final OutputStream lane = output.newLane();
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (int off = 0; off < data.length; off += 37) {
+            lane.write(data, off, Math.min(37, data.length - off));
+          }
+          lane.close();
+          return null;
+        }
+      });
+    }
+
+    ExecutorService executors = Executors.newFixedThreadPool(3);
+    try {
+      for (Future<Void> future : executors.invokeAll(tasks, 30, TimeUnit.SECONDS)) {
+        future.get();
+      }
+    } finally {
+      executors.shutdownNow();
+    }
+    assertArrayEquals("not equal", expected.toByteArray(), out.toByteArray());
+  }
+
+  /**
+   * 测试一个分片失败后, 等待它的分片不会一直阻塞
+   */
+  @Test
+  public void testAbort() throws Exception {
+    OrderedOutput output = new OrderedOutput(new ByteArrayOutputStream(), 10);
+    output.newLane();
+    OutputStream second = output.newLane();
+    second.write(new byte[5]);
+    output.abort(new IOException("slice failed"));
+    try {
+      second.write(new byte[10]);
+      fail("need fail.");
+    } catch (IOException e) {
+      assertEquals("not equal", "slice failed", e.getCause().getMessage());
+    }
+  }
+
+  private static List<PartitionSpec> partitions() {
+    List<PartitionSpec> partitions = new ArrayList<PartitionSpec>();
+    for (int i = 0; i < PARTITIONS; i++) {
+      partitions.add(new PartitionSpec("pt=p" + i));
+    }
+    return partitions;
+  }
+
+  private static DshipJobContext buildContext(String path, String compress) throws Exception {
+    List<String> args = new ArrayList<String>();
+    args.add("download");
+    args.add("instance://stdout_download_test");
+    args.add(path);
+    args.add("-fd=,");
+    args.add("-rd=\n");
+    args.add("-threads=3");
+    if (compress != null) {
+      args.add("-oc=" + compress);
+    }
+    DshipContext.INSTANCE.setExecutionContext(new ExecutionContext());
+    OptionsBuilder.buildDownloadOption(args.toArray(new String[0]));
+    return DshipContext.INSTANCE.snapshot();
+  }
+
+  /**
+   * Download of partitions of different sizes with fake sessions.
+   */
+  private static class TestDownload extends DshipDownload {
+
+    TestDownload(String path, String compress) throws Exception {
+      super(buildContext(path, compress));
+    }
+
+    @Override
+    protected TunnelDownloadSession createSession(PartitionSpec ps) throws IOException {
+      final int i = Integer.parseInt(ps.get("pt").substring(1));
+      return new PartitionSessionDownloadTest.PartitionSession(i, null) {
+        @Override
+        public long getTotalLines() {
+          return 200 * (PARTITIONS - i);
+        }
+      };
+    }
+  }
+}
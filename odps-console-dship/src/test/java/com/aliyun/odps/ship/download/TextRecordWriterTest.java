@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.download;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.aliyun.odps.ship.common.FieldSlices;
+
+/**
+ * 测试 TextRecordWriter 写复用 buffer 中的记录
+ */
+public class TextRecordWriterTest {
+
+  /**
+   * 测试写 FieldSlices 与写 byte[][] 加分区值的结果逐字节一致
+   */
+  @Test
+  public void testWriteSlices() throws Exception {
+    Random random = new Random(0);
+    List<List<byte[]>> partitions = new ArrayList<List<byte[]>>();
+    partitions.add(Collections.<byte[]>emptyList());
+    partitions.add(Collections.singletonList("p1".getBytes()));
+    partitions.add(Arrays.asList("2024".getBytes(), "".getBytes(), "分区".getBytes("UTF-8")));
+
+    for (String fd : new String[]{",", "||", ""}) {
+      for (List<byte[]> ptVals : partitions) {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        TextRecordWriter arrays = new TextRecordWriter(expected, fd, "\r\n", null);
+        TextRecordWriter slices = new TextRecordWriter(actual, fd, "\r\n", null);
+        slices.setPartitionValues(ptVals);
+
+        // cells are slices of one shared buffer, as RecordConverter formats them
+        byte[] buffer = new byte[4096];
+        random.nextBytes(buffer);
+        FieldSlices cells = new FieldSlices();
+        for (int n = 0; n < 200; n++) {
+          cells.clear();
+          int columns = random.nextInt(6);
+          for (int i = 0; i < columns; i++) {
+            int offset = random.nextInt(buffer.length);
+            int length = random.nextInt(Math.min(buffer.length - offset, 1500) + 1);
+            cells.add(buffer, offset, length);
+          }
+          arrays.write(cells.toArray(), ptVals);
+          slices.write(cells);
+        }
+        arrays.close();
+        slices.close();
+        assertArrayEquals("not equal", expected.toByteArray(), actual.toByteArray());
+      }
+    }
+  }
+}
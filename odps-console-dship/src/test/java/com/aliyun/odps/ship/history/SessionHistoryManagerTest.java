@@ -93,7 +93,7 @@ public class SessionHistoryManagerTest {
 
     PrintStream old = System.err;
     System.setErr(s);
-    SessionHistoryManager.showHistory(1000);
+    SessionHistoryManager.showHistory(DshipContext.INSTANCE.snapshot(), 1000);
     String hs = new String(out.toByteArray());
 
     assertFalse(StringUtils.isNullOrEmpty(hs));
@@ -122,7 +122,7 @@ public class SessionHistoryManagerTest {
 
     PrintStream old = System.err;
     System.setErr(s);
-    SessionHistoryManager.showHistory(1000);
+    SessionHistoryManager.showHistory(DshipContext.INSTANCE.snapshot(), 1000);
     String hs = new String(out.toByteArray());
     int i4 = hs.indexOf("s1_session\tsuccess\t'download");
     int i5 = hs.indexOf("s2_session\tbad\t'upload");
@@ -157,15 +157,16 @@ public class SessionHistoryManagerTest {
 
     //create a session
     String sid = "getlastestsession";
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(sid);
-    sh.saveContext();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   sid);
+    sh.saveContext(DshipContext.INSTANCE.snapshot());
 
     // 最近一个session
-    SessionHistory sh2 = SessionHistoryManager.getLatest();
+    SessionHistory sh2 = SessionHistoryManager.getLatest(DshipContext.INSTANCE.snapshot());
     assertEquals("getlastestsession", sh2.sid);
 
     // clear log
-    String log = Util.getSessionDir(sid) + "/log.txt";
+    String log = Util.getSessionDir(DshipContext.INSTANCE.snapshot(), sid) + "/log.txt";
     File f = new File(log);
     if (f.exists()) {
       f.delete();
@@ -76,10 +76,10 @@ public class SessionHistoryTest {
 
     String sid = "test_block_list";
 
-    SessionHistory sh = new SessionHistory(sid);
+    SessionHistory sh = new SessionHistory(DshipContext.INSTANCE.snapshot(), sid);
     sh.delete();
 
-    sh = new SessionHistory(sid);
+    sh = new SessionHistory(DshipContext.INSTANCE.snapshot(), sid);
     
     String[] args =
         new String[] {"upload",
@@ -87,7 +87,7 @@ public class SessionHistoryTest {
             projectName + "." + TEST_TABLE_NAME + "/ds='2113',pt='pttest'", "-fd=||", "-rd=\n",
             "-dfp=yyyyMMddHHmmss"};
     OptionsBuilder.buildUploadOption(args);
-    sh.saveContext();
+    sh.saveContext(DshipContext.INSTANCE.snapshot());
 
     ArrayList<BlockInfo> blockIndex =  new ArrayList<BlockInfo>() {{
                                     add(new BlockInfo(1L, new File("block1"), 0L, 1L));
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.Util;
+
+/**
+ * 测试 session history 的 journal
+ */
+public class SessionJournalTest {
+
+  private static final String SID = "session_journal_test";
+
+  @After
+  public void tearDown() throws Exception {
+    SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(), SID).delete();
+  }
+
+  /**
+   * 测试 bad data 在 block 提交时写入文件, 重试 block 时清除未写入和已写入的 bad data
+   */
+  @Test
+  public void testBadDataCommittedWithBlock() throws Exception {
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   SID);
+    File bad = new File(Util.getSessionDir(DshipContext.INSTANCE.snapshot(), SID), "bad_1");
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      String line = "bad record " + i + ",中文\n";
+      sh.saveBadData(line, 1L);
+      expected.append(line);
+    }
+    assertTrue("bad data is written at most once per buffer", bad.length() < expected.length());
+
+    sh.clearBadData(1L);
+    assertFalse("bad data is cleared", bad.exists());
+    sh.saveBadData(expected.toString(), 1L);
+    sh.saveFinishBlock(new BlockInfo(1L, new File("block1"), 0L, 1L));
+    assertEquals("not equal", expected.toString(), FileUtils.readFileToString(bad, "utf-8"));
+    assertTrue("exists bad", sh.existsBad());
+  }
+
+  /**
+   * 测试旧版本写的 history 可以继续 resume, 大量 block 时按集合查找已完成的 block
+   */
+  @Test
+  public void testLoadOldBlockIndex() throws Exception {
+    int blocks = 100000;
+    StringBuilder index = new StringBuilder();
+    StringBuilder finished = new StringBuilder();
+    for (long i = 1; i <= blocks; i++) {
+      String block = new BlockInfo(i, new File("data:1.txt"), i * 10, 10L) + "\n";
+      index.append(block);
+      if (i % 3 != 0) {
+        finished.append(block);
+      }
+    }
+    String dir = Util.getSessionDir(DshipContext.INSTANCE.snapshot(), SID);
+    FileUtils.writeStringToFile(new File(dir, "block_index.txt"), index.toString(), "utf-8");
+    FileUtils.writeStringToFile(new File(dir, "finish_block.txt"), finished.toString(), "utf-8");
+
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   SID);
+    // a block finished in this process
+    sh.saveFinishBlock(new BlockInfo(3L, new File("data:1.txt"), 30L, 10L));
+    List<BlockInfo> unfinished = sh.loadBlockIndex();
+    assertEquals("not equal", blocks / 3 - 1, unfinished.size());
+    for (int i = 0; i < unfinished.size(); i++) {
+      assertEquals("not equal", Long.valueOf(3L * (i + 2)), unfinished.get(i).getBlockId());
+      assertEquals("not equal", "data:1.txt", unfinished.get(i).getFile().getPath());
+    }
+    assertEquals("not equal", blocks - blocks / 3 + 1, sh.loadFinishBlockList().size());
+  }
+
+  /**
+   * 测试同一个 session 的多个 SessionHistory 并发写日志, 每行完整
+   */
+  @Test
+  public void testConcurrentLog() throws Exception {
+    final int threads = 4;
+    final int lines = 2000;
+    final DshipJobContext context = DshipContext.INSTANCE.snapshot();
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          SessionHistory sh = SessionHistoryManager.createSessionHistory(context, SID);
+          for (int i = 0; i < lines; i++) {
+            sh.log("thread " + id + " line " + i);
+          }
+          return null;
+        }
+      });
+    }
+    ExecutorService executors = Executors.newFixedThreadPool(threads);
+    try {
+      for (Future<Void> future : executors.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executors.shutdownNow();
+    }
+    SessionHistoryManager.closeHistories();
+
+    List<String> log =
+        FileUtils.readLines(new File(Util.getSessionDir(context, SID), "log.txt"), "utf-8");
+    assertEquals("not equal", threads * lines, log.size());
+    int[] next = new int[threads];
+    for (String line : log) {
+      String[] splits = line.split("  -  thread | line ");
+      int id = Integer.parseInt(splits[1]);
+      assertEquals(line, next[id]++, Integer.parseInt(splits[2]));
+    }
+  }
+
+  /**
+   * 测试关闭的 journal 不再保留, 关闭后仍持有它的写入转到 session 新的 journal
+   */
+  @Test
+  public void testCloseDropsJournal() throws Exception {
+    DshipJobContext context = DshipContext.INSTANCE.snapshot();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(context, SID);
+    String dir = Util.getSessionDir(context, SID);
+    sh.log("before close");
+    SessionJournal closed = SessionJournal.of(dir);
+    sh.close();
+    assertNotSame("closed journal is kept", closed, SessionJournal.of(dir));
+
+    closed.append("log.txt", "after close\n");
+    sh.close();
+    List<String> log = FileUtils.readLines(new File(dir, "log.txt"), "utf-8");
+    assertEquals("not equal", 2, log.size());
+    assertTrue(log.get(0), log.get(0).endsWith("before close"));
+    assertEquals("not equal", "after close", log.get(1));
+  }
+}
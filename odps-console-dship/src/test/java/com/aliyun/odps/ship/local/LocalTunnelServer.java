@@ -0,0 +1,838 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.local;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.PartitionSpec;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.commons.proto.ProtobufRecordStreamReader;
+import com.aliyun.odps.commons.proto.ProtobufRecordStreamWriter;
+import com.aliyun.odps.credentials.Credentials;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.tunnel.io.CompressOption;
+import com.aliyun.odps.type.TypeInfoFactory;
+import com.aliyun.openservices.odps.console.ExecutionContext;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in of the table tunnel service, so that uploads, downloads and upserts run
+ * end to end in tests without an endpoint.
+ *
+ * It serves the part of the protocol used by TunnelUploadSession, TunnelDownloadSession and
+ * TunnelUpsertSession: upload sessions with blocks written, listed and committed, download sessions
+ * read by row range, and upsert sessions flushed by streams and committed. The tables, partitions
+ * and primary keys needed by dship are served as the project metadata. The tables are kept in
+ * memory, a committed upload is appended in the order of the block ids.
+ *
+ * Latency can be added to every request, and the next requests of an action can be made to fail,
+ * see {@link #setLatency(long)} and {@link #failNext(Action, int)}.
+ */
+public class LocalTunnelServer implements Closeable {
+
+  public static final String PROJECT = "local_project";
+
+  /**
+   * Requests which can be made to fail.
+   */
+  public enum Action {
+    // a block of an upload session fails with a server error
+    WRITE_BLOCK,
+    // the connection of a download is closed after half of the records are sent
+    READ,
+    // a flush of an upsert stream fails with a server error
+    FLUSH,
+    // a commit of an upload or upsert session fails with a server error
+    COMMIT
+  }
+
+  private static final String STATUS_NORMAL = "normal";
+  // status of a committed upload session
+  private static final String STATUS_CLOSED = "closed";
+  // status of a committed upsert session
+  private static final String STATUS_COMMITTED = "committed";
+  private static final String STATUS_ABORTED = "aborted";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Map<String, Table> tables = new ConcurrentHashMap<String, Table>();
+  private final Map<String, UploadSession> uploads = new ConcurrentHashMap<String, UploadSession>();
+  private final Map<String, DownloadSession> downloads =
+      new ConcurrentHashMap<String, DownloadSession>();
+  private final Map<String, UpsertSession> upserts = new ConcurrentHashMap<String, UpsertSession>();
+  private final Map<Action, AtomicInteger> failures = new ConcurrentHashMap<Action, AtomicInteger>();
+  private final List<String> sessionIds = Collections.synchronizedList(new ArrayList<String>());
+  private final AtomicLong nextId = new AtomicLong();
+  private final AtomicLong requests = new AtomicLong();
+  private volatile long latency = 0;
+
+  public LocalTunnelServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "local-tunnel-server");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        LocalTunnelServer.this.handle(exchange);
+      }
+    });
+    for (Action action : Action.values()) {
+      failures.put(action, new AtomicInteger());
+    }
+    server.start();
+  }
+
+  public String getEndpoint() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /**
+   * @return a context of the console connected to this server, for both the service and tunnel
+   */
+  public ExecutionContext newExecutionContext() {
+    ExecutionContext context = new ExecutionContext();
+    context.setEndpoint(getEndpoint());
+    context.setTunnelEndpoint(getEndpoint());
+    context.setProjectName(PROJECT);
+    context.setCredentials(new Credentials("local-access-id", "local-access-key", null));
+    return context;
+  }
+
+  /**
+   * @param schema
+   *     columns and partition columns of the table
+   * @param primaryKey
+   *     columns of the primary key, required by upsert
+   */
+  public void createTable(String name, TableSchema schema, String... primaryKey) {
+    tables.put(name, new Table(name, schema, Arrays.asList(primaryKey)));
+  }
+
+  /**
+   * Append records to a partition of a table, the partition is created if it does not exist.
+   *
+   * @param partition
+   *     spec of the partition, such as "pt=p0", or null for an unpartitioned table
+   */
+  public void append(String table, String partition, List<Record> records) {
+    getTable(table).append(partitionKey(partition), records, false);
+  }
+
+  /**
+   * @return the committed records of a partition of a table, in the order they are appended
+   */
+  public List<Record> getRecords(String table, String partition) {
+    return getTable(table).getRecords(partitionKey(partition));
+  }
+
+  /**
+   * @return ids of the sessions created, the history of a session is kept by dship by its id
+   */
+  public List<String> getSessionIds() {
+    synchronized (sessionIds) {
+      return new ArrayList<String>(sessionIds);
+    }
+  }
+
+  /**
+   * @return number of requests served
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * Delay every request, such as the round trip to a remote endpoint.
+   */
+  public void setLatency(long millis) {
+    this.latency = millis;
+  }
+
+  /**
+   * Fail the next requests of an action.
+   */
+  public void failNext(Action action, int times) {
+    failures.get(action).set(times);
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private Table getTable(String name) {
+    Table table = tables.get(name);
+    if (table == null) {
+      throw new IllegalArgumentException("table not found: " + name);
+    }
+    return table;
+  }
+
+  private String newSessionId(String type) {
+    String id = String.format("local%s%016d", type, nextId.incrementAndGet());
+    sessionIds.add(id);
+    return id;
+  }
+
+  private boolean injectFailure(Action action) {
+    AtomicInteger times = failures.get(action);
+    while (true) {
+      int n = times.get();
+      if (n <= 0) {
+        return false;
+      }
+      if (times.compareAndSet(n, n - 1)) {
+        return true;
+      }
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    boolean close = true;
+    try {
+      if (latency > 0) {
+        Thread.sleep(latency);
+      }
+      Request request = new Request(exchange);
+      if (request.table == null) {
+        // the project is loaded before its tables
+        sendXml(exchange, "<Project><Name>" + request.project + "</Name><Type>managed</Type>"
+                          + "<Owner>local</Owner><State>AVAILABLE</State></Project>");
+      } else if (request.upserts) {
+        handleUpsert(exchange, request);
+      } else if (request.has("uploads") || request.has("uploadid")) {
+        handleUpload(exchange, request);
+      } else if (request.has("downloads") || request.has("downloadid")) {
+        close = handleDownload(exchange, request);
+      } else if (request.has("partitions")) {
+        sendXml(exchange, getTable(request.table).getPartitionsXml(request.get("partition")));
+      } else {
+        sendXml(exchange, getTable(request.table).getTableXml(request.project));
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException(e.getMessage());
+    } catch (ServerError e) {
+      sendError(exchange, e.status, e.code, e.getMessage());
+    } catch (RuntimeException e) {
+      sendError(exchange, 400, "InvalidArgument", e.toString());
+    } finally {
+      if (close) {
+        exchange.close();
+      }
+    }
+  }
+
+  private void handleUpload(HttpExchange exchange, Request request) throws IOException {
+    if (request.is("POST") && request.has("uploads")) {
+      Table table = getTable(request.table);
+      UploadSession session = new UploadSession(newSessionId("upload"), table,
+                                                request.getPartition(),
+                                                "true".equals(request.get("overwrite")));
+      uploads.put(session.id, session);
+      sendJson(exchange, session.toJson());
+      return;
+    }
+    UploadSession session = uploads.get(request.get("uploadid"));
+    if (session == null) {
+      throw new ServerError(404, "NoSuchUpload", "upload session not found");
+    }
+    if (request.is("PUT")) {
+      long blockId = Long.parseLong(request.get("blockid"));
+      List<Record> records = readRecords(exchange, session.table.schema);
+      if (injectFailure(Action.WRITE_BLOCK)) {
+        throw new ServerError(500, "InternalServerError", "injected failure of block " + blockId);
+      }
+      session.writeBlock(blockId, records);
+      sendJson(exchange, new JsonObject());
+    } else if (request.is("POST")) {
+      if (injectFailure(Action.COMMIT)) {
+        throw new ServerError(500, "InternalServerError", "injected failure of commit");
+      }
+      session.commit();
+      sendJson(exchange, session.toJson());
+    } else {
+      sendJson(exchange, session.toJson());
+    }
+  }
+
+  /**
+   * @return false if the connection is cut by an injected failure and must not be closed normally
+   */
+  private boolean handleDownload(HttpExchange exchange, Request request) throws IOException {
+    if (request.is("POST") && request.has("downloads")) {
+      Table table = getTable(request.table);
+      String partition = request.getPartition();
+      DownloadSession session = new DownloadSession(newSessionId("download"), table,
+                                                    table.getRecords(partition));
+      downloads.put(session.id, session);
+      sendJson(exchange, session.toJson());
+      return true;
+    }
+    DownloadSession session = downloads.get(request.get("downloadid"));
+    if (session == null) {
+      throw new ServerError(404, "NoSuchDownload", "download session not found");
+    }
+    if (!request.has("data")) {
+      sendJson(exchange, session.toJson());
+      return true;
+    }
+
+    // rowrange=(start,count)
+    String[] range = request.get("rowrange").replaceAll("[()\\s]", "").split(",");
+    int start = Integer.parseInt(range[0]);
+    int end = (int) Math.min(session.records.size(), start + Long.parseLong(range[1]));
+    if (start < 0 || start > end) {
+      throw new ServerError(400, "InvalidRowRange", "row range is out of the session");
+    }
+    List<Column> columns = new ArrayList<Column>();
+    if (request.has("columns") && !request.get("columns").isEmpty()) {
+      for (String name : request.get("columns").split(",")) {
+        columns.add(session.table.schema.getColumn(name));
+      }
+    } else {
+      columns.addAll(session.table.schema.getColumns());
+    }
+    TableSchema schema = new TableSchema();
+    schema.setColumns(columns);
+
+    boolean deflate = accepts(exchange, "deflate");
+    if (deflate) {
+      exchange.getResponseHeaders().set("Content-Encoding", "deflate");
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+    exchange.getResponseHeaders().set("x-odps-request-id", newRequestId());
+    exchange.sendResponseHeaders(200, 0);
+    boolean fail = injectFailure(Action.READ);
+    int cut = fail ? start + (end - start) / 2 : end;
+    ProtobufRecordStreamWriter writer =
+        new ProtobufRecordStreamWriter(schema, exchange.getResponseBody(), deflate
+            ? new CompressOption() : new CompressOption(CompressOption.CompressAlgorithm.ODPS_RAW,
+                                                        0, 0));
+    for (int i = start; i < cut; i++) {
+      Record record = session.records.get(i);
+      ArrayRecord projected = new ArrayRecord(columns.toArray(new Column[0]));
+      for (Column column : columns) {
+        projected.set(column.getName(), record.get(column.getName()));
+      }
+      writer.write(projected);
+    }
+    if (fail) {
+      writer.flush();
+      exchange.getResponseBody().flush();
+      // the server closes the connection without the end of the chunked stream
+      throw new IOException("injected failure of download " + session.id);
+    }
+    writer.close();
+    return true;
+  }
+
+  private void handleUpsert(HttpExchange exchange, Request request) throws IOException {
+    if (request.is("POST") && !request.has("upsertid")) {
+      Table table = getTable(request.table);
+      if (table.primaryKey.isEmpty()) {
+        throw new ServerError(400, "InvalidArgument", "table has no primary key");
+      }
+      UpsertSession session = new UpsertSession(newSessionId("upsert"), table,
+                                                request.getPartition());
+      upserts.put(session.id, session);
+      sendJson(exchange, session.toJson(server.getAddress().getPort()));
+      return;
+    }
+    UpsertSession session = upserts.get(request.get("upsertid"));
+    if (session == null) {
+      throw new ServerError(404, "UpsertSessionNotFound", "upsert session not found");
+    }
+    if (request.is("PUT")) {
+      List<Record> records = readRecords(exchange, session.recordSchema);
+      if (injectFailure(Action.FLUSH)) {
+        throw new ServerError(500, "InternalServerError", "injected failure of flush");
+      }
+      session.flush(records);
+      sendJson(exchange, new JsonObject());
+      return;
+    } else if (request.is("POST")) {
+      if (injectFailure(Action.COMMIT)) {
+        throw new ServerError(500, "InternalServerError", "injected failure of commit");
+      }
+      session.commit();
+    } else if (request.is("DELETE")) {
+      session.abort();
+    }
+    sendJson(exchange, session.toJson(server.getAddress().getPort()));
+  }
+
+  private static List<Record> readRecords(HttpExchange exchange, TableSchema schema)
+      throws IOException {
+    String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+    CompressOption option;
+    if (encoding == null) {
+      option = new CompressOption(CompressOption.CompressAlgorithm.ODPS_RAW, 0, 0);
+    } else if ("deflate".equals(encoding)) {
+      option = new CompressOption();
+    } else {
+      throw new ServerError(400, "InvalidArgument", "unsupported content encoding " + encoding);
+    }
+    InputStream in = exchange.getRequestBody();
+    ProtobufRecordStreamReader reader = new ProtobufRecordStreamReader(schema, in, option);
+    List<Record> records = new ArrayList<Record>();
+    try {
+      Record record;
+      while ((record = reader.read()) != null) {
+        records.add(record);
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+
+  private static boolean accepts(HttpExchange exchange, String encoding) {
+    String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+    return accepted != null && accepted.contains(encoding);
+  }
+
+  private static String newRequestId() {
+    return Long.toHexString(System.nanoTime());
+  }
+
+  private static void sendJson(HttpExchange exchange, JsonObject json) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    send(exchange, 200, json.toString());
+  }
+
+  private static void sendXml(HttpExchange exchange, String xml) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/xml");
+    send(exchange, 200, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml);
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String code, String message)
+      throws IOException {
+    JsonObject json = new JsonObject();
+    json.addProperty("Code", code);
+    json.addProperty("Message", message);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    send(exchange, status, json.toString());
+  }
+
+  private static void send(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("x-odps-request-id", newRequestId());
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.flush();
+  }
+
+  private static String partitionKey(String partition) {
+    return partition == null || partition.trim().isEmpty() ? ""
+                                                           : new PartitionSpec(partition).toString();
+  }
+
+  private static JsonObject toJson(TableSchema schema) {
+    JsonObject json = new JsonObject();
+    json.add("columns", toJson(schema.getColumns()));
+    json.add("partitionKeys", toJson(schema.getPartitionColumns()));
+    return json;
+  }
+
+  private static JsonArray toJson(List<Column> columns) {
+    JsonArray array = new JsonArray();
+    for (Column column : columns) {
+      JsonObject json = new JsonObject();
+      json.addProperty("name", column.getName());
+      json.addProperty("type", column.getTypeInfo().getTypeName().toLowerCase());
+      json.addProperty("comment", "");
+      json.addProperty("nullable", true);
+      array.add(json);
+    }
+    return array;
+  }
+
+  private static class ServerError extends RuntimeException {
+
+    private final int status;
+    private final String code;
+
+    ServerError(int status, String code, String message) {
+      super(message);
+      this.status = status;
+      this.code = code;
+    }
+  }
+
+  /**
+   * Resource of a request: /projects/{project}[/schemas/{schema}][/tables/{table}[/upserts]].
+   */
+  private static class Request {
+
+    private final String method;
+    private final String project;
+    private final String table;
+    private final boolean upserts;
+    private final Map<String, String> params = new TreeMap<String, String>();
+
+    Request(HttpExchange exchange) throws UnsupportedEncodingException {
+      method = exchange.getRequestMethod();
+      List<String> path = new ArrayList<String>();
+      for (String segment : exchange.getRequestURI().getRawPath().split("/")) {
+        if (!segment.isEmpty()) {
+          path.add(URLDecoder.decode(segment, "UTF-8"));
+        }
+      }
+      if (path.size() < 2 || !"projects".equals(path.get(0))) {
+        throw new ServerError(404, "NoSuchObject", "unknown resource " + path);
+      }
+      project = path.get(1);
+      int tables = path.indexOf("tables");
+      table = tables < 0 || tables + 1 >= path.size() ? null : path.get(tables + 1);
+      upserts = path.contains("upserts");
+      String query = exchange.getRequestURI().getRawQuery();
+      if (query != null) {
+        for (String param : query.split("&")) {
+          int eq = param.indexOf('=');
+          String name = eq < 0 ? param : param.substring(0, eq);
+          String value = eq < 0 ? "" : param.substring(eq + 1);
+          params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+      }
+    }
+
+    boolean is(String method) {
+      return this.method.equalsIgnoreCase(method);
+    }
+
+    boolean has(String param) {
+      return params.containsKey(param);
+    }
+
+    String get(String param) {
+      return params.get(param);
+    }
+
+    String getPartition() {
+      return partitionKey(params.get("partition"));
+    }
+  }
+
+  private static class Table {
+
+    private final String name;
+    private final TableSchema schema;
+    private final List<String> primaryKey;
+    // records of each partition, "" for an unpartitioned table
+    private final Map<String, List<Record>> partitions = new LinkedHashMap<String, List<Record>>();
+
+    Table(String name, TableSchema schema, List<String> primaryKey) {
+      this.name = name;
+      this.schema = schema;
+      this.primaryKey = primaryKey;
+    }
+
+    synchronized void append(String partition, List<Record> records, boolean overwrite) {
+      List<Record> data = partitions.get(partition);
+      if (data == null || overwrite) {
+        data = new ArrayList<Record>();
+        partitions.put(partition, data);
+      }
+      data.addAll(records);
+    }
+
+    synchronized List<Record> getRecords(String partition) {
+      List<Record> data = partitions.get(partition);
+      return data == null ? new ArrayList<Record>() : new ArrayList<Record>(data);
+    }
+
+    /**
+     * @param filter
+     *     a partial spec the partitions listed must match, or null for all partitions
+     */
+    synchronized String getPartitionsXml(String filter) {
+      PartitionSpec prefix = filter == null ? null : new PartitionSpec(filter);
+      StringBuilder xml = new StringBuilder("<Partitions>");
+      for (String partition : partitions.keySet()) {
+        if (partition.isEmpty()) {
+          continue;
+        }
+        PartitionSpec spec = new PartitionSpec(partition);
+        if (prefix != null && !matches(spec, prefix)) {
+          continue;
+        }
+        xml.append("<Partition>");
+        for (String key : spec.keys()) {
+          xml.append("<Column Name=\"").append(key).append("\" Value=\"").append(spec.get(key))
+              .append("\"/>");
+        }
+        xml.append("</Partition>");
+      }
+      return xml.append("<Marker></Marker><MaxItems>1000</MaxItems></Partitions>").toString();
+    }
+
+    private static boolean matches(PartitionSpec spec, PartitionSpec prefix) {
+      for (String key : prefix.keys()) {
+        if (!prefix.get(key).equals(spec.get(key))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    String getTableXml(String project) {
+      JsonObject json = LocalTunnelServer.toJson(schema);
+      json.addProperty("tableName", name);
+      if (!primaryKey.isEmpty()) {
+        JsonObject reserved = new JsonObject();
+        JsonArray key = new JsonArray();
+        for (String column : primaryKey) {
+          key.add(column);
+        }
+        reserved.add("PrimaryKey", key);
+        reserved.addProperty("Transactional", "true");
+        json.addProperty("Reserved", reserved.toString());
+      }
+      return "<Table><Name>" + name + "</Name><TableId>" + name + "</TableId><Project>" + project
+             + "</Project><Owner>local</Owner><Type>MANAGED_TABLE</Type><Schema><![CDATA["
+             + json + "]]></Schema></Table>";
+    }
+
+    TableSchema getDataSchema() {
+      TableSchema dataSchema = new TableSchema();
+      dataSchema.setColumns(new ArrayList<Column>(schema.getColumns()));
+      return dataSchema;
+    }
+  }
+
+  private static class UploadSession {
+
+    private final String id;
+    private final Table table;
+    private final String partition;
+    private final boolean overwrite;
+    private final Map<Long, List<Record>> blocks = new TreeMap<Long, List<Record>>();
+    private String status = STATUS_NORMAL;
+
+    UploadSession(String id, Table table, String partition, boolean overwrite) {
+      this.id = id;
+      this.table = table;
+      this.partition = partition;
+      this.overwrite = overwrite;
+    }
+
+    synchronized void writeBlock(long blockId, List<Record> records) {
+      if (!STATUS_NORMAL.equals(status)) {
+        throw new ServerError(400, "StatusConflict", "upload session is " + status);
+      }
+      // a block written again replaces the records written before
+      blocks.put(blockId, records);
+    }
+
+    synchronized void commit() {
+      if (STATUS_CLOSED.equals(status)) {
+        return;
+      }
+      List<Record> records = new ArrayList<Record>();
+      for (List<Record> block : blocks.values()) {
+        records.addAll(block);
+      }
+      table.append(partition, records, overwrite);
+      status = STATUS_CLOSED;
+    }
+
+    synchronized JsonObject toJson() {
+      JsonObject json = new JsonObject();
+      json.addProperty("UploadID", id);
+      json.addProperty("Status", status);
+      json.add("Schema", LocalTunnelServer.toJson(table.schema));
+      JsonArray list = new JsonArray();
+      for (Long blockId : blocks.keySet()) {
+        JsonObject block = new JsonObject();
+        block.addProperty("BlockID", blockId);
+        list.add(block);
+      }
+      json.add("UploadedBlockList", list);
+      return json;
+    }
+  }
+
+  private static class DownloadSession {
+
+    private final String id;
+    private final Table table;
+    // records of the partition when the session is created
+    private final List<Record> records;
+
+    DownloadSession(String id, Table table, List<Record> records) {
+      this.id = id;
+      this.table = table;
+      this.records = records;
+    }
+
+    JsonObject toJson() {
+      JsonObject json = new JsonObject();
+      json.addProperty("DownloadID", id);
+      json.addProperty("Status", STATUS_NORMAL);
+      json.addProperty("RecordCount", records.size());
+      json.add("Schema", LocalTunnelServer.toJson(table.schema));
+      return json;
+    }
+  }
+
+  private static class UpsertSession {
+
+    private static final String OPERATION = "__operation";
+    private static final byte DELETE = 'D';
+
+    private final String id;
+    private final Table table;
+    private final String partition;
+    // columns of the records sent by the streams, the columns of the table with the meta columns
+    private final TableSchema recordSchema;
+    // records and deletes by the primary key, in the order they are flushed
+    private final Map<List<Object>, Record> changes = new LinkedHashMap<List<Object>, Record>();
+    private String status = STATUS_NORMAL;
+
+    UpsertSession(String id, Table table, String partition) {
+      this.id = id;
+      this.table = table;
+      this.partition = partition;
+      recordSchema = table.getDataSchema();
+      recordSchema.addColumn(new Column("__version", TypeInfoFactory.BIGINT));
+      recordSchema.addColumn(new Column("__app_version", TypeInfoFactory.BIGINT));
+      recordSchema.addColumn(new Column(OPERATION, TypeInfoFactory.TINYINT));
+      recordSchema.addColumn(
+          new Column("__key_cols", TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.BIGINT)));
+      recordSchema.addColumn(
+          new Column("__value_cols", TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.BIGINT)));
+    }
+
+    synchronized void flush(List<Record> records) {
+      if (!STATUS_NORMAL.equals(status)) {
+        throw new ServerError(400, "StatusConflict", "upsert session is " + status);
+      }
+      List<Column> columns = table.schema.getColumns();
+      for (Record record : records) {
+        ArrayRecord data = new ArrayRecord(columns.toArray(new Column[0]));
+        for (Column column : columns) {
+          data.set(column.getName(), record.get(column.getName()));
+        }
+        boolean delete = ((Byte) record.get(OPERATION)) == DELETE;
+        List<Object> key = key(table, data);
+        // a key changed again moves to the end
+        changes.remove(key);
+        changes.put(key, delete ? null : data);
+      }
+    }
+
+    synchronized void commit() {
+      if (STATUS_COMMITTED.equals(status)) {
+        return;
+      }
+      synchronized (table) {
+        Map<List<Object>, Record> rows = new LinkedHashMap<List<Object>, Record>();
+        for (Record record : table.getRecords(partition)) {
+          rows.put(key(table, record), record);
+        }
+        for (Map.Entry<List<Object>, Record> change : changes.entrySet()) {
+          if (change.getValue() == null) {
+            rows.remove(change.getKey());
+          } else {
+            rows.put(change.getKey(), change.getValue());
+          }
+        }
+        table.append(partition, new ArrayList<Record>(rows.values()), true);
+      }
+      status = STATUS_COMMITTED;
+    }
+
+    synchronized void abort() {
+      status = STATUS_ABORTED;
+    }
+
+    synchronized JsonObject toJson(int port) {
+      JsonObject json = new JsonObject();
+      json.addProperty("id", id);
+      json.addProperty("status", status);
+      json.add("schema", LocalTunnelServer.toJson(table.schema));
+      JsonArray hashKey = new JsonArray();
+      for (String column : table.primaryKey) {
+        hashKey.add(column);
+      }
+      json.add("hash_key", hashKey);
+      json.addProperty("hasher", "default");
+      // one slot of one bucket, served by this server
+      JsonObject slot = new JsonObject();
+      slot.addProperty("slot_id", "0");
+      JsonArray buckets = new JsonArray();
+      buckets.add(0);
+      slot.add("buckets", buckets);
+      slot.addProperty("worker_addr", "127.0.0.1:" + port);
+      JsonArray slots = new JsonArray();
+      slots.add(slot);
+      json.add("slots", slots);
+      json.addProperty("quota_name", "");
+      json.addProperty("enable_partial_update", false);
+      return json;
+    }
+
+    private static List<Object> key(Table table, Record record) {
+      List<Object> key = new ArrayList<Object>();
+      for (String column : table.primaryKey) {
+        Object value = record.get(column);
+        // strings are kept as bytes by the records read from a stream
+        key.add(value instanceof byte[] ? new String((byte[]) value) : value);
+      }
+      return key;
+    }
+  }
+}
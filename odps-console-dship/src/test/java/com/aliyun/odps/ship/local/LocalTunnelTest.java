@@ -0,0 +1,364 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.ship.DShipCommand;
+import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.RecordConverter;
+import com.aliyun.odps.ship.common.Util;
+import com.aliyun.odps.ship.download.TunnelDownloadSession;
+import com.aliyun.odps.ship.history.SessionHistoryManager;
+import com.aliyun.odps.ship.local.LocalTunnelServer.Action;
+import com.aliyun.odps.ship.upload.TunnelUploadSession;
+import com.aliyun.odps.type.TypeInfoFactory;
+import com.aliyun.openservices.odps.console.ExecutionContext;
+import com.aliyun.openservices.odps.console.ODPSConsoleException;
+
+/**
+ * 测试在本地 tunnel 服务上端到端地上传, 下载和 upsert
+ */
+public class LocalTunnelTest {
+
+  private static final String DIR = "src/test/resources/file/local";
+  private static final int LINES = 2000;
+
+  private LocalTunnelServer server;
+  private ExecutionContext context;
+
+  @Before
+  public void setUp() throws IOException {
+    DshipContext.INSTANCE.setRetryInterval(10);
+    server = new LocalTunnelServer();
+    context = server.newExecutionContext();
+    TableSchema schema = new TableSchema();
+    schema.addColumn(new Column("id", TypeInfoFactory.BIGINT));
+    schema.addColumn(new Column("name", TypeInfoFactory.STRING));
+    server.createTable("t", schema);
+    new File(DIR).mkdirs();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    DshipContext.INSTANCE.setRetryInterval(Constants.RETRY_INTERNAL);
+    server.close();
+    FileUtils.deleteDirectory(new File(DIR));
+    for (String id : server.getSessionIds()) {
+      FileUtils.deleteDirectory(new File(Util.getSessionDir(DshipContext.INSTANCE.snapshot(), id)));
+    }
+  }
+
+  /**
+   * 测试上传后下载的文件与上传的文件一致
+   */
+  @Test
+  public void testUploadAndDownload() throws Exception {
+    String expected = lines(0, LINES);
+    FileUtils.writeStringToFile(new File(DIR + "/in.txt"), expected, "UTF-8");
+    run("tunnel upload " + DIR + "/in.txt t -threads 2");
+    assertEquals("not equal", LINES, server.getRecords("t", null).size());
+
+    run("tunnel download t " + DIR + "/out.txt");
+    assertEquals("not equal", expected,
+                 FileUtils.readFileToString(new File(DIR + "/out.txt"), "UTF-8"));
+  }
+
+  /**
+   * 测试写 block 失败后重试, 提交的数据不重复也不丢失
+   */
+  @Test
+  public void testUploadRetry() throws Exception {
+    FileUtils.writeStringToFile(new File(DIR + "/in.txt"), lines(0, LINES), "UTF-8");
+    server.failNext(Action.WRITE_BLOCK, 2);
+    run("tunnel upload " + DIR + "/in.txt t -bs 1 -threads 2");
+    List<Record> records = server.getRecords("t", null);
+    assertEquals("not equal", LINES, records.size());
+    for (int i = 0; i < LINES; i++) {
+      assertEquals("not equal", Long.valueOf(i), records.get(i).getBigint("id"));
+    }
+  }
+
+  /**
+   * 测试单个 gzip member 的文件由多个线程上传到多个 block, 重试后数据不重复也不丢失
+   */
+  @Test
+  public void testUploadSingleMemberGzip() throws Exception {
+    int lines = 100000;
+    writeGzip(lines(0, lines));
+    server.failNext(Action.WRITE_BLOCK, 1);
+    run("tunnel upload " + DIR + "/in.txt.gz t -bs 1 -threads 4");
+
+    List<Record> records = new ArrayList<Record>(server.getRecords("t", null));
+    assertEquals("not equal", lines, records.size());
+    Collections.sort(records, new Comparator<Record>() {
+      @Override
+      public int compare(Record a, Record b) {
+        return a.getBigint("id").compareTo(b.getBigint("id"));
+      }
+    });
+    for (int i = 0; i < lines; i++) {
+      assertEquals("not equal", Long.valueOf(i), records.get(i).getBigint("id"));
+    }
+    String id = server.getSessionIds().get(0);
+    List<BlockInfo> finished = SessionHistoryManager.createSessionHistory(
+        DshipContext.INSTANCE.snapshot(), id).loadFinishBlockList();
+    assertTrue("one block", finished.size() > 1);
+  }
+
+  /**
+   * 测试单个 gzip member 的文件由多个线程上传时, 所有线程的 bad record 合计不超过 -mbr, 并保存到原 block
+   */
+  @Test
+  public void testUploadSingleMemberGzipBadRecords() throws Exception {
+    // the reader hands the batches to the two lanes in turn, each lane gets two bad records
+    int batch = Constants.LANE_BATCH_RECORDS;
+    List<String> bad = Arrays.asList("a,bad0", "b,bad1", "c,bad2", "d,bad3");
+    writeGzip(bad.get(0) + "\n" + bad.get(1) + "\n" + lines(2, batch) + bad.get(2) + "\n"
+              + bad.get(3) + "\n" + lines(batch + 2, 4 * batch));
+
+    // no lane exceeds -mbr 3 on its own
+    try {
+      run("tunnel upload " + DIR + "/in.txt.gz t -bs 1 -threads 2 -dbr true -mbr 3");
+      fail("bad records exceed");
+    } catch (ODPSConsoleException e) {
+      // expected
+    }
+    assertEquals("not equal", 0, server.getRecords("t", null).size());
+
+    run("tunnel upload " + DIR + "/in.txt.gz t -bs 1 -threads 2 -dbr true -mbr 4");
+    assertEquals("not equal", 4 * batch - 4, server.getRecords("t", null).size());
+    List<String> ids = server.getSessionIds();
+    String dir = Util.getSessionDir(DshipContext.INSTANCE.snapshot(), ids.get(ids.size() - 1));
+    List<String> saved = new ArrayList<String>(
+        FileUtils.readLines(new File(dir, "bad_1"), StandardCharsets.UTF_8));
+    Collections.sort(saved);
+    assertEquals("not equal", bad, saved);
+  }
+
+  /**
+   * 测试下载的连接中断后重试, 下载的文件完整
+   */
+  @Test
+  public void testDownloadRetry() throws Exception {
+    server.append("t", null, records(0, LINES));
+    server.failNext(Action.READ, 1);
+    run("tunnel download t " + DIR + "/out.txt");
+    assertEquals("not equal", lines(0, LINES),
+                 FileUtils.readFileToString(new File(DIR + "/out.txt"), "UTF-8"));
+  }
+
+  /**
+   * 测试上传到分区后, 按分区下载
+   */
+  @Test
+  public void testPartitions() throws Exception {
+    TableSchema schema = new TableSchema();
+    schema.addColumn(new Column("id", TypeInfoFactory.BIGINT));
+    schema.addColumn(new Column("name", TypeInfoFactory.STRING));
+    schema.addPartitionColumn(new Column("pt", TypeInfoFactory.STRING));
+    server.createTable("pt", schema);
+    for (int i = 0; i < 3; i++) {
+      server.append("pt", "pt=p" + i, new ArrayList<Record>());
+      FileUtils.writeStringToFile(new File(DIR + "/in" + i + ".txt"),
+                                  lines(i * LINES, (i + 1) * LINES), "UTF-8");
+      run("tunnel upload " + DIR + "/in" + i + ".txt pt/pt=p" + i);
+      assertEquals("not equal", LINES, server.getRecords("pt", "pt=p" + i).size());
+    }
+
+    run("tunnel download pt/pt=p1 " + DIR + "/out.txt");
+    assertEquals("not equal", lines(LINES, 2 * LINES),
+                 FileUtils.readFileToString(new File(DIR + "/out.txt"), "UTF-8"));
+
+    run("tunnel download pt " + DIR + "/all.txt -threads 2");
+    for (int i = 0; i < 3; i++) {
+      assertEquals("not equal", lines(i * LINES, (i + 1) * LINES), FileUtils.readFileToString(
+          new File(DIR + "/all/all.p" + i + ".txt"), "UTF-8"));
+    }
+  }
+
+  /**
+   * 测试 upsert 按主键更新已有的记录并插入新的记录
+   */
+  @Test
+  public void testUpsert() throws Exception {
+    TableSchema schema = new TableSchema();
+    schema.addColumn(new Column("id", TypeInfoFactory.BIGINT));
+    schema.addColumn(new Column("name", TypeInfoFactory.STRING));
+    server.createTable("pk", schema, "id");
+    server.append("pk", null, records(0, LINES));
+
+    StringBuilder changes = new StringBuilder();
+    for (int i = LINES / 2; i < LINES * 3 / 2; i++) {
+      changes.append(i).append(",new").append(i).append("\n");
+    }
+    FileUtils.writeStringToFile(new File(DIR + "/in.txt"), changes.toString(), "UTF-8");
+    run("tunnel upsert " + DIR + "/in.txt pk");
+
+    List<Record> records = server.getRecords("pk", null);
+    assertEquals("not equal", LINES * 3 / 2, records.size());
+    for (Record record : records) {
+      long id = record.getBigint("id");
+      assertEquals("not equal", (id < LINES / 2 ? "name" : "new") + id, record.getString("name"));
+    }
+  }
+
+  /**
+   * 测试有网络延迟时上传和下载的吞吐, 只检查结果正确, 速度输出到 stderr 以便比较
+   */
+  @Test
+  public void testThroughput() throws Exception {
+    int lines = 100000;
+    String expected = lines(0, lines);
+    FileUtils.writeStringToFile(new File(DIR + "/in.txt"), expected, "UTF-8");
+    server.setLatency(20);
+
+    long start = System.currentTimeMillis();
+    run("tunnel upload " + DIR + "/in.txt t -bs 1 -threads 4");
+    long upload = System.currentTimeMillis() - start;
+    assertEquals("not equal", lines, server.getRecords("t", null).size());
+
+    start = System.currentTimeMillis();
+    run("tunnel download t " + DIR + "/out.txt -threads 4");
+    long download = System.currentTimeMillis() - start;
+    StringBuilder actual = new StringBuilder();
+    for (int i = 0; i < 4; i++) {
+      actual.append(FileUtils.readFileToString(new File(DIR + "/out/out_" + i + ".txt"), "UTF-8"));
+    }
+    assertEquals("not equal", expected, actual.toString());
+
+    System.err.println(String.format(
+        "local tunnel: upload %d records/s, download %d records/s, %d requests",
+        lines * 1000L / Math.max(upload, 1), lines * 1000L / Math.max(download, 1),
+        server.getRequestCount()));
+  }
+
+  /**
+   * 测试上传 session 为每个线程复用各自的 record, 并行上传的 block 不会互相覆盖字段
+   */
+  @Test
+  public void testUploadRecordPerThread() throws Exception {
+    final TunnelUploadSession session = new TunnelUploadSession(jobContext());
+    final RecordConverter converter =
+        new RecordConverter(session.getSchema(), "NULL", null, null, "UTF-8", false, true);
+    Record own = session.getRecord(converter, fields(1));
+    assertSame("not same", own, session.getRecord(converter, fields(1)));
+
+    final Record[] other = new Record[1];
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          other[0] = session.getRecord(converter, fields(2));
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    thread.start();
+    thread.join();
+    assertNotSame("same record", own, other[0]);
+    assertEquals("not equal", Long.valueOf(1), own.getBigint("id"));
+    assertEquals("not equal", Long.valueOf(2), other[0].getBigint("id"));
+  }
+
+  /**
+   * 测试下载 session 记录新建 session 的 id
+   */
+  @Test
+  public void testDownloadSessionId() throws Exception {
+    server.append("t", null, records(0, 10));
+    TunnelDownloadSession session = new TunnelDownloadSession(jobContext(), "t", null, null);
+    assertNotNull("null id", session.getDownloadId());
+    assertTrue(session.getDownloadId(), server.getSessionIds().contains(session.getDownloadId()));
+  }
+
+  private static void writeGzip(String content) throws IOException {
+    OutputStream out = new GZIPOutputStream(new FileOutputStream(DIR + "/in.txt.gz"));
+    try {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    } finally {
+      out.close();
+    }
+  }
+
+  private void run(String command) throws Exception {
+    DShipCommand.parse(command, context).run();
+  }
+
+  private DshipJobContext jobContext() {
+    return new DshipJobContext(Collections.singletonMap(Constants.TABLE, "t"), context);
+  }
+
+  private static byte[][] fields(long id) {
+    return new byte[][]{String.valueOf(id).getBytes(StandardCharsets.UTF_8),
+                        ("name" + id).getBytes(StandardCharsets.UTF_8)};
+  }
+
+  private static List<Record> records(int from, int to) {
+    Column[] columns = {new Column("id", TypeInfoFactory.BIGINT),
+                        new Column("name", TypeInfoFactory.STRING)};
+    List<Record> records = new ArrayList<Record>();
+    for (int i = from; i < to; i++) {
+      Record record = new ArrayRecord(columns);
+      record.setBigint(0, (long) i);
+      record.setString(1, "name" + i);
+      records.add(record);
+    }
+    return records;
+  }
+
+  private static String lines(int from, int to) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = from; i < to; i++) {
+      sb.append(i).append(",name").append(i).append("\n");
+    }
+    return sb.toString();
+  }
+}
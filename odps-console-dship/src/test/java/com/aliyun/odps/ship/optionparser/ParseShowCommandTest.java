@@ -79,6 +79,16 @@ public class ParseShowCommandTest {
     OptionsBuilder.buildShowOption(args);
     assertEquals("cmd not equal", "bad", DshipContext.INSTANCE.get(Constants.SHOW_COMMAND));
     assertNull("sid not null", DshipContext.INSTANCE.get(Constants.SESSION_ID));
+
+    args = new String[] {"show", "metrics", "sidxxx"};
+    OptionsBuilder.buildShowOption(args);
+    assertEquals("cmd not equal", "metrics", DshipContext.INSTANCE.get(Constants.SHOW_COMMAND));
+    assertEquals("sid not equal", "sidxxx", DshipContext.INSTANCE.get(Constants.SESSION_ID));
+
+    args = new String[] {"show", "metrics"};
+    OptionsBuilder.buildShowOption(args);
+    assertEquals("cmd not equal", "metrics", DshipContext.INSTANCE.get(Constants.SHOW_COMMAND));
+    assertNull("sid not null", DshipContext.INSTANCE.get(Constants.SESSION_ID));
   }
 
   /**
@@ -124,6 +134,11 @@ public class ParseShowCommandTest {
     assertEquals("cmd not equal", "bad", DshipContext.INSTANCE.get(Constants.SHOW_COMMAND));
     assertNull("sid not null", DshipContext.INSTANCE.get(Constants.SESSION_ID));
 
+    args = new String[] {"show", "m"};
+    OptionsBuilder.buildShowOption(args);
+    assertEquals("cmd not equal", "metrics", DshipContext.INSTANCE.get(Constants.SHOW_COMMAND));
+    assertNull("sid not null", DshipContext.INSTANCE.get(Constants.SESSION_ID));
+
   }
 
   /**
@@ -194,6 +209,14 @@ public class ParseShowCommandTest {
       assertTrue("need include message.", e.getMessage().indexOf("Unknown command") >= 0);
     }
 
+    try {
+      args = new String[] {"show", "metrics", "-number=5"};
+      OptionsBuilder.buildShowOption(args);
+      fail("need fail");
+    } catch (Exception e) {
+      assertTrue("need include message.", e.getMessage().indexOf("Unknown command") >= 0);
+    }
+
     try {
       args = new String[] {"show", "Bad"};
       OptionsBuilder.buildShowOption(args);
@@ -321,7 +321,7 @@ public class ParseUploadCommandTest {
   }
 
   /**
-   * 测试--Scan的值，只能包括true|false|only
+   * 测试--Scan的值，只能包括true|false|only|inline
    */
   @Test
   public void testOptionsScan() throws Exception {
@@ -340,13 +340,19 @@ public class ParseUploadCommandTest {
     OptionsBuilder.buildUploadOption(args);
     assertEquals("scan", "only", DshipContext.INSTANCE.get(Constants.SCAN));
 
+    args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME,
+                        "-scan=inline"};
+    OptionsBuilder.buildUploadOption(args);
+    assertEquals("scan", "inline", DshipContext.INSTANCE.get(Constants.SCAN));
+
     args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME, "-scan=test"};
     try {
       OptionsBuilder.buildUploadOption(args);
       fail("need fail.");
     } catch (IllegalArgumentException e) {
       assertTrue("error message",
-                 e.getMessage().indexOf("-scan, expected:(true|false|only), actual: 'test'") == 0);
+                 e.getMessage().indexOf("-scan, expected:(true|false|only|inline), actual: 'test'")
+                 == 0);
     }
   }
 
@@ -837,4 +843,99 @@ public class ParseUploadCommandTest {
     }
   }
 
+  
+
+  /**
+   * 测试 -format 的值，只能包括text|parquet|orc，这些格式不能和 csv、header 一起使用
+   */
+  @Test
+  public void testOptionsFormat() throws Exception {
+
+    String[] args;
+
+    args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME};
+    OptionsBuilder.buildUploadOption(args);
+    assertEquals("format", "text", DshipContext.INSTANCE.get(Constants.FORMAT));
+
+    args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME,
+                        "-format=parquet"};
+    OptionsBuilder.buildUploadOption(args);
+    assertEquals("format", "parquet", DshipContext.INSTANCE.get(Constants.FORMAT));
+
+    args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME,
+                        "-format=orc"};
+    OptionsBuilder.buildUploadOption(args);
+    assertEquals("format", "orc", DshipContext.INSTANCE.get(Constants.FORMAT));
+
+    args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME,
+                        "-format=avro"};
+    try {
+      OptionsBuilder.buildUploadOption(args);
+      fail("need fail.");
+    } catch (IllegalArgumentException e) {
+      assertTrue("error message", e.getMessage().indexOf(
+          "Unsupported format: 'avro', expected (text|parquet|orc)") == 0);
+    }
+
+    args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME,
+                        "-format=arrow"};
+    try {
+      OptionsBuilder.buildUploadOption(args);
+      fail("need fail.");
+    } catch (IllegalArgumentException e) {
+      assertTrue("error message", e.getMessage().indexOf("Unsupported format: 'arrow'") == 0);
+    }
+
+    args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME,
+                        "-format=orc", "-h=true"};
+    try {
+      OptionsBuilder.buildUploadOption(args);
+      fail("need fail.");
+    } catch (IllegalArgumentException e) {
+      assertTrue("error message", e.getMessage().indexOf("with format orc") > 0);
+    }
+
+    args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME,
+                        "-format=parquet", "-csv=true"};
+    try {
+      OptionsBuilder.buildUploadOption(args);
+      fail("need fail.");
+    } catch (IllegalArgumentException e) {
+      assertTrue("error message", e.getMessage().indexOf("with format parquet") > 0);
+    }
+  }
+
+  /**
+   * 测试 -threads auto，只能用于 upload，不能和 header 一起使用
+   */
+  @Test
+  public void testOptionsAutoThreads() throws Exception {
+
+    String[] args;
+
+    args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME,
+                        "-threads=auto"};
+    OptionsBuilder.buildUploadOption(args);
+    assertEquals("threads", "auto", DshipContext.INSTANCE.get(Constants.THREADS));
+
+    args = new String[]{"upload", "src/test/resources/test_data.txt", TEST_TABLE_NAME,
+                        "-threads=auto", "-h=true"};
+    try {
+      OptionsBuilder.buildUploadOption(args);
+      fail("need fail.");
+    } catch (IllegalArgumentException e) {
+      assertTrue("error message",
+                 e.getMessage().indexOf("Do not support write header in multi-threads.") == 0);
+    }
+
+    args = new String[]{"download", TEST_TABLE_NAME, "src/test/resources/test_data.txt",
+                        "-threads=auto"};
+    try {
+      OptionsBuilder.buildDownloadOption(args);
+      fail("need fail.");
+    } catch (IllegalArgumentException e) {
+      assertTrue("error message", e.getMessage().indexOf(
+          "Invalid parameter : threads 'auto' is only supported by upload") == 0);
+    }
   }
+}
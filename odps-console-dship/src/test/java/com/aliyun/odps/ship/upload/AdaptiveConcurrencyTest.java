@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.aliyun.odps.ship.common.Constants;
+
+/**
+ * 测试 -threads auto 的并发控制
+ */
+public class AdaptiveConcurrencyTest {
+
+  private static final long MIB = 1024 * 1024;
+  private static final long BLOCK = 64 * MIB;
+
+  /**
+   * 测试线程数增加到带宽用满为止, 之后不再增加
+   */
+  @Test
+  public void testGrowUntilBandwidthIsUsed() {
+    // 10 MiB/s per stream, 80 MiB/s in total, 8 streams use the bandwidth
+    SimulatedTunnel tunnel = new SimulatedTunnel(10 * MIB, 80 * MIB, 20, Integer.MAX_VALUE);
+    AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, 32);
+    for (int round = 0; round < 50; round++) {
+      tunnel.round(concurrency);
+    }
+    int limit = concurrency.getLimit();
+    assertTrue("limit " + limit, limit >= 8 && limit <= 12);
+    assertTrue("bandwidth is used", tunnel.throughput(limit) > 0.95 * 80 * MIB);
+  }
+
+  /**
+   * 测试每个 stream 都不受限时线程数增加到上限
+   */
+  @Test
+  public void testGrowToMax() {
+    SimulatedTunnel tunnel = new SimulatedTunnel(10 * MIB, Long.MAX_VALUE, 20, Integer.MAX_VALUE);
+    AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, 16);
+    for (int round = 0; round < 50; round++) {
+      tunnel.round(concurrency);
+    }
+    assertEquals("not equal", 16, concurrency.getLimit());
+  }
+
+  /**
+   * 测试超过 tunnel 限流的并发时 block 重试, 线程数减少且不再超过限流
+   */
+  @Test
+  public void testBackOffOnThrottling() {
+    SimulatedTunnel tunnel = new SimulatedTunnel(10 * MIB, Long.MAX_VALUE, 20, 6);
+    AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, 32);
+    for (int round = 0; round < 50; round++) {
+      tunnel.round(concurrency);
+    }
+    assertTrue("throttled", tunnel.retries > 0);
+    int retries = tunnel.retries;
+    for (int round = 0; round < 50; round++) {
+      tunnel.round(concurrency);
+    }
+    assertEquals("no more retries", retries, tunnel.retries);
+    int limit = concurrency.getLimit();
+    assertTrue("limit " + limit, limit >= 3 && limit <= 6);
+  }
+
+  /**
+   * 测试模拟写入延迟的多线程上传, 同时上传的 block 不超过当前限制
+   */
+  @Test
+  public void testUploadWithSimulatedWriter() throws Exception {
+    final int max = 8;
+    final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, max);
+    final SimulatedTunnel tunnel = new SimulatedTunnel(BLOCK * 100, Long.MAX_VALUE, 10, max);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final AtomicInteger overLimit = new AtomicInteger();
+    List<Callable<Void>> blocks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < 100; i++) {
+      blocks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          concurrency.acquire();
+          long millis;
+          try {
+            int n = running.incrementAndGet();
+            synchronized (maxRunning) {
+              maxRunning.set(Math.max(maxRunning.get(), n));
+            }
+            if (n > concurrency.getLimit()) {
+              overLimit.incrementAndGet();
+            }
+            // the simulated time is reported, the sleep keeps the block running
+            millis = tunnel.time(BLOCK, n);
+            Thread.sleep(millis);
+            running.decrementAndGet();
+          } finally {
+            concurrency.release();
+          }
+          concurrency.onBlockComplete(BLOCK, millis);
+          return null;
+        }
+      });
+    }
+
+    ExecutorService executors = Executors.newFixedThreadPool(max);
+    try {
+      for (Future<Void> future : executors.invokeAll(blocks)) {
+        future.get();
+      }
+    } finally {
+      executors.shutdownNow();
+    }
+    assertEquals("not equal", 0, overLimit.get());
+    assertTrue("threads are added", maxRunning.get() > 2);
+    assertEquals("not equal", max, concurrency.getLimit());
+  }
+
+  /**
+   * 测试根据文件大小和线程数选择 block size
+   */
+  @Test
+  public void testBlockSize() {
+    int threads = Constants.AUTO_THREADS_MAX;
+    assertEquals("not equal", Constants.AUTO_MIN_BLOCK_SIZE,
+                 AdaptiveConcurrency.getBlockSize(100 * MIB, threads));
+    assertEquals("not equal", 10240 / (threads * 4),
+                 AdaptiveConcurrency.getBlockSize(10240 * MIB, threads));
+    assertEquals("not equal", Constants.DEFAULT_BLOCK_SIZE,
+                 AdaptiveConcurrency.getBlockSize(1024 * 1024 * MIB, threads));
+  }
+
+  /**
+   * A tunnel with a bandwidth of each stream and of all streams, a latency per block, and a limit
+   * of streams, blocks written by more streams are retried.
+   */
+  private static class SimulatedTunnel {
+
+    private final long streamRate;
+    private final long bandwidth;
+    private final long latencyMillis;
+    private final int maxStreams;
+    int retries = 0;
+
+    SimulatedTunnel(long streamRate, long bandwidth, long latencyMillis, int maxStreams) {
+      this.streamRate = streamRate;
+      this.bandwidth = bandwidth;
+      this.latencyMillis = latencyMillis;
+      this.maxStreams = maxStreams;
+    }
+
+    long time(long bytes, int streams) {
+      double rate = Math.min(streamRate, bandwidth / (double) streams);
+      return latencyMillis + (long) (bytes * 1000 / rate);
+    }
+
+    double throughput(int streams) {
+      return streams * BLOCK * 1000.0 / time(BLOCK, streams);
+    }
+
+    /**
+     * Upload one block with each thread.
+     */
+    void round(AdaptiveConcurrency concurrency) {
+      int streams = concurrency.getLimit();
+      for (int i = 0; i < streams; i++) {
+        long millis = time(BLOCK, streams);
+        if (streams > maxStreams) {
+          // throttled, the block is written again
+          retries++;
+          concurrency.onRetry();
+          millis += time(BLOCK, Math.min(streams, maxStreams));
+        }
+        concurrency.onBlockComplete(BLOCK, millis);
+      }
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.Util;
+import com.aliyun.odps.ship.history.SessionHistory;
+import com.aliyun.odps.ship.history.SessionHistoryManager;
+
+/**
+ * 测试 block 的 bad record 缓存
+ */
+public class BadRecordBufferTest {
+
+  private static final String SID = "bad_record_buffer_test";
+
+  @After
+  public void tearDown() throws Exception {
+    SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(), SID).delete();
+  }
+
+  /**
+   * 测试超过内存上限时分批保存, flush 后文件内容和逐条保存一致
+   */
+  @Test
+  public void testFlushInBatches() throws Exception {
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   SID);
+    BadRecordBuffer buffer = new BadRecordBuffer(sh, 7L, 1000);
+    File bad = new File(Util.getSessionDir(DshipContext.INSTANCE.snapshot(), SID), "bad_7");
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      String record = "bad,record," + i + ",中文\r\n";
+      buffer.add(record);
+      expected.append(record);
+      // records beyond the budget are handed to the session history
+      SessionHistoryManager.closeHistories();
+      long saved = bad.exists() ? FileUtils.readFileToString(bad, "utf-8").length() : 0;
+      assertTrue("buffered " + (expected.length() - saved), (expected.length() - saved) * 2 < 1000);
+    }
+    buffer.flush();
+    SessionHistoryManager.closeHistories();
+    assertEquals("not equal", expected.toString(), FileUtils.readFileToString(bad, "utf-8"));
+  }
+
+  /**
+   * 测试 block 重试时清除已保存和缓存的 bad record 及其计数
+   */
+  @Test
+  public void testClear() throws Exception {
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   SID);
+    BadRecordBuffer buffer = new BadRecordBuffer(sh, 8L, 100);
+    File bad = new File(Util.getSessionDir(DshipContext.INSTANCE.snapshot(), SID), "bad_8");
+    for (int i = 0; i < 20; i++) {
+      buffer.count();
+      buffer.add("first attempt " + i + "\n");
+    }
+    buffer.clear();
+    buffer.flush();
+    SessionHistoryManager.closeHistories();
+    assertFalse("cleared", bad.exists());
+
+    assertEquals("not equal", 1, buffer.count());
+    buffer.add("second attempt\n");
+    buffer.flush();
+    SessionHistoryManager.closeHistories();
+    assertEquals("not equal", "second attempt\n", FileUtils.readFileToString(bad, "utf-8"));
+  }
+}
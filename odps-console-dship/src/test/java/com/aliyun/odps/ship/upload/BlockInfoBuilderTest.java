@@ -25,6 +25,8 @@ import org.junit.Test;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 
@@ -109,4 +111,72 @@ public class BlockInfoBuilderTest {
     assertEquals("block size", buildIndex.size(), 0);
 }
 
+  /**
+   * 测试 csv 文件按记录边界切分, 引号内的换行和逗号不能作为切分点
+   * */
+  @Test
+  public void testCsvFile() throws Exception {
+    // records: header, quoted "a,b" and multi-line field, doubled qualifier with quoted CRLF,
+    // leading space before qualifier, bare CR delimiter, quoted newline between doubled qualifiers
+    File file = new File("src/test/resources/file/fileuploader/csv/quoted_multiline.csv");
+    BlockInfoBuilder blockIndexBuilder = new BlockInfoBuilder();
+    blockIndexBuilder.setCsv(true);
+
+    blockIndexBuilder.setBlockSize(1);
+    ArrayList<BlockInfo> buildIndex = blockIndexBuilder.buildBlockIndex(file);
+    assertEquals("block size", 7, buildIndex.size());
+    long[] starts = {0, 16, 38, 87, 106, 120, 135};
+    for (int i = 0; i < starts.length; i++) {
+      assertEquals("block start " + i, starts[i], buildIndex.get(i).getStartPos().longValue());
+    }
+
+    blockIndexBuilder.setBlockSize(40);
+    buildIndex = blockIndexBuilder.buildBlockIndex(file);
+    assertEquals("block size", 3, buildIndex.size());
+    assertEquals("block info 1", "1:0:87:" + file.getPath(), buildIndex.get(0).toString());
+    assertEquals("block info 2", "2:87:48:" + file.getPath(), buildIndex.get(1).toString());
+    assertEquals("block info 3", "3:135:7:" + file.getPath(), buildIndex.get(2).toString());
+
+    // not ascii compatible charset, whole file to one block
+    blockIndexBuilder.setCharset("UTF-16");
+    buildIndex = blockIndexBuilder.buildBlockIndex(file);
+    assertEquals("block size", 1, buildIndex.size());
+  }
+
+  /**
+   * 测试 csv 文件切分成任意大小的 block 后, 逐个 block 读取的记录和整个文件读取一致
+   * */
+  @Test
+  public void testCsvBlocksReadSameRecords() throws Exception {
+    File file = new File("src/test/resources/file/fileuploader/csv/quoted_multiline.csv");
+    List<String> expected = readCsvRecords(new BlockInfo(1L, file, 0L, file.length()), true);
+    assertEquals("record count", 6, expected.size());
+
+    BlockInfoBuilder blockIndexBuilder = new BlockInfoBuilder();
+    blockIndexBuilder.setCsv(true);
+    for (long blockSize = 1; blockSize <= file.length(); blockSize++) {
+      blockIndexBuilder.setBlockSize(blockSize);
+      List<String> records = new ArrayList<String>();
+      for (BlockInfo blockInfo : blockIndexBuilder.buildBlockIndex(file)) {
+        records.addAll(readCsvRecords(blockInfo, true));
+      }
+      assertEquals("block size " + blockSize, expected, records);
+    }
+  }
+
+  private List<String> readCsvRecords(BlockInfo blockInfo, boolean ignoreHeader)
+      throws Exception {
+    List<String> records = new ArrayList<String>();
+    CsvRecordReader reader = new CsvRecordReader(blockInfo, "utf8", ignoreHeader);
+    byte[][] record;
+    while ((record = reader.readTextRecord()) != null) {
+      List<String> values = new ArrayList<String>();
+      for (byte[] v : record) {
+        values.add(new String(v, "utf8"));
+      }
+      records.add(Arrays.toString(values.toArray()));
+    }
+    reader.close();
+    return records;
+  }
 }
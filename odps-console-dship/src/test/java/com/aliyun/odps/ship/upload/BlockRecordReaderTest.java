@@ -20,7 +20,9 @@
 package com.aliyun.odps.ship.upload;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -34,6 +36,7 @@ import org.junit.Test;
 
 import com.aliyun.odps.ship.common.BlockInfo;
 import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.FieldSlices;
 
 /**
  * 测试文件的按行读取
@@ -707,4 +710,95 @@ public class BlockRecordReaderTest {
       assertNull("not null", firstLine);
     }
   }
+
+  /**
+   * 测试读缓冲区很小时，行分隔符和列分隔符跨越缓冲区边界，以及单行大于缓冲区需要扩容
+   * */
+  @Test
+  public void testReadWithSmallBuffer() throws Exception {
+    // file content
+    // 123||ab测试c,,,234||bb你好b,,,333||ccc,,,
+    File file = new File("src/test/resources/file/reader/more_char_split_chinese.txt");
+    for (int bufferSize = 1; bufferSize < 16; bufferSize++) {
+      BlockInfo blockInfo = new BlockInfo(1L, file, 0L, file.length());
+      BlockRecordReader reader = new BlockRecordReader(blockInfo, "||", ",,,", false, bufferSize);
+
+      byte[][] firstLine = reader.readTextRecord();
+      assertEquals("not equal", "123", new String(firstLine[0], "utf8"));
+      assertEquals("not equal", "ab测试c", new String(firstLine[1], "utf8"));
+
+      byte[][] nextLine = reader.readTextRecord();
+      assertEquals("not equal", "234", new String(nextLine[0], "utf8"));
+      assertEquals("not equal", "bb你好b", new String(nextLine[1], "utf8"));
+      assertEquals("not equal", "234||bb你好b", reader.getCurrentLine());
+
+      byte[][] tLine = reader.readTextRecord();
+      assertEquals("not equal", "333", new String(tLine[0], "utf8"));
+      assertEquals("not equal", "ccc", new String(tLine[1], "utf8"));
+
+      assertNull("not null", reader.readTextRecord());
+      reader.close();
+    }
+  }
+
+  /**
+   * 测试按 block 切分读取时，不同缓冲区大小和任意切分位置读到的记录与整体读取一致
+   * */
+  @Test
+  public void testReadBlocksWithSmallBuffer() throws Exception {
+    // file content :
+    // 123||abc,,,234||bbb,,,333||ccc,,,
+    File file = new File("src/test/resources/file/reader/more_char_split.txt");
+    long length = file.length();
+    for (int bufferSize = 1; bufferSize < 8; bufferSize++) {
+      // a block never starts before the first record delimiter can end
+      for (long split = 2; split < length; split++) {
+        StringBuilder content = new StringBuilder();
+        BlockInfo first = new BlockInfo(1L, file, 0L, split);
+        BlockInfo second = new BlockInfo(2L, file, split, length - split);
+        for (BlockInfo blockInfo : new BlockInfo[]{first, second}) {
+          BlockRecordReader reader =
+              new BlockRecordReader(blockInfo, "||", ",,,", false, bufferSize);
+          byte[][] record;
+          while ((record = reader.readTextRecord()) != null) {
+            content.append(new String(record[0])).append(":").append(new String(record[1]))
+                .append(";");
+          }
+          reader.close();
+        }
+        assertEquals("split at " + split + ", buffer " + bufferSize,
+                     "123:abc;234:bbb;333:ccc;", content.toString());
+      }
+    }
+  }
+
+  /**
+   * 测试读入 batch 的记录在读取器继续读取后仍然有效，batch 复用后缓冲区可以扩容
+   * */
+  @Test
+  public void testReadTextLines() throws Exception {
+    // file content
+    // 123||ab测试c,,,234||bb你好b,,,333||ccc,,,
+    File file = new File("src/test/resources/file/reader/more_char_split_chinese.txt");
+    BlockInfo blockInfo = new BlockInfo(1L, file, 0L, file.length());
+    BlockRecordReader reader = new BlockRecordReader(blockInfo, "||", ",,,", false, 4);
+    TextLines lines = new TextLines(2);
+    FieldSlices slices = new FieldSlices();
+
+    assertTrue(reader.readTextLine(lines));
+    assertTrue(reader.readTextLine(lines));
+    assertTrue(lines.isFull());
+    assertEquals("not equal", "123||ab测试c", lines.getText(0));
+    assertEquals("not equal", "234||bb你好b", lines.getText(1));
+    assertEquals("not equal", "bb你好b",
+                 new String(reader.getFields(lines, 1, slices).toBytes(1), "utf8"));
+    assertEquals("not equal", reader.getReadBytes(), lines.getReadBytes(1));
+
+    lines.clear();
+    assertTrue(reader.readTextLine(lines));
+    assertEquals("not equal", "333", new String(reader.getFields(lines, 0, slices).toBytes(0)));
+    assertFalse(reader.readTextLine(lines));
+    assertEquals("not equal", 1, lines.size());
+    reader.close();
+  }
 }
@@ -38,6 +38,7 @@ import com.aliyun.odps.TableSchema;
 import com.aliyun.odps.ship.common.BlockInfo;
 import com.aliyun.odps.ship.common.Constants;
 import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
 import com.aliyun.odps.ship.common.OptionsBuilder;
 import com.aliyun.odps.ship.history.SessionHistory;
 import com.aliyun.odps.ship.history.SessionHistoryManager;
@@ -90,13 +91,14 @@ public class BlockUploadTest {
     DshipContext.INSTANCE.put(Constants.RESUME_UPLOAD_ID,
                               "test_upload_single_file" + System.currentTimeMillis());
     MockUploadSession us = new MockUploadSession();
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(us.getSessionId());
-    sh.saveContext();
-    sh.loadContext();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   us.getSessionId());
+    sh.saveContext(DshipContext.INSTANCE.snapshot());
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
     String blockInfo = "1:0:156:src/test/resources/file/fileuploader/mock_upload_more_char_split_chinese.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUploader = new BlockUploader(block, us, sh);
+    BlockUploader blockUploader = new BlockUploader(context, block, us, sh, false);
     blockUploader.upload();
     List<BlockInfo> blockList = sh.loadFinishBlockList();
     assertEquals("finish block is not 1", blockList.size(), 1);
@@ -118,12 +120,13 @@ public class BlockUploadTest {
                               "test_fail_discard_bad_records_false" + System.currentTimeMillis());
     MockUploadSession us = new MockUploadSession();
 
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(us.getSessionId());
-    sh.loadContext();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   us.getSessionId());
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
     String blockInfo = "1:0:300:src/test/resources/file/fileuploader/badrecords/badrecords3.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUploader = new BlockUploader(block, us, sh);
+    BlockUploader blockUploader = new BlockUploader(context, block, us, sh, false);
 
     try {
       blockUploader.upload();
@@ -149,12 +152,13 @@ public class BlockUploadTest {
                               "test_fail_strict_schema_true" + System.currentTimeMillis());
     MockUploadSession us = new MockUploadSession();
 
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(us.getSessionId());
-    sh.loadContext();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   us.getSessionId());
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
     String blockInfo = "1:0:300:src/test/resources/file/fileuploader/badrecords/badschema.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUploader = new BlockUploader(block, us, sh);
+    BlockUploader blockUploader = new BlockUploader(context, block, us, sh, false);
 
     try {
       blockUploader.upload();
@@ -180,12 +184,13 @@ public class BlockUploadTest {
                               "test_fail_strict_schema_false" + System.currentTimeMillis());
     MockUploadSession us = new MockUploadSession();
 
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(us.getSessionId());
-    sh.loadContext();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   us.getSessionId());
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
     String blockInfo = "1:0:300:src/test/resources/file/fileuploader/badrecords/badschema.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUploader = new BlockUploader(block, us, sh);
+    BlockUploader blockUploader = new BlockUploader(context, block, us, sh, false);
 
     blockUploader.upload();
     List<BlockInfo> blockList = sh.loadFinishBlockList();
@@ -209,12 +214,13 @@ public class BlockUploadTest {
     MockUploadSession us = new MockUploadSession();
     us.clearSession();
 
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(us.getSessionId());
-    sh.loadContext();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   us.getSessionId());
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
     String blockInfo = "1:0:300:src/test/resources/file/fileuploader/badrecords/badrecords3.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUploader = new BlockUploader(block, us, sh);
+    BlockUploader blockUploader = new BlockUploader(context, block, us, sh, false);
 
     blockUploader.upload();
     List<BlockInfo> blockList = sh.loadFinishBlockList();
@@ -253,12 +259,13 @@ public class BlockUploadTest {
     MockUploadSession us = new MockUploadSession();
     us.clearSession();
 
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(us.getSessionId());
-    sh.loadContext();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   us.getSessionId());
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
     String blockInfo = "1:0:300:src/test/resources/file/fileuploader/badrecords/badrecords3.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUploader = new BlockUploader(block, us, sh);
+    BlockUploader blockUploader = new BlockUploader(context, block, us, sh, false);
 
     try {
         blockUploader.upload();
@@ -285,6 +292,83 @@ public class BlockUploadTest {
     System.setOut(old);
   }
 
+  /**
+   * 测试-scan=inline，脏数据没有超过max-bad-records时，block扫描完成后才写入，脏数据与两遍扫描时相同
+   * */
+  @Test
+  public void testInlineScanSuccess() throws Exception {
+    String[] args =
+        new String[] {"upload", "src/test/resources/file/fileuploader/badrecords/badrecords3.txt",
+            projectName + "." + TEST_TABLE_NAME + "/ds='2113',pt='pttest'", "-fd=||", "-rd=\n",
+            "-dfp=yyyyMMddHHmmss", "-dbr", "true", "-scan", "inline"};
+    OptionsBuilder.buildUploadOption(args);
+    DshipContext.INSTANCE.put(Constants.RESUME_UPLOAD_ID,
+                              "test_inline_scan_success" + System.currentTimeMillis());
+    DshipContext.INSTANCE.put(Constants.MAX_BAD_RECORDS, "3");
+    MockBufferedUploadSession us = new MockBufferedUploadSession();
+    us.clearSession();
+
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   us.getSessionId());
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
+    String blockInfo = "1:0:300:src/test/resources/file/fileuploader/badrecords/badrecords3.txt";
+    BlockInfo block = new BlockInfo();
+    block.parse(blockInfo);
+    BlockUploader blockUploader = new BlockUploader(context, block, us, sh, false);
+
+    blockUploader.upload();
+    assertEquals("written block", 1, us.writtenBlocks.size());
+    assertEquals("written records", 3, us.writtenRecords);
+    List<BlockInfo> blockList = sh.loadFinishBlockList();
+    assertEquals("finish block is not 1", blockList.size(), 1);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PrintStream s = new PrintStream(out);
+    PrintStream old = System.out;
+    System.setOut(s);
+    sh.showBad();
+    System.setOut(old);
+    String[] sp = new String(out.toByteArray(), "UTF-8").split("\n");
+    assertTrue("first line", sp[0].indexOf("a||ab") == 0);
+    assertTrue("second line", sp[1].indexOf("234||bb") == 0);
+    assertTrue("last line", sp[2].indexOf("333||ccc") == 0);
+    assertTrue("expect 3, but :" + sp.length, sp.length == 3);
+  }
+
+  /**
+   * 测试-scan=inline，脏数据超过max-bad-records时出错，block不写入
+   * */
+  @Test
+  public void testInlineScanFailDiscardBadRecordsMaxSize() throws Exception {
+    String[] args =
+        new String[] {"upload", "src/test/resources/file/fileuploader/badrecords/badrecords3.txt",
+            projectName + "." + TEST_TABLE_NAME + "/ds='2113',pt='pttest'", "-fd=||", "-rd=\n",
+            "-dfp=yyyyMMddHHmmss", "-dbr", "true", "-scan", "inline"};
+    OptionsBuilder.buildUploadOption(args);
+    DshipContext.INSTANCE.put(Constants.RESUME_UPLOAD_ID,
+                              "test_inline_scan_fail" + System.currentTimeMillis());
+    DshipContext.INSTANCE.put(Constants.MAX_BAD_RECORDS, "2");
+    MockBufferedUploadSession us = new MockBufferedUploadSession();
+    us.clearSession();
+
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   us.getSessionId());
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
+    String blockInfo = "1:0:300:src/test/resources/file/fileuploader/badrecords/badrecords3.txt";
+    BlockInfo block = new BlockInfo();
+    block.parse(blockInfo);
+    BlockUploader blockUploader = new BlockUploader(context, block, us, sh, false);
+
+    try {
+      blockUploader.upload();
+      fail("bad record don't reach max limit");
+    } catch (Exception e) {
+      assertTrue(e.getMessage(), e.getMessage().indexOf("ERROR: bad records exceed 2") == 0);
+    }
+    assertEquals("written block", 0, us.writtenBlocks.size());
+    assertEquals("finish block", 0, sh.loadFinishBlockList().size());
+  }
+
   /**
    * 测试上传文件时，同一个block上传出错5次，正常上传
    * */
@@ -305,12 +389,13 @@ public class BlockUploadTest {
     MockErrorUploadSession us = new MockErrorUploadSession();
     us.setCrash(5);
 
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(uploadId);
-    sh.loadContext();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   uploadId);
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
     String blockInfo = "2:0:156:src/test/resources/file/fileuploader/mock_upload_more_char_split_chinese.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUploader = new BlockUploader(block, us, sh);
+    BlockUploader blockUploader = new BlockUploader(context, block, us, sh, false);
     blockUploader.upload();
     List<BlockInfo> blockList = sh.loadFinishBlockList();
     assertEquals("finish block is not 1", blockList.size(), 1);
@@ -337,12 +422,13 @@ public class BlockUploadTest {
     MockErrorUploadSession us = new MockErrorUploadSession();
     us.setCrash(6);
 
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(uploadId);
-    sh.loadContext();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   uploadId);
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
     String blockInfo = "2:0:156:src/test/resources/file/fileuploader/mock_upload_more_char_split_chinese.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUploader = new BlockUploader(block, us, sh);
+    BlockUploader blockUploader = new BlockUploader(context, block, us, sh, false);
     try {
       blockUploader.upload();
       fail("need fail");
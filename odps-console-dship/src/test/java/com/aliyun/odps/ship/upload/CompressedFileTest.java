@@ -0,0 +1,322 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.aliyun.odps.ship.common.BlockInfo;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * 测试读取 gzip/zstd 压缩文件
+ */
+public class CompressedFileTest {
+
+  private static final byte[] BOM = new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+  private interface Compressor {
+
+    byte[] compress(byte[] data) throws IOException;
+  }
+
+  private static final Compressor GZIP = new Compressor() {
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      OutputStream os = new GZIPOutputStream(bos);
+      os.write(data);
+      os.close();
+      return bos.toByteArray();
+    }
+  };
+
+  private static final Compressor ZSTD = new Compressor() {
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ZstdOutputStream os = new ZstdOutputStream(bos);
+      os.setChecksum(true);
+      os.write(data);
+      os.close();
+      return bos.toByteArray();
+    }
+  };
+
+  /**
+   * gzip member with a BGZF "BC" extra field, which records the size of the member
+   */
+  private static final Compressor BGZF = new Compressor() {
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+      byte[] buf = new byte[1024];
+      while (!deflater.finished()) {
+        deflated.write(buf, 0, deflater.deflate(buf));
+      }
+      deflater.end();
+      CRC32 crc = new CRC32();
+      crc.update(data);
+
+      int size = 18 + deflated.size() + 8;
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      bos.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0,
+                           'B', 'C', 2, 0});
+      writeShort(bos, size - 1);
+      deflated.writeTo(bos);
+      writeInt(bos, (int) crc.getValue());
+      writeInt(bos, data.length);
+      return bos.toByteArray();
+    }
+  };
+
+  private static void writeShort(OutputStream os, int v) throws IOException {
+    os.write(v & 0xff);
+    os.write((v >>> 8) & 0xff);
+  }
+
+  private static void writeInt(OutputStream os, int v) throws IOException {
+    writeShort(os, v & 0xffff);
+    writeShort(os, v >>> 16);
+  }
+
+  private static byte[] createContent(int lines, String rd) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bos.write(BOM);
+    bos.write(("id||name" + rd).getBytes("UTF-8"));
+    for (int i = 0; i < lines; i++) {
+      bos.write((i + "||名字" + i + rd).getBytes("UTF-8"));
+    }
+    return bos.toByteArray();
+  }
+
+  /**
+   * compress every chunkSize bytes of the content as a member, a member may end inside a line
+   */
+  private static File writeFile(byte[] content, int chunkSize, Compressor compressor)
+      throws IOException {
+    File file = File.createTempFile("compressed_file_test", ".gz");
+    file.deleteOnExit();
+    OutputStream os = new FileOutputStream(file);
+    try {
+      for (int i = 0; i < content.length; i += chunkSize) {
+        int end = Math.min(content.length, i + chunkSize);
+        os.write(compressor.compress(Arrays.copyOfRange(content, i, end)));
+      }
+    } finally {
+      os.close();
+    }
+    return file;
+  }
+
+  private static List<BlockInfo> buildBlocks(File file, long blockSize, String rd)
+      throws Exception {
+    BlockInfoBuilder builder = new BlockInfoBuilder();
+    builder.setBlockSize(blockSize);
+    builder.setRecordDelimiter(rd);
+    return builder.buildBlockIndex(file);
+  }
+
+  private static List<String> readAll(List<BlockInfo> blocks, String rd) throws Exception {
+    List<String> lines = new ArrayList<String>();
+    for (BlockInfo block : blocks) {
+      BlockRecordReader reader = new BlockRecordReader(block, "||", rd, true);
+      try {
+        byte[][] record;
+        while ((record = reader.readTextRecord()) != null) {
+          lines.add(new String(record[0], "UTF-8") + "," + new String(record[1], "UTF-8"));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return lines;
+  }
+
+  private static void assertLines(List<String> lines, int count) {
+    assertEquals("line count", count, lines.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals("not equal", i + ",名字" + i, lines.get(i));
+    }
+  }
+
+  private static void assertBoundaries(File file, List<BlockInfo> blocks, byte[] content,
+                                       int chunkSize, String rd) {
+    long total = 0;
+    for (BlockInfo block : blocks) {
+      total += block.getLength();
+    }
+    assertEquals("block length", file.length(), total);
+    assertEquals("first block", 0L, (long) blocks.get(0).getStartPos());
+    // members end at every chunkSize bytes of the content, only those ending a line are chosen.
+    // the last one counts as well when skippable frames follow it
+    int lineEnds = 0;
+    for (int i = chunkSize; i < content.length + chunkSize; i += chunkSize) {
+      int end = Math.min(i, content.length);
+      if (new String(Arrays.copyOfRange(content, 0, end)).endsWith(rd)) {
+        lineEnds++;
+      }
+    }
+    assertTrue("block count", blocks.size() > 1 && blocks.size() <= lineEnds + 1);
+  }
+
+  /**
+   * 测试识别压缩格式
+   */
+  @Test
+  public void testDetect() throws Exception {
+    byte[] content = createContent(10, "\n");
+    assertEquals("not equal", CompressedFile.Codec.GZIP,
+                 CompressedFile.detect(writeFile(content, 100, GZIP)));
+    assertEquals("not equal", CompressedFile.Codec.GZIP,
+                 CompressedFile.detect(writeFile(content, 100, BGZF)));
+    assertEquals("not equal", CompressedFile.Codec.ZSTD,
+                 CompressedFile.detect(writeFile(content, 100, ZSTD)));
+
+    Compressor plain = new Compressor() {
+      @Override
+      public byte[] compress(byte[] data) {
+        return data;
+      }
+    };
+    assertNull("not null", CompressedFile.detect(writeFile(content, 100, plain)));
+  }
+
+  /**
+   * 测试多个 member 的 gzip 文件在行尾的 member 处切分 block, 并读回所有行
+   */
+  @Test
+  public void testMultiMemberGzip() throws Exception {
+    byte[] content = createContent(500, "\n");
+    File file = writeFile(content, 84, GZIP);
+
+    List<BlockInfo> blocks = buildBlocks(file, 200, "\n");
+    assertBoundaries(file, blocks, content, 84, "\n");
+    assertLines(readAll(blocks, "\n"), 500);
+
+    File chopped = writeFile(content, 37, GZIP);
+    blocks = buildBlocks(chopped, 200, "\n");
+    assertBoundaries(chopped, blocks, content, 37, "\n");
+    assertLines(readAll(blocks, "\n"), 500);
+  }
+
+  /**
+   * 测试 BGZF 文件按 extra field 中记录的大小切分 block
+   */
+  @Test
+  public void testBgzf() throws Exception {
+    byte[] content = createContent(500, "\r\n");
+    File file = writeFile(content, 45, BGZF);
+
+    List<BlockInfo> blocks = buildBlocks(file, 300, "\r\n");
+    assertBoundaries(file, blocks, content, 45, "\r\n");
+    assertLines(readAll(blocks, "\r\n"), 500);
+  }
+
+  /**
+   * 测试多个 frame 的 zstd 文件切分 block, 文件末尾带 skippable frame
+   */
+  @Test
+  public void testMultiFrameZstd() throws Exception {
+    byte[] content = createContent(500, "\n");
+    File file = writeFile(content, 51, ZSTD);
+    OutputStream os = new FileOutputStream(file, true);
+    os.write(new byte[]{0x50, 0x2A, 0x4D, 0x18, 4, 0, 0, 0, 1, 2, 3, 4});
+    os.close();
+
+    List<BlockInfo> blocks = buildBlocks(file, 300, "\n");
+    assertBoundaries(file, blocks, content, 51, "\n");
+    assertLines(readAll(blocks, "\n"), 500);
+  }
+
+  /**
+   * 测试单个 member 的压缩文件为一个 block
+   */
+  @Test
+  public void testSingleMember() throws Exception {
+    byte[] content = createContent(500, "\n");
+    for (Compressor compressor : new Compressor[]{GZIP, ZSTD}) {
+      File file = writeFile(content, content.length, compressor);
+      List<BlockInfo> blocks = buildBlocks(file, 1, "\n");
+      assertEquals("block count", 1, blocks.size());
+      assertEquals("block length", file.length(), (long) blocks.get(0).getLength());
+
+      BlockRecordReader reader = new BlockRecordReader(blocks.get(0), "||", "\n", true);
+      int count = 0;
+      while (reader.readTextRecord() != null) {
+        count++;
+      }
+      assertEquals("line count", 500, count);
+      assertEquals("read bytes", file.length(), reader.getBlockReadBytes());
+      reader.close();
+    }
+  }
+
+  /**
+   * 测试压缩的 csv 文件为一个 block, 引号中的换行不被切开
+   */
+  @Test
+  public void testCsv() throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bos.write(BOM);
+    bos.write("id,name\n".getBytes("UTF-8"));
+    for (int i = 0; i < 200; i++) {
+      bos.write((i + ",\"名字\n" + i + "\"\n").getBytes("UTF-8"));
+    }
+    File file = writeFile(bos.toByteArray(), 50, GZIP);
+
+    BlockInfoBuilder builder = new BlockInfoBuilder();
+    builder.setCsv(true);
+    builder.setBlockSize(1);
+    List<BlockInfo> blocks = builder.buildBlockIndex(file);
+    assertEquals("block count", 1, blocks.size());
+
+    CsvRecordReader reader = new CsvRecordReader(blocks.get(0), "utf8", true);
+    try {
+      for (int i = 0; i < 200; i++) {
+        byte[][] record = reader.readTextRecord();
+        assertEquals("not equal", String.valueOf(i), new String(record[0], "UTF-8"));
+        assertEquals("not equal", "名字\n" + i, new String(record[1], "UTF-8"));
+      }
+      assertNull("not null", reader.readTextRecord());
+      assertEquals("read bytes", file.length(), reader.getBlockReadBytes());
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.RecordWriter;
+import com.aliyun.odps.tunnel.TunnelException;
+
+/**
+ * 记录 -scan=inline 时写入的 block，只有 writer 被关闭的 block 才算写入
+ */
+public class MockBufferedUploadSession extends MockUploadSession {
+
+  public List<Long> writtenBlocks = new ArrayList<Long>();
+  public long writtenRecords = 0;
+
+  public MockBufferedUploadSession() throws TunnelException, IOException {
+    super();
+  }
+
+  @Override
+  public RecordWriter getWriter(long bId) throws TunnelException, IOException {
+    throw new IOException("block " + bId + " should be written by the buffered writer");
+  }
+
+  @Override
+  public RecordWriter getBufferedWriter(final long bId) throws TunnelException, IOException {
+    return new RecordWriter() {
+      private long records = 0;
+
+      @Override
+      public void write(Record record) throws IOException {
+        records++;
+      }
+
+      @Override
+      public void close() throws IOException {
+        writtenBlocks.add(bId);
+        writtenRecords += records;
+      }
+    };
+  }
+}
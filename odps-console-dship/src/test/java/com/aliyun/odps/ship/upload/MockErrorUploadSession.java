@@ -31,6 +31,8 @@ import com.aliyun.odps.TableSchema;
 import com.aliyun.odps.data.ArrayRecord;
 import com.aliyun.odps.data.Record;
 import com.aliyun.odps.data.RecordWriter;
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.FieldSlices;
 import com.aliyun.odps.ship.common.RecordConverter;
 import com.aliyun.odps.ship.common.Util;
 import com.aliyun.odps.tunnel.TunnelException;
@@ -46,7 +48,7 @@ public class MockErrorUploadSession extends TunnelUploadSession {
   private Record record;
 
   public MockErrorUploadSession() throws TunnelException, IOException {
-    super("just for test");
+    super(DshipContext.INSTANCE.snapshot(), "just for test");
   }
 
   public void setCrash(int crash) {
@@ -61,7 +63,7 @@ public class MockErrorUploadSession extends TunnelUploadSession {
   //@Override
   public void complete() throws TunnelException, IOException {
     // clear log
-    String log = Util.getSessionDir(getSessionId()) + "/log.txt";
+    String log = Util.getSessionDir(DshipContext.INSTANCE.snapshot(), getSessionId()) + "/log.txt";
     File f = new File(log);
     if (f.exists()) {
       f.delete();
@@ -108,6 +110,12 @@ public class MockErrorUploadSession extends TunnelUploadSession {
     return recordConverter.parse(record, textRecord);
   }
 
+  @Override
+  public Record getRecord(RecordConverter recordConverter, FieldSlices textRecord)
+      throws UnsupportedEncodingException, ParseException {
+    return recordConverter.parse(record, textRecord);
+  }
+
   class MockWriter implements RecordWriter {
 
     @Override
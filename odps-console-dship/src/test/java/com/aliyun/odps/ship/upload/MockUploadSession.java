@@ -35,6 +35,8 @@ import com.aliyun.odps.data.Record;
 import com.aliyun.odps.data.RecordWriter;
 import com.aliyun.odps.ship.common.Constants;
 import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.FieldSlices;
 import com.aliyun.odps.ship.common.RecordConverter;
 import com.aliyun.odps.ship.common.SessionStatus;
 import com.aliyun.odps.ship.common.Util;
@@ -48,7 +50,7 @@ public class MockUploadSession extends TunnelUploadSession {
   private Record record;
 
   public MockUploadSession() throws TunnelException, IOException {
-    super("just for test");
+    super(DshipContext.INSTANCE.snapshot(), "just for test");
 
     if (DshipContext.INSTANCE.get(Constants.RESUME_UPLOAD_ID) != null) {
       sid = DshipContext.INSTANCE.get(Constants.RESUME_UPLOAD_ID);
@@ -96,23 +98,30 @@ public class MockUploadSession extends TunnelUploadSession {
     return recordConverter.parse(record, textRecord);
   }
 
+  @Override
+  public Record getRecord(RecordConverter recordConverter, FieldSlices textRecord)
+      throws UnsupportedEncodingException, ParseException {
+    return recordConverter.parse(record, textRecord);
+  }
+
   //@Override
   public void complete() throws TunnelException, IOException {
 
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(getSessionId());
-    sh.loadContext();
+    DshipJobContext options = DshipContext.INSTANCE.snapshot();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(options, getSessionId());
+    DshipJobContext context = sh.loadContext(options);
     assertEquals("not running", SessionStatus.running.toString(),
-                 DshipContext.INSTANCE.get(Constants.STATUS));
+                 context.get(Constants.STATUS));
 
     // clear log
-    String log = Util.getSessionDir(sid) + "/log.txt";
+    String log = Util.getSessionDir(options, sid) + "/log.txt";
     File f = new File(log);
     if (f.exists()) {
       f.delete();
     }
     
     if ("mock-upload-id".equals(sid)){
-      File sf = new File(Util.getSessionDir(sid));
+      File sf = new File(Util.getSessionDir(options, sid));
       File[] sfl = sf.listFiles();
       for (File s : sfl){
         s.delete();
@@ -125,7 +134,8 @@ public class MockUploadSession extends TunnelUploadSession {
   }
 
   public void clearSession() throws Exception {
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(getSessionId());
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   getSessionId());
     sh.delete();
   }
 
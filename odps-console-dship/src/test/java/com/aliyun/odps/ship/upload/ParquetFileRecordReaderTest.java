@@ -0,0 +1,365 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.aliyun.odps.ship.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.cli.ParseException;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.junit.Test;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Binary;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.SimpleStruct;
+import com.aliyun.odps.data.Struct;
+import com.aliyun.odps.data.Varchar;
+import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.LocalHadoopFiles;
+import com.aliyun.odps.ship.download.ParquetFileRecordWriter;
+import com.aliyun.odps.type.ArrayTypeInfo;
+import com.aliyun.odps.type.StructTypeInfo;
+import com.aliyun.odps.type.TypeInfo;
+import com.aliyun.odps.type.TypeInfoFactory;
+
+/**
+ * 测试读取 parquet 文件
+ */
+public class ParquetFileRecordReaderTest {
+
+  private static TableSchema createSchema() {
+    TableSchema schema = new TableSchema();
+    schema.addColumn(new Column("id", TypeInfoFactory.BIGINT));
+    schema.addColumn(new Column("name", TypeInfoFactory.STRING));
+    schema.addColumn(new Column("price", TypeInfoFactory.getDecimalTypeInfo(18, 4)));
+    schema.addColumn(new Column("dt", TypeInfoFactory.DATETIME));
+    schema.addColumn(new Column("ts", TypeInfoFactory.TIMESTAMP));
+    schema.addColumn(new Column("day", TypeInfoFactory.DATE));
+    schema.addColumn(new Column("data", TypeInfoFactory.BINARY));
+    schema.addColumn(new Column("flag", TypeInfoFactory.BOOLEAN));
+    schema.addColumn(new Column("t", TypeInfoFactory.TINYINT));
+    schema.addColumn(new Column("s", TypeInfoFactory.SMALLINT));
+    schema.addColumn(new Column("n", TypeInfoFactory.INT));
+    schema.addColumn(new Column("f", TypeInfoFactory.FLOAT));
+    schema.addColumn(new Column("d", TypeInfoFactory.DOUBLE));
+    schema.addColumn(new Column("v", TypeInfoFactory.getVarcharTypeInfo(10)));
+    schema.addColumn(new Column("ntz", TypeInfoFactory.TIMESTAMP_NTZ));
+    return schema;
+  }
+
+  private static ArrayRecord createRecord(TableSchema schema, int i) {
+    ArrayRecord r = new ArrayRecord(schema.getColumns().toArray(new Column[0]));
+    r.setBigint(0, (long) i);
+    r.setString(1, i % 5 == 2 ? null : "名字" + i);
+    r.setDecimal(2, new BigDecimal(i + ".1234"));
+    r.setDatetimeAsZonedDateTime(3, ZonedDateTime.of(2024, 1, 2, 3, 4, i % 60, 0,
+                                                     ZoneId.systemDefault()));
+    r.setTimestampAsInstant(4, Instant.ofEpochSecond(1700000000L + i, 123456789));
+    r.setDateAsLocalDate(5, LocalDate.of(2024, 2, 1 + i % 28));
+    r.setBinary(6, new Binary(new byte[]{1, 2, (byte) i}));
+    r.set(7, i % 2 == 0);
+    r.set(8, (byte) (i % 100));
+    r.set(9, (short) i);
+    r.set(10, -i);
+    r.set(11, i + 0.5f);
+    r.setDouble(12, i + 0.25);
+    r.set(13, new Varchar("v" + i));
+    r.set(14, LocalDateTime.of(2024, 3, 4, 5, 6, i % 60, 987654321));
+    return r;
+  }
+
+  private static File writeFile(TableSchema schema, int count, long rowGroupSize)
+      throws IOException {
+    File file = File.createTempFile("parquet_reader_test", ".parquet");
+    file.deleteOnExit();
+    ParquetFileRecordWriter writer =
+        new ParquetFileRecordWriter(file, schema.getColumns(), rowGroupSize);
+    try {
+      for (int i = 0; i < count; i++) {
+        writer.write(createRecord(schema, i));
+      }
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  private static List<Record> readAll(List<BlockInfo> blocks, TableSchema schema,
+                                      boolean isStrictSchema) throws Exception {
+    List<Record> records = new ArrayList<Record>();
+    for (BlockInfo block : blocks) {
+      ParquetFileRecordReader reader = new ParquetFileRecordReader(block, schema, isStrictSchema);
+      try {
+        Record r;
+        while ((r = reader.read()) != null) {
+          records.add(r.clone());
+        }
+        assertEquals("read bytes", (long) block.getLength(), reader.getReadBytes());
+      } finally {
+        reader.close();
+      }
+    }
+    return records;
+  }
+
+  /**
+   * 测试按 row group 切分 block，并按顺序读回所有基本类型的数据
+   */
+  @Test
+  public void testReadBlocks() throws Exception {
+    TableSchema schema = createSchema();
+    // a row group is written every 100 records, when the size is checked
+    File file = writeFile(schema, 1000, 1);
+
+    BlockInfoBuilder builder = new BlockInfoBuilder();
+    builder.setFormat(Constants.PARQUET_FORMAT);
+    builder.setBlockSize(1);
+    List<BlockInfo> blocks = builder.buildBlockIndex(file);
+    assertEquals("block size", 10, blocks.size());
+    assertEquals("first block", 0L, (long) blocks.get(0).getStartPos());
+
+    builder.setBlockSize(file.length());
+    assertEquals("block size", 1, builder.buildBlockIndex(file).size());
+
+    List<Record> records = readAll(blocks, schema, true);
+    assertEquals("record count", 1000, records.size());
+    for (int i = 0; i < records.size(); i++) {
+      ArrayRecord expect = createRecord(schema, i);
+      ArrayRecord actual = (ArrayRecord) records.get(i);
+      assertEquals("not equal", expect.getBigint(0), actual.getBigint(0));
+      assertEquals("not equal", expect.getString(1), actual.getString(1));
+      assertEquals("not equal", expect.getDecimal(2), actual.getDecimal(2));
+      assertEquals("not equal", expect.getDatetimeAsZonedDateTime(3).toInstant(),
+                   actual.getDatetimeAsZonedDateTime(3).toInstant());
+      for (int c = 4; c < schema.getColumns().size(); c++) {
+        assertEquals("not equal", expect.get(c), actual.get(c));
+      }
+    }
+  }
+
+  /**
+   * 测试按列名匹配表的列，列名大小写无关，文件缺少的列在非严格模式下为 null，类型不匹配时报错
+   */
+  @Test
+  public void testMatchColumnsByName() throws Exception {
+    TableSchema fileSchema = new TableSchema();
+    fileSchema.addColumn(new Column("NAME", TypeInfoFactory.STRING));
+    fileSchema.addColumn(new Column("Id", TypeInfoFactory.INT));
+    File file = File.createTempFile("parquet_reader_test", ".parquet");
+    file.deleteOnExit();
+    ParquetFileRecordWriter writer = new ParquetFileRecordWriter(
+        file, fileSchema.getColumns(), Constants.PARQUET_ROW_GROUP_SIZE);
+    ArrayRecord r = new ArrayRecord(fileSchema.getColumns().toArray(new Column[0]));
+    r.setString(0, "a");
+    r.set(1, 1);
+    writer.write(r);
+    writer.close();
+
+    TableSchema schema = new TableSchema();
+    schema.addColumn(new Column("id", TypeInfoFactory.BIGINT));
+    schema.addColumn(new Column("name", TypeInfoFactory.STRING));
+    schema.addColumn(new Column("extra", TypeInfoFactory.STRING));
+    List<BlockInfo> blocks = Arrays.asList(new BlockInfo(1L, file, 0L, file.length()));
+
+    List<Record> records = readAll(blocks, schema, false);
+    assertEquals("record count", 1, records.size());
+    assertEquals("not equal", Long.valueOf(1L), records.get(0).getBigint(0));
+    assertEquals("not equal", "a", records.get(0).getString(1));
+    assertNull("not null", records.get(0).get(2));
+
+    try {
+      readAll(blocks, schema, true);
+      fail("need fail.");
+    } catch (ParseException e) {
+      assertTrue("error message", e.getMessage().indexOf("column 'extra' not found") == 0);
+    }
+
+    TableSchema mismatch = new TableSchema();
+    mismatch.addColumn(new Column("name", TypeInfoFactory.BIGINT));
+    try {
+      readAll(blocks, mismatch, false);
+      fail("need fail.");
+    } catch (ParseException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("can not be read as BIGINT"));
+    }
+  }
+
+  static TableSchema createNestedSchema() {
+    TableSchema schema = new TableSchema();
+    schema.addColumn(
+        new Column("tags", TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.BIGINT)));
+    schema.addColumn(new Column("attrs", TypeInfoFactory.getMapTypeInfo(
+        TypeInfoFactory.STRING, TypeInfoFactory.getDecimalTypeInfo(10, 2))));
+    schema.addColumn(new Column("point", TypeInfoFactory.getStructTypeInfo(
+        Arrays.asList("x", "name", "ts"),
+        Arrays.<TypeInfo>asList(TypeInfoFactory.DOUBLE, TypeInfoFactory.STRING,
+                                TypeInfoFactory.TIMESTAMP))));
+    StructTypeInfo item = TypeInfoFactory.getStructTypeInfo(
+        Arrays.asList("k", "v"),
+        Arrays.<TypeInfo>asList(TypeInfoFactory.STRING,
+                                TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.INT)));
+    schema.addColumn(new Column("items", TypeInfoFactory.getArrayTypeInfo(item)));
+    return schema;
+  }
+
+  /**
+   * @return records of nested values, with null and empty values in the second and third ones
+   */
+  static List<Record> createNestedRecords(TableSchema schema) {
+    Column[] columns = schema.getColumns().toArray(new Column[0]);
+    StructTypeInfo point = (StructTypeInfo) columns[2].getTypeInfo();
+    StructTypeInfo item = (StructTypeInfo) ((ArrayTypeInfo) columns[3].getTypeInfo())
+        .getElementTypeInfo();
+    List<Record> records = new ArrayList<Record>();
+
+    ArrayRecord r = new ArrayRecord(columns);
+    r.set(0, Arrays.asList(1L, null, 3L));
+    Map<String, BigDecimal> attrs = new LinkedHashMap<String, BigDecimal>();
+    attrs.put("a", new BigDecimal("1.25"));
+    attrs.put("空", null);
+    r.set(1, attrs);
+    r.set(2, new SimpleStruct(point, Arrays.<Object>asList(
+        0.5, "名字", Instant.ofEpochSecond(1700000000L, 123456789))));
+    r.set(3, Arrays.asList(
+        new SimpleStruct(item, Arrays.<Object>asList("k1", Arrays.asList(1, 2))),
+        null,
+        new SimpleStruct(item, Arrays.<Object>asList(null, new ArrayList<Integer>()))));
+    records.add(r);
+
+    r = new ArrayRecord(columns);
+    r.set(0, new ArrayList<Long>());
+    r.set(1, new LinkedHashMap<String, BigDecimal>());
+    r.set(2, new SimpleStruct(point, Arrays.<Object>asList(null, null, null)));
+    r.set(3, new ArrayList<Object>());
+    records.add(r);
+
+    records.add(new ArrayRecord(columns));
+    return records;
+  }
+
+  static void assertNestedEquals(Record expect, Record actual) {
+    for (int c = 0; c < 2; c++) {
+      assertEquals("not equal", expect.get(c), actual.get(c));
+    }
+    for (int c = 2; c < 4; c++) {
+      // structs are compared by their field values
+      assertEquals("not equal", String.valueOf(expect.get(c)), String.valueOf(actual.get(c)));
+    }
+  }
+
+  /**
+   * 测试 array、map、struct 类型的列写入 parquet 文件后读回，包括嵌套的 null 和空值
+   */
+  @Test
+  public void testReadNestedTypes() throws Exception {
+    TableSchema schema = createNestedSchema();
+    List<Record> expect = createNestedRecords(schema);
+    File file = File.createTempFile("parquet_reader_test", ".parquet");
+    file.deleteOnExit();
+    ParquetFileRecordWriter writer = new ParquetFileRecordWriter(
+        file, schema.getColumns(), Constants.PARQUET_ROW_GROUP_SIZE);
+    for (Record r : expect) {
+      writer.write(r);
+    }
+    writer.close();
+
+    List<BlockInfo> blocks = Arrays.asList(new BlockInfo(1L, file, 0L, file.length()));
+    List<Record> records = readAll(blocks, schema, true);
+    assertEquals("record count", expect.size(), records.size());
+    for (int i = 0; i < expect.size(); i++) {
+      assertNestedEquals(expect.get(i), records.get(i));
+    }
+
+    TableSchema mismatch = new TableSchema();
+    mismatch.addColumn(
+        new Column("tags", TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.DATE)));
+    try {
+      readAll(blocks, mismatch, false);
+      fail("need fail.");
+    } catch (ParseException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("can not be read as ARRAY<DATE>"));
+    }
+  }
+
+  /**
+   * 测试读取旧版两层结构的 list，以及按名字匹配 struct 的字段
+   */
+  @Test
+  public void testReadLegacyList() throws Exception {
+    MessageType fileSchema = MessageTypeParser.parseMessageType(
+        "message spark { optional group tags (LIST) { repeated int32 array; } "
+        + "optional group point { optional binary NAME (STRING); } }");
+    File file = File.createTempFile("parquet_reader_test", ".parquet");
+    file.deleteOnExit();
+    ParquetWriter<Group> writer = ExampleParquetWriter
+        .builder(LocalHadoopFiles.toPath(file))
+        .withConf(LocalHadoopFiles.newConfiguration())
+        .withType(fileSchema)
+        .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+        .build();
+    Group group = new SimpleGroupFactory(fileSchema).newGroup();
+    group.addGroup(0).append("array", 1).append("array", 2);
+    group.addGroup(1).append("NAME", "p");
+    writer.write(group);
+    writer.close();
+
+    StructTypeInfo point = TypeInfoFactory.getStructTypeInfo(
+        Arrays.asList("name", "x"),
+        Arrays.<TypeInfo>asList(TypeInfoFactory.STRING, TypeInfoFactory.DOUBLE));
+    TableSchema schema = new TableSchema();
+    schema.addColumn(
+        new Column("tags", TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.BIGINT)));
+    schema.addColumn(new Column("point", point));
+    List<BlockInfo> blocks = Arrays.asList(new BlockInfo(1L, file, 0L, file.length()));
+    List<Record> records = readAll(blocks, schema, true);
+    assertEquals("record count", 1, records.size());
+    assertEquals("not equal", Arrays.asList(1L, 2L), records.get(0).get(0));
+    Struct struct = (Struct) records.get(0).get(1);
+    assertEquals("not equal", "p", struct.getFieldValue(0));
+    assertNull("not null", struct.getFieldValue(1));
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.download.OrcFileRecordWriter;
+import com.aliyun.odps.ship.download.ParquetFileRecordWriter;
+import com.aliyun.odps.ship.download.TypedFileRecordWriter;
+
+/**
+ * 测试只用复制到 plugins/dship/lib 的 jar 读写 parquet 和 orc 文件
+ */
+public class PluginClasspathTest {
+
+  // the jars copied into plugins/dship/lib by the copy-dependencies execution of the pom
+  private static final File PLUGIN_LIB = new File("target/lib");
+
+  // packages of the hadoop, parquet and orc jars and of their dependencies which the console does
+  // not have, they are loaded from the plugin jars only
+  private static final String[] PLUGIN_PACKAGES = {
+      "com.aliyun.odps.ship.", "org.apache.hadoop.", "org.apache.parquet.", "shaded.parquet.",
+      "org.apache.orc.", "io.airlift.compress.", "com.ctc.wstx.", "org.codehaus.stax2.",
+      "org.apache.commons.configuration2.", "com.google.re2j.", "org.threeten.extra."};
+
+  /**
+   * Load the plugin classes from its own urls only, and the other ones from the console, like the
+   * class loader of the plugins.
+   */
+  private static class PluginClassLoader extends URLClassLoader {
+
+    PluginClassLoader(URL[] urls) {
+      super(urls, PluginClasspathTest.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      boolean isPluginClass = false;
+      for (String prefix : PLUGIN_PACKAGES) {
+        isPluginClass |= name.startsWith(prefix);
+      }
+      if (!isPluginClass) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> c = findLoadedClass(name);
+        if (c == null) {
+          c = findClass(name);
+        }
+        if (resolve) {
+          resolveClass(c);
+        }
+        return c;
+      }
+    }
+  }
+
+  /**
+   * Write and read back the nested records in a parquet and an orc file.
+   */
+  public static class RoundTrip implements Callable<Integer> {
+
+    @Override
+    public Integer call() throws Exception {
+      TableSchema schema = ParquetFileRecordReaderTest.createNestedSchema();
+      List<Record> records = ParquetFileRecordReaderTest.createNestedRecords(schema);
+      int count = 0;
+      for (String format : Arrays.asList(Constants.PARQUET_FORMAT, Constants.ORC_FORMAT)) {
+        File file = File.createTempFile("plugin_classpath_test", "." + format);
+        file.deleteOnExit();
+        TypedFileRecordWriter writer = Constants.PARQUET_FORMAT.equals(format)
+            ? new ParquetFileRecordWriter(file, schema.getColumns(), 1024)
+            : new OrcFileRecordWriter(file, schema.getColumns(), 1024);
+        for (Record r : records) {
+          writer.write(r);
+        }
+        writer.close();
+
+        BlockInfo block = new BlockInfo(1L, file, 0L, file.length());
+        TypedFileRecordReader reader = Constants.PARQUET_FORMAT.equals(format)
+            ? new ParquetFileRecordReader(block, schema, true)
+            : new OrcFileRecordReader(block, schema, true);
+        Record r;
+        while ((r = reader.read()) != null) {
+          ParquetFileRecordReaderTest.assertNestedEquals(records.get(count % records.size()), r);
+          count++;
+        }
+        reader.close();
+      }
+      return count;
+    }
+  }
+
+  /**
+   * 测试只用 plugins/dship/lib 的 jar 能读写 parquet 和 orc 文件，线程的 context class loader
+   * 不是插件的 class loader
+   */
+  @Test
+  public void testRoundTripOnPluginJars() throws Exception {
+    // the jars are copied before the tests run by maven
+    assumeTrue(PLUGIN_LIB.isDirectory());
+    List<URL> urls = new ArrayList<URL>();
+    urls.add(ParquetFileRecordWriter.class.getProtectionDomain().getCodeSource().getLocation());
+    urls.add(PluginClasspathTest.class.getProtectionDomain().getCodeSource().getLocation());
+    for (File jar : PLUGIN_LIB.listFiles()) {
+      urls.add(jar.toURI().toURL());
+    }
+
+    PluginClassLoader loader = new PluginClassLoader(urls.toArray(new URL[0]));
+    // the context class loader of the console does not have the plugin jars
+    Thread thread = Thread.currentThread();
+    ClassLoader contextLoader = thread.getContextClassLoader();
+    thread.setContextClassLoader(ClassLoader.getSystemClassLoader().getParent());
+    try {
+      Callable<?> roundTrip =
+          (Callable<?>) loader.loadClass(RoundTrip.class.getName()).newInstance();
+      assertEquals("record count", 6, roundTrip.call());
+    } finally {
+      thread.setContextClassLoader(contextLoader);
+      loader.close();
+    }
+  }
+}
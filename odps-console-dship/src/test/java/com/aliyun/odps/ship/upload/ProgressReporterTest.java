@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * 测试上传进度的定时输出
+ */
+public class ProgressReporterTest {
+
+  /**
+   * 测试每次 tick 检查所有注册的 block, 移除的 block 不再输出, 一个 block 出错不影响其他 block
+   */
+  @Test
+  public void testTick() {
+    ProgressReporter reporter = new ProgressReporter(TimeUnit.HOURS.toMillis(1));
+    try {
+      CountingProgress first = new CountingProgress();
+      CountingProgress second = new CountingProgress();
+      reporter.add(new ProgressReporter.Progress() {
+        @Override
+        public void report(long now) {
+          throw new IllegalStateException("failed to print");
+        }
+      });
+      reporter.add(first);
+      reporter.add(second);
+      reporter.tick(1000);
+      reporter.remove(first);
+      reporter.tick(2000);
+
+      assertEquals("not equal", 1, first.count.get());
+      assertEquals("not equal", 2, second.count.get());
+      assertEquals("not equal", 2000, second.last);
+    } finally {
+      reporter.close();
+    }
+  }
+
+  /**
+   * 测试 reporter 按周期检查 block, 关闭后不再检查
+   */
+  @Test
+  public void testSchedule() throws Exception {
+    final CountDownLatch ticks = new CountDownLatch(3);
+    CountingProgress progress = new CountingProgress() {
+      @Override
+      public void report(long now) {
+        super.report(now);
+        ticks.countDown();
+      }
+    };
+    ProgressReporter reporter = new ProgressReporter(10);
+    reporter.add(progress);
+    assertTrue("not reported", ticks.await(10, TimeUnit.SECONDS));
+    reporter.close();
+
+    Thread.sleep(50);
+    int count = progress.count.get();
+    Thread.sleep(100);
+    assertEquals("not equal", count, progress.count.get());
+  }
+
+  private static class CountingProgress implements ProgressReporter.Progress {
+
+    final AtomicInteger count = new AtomicInteger();
+    volatile long last;
+
+    @Override
+    public void report(long now) {
+      count.incrementAndGet();
+      last = now;
+    }
+  }
+}
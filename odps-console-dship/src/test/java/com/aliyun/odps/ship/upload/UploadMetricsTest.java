@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.commons.proto.ProtobufRecordStreamWriter;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.RecordWriter;
+import com.aliyun.odps.ship.common.BlockInfo;
+import com.aliyun.odps.ship.common.CommandType;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
+import com.aliyun.odps.ship.common.DshipMetrics;
+import com.aliyun.odps.ship.common.RecordConverter;
+import com.aliyun.odps.ship.history.SessionHistory;
+import com.aliyun.odps.ship.history.SessionHistoryManager;
+import com.aliyun.odps.tunnel.TunnelException;
+import com.aliyun.odps.tunnel.io.CompressOption;
+
+/**
+ * 测试上传的 metrics
+ */
+public class UploadMetricsTest {
+
+  private static final String SID = "upload_metrics_test";
+  private static final String DIR = "src/test/resources/file/fileuploader/metrics";
+  private static final int LINES = 1000;
+
+  @After
+  public void tearDown() throws Exception {
+    SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(), SID).delete();
+    FileUtils.deleteDirectory(new File(DIR));
+  }
+
+  /**
+   * 测试每个 block 的记录数, 读取的字节数和写入 tunnel 的字节数
+   */
+  @Test
+  public void testBlockMetrics() throws Exception {
+    File file = writeFile();
+    MeteredSession session = new MeteredSession(true);
+    DshipMetrics metrics = upload(session, file);
+
+    assertEquals("not equal", 2, metrics.getBlocks());
+    assertEquals("not equal", 2 * LINES, metrics.getRecords());
+    List<DshipMetrics.Histogram> histograms = metrics.getHistograms();
+    assertEquals("not equal", 0, (long) histograms.get(2).getSum());
+    assertEquals("not equal", 2 * file.length(), (long) histograms.get(3).getSum());
+    DshipMetrics.Histogram tunnelBytes = histograms.get(4);
+    assertEquals("not equal", 2, tunnelBytes.getCount());
+    // the record stream is counted before it is compressed
+    assertEquals("not equal", session.getRecordBytes(), (long) tunnelBytes.getSum());
+    assertTrue("compressed", session.getCompressedBytes() < tunnelBytes.getSum());
+  }
+
+  /**
+   * 测试 writer 不统计字节数时不计入 tunnel 字节数
+   */
+  @Test
+  public void testUncountedWriter() throws Exception {
+    File file = writeFile();
+    DshipMetrics metrics = upload(new MeteredSession(false), file);
+    List<DshipMetrics.Histogram> histograms = metrics.getHistograms();
+    assertEquals("not equal", 2, histograms.get(3).getCount());
+    assertEquals("not equal", 0, histograms.get(4).getCount());
+  }
+
+  private static File writeFile() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < LINES; i++) {
+      sb.append(i).append(",row").append(i % 10).append("\n");
+    }
+    File file = new File(DIR, "metrics.txt");
+    FileUtils.writeStringToFile(file, sb.toString(), "UTF-8");
+    return file;
+  }
+
+  private static DshipMetrics upload(MeteredSession session, File file) throws Exception {
+    Map<String, String> options = new HashMap<String, String>();
+    options.put(Constants.FIELD_DELIMITER, ",");
+    options.put(Constants.RECORD_DELIMITER, "\n");
+    options.put(Constants.CHARSET, "UTF-8");
+    options.put(Constants.NULL_INDICATOR, "");
+    options.put(Constants.DATE_FORMAT_PATTERN, "yyyy-MM-dd HH:mm:ss");
+    DshipJobContext context = new DshipJobContext(options, null);
+
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   SID);
+    DshipMetrics metrics = new DshipMetrics("upload");
+    for (long blockId = 1; blockId <= 2; blockId++) {
+      BlockInfo block = new BlockInfo(blockId, file, 0L, file.length());
+      BlockUploader uploader = new BlockUploader(context, block, session, sh, false);
+      uploader.setMetrics(metrics);
+      uploader.upload();
+    }
+    return metrics;
+  }
+
+  /**
+   * Upload session which writes the blocks into memory, by a protobuf writer which counts the
+   * bytes of the record stream, or by a writer which does not count them.
+   */
+  private static class MeteredSession implements TunnelUpdateSession {
+
+    private final boolean counted;
+    private final TableSchema schema = new TableSchema();
+    private final List<ByteArrayOutputStream> blocks = new ArrayList<ByteArrayOutputStream>();
+    private final List<ProtobufRecordStreamWriter> writers =
+        new ArrayList<ProtobufRecordStreamWriter>();
+    private Record record;
+
+    MeteredSession(boolean counted) {
+      this.counted = counted;
+      schema.addColumn(new Column("id", OdpsType.BIGINT));
+      schema.addColumn(new Column("name", OdpsType.STRING));
+    }
+
+    long getRecordBytes() {
+      long bytes = 0;
+      for (ProtobufRecordStreamWriter writer : writers) {
+        bytes += writer.getTotalBytes();
+      }
+      return bytes;
+    }
+
+    long getCompressedBytes() {
+      long bytes = 0;
+      for (ByteArrayOutputStream block : blocks) {
+        bytes += block.size();
+      }
+      return bytes;
+    }
+
+    @Override
+    public TableSchema getSchema() {
+      return schema;
+    }
+
+    @Override
+    public String getSessionId() {
+      return SID;
+    }
+
+    @Override
+    public CommandType getCommandType() {
+      return CommandType.upload;
+    }
+
+    @Override
+    public RecordWriter getWriter(long bId) throws TunnelException, IOException {
+      if (!counted) {
+        return new NullWriter();
+      }
+      ByteArrayOutputStream block = new ByteArrayOutputStream();
+      blocks.add(block);
+      ProtobufRecordStreamWriter writer =
+          new ProtobufRecordStreamWriter(schema, block, new CompressOption());
+      writers.add(writer);
+      return writer;
+    }
+
+    @Override
+    public Record getRecord(RecordConverter recordConverter, byte[][] textRecord)
+        throws UnsupportedEncodingException, ParseException {
+      return recordConverter.parse(record, textRecord);
+    }
+
+    @Override
+    public void initRecord() {
+      record = new ArrayRecord(schema.getColumns().toArray(new Column[0]));
+    }
+
+    @Override
+    public void complete(List<Long> bList) {
+    }
+  }
+}
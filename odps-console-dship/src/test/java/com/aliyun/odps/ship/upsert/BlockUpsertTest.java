@@ -19,6 +19,7 @@ import com.aliyun.odps.OdpsException;
 import com.aliyun.odps.ship.DShipCommand;
 import com.aliyun.odps.ship.common.BlockInfo;
 import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.DshipJobContext;
 import com.aliyun.odps.ship.common.OptionsBuilder;
 import com.aliyun.odps.ship.history.SessionHistory;
 import com.aliyun.odps.ship.history.SessionHistoryManager;
@@ -107,16 +108,17 @@ public class BlockUpsertTest {
 
     OptionsBuilder.buildUpsertOption(args);
 
-    TunnelUpsertSession us = new TunnelUpsertSession();
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(us.getSessionId());
-    sh.saveContext();
-    sh.loadContext();
+    TunnelUpsertSession us = new TunnelUpsertSession(DshipContext.INSTANCE.snapshot());
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   us.getSessionId());
+    sh.saveContext(DshipContext.INSTANCE.snapshot());
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
     String
         blockInfo =
         "1:0:156:src/test/resources/file/fileupserter/simple.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUpserter = new BlockUploader(block, us, sh, false);
+    BlockUploader blockUpserter = new BlockUploader(context, block, us, sh, false);
     blockUpserter.upload();
     List<BlockInfo> blockList = sh.loadFinishBlockList();
     assertEquals("finish block is not 1", blockList.size(), 1);
@@ -139,14 +141,15 @@ public class BlockUpsertTest {
                      "-dfp=yyyyMMddHHmmss"};
 
     OptionsBuilder.buildUploadOption(args);
-    TunnelUpsertSession us = new TunnelUpsertSession();
+    TunnelUpsertSession us = new TunnelUpsertSession(DshipContext.INSTANCE.snapshot());
 
-    SessionHistory sh = SessionHistoryManager.createSessionHistory(us.getSessionId());
-    sh.loadContext();
+    SessionHistory sh = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                   us.getSessionId());
+    DshipJobContext context = sh.loadContext(DshipContext.INSTANCE.snapshot());
     String blockInfo = "1:0:300:src/test/resources/file/fileupserter/badRecord.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUpserter = new BlockUploader(block, us, sh, false);
+    BlockUploader blockUpserter = new BlockUploader(context, block, us, sh, false);
 
     try {
       blockUpserter.upload();
@@ -89,12 +89,14 @@ public class DshipUpdateResumeTest {
                      "-acp=true",
                      "-dfp=yyyyMMddHHmmss"};
     OptionsBuilder.buildUpsertOption(args);
-    TunnelUpsertSession tunnelUpsertSession = new TunnelUpsertSession();
+    TunnelUpsertSession tunnelUpsertSession =
+        new TunnelUpsertSession(DshipContext.INSTANCE.snapshot());
 
     String sessionId = tunnelUpsertSession.getSessionId();
     DshipContext.INSTANCE.put(Constants.RESUME_UPSERT_ID, sessionId);
-    sessionHistory = SessionHistoryManager.createSessionHistory(sessionId);
-    sessionHistory.saveContext();
+    sessionHistory = SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                                sessionId);
+    sessionHistory.saveContext(DshipContext.INSTANCE.snapshot());
   }
 
   @After
@@ -110,20 +112,23 @@ public class DshipUpdateResumeTest {
       return;
     }
 
-    TunnelUpsertSession tunnelUpsertSession = new TunnelUpsertSession();
+    TunnelUpsertSession tunnelUpsertSession =
+        new TunnelUpsertSession(DshipContext.INSTANCE.snapshot());
     String
         blockInfo =
         "1:0:156:src/test/resources/file/fileupserter/simple.txt";
     BlockInfo block = new BlockInfo();
     block.parse(blockInfo);
-    BlockUploader blockUploader = new BlockUploader(block, tunnelUpsertSession, sessionHistory);
+    BlockUploader blockUploader = new BlockUploader(DshipContext.INSTANCE.snapshot(),
+        block, tunnelUpsertSession, sessionHistory, false);
     blockUploader.upload();
 
-    tunnelUpsertSession = new TunnelUpsertSession();
+    tunnelUpsertSession = new TunnelUpsertSession(DshipContext.INSTANCE.snapshot());
     blockInfo =
         "1:0:156:src/test/resources/file/fileupserter/block2.txt";
     block.parse(blockInfo);
-    blockUploader = new BlockUploader(block, tunnelUpsertSession, sessionHistory);
+    blockUploader = new BlockUploader(DshipContext.INSTANCE.snapshot(),
+                                      block, tunnelUpsertSession, sessionHistory, false);
     blockUploader.upload();
 
     tunnelUpsertSession.complete(Collections.emptyList());
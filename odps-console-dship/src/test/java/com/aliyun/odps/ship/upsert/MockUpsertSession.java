@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upsert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.tunnel.TableTunnel;
+import com.aliyun.odps.tunnel.TunnelException;
+import com.aliyun.odps.tunnel.io.CompressOption;
+import com.aliyun.odps.tunnel.streams.UpsertStream;
+
+/**
+ * Upsert session which keeps the records written by each stream in memory.
+ */
+public class MockUpsertSession implements TableTunnel.UpsertSession {
+
+  public final List<MockStream> streams = Collections.synchronizedList(new ArrayList<>());
+
+  // the stream with this index throws on its first upsert, -1 means never
+  private final int failingStream;
+
+  public MockUpsertSession(int failingStream) {
+    this.failingStream = failingStream;
+  }
+
+  @Override
+  public String getId() {
+    return "mock-upsert-id";
+  }
+
+  @Override
+  public String getQuotaName() {
+    return null;
+  }
+
+  @Override
+  public String getStatus() {
+    return "normal";
+  }
+
+  @Override
+  public TableSchema getSchema() {
+    TableSchema rs = new TableSchema();
+    rs.addColumn(new Column("k", OdpsType.BIGINT));
+    rs.addColumn(new Column("v", OdpsType.BIGINT));
+    return rs;
+  }
+
+  @Override
+  public void commit(boolean async) {
+  }
+
+  @Override
+  public void abort() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public Record newRecord() {
+    return new ArrayRecord(getSchema());
+  }
+
+  @Override
+  public Record newRecord(boolean nullable) {
+    return newRecord();
+  }
+
+  @Override
+  public UpsertStream.Builder buildUpsertStream() {
+    return new MockStreamBuilder();
+  }
+
+  public class MockStream implements UpsertStream {
+
+    public final List<Record> records = new ArrayList<>();
+    public Thread owner;
+    public boolean flushed = false;
+    public boolean closed = false;
+    private final boolean failing;
+
+    MockStream(boolean failing) {
+      this.failing = failing;
+    }
+
+    @Override
+    public void upsert(Record record) throws TunnelException {
+      if (owner == null) {
+        owner = Thread.currentThread();
+      } else if (owner != Thread.currentThread()) {
+        throw new IllegalStateException("stream is used by more than one thread");
+      }
+      if (failing) {
+        throw new TunnelException("mock upsert error");
+      }
+      records.add(record);
+    }
+
+    @Override
+    public void upsert(Record record, List<String> upsertCols) throws TunnelException {
+      upsert(record);
+    }
+
+    @Override
+    public void delete(Record record) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void flush() {
+      flushed = true;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public void reset() {
+    }
+  }
+
+  private class MockStreamBuilder implements UpsertStream.Builder {
+
+    private UpsertStream.Listener listener;
+
+    @Override
+    public long getMaxBufferSize() {
+      return 0;
+    }
+
+    @Override
+    public UpsertStream.Builder setMaxBufferSize(long size) {
+      return this;
+    }
+
+    @Override
+    public long getSlotBufferSize() {
+      return 0;
+    }
+
+    @Override
+    public UpsertStream.Builder setSlotBufferSize(long size) {
+      return this;
+    }
+
+    @Override
+    public CompressOption getCompressOption() {
+      return null;
+    }
+
+    @Override
+    public UpsertStream.Builder setCompressOption(CompressOption option) {
+      return this;
+    }
+
+    @Override
+    public UpsertStream.Listener getListener() {
+      return listener;
+    }
+
+    @Override
+    public UpsertStream.Builder setListener(UpsertStream.Listener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    @Override
+    public UpsertStream.Builder setAsyncFlushService(ExecutorService service) {
+      return this;
+    }
+
+    @Override
+    public ExecutorService getAsyncFlushService() {
+      return null;
+    }
+
+    @Override
+    public UpsertStream build() throws IOException, TunnelException {
+      MockStream stream = new MockStream(streams.size() == failingStream);
+      streams.add(stream);
+      return stream;
+    }
+  }
+}
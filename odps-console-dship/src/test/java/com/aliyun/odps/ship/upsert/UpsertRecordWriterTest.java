@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.aliyun.odps.ship.upsert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Binary;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.ship.common.Constants;
+import com.aliyun.odps.ship.common.DshipContext;
+import com.aliyun.odps.ship.common.Util;
+import com.aliyun.odps.ship.history.SessionHistory;
+import com.aliyun.odps.ship.history.SessionHistoryManager;
+
+public class UpsertRecordWriterTest {
+
+  private static final int KEYS = 100;
+  private static final int VERSIONS = 50;
+
+  private static String sessionDir;
+
+  @BeforeClass
+  public static void setup() {
+    sessionDir = Util.getSessionBaseDir(DshipContext.INSTANCE.snapshot()) + "/upsert_writer_test"
+                 + System.currentTimeMillis();
+    DshipContext.INSTANCE.put(Constants.SESSION_DIR, sessionDir);
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    DshipContext.INSTANCE.remove(Constants.SESSION_DIR);
+    FileUtils.deleteDirectory(new File(sessionDir));
+  }
+
+  /**
+   * 测试按主键分到多个stream，每个stream只由一个线程写入，同一主键的记录保持输入顺序
+   */
+  @Test
+  public void testShardByPrimaryKey() throws Exception {
+    MockUpsertSession session = new MockUpsertSession(-1);
+    UpsertRecordWriter writer = new UpsertRecordWriter(session, history(session), new int[]{0}, 4);
+    assertEquals("not equal", 4, writer.getShardCount());
+
+    for (int v = 0; v < VERSIONS; v++) {
+      for (long k = 0; k < KEYS; k++) {
+        Record r = session.newRecord();
+        r.setBigint(0, k);
+        r.setBigint(1, (long) v);
+        writer.write(r);
+      }
+    }
+    writer.close();
+
+    assertEquals("not equal", 4, session.streams.size());
+    Map<Long, MockUpsertSession.MockStream> streamOfKey = new HashMap<>();
+    Map<Long, Long> lastVersion = new HashMap<>();
+    Set<Thread> owners = new HashSet<>();
+    int total = 0;
+    for (MockUpsertSession.MockStream stream : session.streams) {
+      assertTrue("not flushed", stream.flushed);
+      assertTrue("not closed", stream.closed);
+      assertTrue("empty stream", !stream.records.isEmpty());
+      assertNotSame("written by caller", Thread.currentThread(), stream.owner);
+      assertTrue("shared owner", owners.add(stream.owner));
+      for (Record r : stream.records) {
+        long k = r.getBigint(0);
+        long v = r.getBigint(1);
+        MockUpsertSession.MockStream pre = streamOfKey.put(k, stream);
+        assertTrue("key in two streams", pre == null || pre == stream);
+        Long last = lastVersion.put(k, v);
+        assertEquals("out of order", last == null ? 0L : last + 1, v);
+        total++;
+      }
+    }
+    assertEquals("not equal", KEYS * VERSIONS, total);
+  }
+
+  /**
+   * 测试没有主键时只使用一个stream
+   */
+  @Test
+  public void testSingleStreamWithoutKey() throws Exception {
+    MockUpsertSession session = new MockUpsertSession(-1);
+    UpsertRecordWriter writer = new UpsertRecordWriter(session, history(session), new int[0], 4);
+    assertEquals("not equal", 1, writer.getShardCount());
+
+    for (long k = 0; k < KEYS; k++) {
+      Record r = session.newRecord();
+      r.setBigint(0, k);
+      writer.write(r);
+    }
+    writer.close();
+
+    assertEquals("not equal", 1, session.streams.size());
+    assertEquals("not equal", KEYS, session.streams.get(0).records.size());
+    for (int i = 0; i < KEYS; i++) {
+      assertEquals("out of order", Long.valueOf(i),
+                   session.streams.get(0).records.get(i).getBigint(0));
+    }
+  }
+
+  /**
+   * 测试stream写入失败时，close抛出异常而不是只打印日志
+   */
+  @Test
+  public void testStreamErrorFailsWriter() throws Exception {
+    MockUpsertSession session = new MockUpsertSession(1);
+    UpsertRecordWriter writer = new UpsertRecordWriter(session, history(session), new int[]{0}, 2);
+
+    try {
+      for (long k = 0; k < KEYS; k++) {
+        Record r = session.newRecord();
+        r.setBigint(0, k);
+        writer.write(r);
+      }
+      writer.close();
+      fail("stream error is ignored");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("mock upsert error"));
+    }
+    for (MockUpsertSession.MockStream stream : session.streams) {
+      stream.owner.join(10000);
+      assertTrue("not closed", stream.closed);
+    }
+  }
+
+  /**
+   * 测试表中相等但表示不同的主键值分到同一个stream
+   */
+  @Test
+  public void testEqualKeysInSameShard() throws Exception {
+    assertEquals("not equal", UpsertRecordWriter.hashValue(new BigDecimal("1.0")),
+                 UpsertRecordWriter.hashValue(new BigDecimal("1.00")));
+    assertEquals("not equal", UpsertRecordWriter.hashValue(new BigDecimal("0.000")),
+                 UpsertRecordWriter.hashValue(BigDecimal.ZERO));
+    assertEquals("not equal", UpsertRecordWriter.hashValue(0.0d),
+                 UpsertRecordWriter.hashValue(-0.0d));
+    assertEquals("not equal", UpsertRecordWriter.hashValue(0.0f),
+                 UpsertRecordWriter.hashValue(-0.0f));
+    assertEquals("not equal", UpsertRecordWriter.hashValue(new Binary(new byte[]{1, 2, 3})),
+                 UpsertRecordWriter.hashValue(new Binary(new byte[]{1, 2, 3})));
+    assertEquals("not equal", UpsertRecordWriter.hashValue(new Binary(new byte[]{1, 2, 3})),
+                 UpsertRecordWriter.hashValue(new byte[]{1, 2, 3}));
+
+    MockUpsertSession session = new MockUpsertSession(-1);
+    UpsertRecordWriter writer =
+        new UpsertRecordWriter(session, history(session), new int[]{0, 1}, 8);
+    Column[] columns = new Column[]{new Column("d", OdpsType.DECIMAL),
+                                    new Column("f", OdpsType.DOUBLE)};
+    for (int i = 0; i < KEYS; i++) {
+      Record a = new ArrayRecord(columns);
+      a.setDecimal(0, new BigDecimal(i + ".5"));
+      a.setDouble(1, i == 0 ? 0.0d : i);
+      Record b = new ArrayRecord(columns);
+      b.setDecimal(0, new BigDecimal(i + ".500"));
+      b.setDouble(1, i == 0 ? -0.0d : i);
+      assertEquals("not equal", writer.shardOf(a), writer.shardOf(b));
+    }
+    writer.close();
+  }
+
+  private static SessionHistory history(MockUpsertSession session) throws IOException {
+    return SessionHistoryManager.createSessionHistory(DshipContext.INSTANCE.snapshot(),
+                                                      session.getId());
+  }
+}
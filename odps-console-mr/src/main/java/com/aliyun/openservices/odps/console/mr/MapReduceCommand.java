@@ -43,6 +43,7 @@ import com.aliyun.openservices.odps.console.mapreduce.runtime.MapReduceJobLaunch
 public class MapReduceCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"mapreduce", "mr", "jar", "openmr"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"jar"};
 
   public static void printUsage(PrintStream out) {
     out.println("");
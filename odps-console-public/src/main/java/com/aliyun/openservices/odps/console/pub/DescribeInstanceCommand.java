@@ -55,6 +55,7 @@ public class DescribeInstanceCommand extends AbstractCommand {
   }
 
   public static final String[] HELP_TAGS = new String[]{"describe", "desc", "instance"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"describe", "desc"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: describe|desc instance <instanceID>");
@@ -68,6 +68,7 @@ public class DescribeTableCommand extends AbstractCommand {
   private static List<String> reservedPrintBlacklist = null;
 
   public static final String[] HELP_TAGS = new String[]{"describe", "desc", "extended", "table"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"describe", "desc"};
 
   static {
     try {
@@ -36,6 +36,7 @@ import java.util.Iterator;
  * @author shuman.gansm
  * */
 public class ExportMetaCommand extends AbstractCommand {
+  public static final String[] PARSE_KEYWORDS = new String[]{"show", "desc"};
 
   final static String SHOW_PARTITIONS = "SHOW_PARTITIONS";
   final static String SHOW_TABLES = "SHOW_TABLES";
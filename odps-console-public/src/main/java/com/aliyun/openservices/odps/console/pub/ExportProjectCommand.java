@@ -30,6 +30,7 @@ import java.io.PrintStream;
 public class ExportProjectCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"export", "project"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"export"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: export <projectname> <local_path>  [-rftpd]");
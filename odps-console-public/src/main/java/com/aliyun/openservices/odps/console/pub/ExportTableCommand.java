@@ -32,6 +32,7 @@ import java.io.PrintStream;
 public class ExportTableCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"export", "table"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"export"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: export table [<project name>.[<schema name>]]<tablename>");
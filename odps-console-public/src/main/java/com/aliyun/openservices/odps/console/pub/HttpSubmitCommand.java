@@ -66,6 +66,7 @@ public class HttpSubmitCommand extends DirectCommand {
   }
 
   public static final String[] HELP_TAGS = new String[]{"http"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"http"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: http <method> <url> [-header=file] [-content=file] [-token=logview_token]");
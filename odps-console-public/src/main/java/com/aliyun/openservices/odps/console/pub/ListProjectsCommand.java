@@ -48,6 +48,7 @@ import org.apache.commons.cli.Options;
 public class ListProjectsCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"list", "ls", "show", "project", "projects"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"list"};
 
   private static final String USER_TAG = "user";
   private static final String OWNER_TAG = "owner";
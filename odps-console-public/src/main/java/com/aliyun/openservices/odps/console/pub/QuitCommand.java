@@ -30,6 +30,7 @@ import com.aliyun.openservices.odps.console.commands.InteractiveCommand;
 public class QuitCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"quit", "q"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"quit", "q"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: q|quit");
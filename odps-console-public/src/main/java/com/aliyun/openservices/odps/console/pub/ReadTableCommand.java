@@ -68,6 +68,7 @@ import com.google.gson.JsonPrimitive;
 public class ReadTableCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"read", "table"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"read"};
 
   public static void printUsage(PrintStream stream, ExecutionContext ctx) {
     if (ctx.isProjectMode()) {
@@ -13,6 +13,7 @@ import com.aliyun.openservices.odps.console.common.CommandUtils;
 import com.aliyun.openservices.odps.console.output.DefaultOutputWriter;
 
 public class ShowAutoMvCommand extends AbstractCommand {
+  public static final String[] PARSE_KEYWORDS = new String[]{"show"};
 
   private static final Pattern
       SHOW_PATTERN =
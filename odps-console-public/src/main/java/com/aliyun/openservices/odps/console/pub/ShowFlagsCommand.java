@@ -37,6 +37,7 @@ import com.aliyun.openservices.odps.console.commands.SetCommand;
 public class ShowFlagsCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"show", "set", "alias", "flag", "flags"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"show"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: show flags");
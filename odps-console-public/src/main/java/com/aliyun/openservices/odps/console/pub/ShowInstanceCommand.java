@@ -57,6 +57,7 @@ public class ShowInstanceCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"show", "list", "ls", "instance",
                                                         "processlist", "proc", "instances"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"ls", "list", "show"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: show p|proc|processlist|instances [from <yyyy-MM-dd>] [to <yyyy-MM-dd>] [-p <project>] [-limit <number> | <number>] [-all]");
@@ -61,6 +61,7 @@ public class ShowPartitionsCommand extends AbstractCommand {
   public static final String[]
       HELP_TAGS =
       new String[]{"show", "list", "ls", "partition", "partitions"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"show", "ls", "list"};
 
   public static void printUsage(PrintStream stream, ExecutionContext ctx) {
     // legacy usage: list|ls partitions [-p,-project <project name>] <table name> [(<spec>)]
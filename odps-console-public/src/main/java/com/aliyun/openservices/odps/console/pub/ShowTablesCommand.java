@@ -52,6 +52,7 @@ import java.util.regex.Pattern;
 public class ShowTablesCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"show", "list", "ls", "table", "tables"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"show", "ls", "list"};
 
   private static final String EXTERNAL_GROUP_NAME = "external";
   private static final String COORDINATE_GROUP_NAME = "coordinate";
@@ -49,6 +49,7 @@ import com.aliyun.openservices.odps.console.utils.ODPSConsoleUtils;
 public class ShowViewsCommand extends ShowTablesCommand {
 
   public static final String[] HELP_TAGS = new String[]{"show", "views", "view", "materialized"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"show"};
 
   private static final String MATERIALIZED_GROUP_NAME = "materialized";
   private static final String COORDINATE_GROUP_NAME = "coordinate";
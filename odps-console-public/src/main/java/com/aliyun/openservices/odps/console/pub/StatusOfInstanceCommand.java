@@ -39,6 +39,7 @@ import com.aliyun.openservices.odps.console.utils.ConnectionCreator;
 public class StatusOfInstanceCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"status", "instance"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"status"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: status [extended] <instanceID>");
@@ -41,6 +41,7 @@ import org.jline.reader.UserInterruptException;
 public class StopInstanceCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"kill", "stop", "instance"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"kill"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: kill [instanceID]");
@@ -36,6 +36,7 @@ import org.jline.reader.UserInterruptException;
 public class TopInstanceCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"top", "instance"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"top"};
 
   private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMdd HH:mm:ssZ");
   private static final int DEFAULT_NUMBER = 50;
@@ -11,6 +11,7 @@ import com.aliyun.openservices.odps.console.commands.AbstractCommand;
 import com.aliyun.openservices.odps.console.output.DefaultOutputWriter;
 
 public class TriggerAutoMvCommand extends AbstractCommand {
+  public static final String[] PARSE_KEYWORDS = new String[]{"trigger"};
 
   private static final Pattern
       TRIGGER_PATTERN =
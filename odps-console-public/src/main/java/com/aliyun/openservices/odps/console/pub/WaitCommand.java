@@ -49,6 +49,7 @@ public class WaitCommand extends AbstractCommand {
   private static final String PMC_TASK_NAME = "console_pmc_task";
 
   public static final String[] HELP_TAGS = new String[]{"wait", "instance"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"wait"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: wait [<instanceID>] [-hooks]");
@@ -38,6 +38,7 @@ import com.google.gson.JsonParser;
 public class WhoamiCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"whoami", "who"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"whoami"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: whoami");
@@ -52,6 +52,7 @@ import com.aliyun.openservices.odps.console.utils.ODPSConsoleUtils;
 public class AddResourceCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"add", "create", "resource"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"add"};
 
   public static void printUsage(PrintStream out, ExecutionContext ctx) {
     out.println("Usage: ADD <FILE | ARCHIVE >  [AS alias] [COMMENT 'cmt'][-F];");
@@ -41,6 +41,7 @@ import com.aliyun.openservices.odps.console.utils.ODPSConsoleUtils;
 public class CreateFunctionCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"create", "add", "function"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"create"};
 
   public static void printUsage(PrintStream stream, ExecutionContext ctx) {
     // using resource_name
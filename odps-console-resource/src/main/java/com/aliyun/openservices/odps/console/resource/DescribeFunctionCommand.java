@@ -35,6 +35,7 @@ import com.aliyun.openservices.odps.console.utils.ODPSConsoleUtils;
 public class DescribeFunctionCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"describe", "desc", "function"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"describe", "desc"};
 
   private static Pattern EXTENDED_PATTERN = Pattern.compile("\\s*(DESCRIBE|DESC)\\sFUNCTION\\s+EXTENDED\\s+(\\S.*)",
           Pattern.CASE_INSENSITIVE);
@@ -44,6 +44,7 @@ import com.aliyun.openservices.odps.console.utils.ODPSConsoleUtils;
 public class DescribeResourceCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"describe", "desc", "resource"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"describe", "desc"};
 
   public static void printUsage(PrintStream stream, ExecutionContext ctx) {
     // deprecated usage
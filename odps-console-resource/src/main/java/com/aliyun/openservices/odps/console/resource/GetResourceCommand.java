@@ -42,6 +42,7 @@ import com.aliyun.openservices.odps.console.utils.FileUtil;
 public class GetResourceCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"get", "resource", "download"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"get"};
 
   public static void printUsage(PrintStream out, ExecutionContext ctx) {
     // deprecated usage
@@ -41,6 +41,7 @@ public class ListFunctionsCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS =
       new String[]{"list", "ls", "show", "function", "functions"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"ls", "list", "show"};
 
   public static void printUsage(PrintStream out, ExecutionContext ctx) {
     if (ctx.isProjectMode()) {
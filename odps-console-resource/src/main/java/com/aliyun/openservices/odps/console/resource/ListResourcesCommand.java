@@ -43,6 +43,7 @@ public class ListResourcesCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS =
       new String[]{"list", "ls", "show", "resource", "resources"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"ls", "list", "show"};
 
   private static final String coordinateGroup = "coordinate";
   private static final String prefixGroup = "prefix";
@@ -37,6 +37,7 @@ import com.aliyun.openservices.odps.console.utils.QueryUtil;
 public class SQLCostCommand extends MultiClusterCommandBase {
 
   public static final String[] HELP_TAGS = new String[]{"cost", "sql"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"cost"};
 
   public static void printUsage(PrintStream out) {
     out.println("Usage: cost sql <sqlstatement>");
@@ -18,6 +18,7 @@ import static com.aliyun.openservices.odps.console.QueryCommand.PMC_TASK_NAME;
 public class TriggerAndWaitCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"triggerandwait"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"triggerandwait"};
 
   private String instanceId;
 
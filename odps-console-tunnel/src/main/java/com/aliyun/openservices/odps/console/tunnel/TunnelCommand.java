@@ -36,6 +36,7 @@ import com.aliyun.openservices.odps.console.commands.AbstractCommand;
  * */
 //TODO remove odps-console-tunnel
 public class TunnelCommand extends AbstractCommand {
+  public static final String[] PARSE_KEYWORDS = new String[]{"upload", "download"};
 
   private static final String DSHIP_COMMAND = "tunnel";
   private static final String DSHIP_SUBCOMMAND_UPLOAD = "upload";
@@ -19,6 +19,7 @@ import com.aliyun.openservices.odps.console.utils.PluginUtil;
 public class ExternalVolumeCommand extends AbstractCommand {
 
     public static final String[] HELP_TAGS = new String[]{"vfs", "volume"};
+    public static final String[] PARSE_KEYWORDS = new String[]{"vfs"};
 
     public static final String CREATE_SUB_COMMAND = "-create";
     public static final String DELETE_SUB_COMMAND = "-rmv";
@@ -31,6 +31,9 @@ import java.io.PrintStream;
 
 public class Volume2Command extends AbstractCommand
 {
+
+    public static final String[] PARSE_KEYWORDS = new String[]{"vfs"};
+
     public static final String COMMAND_IDENTITY = "vfs";
 
 //    public static final String[] HELP_TAGS = new String[]{COMMAND_IDENTITY};
@@ -44,6 +44,7 @@ import org.apache.commons.cli.ParseException;
 public class CopyOfflineModelCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"copy", "offline", "model", "offlinemodel"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"copy"};
 
   private String projectName;
   private OfflineModelInfo modelInfo;
@@ -49,6 +49,7 @@ import java.util.regex.Pattern;
 public class CreateOfflineModelCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"create", "offline", "model", "offlinemodel"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"create"};
 
   private String projectName;
   private OfflineModelInfo modelInfo;
@@ -53,6 +53,7 @@ import org.jline.reader.UserInterruptException;
 public class CreateOnlineModelCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"create", "model", "onlinemodel", "online"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"create"};
 
   private String projectName;
   private String modelName;
@@ -47,6 +47,7 @@ import com.aliyun.openservices.odps.console.utils.antlr.AntlrObject;
 public class DescXFlowInstanceCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"describe", "desc", "instance"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"describe", "desc"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: describe|desc instance <instanceID>");
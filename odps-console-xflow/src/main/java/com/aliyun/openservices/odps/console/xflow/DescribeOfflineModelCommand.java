@@ -44,6 +44,7 @@ public class DescribeOfflineModelCommand extends AbstractCommand {
   public static final String[]
       HELP_TAGS =
       new String[]{"describe", "desc", "offline", "model", "offlinemodel"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"describe", "desc"};
 
   private String projectName;
   private String modelName;
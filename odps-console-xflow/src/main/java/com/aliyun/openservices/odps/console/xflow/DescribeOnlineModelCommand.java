@@ -46,6 +46,7 @@ public class DescribeOnlineModelCommand extends AbstractCommand {
   public static final String[]
       HELP_TAGS =
       new String[]{"describe", "desc", "online", "model", "onlinemodel"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"describe", "desc"};
 
   private String projectName;
   private String modelName;
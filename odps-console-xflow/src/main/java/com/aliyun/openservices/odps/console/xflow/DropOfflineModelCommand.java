@@ -30,6 +30,7 @@ import com.aliyun.openservices.odps.console.constants.ODPSConsoleConstants;
 public class DropOfflineModelCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"drop", "delete", "kill", "offline", "model", "offlinemodel"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"drop"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: drop offlinemodel [if exists] <offlinemodel_name>");
@@ -39,6 +39,7 @@ import org.jline.reader.UserInterruptException;
 public class DropOnlineModelCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"drop", "delete", "online", "model", "onlinemodel"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"drop"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("Usage: drop onlinemodel [if exists] <onlinemodel_name>");
@@ -184,6 +184,7 @@ public class PAICommand extends AbstractCommand {
   }
 
   public static final String[] HELP_TAGS = new String[]{"pai"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"pai"};
 
   public static void printUsage(PrintStream stream) {
     stream.println("PAI –name <algo_name> [-lineage <lineage>] [-cost] [-jobname <jobname>] -project <algo_src_project> -D<key>=<value> …");
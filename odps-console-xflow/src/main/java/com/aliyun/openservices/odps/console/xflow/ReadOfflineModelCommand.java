@@ -40,6 +40,7 @@ import com.aliyun.openservices.odps.console.utils.antlr.AntlrObject;
 public class ReadOfflineModelCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"read", "offline", "model", "offlinemodel"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"read"};
 
   private ExecutionContext ctx;
   private String projectName;
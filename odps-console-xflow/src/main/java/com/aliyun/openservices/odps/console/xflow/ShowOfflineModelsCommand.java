@@ -44,6 +44,7 @@ public class ShowOfflineModelsCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS =
       new String[]{"show", "offline", "model", "offlinemodels", "offlinemodel"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"show", "list", "offlinemodels"};
 
   private String projectName = null;
   private String modelNamePrefix = null;
@@ -44,6 +44,7 @@ import com.aliyun.openservices.odps.console.utils.antlr.AntlrObject;
 public class ShowOnlineModelsCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"show", "online", "model", "onlinemodel"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"show"};
 
   private String projectName = null;
   private String modelNamePrefix = null;
@@ -43,6 +43,7 @@ public class ShowXflowsCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS =
       new String[]{"show", "xflows", "xflow"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"show", "list"};
 
   private String projectName = null;
   private String publicProject = "algo_public";
@@ -47,6 +47,7 @@ public class UpdateOnlineModelAbtestCommand extends AbstractCommand {
   public static final String[]
       HELP_TAGS =
       new String[]{"update", "online", "model", "onlinemodel", "abtest", "updateabtest"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"updateabtest"};
 
   private String projectName;
   private String modelName;
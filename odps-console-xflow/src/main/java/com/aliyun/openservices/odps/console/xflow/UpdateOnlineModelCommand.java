@@ -44,6 +44,7 @@ import org.jline.reader.UserInterruptException;
 public class UpdateOnlineModelCommand extends AbstractCommand {
 
   public static final String[] HELP_TAGS = new String[]{"update", "model", "onlinemodel", "online"};
+  public static final String[] PARSE_KEYWORDS = new String[]{"update"};
 
   private String projectName;
   private String modelName;
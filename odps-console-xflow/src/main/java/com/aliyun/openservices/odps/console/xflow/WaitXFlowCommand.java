@@ -34,6 +34,7 @@ import com.aliyun.openservices.odps.console.utils.OdpsConnectionFactory;
  * Created by nizheming on 15/4/14.
  */
 public class WaitXFlowCommand extends AbstractCommand {
+  public static final String[] PARSE_KEYWORDS = new String[]{"wait"};
 
   private static final Pattern PATTERN = Pattern.compile("\\s*WAIT\\s+(.*)",
                                                          Pattern.CASE_INSENSITIVE | Pattern.DOTALL);